@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Hashes a file by copying its content through a heap buffer, and through a read-only memory mapping.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class FileHashingBenchmark {
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+
+    // small, medium and huge files
+    @Param({"4096", "16777216", "536870912"})
+    long fileSize;
+
+    @Param({"stream", "mapped"})
+    String mode;
+
+    @Param({"md5", "murmur3"})
+    String algorithm;
+
+    File file;
+    HashFunction hashFunction;
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("hashing", ".bin");
+        hashFunction = algorithm.equals("md5") ? Hashing.md5() : Hashing.murmur3_128();
+        Random random = new Random(1234L);
+        byte[] content = new byte[1024 * 1024];
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            for (long written = 0; written < fileSize; written += content.length) {
+                random.nextBytes(content);
+                outputStream.write(content, 0, (int) Math.min(content.length, fileSize - written));
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public HashCode hashFile() throws IOException {
+        Hasher hasher = hashFunction.newHasher();
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            if (mode.equals("mapped")) {
+                FileChannel channel = inputStream.getChannel();
+                long size = channel.size();
+                for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+                    hasher.putBytes(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_REGION_SIZE, size - position)));
+                }
+            } else {
+                int nread;
+                while ((nread = inputStream.read(buffer)) >= 0) {
+                    hasher.putBytes(buffer, 0, nread);
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return hasher.hash();
+    }
+}
@@ -34,6 +34,8 @@ public class Hashing {
 
     private static final HashFunction SHA1 = MessageDigestHashFunction.of("SHA-1");
 
+    private static final HashFunction MURMUR3_128 = new Murmur3HashFunction();
+
     public static HashFunction md5() {
         return MD5;
     }
@@ -42,6 +44,14 @@ public class Hashing {
         return SHA1;
     }
 
+    /**
+     * The 128-bit x64 variant of MurmurHash3 with a seed of 0, producing the same hashes as Guava's {@code Hashing.murmur3_128()}.
+     * This is not a cryptographic hash function, so it should only be used for hashes that are not shared outside of the local machine.
+     */
+    public static HashFunction murmur3_128() {
+        return MURMUR3_128;
+    }
+
     private static abstract class MessageDigestHashFunction implements HashFunction {
         public static MessageDigestHashFunction of(String algorithm) {
             MessageDigest prototype;
@@ -148,6 +158,12 @@ public class Hashing {
             digest.update(bytes, off, len);
         }
 
+        @Override
+        public void putBytes(ByteBuffer buffer) {
+            checkNotDone();
+            digest.update(buffer);
+        }
+
         @Override
         public HashCode hash() {
             done = true;
@@ -195,4 +211,235 @@ public class Hashing {
             putBytes(hashCode.getBytes());
         }
     }
+
+    private static class Murmur3HashFunction implements HashFunction {
+        @Override
+        public Hasher newHasher() {
+            return new Murmur3Hasher();
+        }
+
+        @Override
+        public HashCode hashBytes(byte[] bytes) {
+            Hasher hasher = newHasher();
+            hasher.putBytes(bytes);
+            return hasher.hash();
+        }
+
+        @Override
+        public HashCode hashString(CharSequence string) {
+            Hasher hasher = newHasher();
+            hasher.putString(string);
+            return hasher.hash();
+        }
+    }
+
+    /**
+     * Port of the 128-bit x64 variant of MurmurHash3 that accepts the input in chunks of any size.
+     */
+    private static class Murmur3Hasher implements Hasher {
+        private static final int BLOCK_SIZE = 16;
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private final byte[] tail = new byte[BLOCK_SIZE];
+        private int tailLength;
+        private long length;
+        private long h1;
+        private long h2;
+        private boolean done;
+
+        private void checkNotDone() {
+            if (done) {
+                throw new IllegalStateException("Cannot reuse hasher");
+            }
+        }
+
+        @Override
+        public void putByte(byte b) {
+            checkNotDone();
+            length++;
+            tail[tailLength++] = b;
+            if (tailLength == BLOCK_SIZE) {
+                mixBlock(getLong(tail, 0), getLong(tail, 8));
+                tailLength = 0;
+            }
+        }
+
+        @Override
+        public void putBytes(byte[] bytes) {
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes, int off, int len) {
+            checkNotDone();
+            length += len;
+            if (tailLength > 0) {
+                int count = Math.min(BLOCK_SIZE - tailLength, len);
+                System.arraycopy(bytes, off, tail, tailLength, count);
+                tailLength += count;
+                off += count;
+                len -= count;
+                if (tailLength < BLOCK_SIZE) {
+                    return;
+                }
+                mixBlock(getLong(tail, 0), getLong(tail, 8));
+                tailLength = 0;
+            }
+            while (len >= BLOCK_SIZE) {
+                mixBlock(getLong(bytes, off), getLong(bytes, off + 8));
+                off += BLOCK_SIZE;
+                len -= BLOCK_SIZE;
+            }
+            if (len > 0) {
+                System.arraycopy(bytes, off, tail, 0, len);
+                tailLength = len;
+            }
+        }
+
+        @Override
+        public void putBytes(ByteBuffer buffer) {
+            checkNotDone();
+            if (buffer.hasArray()) {
+                putBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            length += buffer.remaining();
+            if (tailLength > 0) {
+                int count = Math.min(BLOCK_SIZE - tailLength, buffer.remaining());
+                buffer.get(tail, tailLength, count);
+                tailLength += count;
+                if (tailLength < BLOCK_SIZE) {
+                    return;
+                }
+                mixBlock(getLong(tail, 0), getLong(tail, 8));
+                tailLength = 0;
+            }
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.remaining() >= BLOCK_SIZE) {
+                long k1 = buffer.getLong();
+                long k2 = buffer.getLong();
+                mixBlock(k1, k2);
+            }
+            buffer.order(order);
+            tailLength = buffer.remaining();
+            buffer.get(tail, 0, tailLength);
+        }
+
+        @Override
+        public HashCode hash() {
+            checkNotDone();
+            done = true;
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = tailLength - 1; i >= 8; i--) {
+                k2 ^= (tail[i] & 0xffL) << ((i - 8) * 8);
+            }
+            for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+                k1 ^= (tail[i] & 0xffL) << (i * 8);
+            }
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            h2 += h1;
+
+            byte[] bytes = new byte[BLOCK_SIZE];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putLong(h1).putLong(h2);
+            return HashCode.fromBytesNoCopy(bytes);
+        }
+
+        private void mixBlock(long k1, long k2) {
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            return k1;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            return k2;
+        }
+
+        private static long fmix64(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        private static long getLong(byte[] bytes, int off) {
+            return (bytes[off] & 0xffL)
+                | (bytes[off + 1] & 0xffL) << 8
+                | (bytes[off + 2] & 0xffL) << 16
+                | (bytes[off + 3] & 0xffL) << 24
+                | (bytes[off + 4] & 0xffL) << 32
+                | (bytes[off + 5] & 0xffL) << 40
+                | (bytes[off + 6] & 0xffL) << 48
+                | (bytes[off + 7] & 0xffL) << 56;
+        }
+
+        private void update(int length) {
+            putBytes(buffer.array(), 0, length);
+            buffer.clear();
+        }
+
+        @Override
+        public void putInt(int value) {
+            buffer.putInt(value);
+            update(4);
+        }
+
+        @Override
+        public void putLong(long value) {
+            buffer.putLong(value);
+            update(8);
+        }
+
+        @Override
+        public void putDouble(double value) {
+            long longValue = Double.doubleToRawLongBits(value);
+            putLong(longValue);
+        }
+
+        @Override
+        public void putBoolean(boolean value) {
+            putByte((byte) (value ? 1 : 0));
+        }
+
+        @Override
+        public void putString(CharSequence value) {
+            putBytes(value.toString().getBytes(Charsets.UTF_8));
+        }
+
+        @Override
+        public void putHash(HashCode hashCode) {
+            putBytes(hashCode.getBytes());
+        }
+    }
 }
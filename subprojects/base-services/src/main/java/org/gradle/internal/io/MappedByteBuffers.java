@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.io;
+
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+
+public class MappedByteBuffers {
+    private MappedByteBuffers() {
+    }
+
+    /**
+     * Releases the mapping of the given buffer right away, instead of when the buffer is garbage collected. There is no public API for this,
+     * so this is best effort: when the cleaner of the buffer is not accessible, the mapping is released by the garbage collector.
+     * The buffer must not be used afterwards.
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // Ignore, the mapping is released when the buffer is garbage collected
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+
+@Unroll
+class HashingTest extends Specification {
+    def "murmur3 hashes #length bytes like Guava"() {
+        def input = new byte[length]
+        new Random(length).nextBytes(input)
+
+        expect:
+        Hashing.murmur3_128().hashBytes(input).toString() == com.google.common.hash.Hashing.murmur3_128().hashBytes(input).toString()
+
+        where:
+        length << [0, 1, 7, 8, 9, 15, 16, 17, 31, 32, 33, 1000]
+    }
+
+    def "murmur3 hash does not depend on how the input is split"() {
+        def input = new byte[1000]
+        new Random(1234).nextBytes(input)
+        def hasher = Hashing.murmur3_128().newHasher()
+
+        when:
+        hasher.putByte(input[0])
+        hasher.putBytes(input, 1, 14)
+        hasher.putBytes(input, 15, 100)
+        hasher.putBytes(input, 115, 885)
+
+        then:
+        hasher.hash() == Hashing.murmur3_128().hashBytes(input)
+    }
+
+    def "#name hashes byte buffers like byte arrays"() {
+        def input = new byte[1000]
+        new Random(1234).nextBytes(input)
+        def direct = ByteBuffer.allocateDirect(1000)
+        direct.put(input).flip()
+        def hasher = hashFunction.newHasher()
+
+        when:
+        hasher.putBytes(input, 0, 5)
+        direct.position(5).limit(505)
+        hasher.putBytes(direct)
+        hasher.putBytes(ByteBuffer.wrap(input, 505, 495))
+
+        then:
+        direct.position() == 505
+        hasher.hash() == hashFunction.hashBytes(input)
+
+        where:
+        name      | hashFunction
+        "md5"     | Hashing.md5()
+        "murmur3" | Hashing.murmur3_128()
+    }
+
+    def "murmur3 hashes strings as UTF-8"() {
+        expect:
+        Hashing.murmur3_128().hashString("hello").toString() == "029bbd41b3a7d8cb191dae486a901e5b"
+        Hashing.murmur3_128().hashString("ä") == Hashing.murmur3_128().hashBytes("ä".getBytes("UTF-8"))
+    }
+
+    def "murmur3 hasher cannot be reused"() {
+        def hasher = Hashing.murmur3_128().newHasher()
+        hasher.hash()
+
+        when:
+        hasher.putInt(1)
+
+        then:
+        thrown IllegalStateException
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.http.internal
+
+import org.gradle.caching.BuildCacheEntryReader
+import org.gradle.caching.BuildCacheKey
+import org.gradle.internal.resource.transport.http.DefaultHttpSettings
+import org.gradle.internal.resource.transport.http.DefaultSslContextFactory
+import org.gradle.internal.resource.transport.http.HttpClientHelper
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.test.fixtures.server.http.HttpBuildCacheServer
+import org.junit.Rule
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class HttpBuildCacheServiceConcurrencyTest extends Specification {
+    static final int CONCURRENT_LOADS = 32
+    static final int ENTRY_SIZE = 256 * 1024
+    static final int LATENCY_MILLIS = 500
+
+    @Rule
+    TestNameTestDirectoryProvider tempDir = new TestNameTestDirectoryProvider()
+    @Rule
+    HttpBuildCacheServer server = new HttpBuildCacheServer(tempDir)
+
+    def executor = Executors.newFixedThreadPool(CONCURRENT_LOADS)
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    @Unroll
+    def "loads 32 entries concurrently with at most #maxConnections connections"() {
+        server.simulateLatency(LATENCY_MILLIS)
+        server.start()
+        CONCURRENT_LOADS.times {
+            server.cacheDir.file("entry-$it").bytes = new byte[ENTRY_SIZE]
+        }
+        def httpClientHelper = new HttpClientHelper(new DefaultHttpSettings([], new DefaultSslContextFactory()), new HttpBuildCacheClientConfigurer(maxConnections, TimeUnit.SECONDS.toMillis(60)))
+        def cache = new HttpBuildCacheService(httpClientHelper, server.uri.resolve("/"))
+
+        when:
+        def loads = (0..<CONCURRENT_LOADS).collect { index ->
+            executor.submit({ cache.load(key("entry-$index"), new CountingReader()) } as Callable<Boolean>)
+        }
+        def loaded = loads*.get()
+
+        then:
+        loaded.every()
+        server.maxConcurrentRequests <= maxConnections
+
+        cleanup:
+        cache?.close()
+
+        where:
+        maxConnections << [8, CONCURRENT_LOADS]
+    }
+
+    private static BuildCacheKey key(String hashCode) {
+        return new BuildCacheKey() {
+            @Override
+            String getHashCode() {
+                return hashCode
+            }
+
+            @Override
+            String getDisplayName() {
+                return hashCode
+            }
+
+            @Override
+            String toString() {
+                return hashCode
+            }
+        }
+    }
+
+    private static class CountingReader implements BuildCacheEntryReader {
+        long size
+
+        @Override
+        void readFrom(InputStream input) throws IOException {
+            def buffer = new byte[8192]
+            int read
+            while ((read = input.read(buffer)) >= 0) {
+                size += read
+            }
+            assert size == ENTRY_SIZE
+        }
+    }
+}
@@ -72,7 +72,7 @@ public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFac
         HttpSettings httpSettings = allowUntrustedServer
             ? DefaultHttpSettings.allowUntrustedSslConnections(authentications)
             : new DefaultHttpSettings(authentications, sslContextFactory);
-        HttpClientHelper httpClientHelper = new HttpClientHelper(httpSettings);
+        HttpClientHelper httpClientHelper = new HttpClientHelper(httpSettings, HttpBuildCacheClientConfigurer.fromSystemProperties());
 
         describer.type("HTTP")
             .config("url", noUserInfoUrl.toASCIIString())
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.http.internal;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+import org.gradle.api.Action;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configures the connection pool of the HTTP client of the build cache, so that the workers of a build loading and storing entries concurrently do not wait
+ * for each other's connections to the cache server.
+ *
+ * <p>All requests go to the same server, so the whole pool is available to its route. Connections are kept alive for as long as the server allows, but no
+ * longer than the given keep-alive time, and connections that have been idle for that long are closed in the background, so that requests are not sent over
+ * connections the server has already closed.</p>
+ */
+class HttpBuildCacheClientConfigurer implements Action<HttpClientBuilder> {
+    static final String MAX_CONNECTIONS_PROPERTY = "org.gradle.caching.http.max-connections";
+    static final String KEEP_ALIVE_PROPERTY = "org.gradle.caching.http.keep-alive-seconds";
+
+    private static final int MIN_DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxConnections;
+    private final long keepAliveMillis;
+
+    HttpBuildCacheClientConfigurer(int maxConnections, long keepAliveMillis) {
+        this.maxConnections = maxConnections;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * Uses the system properties, or by default at least two connections per processor.
+     */
+    static HttpBuildCacheClientConfigurer fromSystemProperties() {
+        int defaultMaxConnections = Math.max(MIN_DEFAULT_MAX_CONNECTIONS, 2 * Runtime.getRuntime().availableProcessors());
+        int maxConnections = Math.max(1, Integer.getInteger(MAX_CONNECTIONS_PROPERTY, defaultMaxConnections));
+        int keepAliveSeconds = Math.max(1, Integer.getInteger(KEEP_ALIVE_PROPERTY, DEFAULT_KEEP_ALIVE_SECONDS));
+        return new HttpBuildCacheClientConfigurer(maxConnections, TimeUnit.SECONDS.toMillis(keepAliveSeconds));
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    @Override
+    public void execute(HttpClientBuilder builder) {
+        builder.setMaxConnTotal(maxConnections);
+        builder.setMaxConnPerRoute(maxConnections);
+        builder.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long serverKeepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return serverKeepAliveMillis > 0 ? Math.min(serverKeepAliveMillis, keepAliveMillis) : keepAliveMillis;
+            }
+        });
+        builder.evictExpiredConnections();
+        builder.evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+}
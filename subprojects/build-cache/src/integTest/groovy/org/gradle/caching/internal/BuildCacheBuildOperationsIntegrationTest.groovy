@@ -22,6 +22,7 @@ import org.gradle.caching.internal.operations.BuildCacheArchiveUnpackBuildOperat
 import org.gradle.caching.internal.operations.BuildCacheRemoteLoadBuildOperationType
 import org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore
+import org.gradle.caching.local.internal.LocalBuildCacheEntryReader
 import org.gradle.caching.local.internal.LocalBuildCacheService
 import org.gradle.integtests.fixtures.AbstractIntegrationSpec
 import org.gradle.integtests.fixtures.BuildOperationsFixture
@@ -76,7 +77,7 @@ class BuildCacheBuildOperationsIntegrationTest extends AbstractIntegrationSpec i
                 }
 
                 // @Override
-                void load(BuildCacheKey key, Action<? super File> reader) {
+                void load(BuildCacheKey key, ${LocalBuildCacheEntryReader.name} reader) {
                     ${isLocal ? loadBody ?: "" : ""}
                 }
     
@@ -214,7 +215,7 @@ class BuildCacheBuildOperationsIntegrationTest extends AbstractIntegrationSpec i
 
     def "records unpack failure"() {
         when:
-        local("reader.execute(new File('not.there'))", "writer.writeTo(new ${NullOutputStream.name}())")
+        local("reader.readFrom(new File('not.there'))", "writer.writeTo(new ${NullOutputStream.name}())")
         settingsFile << """
             buildCache { local($localCacheClass) }
         """
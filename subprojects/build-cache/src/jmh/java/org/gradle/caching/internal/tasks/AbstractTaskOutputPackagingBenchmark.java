@@ -18,6 +18,7 @@ package org.gradle.caching.internal.tasks;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.FileUtils;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
@@ -35,6 +36,8 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Fork(1)
 @Warmup(iterations = 3)
@@ -42,6 +45,7 @@ import java.util.Random;
 @State(Scope.Benchmark)
 public abstract class AbstractTaskOutputPackagingBenchmark {
     private static final DefaultDirectoryProvider DIRECTORY_PROVIDER = new DefaultDirectoryProvider();
+    private static final ExecutorService PACKING_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryBuilder().setDaemon(true).build());
 
     private static final Map<String, Packer> PACKERS = ImmutableMap.<String, Packer>builder()
         .put("tar.snappy", new SnappyPacker(new AntTarPacker(4)))
@@ -54,7 +58,11 @@ public abstract class AbstractTaskOutputPackagingBenchmark {
         .put("tar.jtar", new JTarPacker(4))
         .put("tar.small", new AntTarPacker(2))
         .put("tar.large", new AntTarPacker(64))
+        .put("tar.pipelined", new PipelinedTarPacker(4, PACKING_EXECUTOR))
         .put("tar.gz", new GzipPacker(new AntTarPacker(4)))
+        .put("tar.gz.commons", new GzipPacker(new CommonsTarPacker(4)))
+        .put("tar.gz.pipelined", new GzipPacker(new PipelinedTarPacker(4, PACKING_EXECUTOR)))
+        .put("tar.gz.pipelined.parallel", new ParallelGzipPacker(new PipelinedTarPacker(4, PACKING_EXECUTOR), PACKING_EXECUTOR))
         .put("zip", new ZipPacker(4))
         .build();
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads the inputs on an executor ahead of writing them to the archive, like {@link TarTaskOutputPacker} does when given an executor.
+ */
+public class PipelinedTarPacker implements Packer {
+    private static final int MAX_READ_AHEAD_FILES = 64;
+
+    private final byte[] buffer;
+    private final Executor executor;
+
+    public PipelinedTarPacker(int bufferSizeInKBytes, Executor executor) {
+        this.buffer = new byte[bufferSizeInKBytes * 1024];
+        this.executor = executor;
+    }
+
+    @Override
+    public void pack(List<DataSource> inputs, DataTarget output) throws IOException {
+        List<FutureTask<byte[]>> contents = new ArrayList<FutureTask<byte[]>>(inputs.size());
+        TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(output.openOutput());
+        for (int index = 0; index < inputs.size(); index++) {
+            while (contents.size() < inputs.size() && contents.size() <= index + MAX_READ_AHEAD_FILES) {
+                contents.add(readAhead(inputs.get(contents.size())));
+            }
+            byte[] content;
+            try {
+                content = Uninterruptibles.getUninterruptibly(contents.get(index));
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            contents.set(index, null);
+            TarArchiveEntry entry = new TarArchiveEntry(inputs.get(index).getName());
+            entry.setSize(content.length);
+            tarOutput.putArchiveEntry(entry);
+            tarOutput.write(content);
+            tarOutput.closeArchiveEntry();
+        }
+        tarOutput.close();
+    }
+
+    private FutureTask<byte[]> readAhead(final DataSource input) {
+        FutureTask<byte[]> content = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                InputStream inputStream = input.openInput();
+                try {
+                    return IOUtils.toByteArray(inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            }
+        });
+        executor.execute(content);
+        return content;
+    }
+
+    @Override
+    public void unpack(DataSource input, DataTargetFactory targetFactory) throws IOException {
+        TarArchiveInputStream tarInput = new TarArchiveInputStream(input.openInput());
+        while (true) {
+            TarArchiveEntry entry = tarInput.getNextTarEntry();
+            if (entry == null) {
+                break;
+            }
+            PackerUtils.unpackEntry(entry.getName(), tarInput, buffer, targetFactory);
+        }
+        tarInput.close();
+    }
+}
@@ -19,7 +19,7 @@ package org.gradle.caching.internal.tasks;
 import org.openjdk.jmh.annotations.Param;
 
 public class TaskOutputPackagingTarBenchmark extends AbstractTaskOutputPackagingBenchmark {
-    @Param({"tar", "tar.commons", "tar.jtar"})
+    @Param({"tar", "tar.commons", "tar.jtar", "tar.pipelined", "tar.gz.commons", "tar.gz.pipelined", "tar.gz.pipelined.parallel"})
     String packer;
 
     @Param({"direct", "buffered"})
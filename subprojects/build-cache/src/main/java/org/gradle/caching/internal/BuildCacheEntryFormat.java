@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression of build cache entries.
+ *
+ * <p>GZIP compressed entries start with the GZIP magic number, like they always have. Entries with any other compression start with a format header
+ * naming the compression, so that entries with different compressions can be loaded from the same cache. GZIP also adds CRC32 checks to the entry.</p>
+ */
+public final class BuildCacheEntryFormat {
+    private static final int MAX_PENDING_BLOCKS = 8;
+    private static final byte[] GZIP_MAGIC = new byte[]{0x1f, (byte) 0x8b};
+    private static final byte[] FORMAT_HEADER_MAGIC = new byte[]{'G', 'C', 'E', 1};
+    private static final byte UNCOMPRESSED = 0;
+
+    private BuildCacheEntryFormat() {
+    }
+
+    /**
+     * Writes the format header for the given compression, and returns the stream to write the contents of the entry to.
+     *
+     * @param compressionExecutor when not null, blocks of a GZIP compressed entry are compressed in parallel on this executor.
+     */
+    public static OutputStream compress(OutputStream output, BuildCacheEntryCompression compression, @Nullable Executor compressionExecutor) throws IOException {
+        switch (compression) {
+            case GZIP:
+                if (compressionExecutor != null) {
+                    return new ParallelGZIPOutputStream(output, compressionExecutor, MAX_PENDING_BLOCKS);
+                }
+                return new GZIPOutputStream(output);
+            case NONE:
+                output.write(FORMAT_HEADER_MAGIC);
+                output.write(UNCOMPRESSED);
+                return output;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Reads the format header of an entry, and returns the stream to read the contents of the entry from.
+     */
+    public static InputStream decompress(InputStream input) throws IOException {
+        PushbackInputStream pushbackInput = new PushbackInputStream(input, GZIP_MAGIC.length);
+        return decompress(pushbackInput, readCompression(pushbackInput));
+    }
+
+    /**
+     * Reads the format header of an entry. The GZIP magic number is left in the stream to be read by {@link #decompress(PushbackInputStream, BuildCacheEntryCompression)}.
+     *
+     * @param input a stream that can push back at least two bytes.
+     */
+    public static BuildCacheEntryCompression readCompression(PushbackInputStream input) throws IOException {
+        byte[] header = new byte[FORMAT_HEADER_MAGIC.length + 1];
+        readFully(input, header, 0, GZIP_MAGIC.length);
+        if (header[0] == GZIP_MAGIC[0] && header[1] == GZIP_MAGIC[1]) {
+            input.unread(header, 0, GZIP_MAGIC.length);
+            return BuildCacheEntryCompression.GZIP;
+        }
+
+        readFully(input, header, GZIP_MAGIC.length, header.length - GZIP_MAGIC.length);
+        if (!Arrays.equals(Arrays.copyOf(header, FORMAT_HEADER_MAGIC.length), FORMAT_HEADER_MAGIC)) {
+            throw new IllegalStateException("Cached result format error, unknown entry format.");
+        }
+        byte compressionId = header[FORMAT_HEADER_MAGIC.length];
+        if (compressionId != UNCOMPRESSED) {
+            throw new IllegalStateException("Cached result format error, unknown compression: " + compressionId);
+        }
+        return BuildCacheEntryCompression.NONE;
+    }
+
+    /**
+     * Returns the stream to read the contents of an entry from, after its format header has been read with {@link #readCompression(PushbackInputStream)}.
+     */
+    public static InputStream decompress(PushbackInputStream input, BuildCacheEntryCompression compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new GZIPInputStream(input);
+            case NONE:
+                return input;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static void readFully(InputStream input, byte[] bytes, int offset, int length) throws IOException {
+        if (IOUtils.read(input, bytes, offset, length) < length) {
+            throw new IllegalStateException("Cached result format error, entry is truncated.");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data in the GZIP format, compressing blocks of the data in parallel on the given executor.
+ *
+ * <p>Each block is compressed as part of a single deflate stream: blocks other than the last end with a sync flush, and the last 32 KB of the
+ * previous block are used as the dictionary for the next one, so that the compression ratio is almost the same as with {@link java.util.zip.GZIPOutputStream}.
+ * The compressed blocks are written in order, while the CRC of the uncompressed data is calculated on the writing thread.</p>
+ *
+ * <p>At most the given number of blocks are compressed or wait to be written at the same time. Writing more blocks blocks until the oldest is written.</p>
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream output;
+    private final Executor executor;
+    private final int maxPendingBlocks;
+    private final Deque<FutureTask<byte[]>> pendingBlocks = new ArrayDeque<FutureTask<byte[]>>();
+    private final CRC32 crc = new CRC32();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] dictionary;
+    private long totalLength;
+    private boolean headerWritten;
+    private boolean closed;
+
+    public ParallelGZIPOutputStream(OutputStream output, Executor executor, int maxPendingBlocks) {
+        this.output = output;
+        this.executor = executor;
+        this.maxPendingBlocks = maxPendingBlocks;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        crc.update(bytes, offset, length);
+        totalLength += length;
+        while (length > 0) {
+            int count = Math.min(length, BLOCK_SIZE - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] data = block;
+        final int dataLength = blockLength;
+        final byte[] blockDictionary = dictionary;
+        final boolean finish = last;
+        FutureTask<byte[]> compression = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, dataLength, blockDictionary, finish);
+            }
+        });
+        executor.execute(compression);
+        pendingBlocks.add(compression);
+
+        if (dataLength >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(data, dataLength - DICTIONARY_SIZE, dataLength);
+        }
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeOldestBlock();
+        }
+    }
+
+    private static byte[] compress(byte[] data, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeOldestBlock() throws IOException {
+        FutureTask<byte[]> compression = pendingBlocks.remove();
+        byte[] compressed;
+        try {
+            compressed = Uninterruptibles.getUninterruptibly(compression);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress data.", e.getCause());
+        }
+        if (!headerWritten) {
+            output.write(HEADER);
+            headerWritten = true;
+        }
+        output.write(compressed);
+    }
+
+    /**
+     * Writes the blocks that have been compressed so far. Data that does not fill a block yet is not written.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().isDone()) {
+            writeOldestBlock();
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!pendingBlocks.isEmpty()) {
+                writeOldestBlock();
+            }
+            writeTrailer();
+            output.flush();
+        } finally {
+            for (FutureTask<byte[]> compression : pendingBlocks) {
+                compression.cancel(false);
+            }
+            output.close();
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        writeInt((int) totalLength);
+    }
+
+    private void writeInt(int value) throws IOException {
+        output.write(value & 0xff);
+        output.write((value >> 8) & 0xff);
+        output.write((value >> 16) & 0xff);
+        output.write((value >> 24) & 0xff);
+    }
+}
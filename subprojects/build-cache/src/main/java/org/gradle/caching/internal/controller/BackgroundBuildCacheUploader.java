@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import com.google.common.io.Files;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.StoreTarget;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.util.GFileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores packed build cache entries in a build cache service in the background, so that a slow service does not hold up task execution.
+ *
+ * <p>At most the given number of entries wait for or are being uploaded. Queueing more entries blocks until an upload finishes.
+ * Stopping the uploader waits for all queued uploads, and reports the maximum queue depth and the upload throughput.</p>
+ */
+class BackgroundBuildCacheUploader implements Stoppable {
+
+    private static final Logger LOGGER = Logging.getLogger(BackgroundBuildCacheUploader.class);
+    private static final int MAX_CONCURRENT_UPLOADS = 4;
+    private static final String QUEUED_FILE_PREFIX = "upload-";
+
+    private final BuildCacheServiceHandle service;
+    private final ExecutorFactory executorFactory;
+    private final Semaphore queueSlots;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicInteger uploadedEntryCount = new AtomicInteger();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong firstUploadStart = new AtomicLong();
+    private final AtomicLong lastUploadEnd = new AtomicLong();
+
+    private ManagedExecutor executor;
+
+    BackgroundBuildCacheUploader(BuildCacheServiceHandle service, ExecutorFactory executorFactory, int maxQueuedUploads) {
+        this.service = service;
+        this.executorFactory = executorFactory;
+        this.queueSlots = new Semaphore(maxQueuedUploads);
+    }
+
+    /**
+     * Queues the upload of the given packed entry.
+     *
+     * @param file the packed entry. It is moved out of the way when {@code moveFile} is true, otherwise it is copied.
+     */
+    void upload(final BuildCacheKey key, File file, boolean moveFile) {
+        final File queuedFile = new File(file.getParentFile(), QUEUED_FILE_PREFIX + file.getName());
+        try {
+            if (!moveFile || !file.renameTo(queuedFile)) {
+                Files.copy(file, queuedFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            queueSlots.acquire();
+        } catch (InterruptedException e) {
+            GFileUtils.deleteQuietly(queuedFile);
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        int depth = queueDepth.incrementAndGet();
+        while (true) {
+            int max = maxQueueDepth.get();
+            if (depth <= max || maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    firstUploadStart.compareAndSet(0, start);
+                    StoreTarget storeTarget = new StoreTarget(queuedFile);
+                    service.store(key, storeTarget);
+                    if (storeTarget.isStored()) {
+                        uploadedEntryCount.incrementAndGet();
+                        uploadedBytes.addAndGet(storeTarget.getSize());
+                    }
+                    lastUploadEnd.set(System.nanoTime());
+                } finally {
+                    GFileUtils.deleteQuietly(queuedFile);
+                    queueDepth.decrementAndGet();
+                    queueSlots.release();
+                }
+            }
+        });
+    }
+
+    private synchronized ManagedExecutor getExecutor() {
+        if (executor == null) {
+            executor = executorFactory.create("Build cache upload", MAX_CONCURRENT_UPLOADS);
+        }
+        return executor;
+    }
+
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    int getUploadedEntryCount() {
+        return uploadedEntryCount.get();
+    }
+
+    long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * Waits for all queued uploads to finish.
+     */
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (executor == null) {
+                return;
+            }
+            executor.stop();
+            executor = null;
+        }
+        if (uploadedEntryCount.get() > 0) {
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(lastUploadEnd.get() - firstUploadStart.get()));
+            LOGGER.info("Stored {} entries ({} bytes) in the background at {} KB/s, with at most {} entries queued.",
+                uploadedEntryCount.get(), uploadedBytes.get(), uploadedBytes.get() / elapsedMillis, maxQueueDepth.get());
+        }
+    }
+}
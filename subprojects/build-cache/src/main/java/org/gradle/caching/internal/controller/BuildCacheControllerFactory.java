@@ -29,6 +29,7 @@ import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperation
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
 import org.gradle.internal.Cast;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.CallableBuildOperation;
@@ -48,6 +49,11 @@ public final class BuildCacheControllerFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheControllerFactory.class);
 
+    /**
+     * The maximum number of entries that wait to be stored in the remote build cache in the background. Use 0, the default, to store entries on the task execution thread.
+     */
+    public static final String MAX_QUEUED_REMOTE_STORES_PROPERTY = "org.gradle.caching.store-behind.max-queued";
+
     public enum BuildCacheMode {
         ENABLED, DISABLED
     }
@@ -64,7 +70,9 @@ public final class BuildCacheControllerFactory {
         final BuildCacheMode buildCacheState,
         final RemoteAccessMode remoteAccessMode,
         final boolean logStackTraces,
-        final Instantiator instantiator
+        final Instantiator instantiator,
+        final ExecutorFactory executorFactory,
+        @Nullable final InMemoryBuildCacheEntryStore memory
     ) {
         return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheController>() {
             @Override
@@ -114,7 +122,10 @@ public final class BuildCacheControllerFactory {
                         config,
                         buildOperationExecutor,
                         gradleUserHomeDir,
-                        logStackTraces
+                        logStackTraces,
+                        executorFactory,
+                        Integer.getInteger(MAX_QUEUED_REMOTE_STORES_PROPERTY, 0),
+                        memory != null && memory.isEnabled() ? memory : null
                     );
                 }
             }
@@ -21,6 +21,8 @@ import org.apache.commons.io.IOUtils;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.internal.controller.operations.PackOperationDetails;
@@ -40,24 +42,30 @@ import org.gradle.caching.internal.controller.service.OpFiringBuildCacheServiceH
 import org.gradle.caching.internal.controller.service.StoreTarget;
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
+import org.gradle.caching.local.internal.LocalBuildCacheEntryReader;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.RunnableBuildOperation;
 import org.gradle.internal.progress.BuildOperationDescriptor;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Callable;
 
 public class DefaultBuildCacheController implements BuildCacheController {
 
+    private static final Logger LOGGER = Logging.getLogger(DefaultBuildCacheController.class);
+
     @VisibleForTesting
     final BuildCacheServiceHandle legacyLocal;
 
@@ -69,6 +77,10 @@ public class DefaultBuildCacheController implements BuildCacheController {
 
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
+    private final BackgroundBuildCacheUploader remoteUploader;
+    private final InMemoryBuildCacheEntryStore memory;
+    private final long initialMemoryHitCount;
+    private final long initialMemoryMissCount;
 
     private boolean closed;
 
@@ -77,8 +89,23 @@ public class DefaultBuildCacheController implements BuildCacheController {
         BuildOperationExecutor buildOperationExecutor,
         File gradleUserHomeDir,
         boolean logStackTraces
+    ) {
+        this(config, buildOperationExecutor, gradleUserHomeDir, logStackTraces, null, 0, null);
+    }
+
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        File gradleUserHomeDir,
+        boolean logStackTraces,
+        @Nullable ExecutorFactory executorFactory,
+        int maxQueuedRemoteStores,
+        @Nullable InMemoryBuildCacheEntryStore memory
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
+        this.memory = memory;
+        this.initialMemoryHitCount = memory == null ? 0 : memory.getHitCount();
+        this.initialMemoryMissCount = memory == null ? 0 : memory.getMissCount();
 
         if (config.local instanceof LocalBuildCacheService) {
             LocalBuildCacheService castLocal = (LocalBuildCacheService) config.local;
@@ -92,6 +119,9 @@ public class DefaultBuildCacheController implements BuildCacheController {
         }
 
         this.remote = toHandle(config.remote, config.remotePush, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces);
+        this.remoteUploader = executorFactory == null || maxQueuedRemoteStores <= 0
+            ? null
+            : new BackgroundBuildCacheUploader(remote, executorFactory, maxQueuedRemoteStores);
     }
 
     @Nullable
@@ -99,9 +129,32 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public <T> T load(final BuildCacheLoadCommand<T> command) {
         final Unpack<T> unpack = new Unpack<T>(command);
 
+        if (memory != null) {
+            byte[] entry = memory.load(command.getKey());
+            if (entry != null) {
+                try {
+                    unpack.execute(entry);
+                } catch (Exception e) {
+                    throw new GradleException("Build cache entry " + command.getKey() + " from in-memory build cache is invalid", e);
+                }
+                return unpack.result.getMetadata();
+            }
+        }
+
         if (local.canLoad()) {
             try {
-                local.load(command.getKey(), unpack);
+                local.load(command.getKey(), new LocalBuildCacheEntryReader() {
+                    @Override
+                    public void readFrom(File entry) {
+                        unpack.execute(entry);
+                        keepInMemory(command.getKey(), entry);
+                    }
+
+                    @Override
+                    public void readFrom(InputStream entry, long storedSize) {
+                        unpack.execute(entry, storedSize);
+                    }
+                });
             } catch (Exception e) {
                 throw new GradleException("Build cache entry " + command.getKey() + " from local build cache is invalid", e);
             }
@@ -134,6 +187,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
                             @SuppressWarnings("ConstantConditions") String roleDisplayName = loadedRole.getDisplayName();
                             throw new GradleException("Build cache entry " + command.getKey() + " from " + roleDisplayName + " build cache is invalid", e);
                         }
+                        keepInMemory(command.getKey(), file);
                         if (local.canStore()) {
                             local.store(command.getKey(), file);
                         }
@@ -150,6 +204,12 @@ public class DefaultBuildCacheController implements BuildCacheController {
         }
     }
 
+    private void keepInMemory(BuildCacheKey key, File file) {
+        if (memory != null) {
+            memory.store(key, file);
+        }
+    }
+
     private class Unpack<T> implements Action<File> {
         private final BuildCacheLoadCommand<T> command;
 
@@ -161,14 +221,43 @@ public class DefaultBuildCacheController implements BuildCacheController {
 
         @Override
         public void execute(final File file) {
+            unpack(file.length(), new Callable<InputStream>() {
+                @Override
+                public InputStream call() throws FileNotFoundException {
+                    return new FileInputStream(file);
+                }
+            });
+        }
+
+        void execute(final InputStream entry, long size) {
+            unpack(size, new Callable<InputStream>() {
+                @Override
+                public InputStream call() {
+                    return entry;
+                }
+            });
+        }
+
+        void execute(final byte[] entry) {
+            unpack(entry.length, new Callable<InputStream>() {
+                @Override
+                public InputStream call() {
+                    return new ByteArrayInputStream(entry);
+                }
+            });
+        }
+
+        private void unpack(final long size, final Callable<InputStream> entry) {
             buildOperationExecutor.run(new RunnableBuildOperation() {
                 @Override
                 public void run(BuildOperationContext context) {
                     InputStream input;
                     try {
-                        input = new FileInputStream(file);
+                        input = entry.call();
                     } catch (FileNotFoundException e) {
                         throw new UncheckedIOException(e);
+                    } catch (Exception e) {
+                        throw UncheckedException.throwAsUncheckedException(e);
                     }
 
                     try {
@@ -187,7 +276,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
                 @Override
                 public BuildOperationDescriptor.Builder description() {
                     return BuildOperationDescriptor.displayName("Unpack build cache entry " + command.getKey())
-                        .details(new UnpackOperationDetails(command.getKey(), file.length()))
+                        .details(new UnpackOperationDetails(command.getKey(), size))
                         .progressDisplayName("Unpacking build cache entry");
                 }
             });
@@ -209,13 +298,18 @@ public class DefaultBuildCacheController implements BuildCacheController {
             @Override
             public void execute(File file) {
                 pack.execute(file);
+                keepInMemory(key, file);
 
                 if (legacyLocal.canStore()) {
                     legacyLocal.store(key, new StoreTarget(file));
                 }
 
                 if (remote.canStore()) {
-                    remote.store(key, new StoreTarget(file));
+                    if (remoteUploader != null) {
+                        remoteUploader.upload(key, file, !local.canStore());
+                    } else {
+                        remote.store(key, new StoreTarget(file));
+                    }
                 }
 
                 if (local.canStore()) {
@@ -263,7 +357,11 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public void close() {
         if (!closed) {
             closed = true;
-            CompositeStoppable.stoppable(legacyLocal, local, remote).stop();
+            CompositeStoppable.stoppable(remoteUploader, legacyLocal, local, remote).stop();
+            if (memory != null) {
+                LOGGER.info("In-memory build cache: {} hits and {} misses during this build, {} entries ({} bytes) kept, {} entries evicted since the daemon started.",
+                    memory.getHitCount() - initialMemoryHitCount, memory.getMissCount() - initialMemoryMissCount, memory.getEntryCount(), memory.getSize(), memory.getEvictionCount());
+            }
         }
     }
 
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
+import org.gradle.caching.internal.BuildCacheEntryFormat;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently loaded and stored build cache entries in memory, in front of the local build cache, for the builds that run in the same daemon.
+ *
+ * <p>Entries are kept uncompressed, so that loading an entry again neither reads it from disk nor decompresses it. When the entries take up more than the maximum size,
+ * the least recently used ones are evicted. Entries larger than an eighth of the maximum size are not kept, so that a few large entries do not evict all the others.
+ * The hit and miss counts are kept for the lifetime of the store.</p>
+ */
+public class InMemoryBuildCacheEntryStore {
+
+    private static final Logger LOGGER = Logging.getLogger(InMemoryBuildCacheEntryStore.class);
+
+    /**
+     * The maximum size in megabytes of the build cache entries kept in memory across builds in the same daemon. Use 0, the default, to not keep any entries in memory.
+     */
+    public static final String MAX_SIZE_PROPERTY = "org.gradle.caching.memory.max-size";
+
+    private final long maxSize;
+    private final long maxEntrySize;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize the maximum size of the entries in bytes. No entries are kept when it is 0.
+     */
+    public InMemoryBuildCacheEntryStore(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / 8;
+    }
+
+    /**
+     * Returns the uncompressed entry for the given key, or null if it is not kept in memory.
+     */
+    @Nullable
+    public synchronized byte[] load(BuildCacheKey key) {
+        byte[] entry = entries.get(key.getHashCode());
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns whether the entry for the given key is kept in memory, without counting a hit or a miss.
+     */
+    public synchronized boolean contains(BuildCacheKey key) {
+        return entries.containsKey(key.getHashCode());
+    }
+
+    /**
+     * Keeps the given packed entry in memory, unless it is too large.
+     */
+    public void store(BuildCacheKey key, File file) {
+        if (!isEnabled() || contains(key)) {
+            return;
+        }
+        byte[] entry;
+        try {
+            entry = readUncompressed(file);
+        } catch (Exception e) {
+            // The entry is loaded from disk instead
+            LOGGER.debug("Could not keep build cache entry {} in memory", key, e);
+            return;
+        }
+        if (entry != null) {
+            add(key.getHashCode(), entry);
+        }
+    }
+
+    @Nullable
+    private byte[] readUncompressed(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            InputStream contents = BuildCacheEntryFormat.decompress(input);
+            ByteArrayOutputStream entry = new ByteArrayOutputStream((int) Math.min(file.length(), maxEntrySize));
+            OutputStream output = BuildCacheEntryFormat.compress(entry, BuildCacheEntryCompression.NONE, null);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = contents.read(buffer)) >= 0) {
+                if (entry.size() + read > maxEntrySize) {
+                    return null;
+                }
+                output.write(buffer, 0, read);
+            }
+            output.close();
+            return entry.toByteArray();
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private synchronized void add(String hashCode, byte[] entry) {
+        byte[] previous = entries.put(hashCode, entry);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += entry.length;
+        Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, byte[]> eldest = iterator.next();
+            size -= eldest.getValue().length;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * The total size of the entries kept in memory, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+}
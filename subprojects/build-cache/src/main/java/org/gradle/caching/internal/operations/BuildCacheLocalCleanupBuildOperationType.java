@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.operations;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+/**
+ * The cleanup of a local directory build cache.
+ *
+ * The result describes the cache before the cleanup, and the entries that have been removed.
+ */
+public final class BuildCacheLocalCleanupBuildOperationType implements BuildOperationType<BuildCacheLocalCleanupBuildOperationType.Details, BuildCacheLocalCleanupBuildOperationType.Result> {
+
+    public interface Details {
+
+        /**
+         * The absolute path of the cache directory.
+         */
+        String getCacheDirectory();
+
+        /**
+         * The size in bytes the cache is reduced to.
+         */
+        long getTargetSize();
+
+    }
+
+    public interface Result {
+
+        /**
+         * The number of files in the cache before the cleanup.
+         */
+        long getEntryCount();
+
+        /**
+         * The size in bytes of the files in the cache before the cleanup.
+         */
+        long getCacheSize();
+
+        /**
+         * The number of files removed by the cleanup.
+         */
+        long getRemovedEntryCount();
+
+        /**
+         * The size in bytes of the files removed by the cleanup.
+         */
+        long getRemovedSize();
+
+        /**
+         * The number of loads from the cache that were a hit since the previous cleanup.
+         */
+        long getHitCount();
+
+        /**
+         * The number of loads from the cache that were a miss since the previous cleanup.
+         */
+        long getMissCount();
+
+    }
+
+    private BuildCacheLocalCleanupBuildOperationType() {
+    }
+}
@@ -18,6 +18,7 @@ package org.gradle.caching.local;
 
 import org.gradle.api.Incubating;
 import org.gradle.caching.configuration.AbstractBuildCache;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
 
 import javax.annotation.Nullable;
 
@@ -31,6 +32,7 @@ import javax.annotation.Nullable;
 public class DirectoryBuildCache extends AbstractBuildCache {
     private Object directory;
     private long targetSizeInMB = 5 * 1024; // 5 GB
+    private BuildCacheEntryCompression entryCompression = BuildCacheEntryCompression.GZIP;
 
     /**
      * Returns the directory to use to store the build cache.
@@ -75,4 +77,37 @@ public class DirectoryBuildCache extends AbstractBuildCache {
         }
         this.targetSizeInMB = targetSizeInMB;
     }
+
+    /**
+     * The compression of the entries stored in the build cache.
+     * Defaults to {@link BuildCacheEntryCompression#GZIP}.
+     * <p>
+     * Entries are only stored with this compression when they are not pushed to a remote build cache, too. Entries with any compression can be loaded.
+     * <p>
+     * Gradle versions before 4.3 cannot load uncompressed entries. When the {@link #getDirectory() directory} is not set, uncompressed entries are therefore kept
+     * in a different default directory than compressed entries. A directory that is set explicitly should not be shared with older Gradle versions when storing uncompressed entries.
+     *
+     * @since 4.3
+     */
+    public BuildCacheEntryCompression getEntryCompression() {
+        return entryCompression;
+    }
+
+    /**
+     * The compression of the entries stored in the build cache.
+     * Defaults to {@link BuildCacheEntryCompression#GZIP}.
+     * <p>
+     * Entries are only stored with this compression when they are not pushed to a remote build cache, too. Entries with any compression can be loaded.
+     * <p>
+     * Gradle versions before 4.3 cannot load uncompressed entries. When the {@link #getDirectory() directory} is not set, uncompressed entries are therefore kept
+     * in a different default directory than compressed entries. A directory that is set explicitly should not be shared with older Gradle versions when storing uncompressed entries.
+     *
+     * @since 4.3
+     */
+    public void setEntryCompression(BuildCacheEntryCompression entryCompression) {
+        if (entryCompression == null) {
+            throw new IllegalArgumentException("Entry compression must not be null.");
+        }
+        this.entryCompression = entryCompression;
+    }
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
+import org.gradle.caching.internal.BuildCacheEntryFormat;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.hash.HashingOutputStream;
+import org.gradle.util.GFileUtils;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stores the contents of build cache entries in blobs that are shared between entries, so that files that are part of many entries are stored only once.
+ *
+ * <p>A stored entry is replaced by a manifest listing the entries of its tar archive. The contents of files larger than {@value #MAX_INLINE_SIZE} bytes
+ * are stored in blobs named after the hash of their contents, next to the entries of the cache, and smaller contents are kept in the manifest.
+ * Blobs hold the contents as they are, so that storing an entry only decompresses it, and loading a manifest streams the blobs into an uncompressed entry
+ * with the same tar archive without decompressing them.</p>
+ *
+ * <p>The blobs of an entry are marked as recently used in the index of the cache whenever the entry is stored or loaded, so that the cleanup of the cache
+ * removes the blobs that are no longer used. A manifest that refers to a blob that has been removed cannot be loaded anymore, which counts as a cache miss.</p>
+ */
+public class ContentAddressedEntryStore {
+    private static final byte[] MANIFEST_MAGIC = new byte[]{'G', 'C', 'M', 2};
+    private static final String BLOB_PREFIX = "blob2-";
+    private static final int MAX_INLINE_SIZE = 1024;
+    private static final int MAX_BUFFERED_BLOB_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte END = 0;
+    private static final byte DIRECTORY = 1;
+    private static final byte INLINE_FILE = 2;
+    private static final byte BLOB_FILE = 3;
+
+    private final File blobDir;
+    private final String partialFileSuffix;
+    private final DirectoryBuildCacheIndex index;
+
+    public ContentAddressedEntryStore(File blobDir, String partialFileSuffix, DirectoryBuildCacheIndex index) {
+        this.blobDir = blobDir;
+        this.partialFileSuffix = partialFileSuffix;
+        this.index = index;
+    }
+
+    /**
+     * Returns true if the given file is a manifest, and not an entry.
+     */
+    public boolean isManifest(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] magic = new byte[MANIFEST_MAGIC.length];
+            return IOUtils.read(input, magic) == magic.length && Arrays.equals(magic, MANIFEST_MAGIC);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Stores the contents of the given entry in blobs, and writes the manifest to recreate the entry to the given file.
+     */
+    public void storeManifest(File entryFile, File manifestFile) throws IOException {
+        InputStream entryInput = new BufferedInputStream(new FileInputStream(entryFile), BUFFER_SIZE);
+        DataOutputStream manifestOutput = null;
+        try {
+            TarArchiveInputStream tarInput = new TarArchiveInputStream(BuildCacheEntryFormat.decompress(entryInput));
+            manifestOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(manifestFile)));
+            manifestOutput.write(MANIFEST_MAGIC);
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                if (tarEntry.isDirectory()) {
+                    manifestOutput.writeByte(DIRECTORY);
+                    manifestOutput.writeUTF(tarEntry.getName());
+                    manifestOutput.writeInt(tarEntry.getMode());
+                } else if (tarEntry.getSize() <= MAX_INLINE_SIZE) {
+                    byte[] contents = IOUtils.toByteArray(tarInput, tarEntry.getSize());
+                    manifestOutput.writeByte(INLINE_FILE);
+                    manifestOutput.writeUTF(tarEntry.getName());
+                    manifestOutput.writeInt(tarEntry.getMode());
+                    manifestOutput.writeInt(contents.length);
+                    manifestOutput.write(contents);
+                } else {
+                    HashCode hash = storeBlob(tarInput, tarEntry.getSize());
+                    manifestOutput.writeByte(BLOB_FILE);
+                    manifestOutput.writeUTF(tarEntry.getName());
+                    manifestOutput.writeInt(tarEntry.getMode());
+                    manifestOutput.writeLong(tarEntry.getSize());
+                    manifestOutput.writeUTF(hash.toString());
+                }
+            }
+            manifestOutput.writeByte(END);
+            manifestOutput.close();
+        } finally {
+            IOUtils.closeQuietly(manifestOutput);
+            IOUtils.closeQuietly(entryInput);
+        }
+    }
+
+    private HashCode storeBlob(InputStream input, long size) throws IOException {
+        if (size <= MAX_BUFFERED_BLOB_SIZE) {
+            // Only write the contents when there is no blob for them yet
+            byte[] contents = IOUtils.toByteArray(input, size);
+            HashCode hash = Hashing.sha1().hashBytes(contents);
+            File blobFile = getBlobFile(hash.toString());
+            if (blobFile.isFile()) {
+                markUsed(blobFile);
+            } else {
+                File tempFile = File.createTempFile(BLOB_PREFIX, partialFileSuffix, blobDir);
+                try {
+                    FileUtils.writeByteArrayToFile(tempFile, contents);
+                    moveBlob(tempFile, blobFile);
+                } finally {
+                    GFileUtils.deleteQuietly(tempFile);
+                }
+            }
+            return hash;
+        }
+
+        File tempFile = File.createTempFile(BLOB_PREFIX, partialFileSuffix, blobDir);
+        try {
+            HashingOutputStream output = new HashingOutputStream(Hashing.sha1(), new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+            try {
+                IOUtils.copyLarge(input, output, 0, size);
+            } finally {
+                output.close();
+            }
+            HashCode hash = output.hash();
+            File blobFile = getBlobFile(hash.toString());
+            if (blobFile.isFile()) {
+                markUsed(blobFile);
+            } else {
+                moveBlob(tempFile, blobFile);
+            }
+            return hash;
+        } finally {
+            GFileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    private void moveBlob(File tempFile, File blobFile) throws IOException {
+        // Another process may have stored the same blob in the meantime
+        if (!tempFile.renameTo(blobFile) && !blobFile.isFile()) {
+            throw new IOException(String.format("Could not move blob %s to %s", tempFile, blobFile));
+        }
+        index.recordStored(blobFile.getName(), blobFile.length());
+    }
+
+    private void markUsed(File blobFile) {
+        GFileUtils.touch(blobFile);
+        index.recordAccessed(blobFile.getName());
+    }
+
+    /**
+     * Returns a stream of the uncompressed entry recreated from the given manifest, or null if any of the blobs of the entry is missing.
+     * The tar archive of the entry is written while the stream is read.
+     */
+    @Nullable
+    public EntryInputStream openEntry(File manifestFile) throws IOException {
+        List<ManifestRecord> records = readManifest(manifestFile);
+        long storedSize = manifestFile.length();
+        for (ManifestRecord record : records) {
+            if (record.blobFile != null) {
+                if (!record.blobFile.isFile()) {
+                    return null;
+                }
+                storedSize += record.blobFile.length();
+            }
+        }
+        for (ManifestRecord record : records) {
+            if (record.blobFile != null) {
+                markUsed(record.blobFile);
+            }
+        }
+        return new EntryInputStream(records, storedSize);
+    }
+
+    private List<ManifestRecord> readManifest(File manifestFile) throws IOException {
+        DataInputStream manifestInput = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+        try {
+            byte[] magic = new byte[MANIFEST_MAGIC.length];
+            manifestInput.readFully(magic);
+            if (!Arrays.equals(magic, MANIFEST_MAGIC)) {
+                throw new IllegalStateException("Cached result format error, unknown manifest format.");
+            }
+            List<ManifestRecord> records = new ArrayList<ManifestRecord>();
+            while (true) {
+                byte type = manifestInput.readByte();
+                if (type == END) {
+                    return records;
+                }
+                String name = manifestInput.readUTF();
+                int mode = manifestInput.readInt();
+                switch (type) {
+                    case DIRECTORY:
+                        records.add(new ManifestRecord(name, mode, 0, null, null));
+                        break;
+                    case INLINE_FILE:
+                        byte[] contents = new byte[manifestInput.readInt()];
+                        manifestInput.readFully(contents);
+                        records.add(new ManifestRecord(name, mode, contents.length, contents, null));
+                        break;
+                    case BLOB_FILE:
+                        long size = manifestInput.readLong();
+                        File blobFile = getBlobFile(HashCode.fromString(manifestInput.readUTF()).toString());
+                        records.add(new ManifestRecord(name, mode, size, null, blobFile));
+                        break;
+                    default:
+                        throw new IllegalStateException("Cached result format error, invalid manifest entry type: " + type);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IllegalStateException("Cached result format error, manifest is truncated.", e);
+        } finally {
+            IOUtils.closeQuietly(manifestInput);
+        }
+    }
+
+    private File getBlobFile(String hash) {
+        return new File(blobDir, BLOB_PREFIX + hash);
+    }
+
+    private static class ManifestRecord {
+        final String name;
+        final int mode;
+        final long size;
+        final byte[] contents;
+        final File blobFile;
+
+        ManifestRecord(String name, int mode, long size, @Nullable byte[] contents, @Nullable File blobFile) {
+            this.name = name;
+            this.mode = mode;
+            this.size = size;
+            this.contents = contents;
+            this.blobFile = blobFile;
+        }
+    }
+
+    /**
+     * Writes the tar archive of an entry into a buffer whenever the buffered part of the archive has been read, one tar entry or one chunk of a blob at a time.
+     */
+    public static class EntryInputStream extends InputStream {
+        private final Iterator<ManifestRecord> records;
+        private final long storedSize;
+        private final ArchiveBuffer buffer = new ArchiveBuffer();
+        private final TarArchiveOutputStream tarOutput;
+        private final byte[] chunk = new byte[BUFFER_SIZE];
+        private File blobFile;
+        private InputStream blobInput;
+        private long blobRemaining;
+        private boolean finished;
+
+        private EntryInputStream(List<ManifestRecord> records, long storedSize) throws IOException {
+            this.records = records.iterator();
+            this.storedSize = storedSize;
+            tarOutput = new TarArchiveOutputStream(BuildCacheEntryFormat.compress(buffer, BuildCacheEntryCompression.NONE, null), "utf-8");
+            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+        }
+
+        /**
+         * The size of the manifest and of the blobs the entry is recreated from.
+         */
+        public long getStoredSize() {
+            return storedSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (buffer.isEmpty()) {
+                if (finished) {
+                    return -1;
+                }
+                writeNext();
+            }
+            return buffer.read(bytes, offset, length);
+        }
+
+        private void writeNext() throws IOException {
+            if (blobInput != null) {
+                int read = blobInput.read(chunk, 0, (int) Math.min(chunk.length, blobRemaining));
+                if (read < 0) {
+                    throw new IllegalStateException("Cached result format error, blob is truncated: " + blobFile.getName());
+                }
+                tarOutput.write(chunk, 0, read);
+                blobRemaining -= read;
+                if (blobRemaining == 0) {
+                    closeBlob();
+                    tarOutput.closeArchiveEntry();
+                }
+                return;
+            }
+            if (!records.hasNext()) {
+                tarOutput.close();
+                finished = true;
+                return;
+            }
+            ManifestRecord record = records.next();
+            TarArchiveEntry entry = new TarArchiveEntry(record.name, true);
+            entry.setSize(record.size);
+            entry.setMode(record.mode);
+            tarOutput.putArchiveEntry(entry);
+            if (record.contents != null) {
+                tarOutput.write(record.contents);
+            } else if (record.blobFile != null && record.size > 0) {
+                blobFile = record.blobFile;
+                blobInput = new FileInputStream(blobFile);
+                blobRemaining = record.size;
+                return;
+            }
+            tarOutput.closeArchiveEntry();
+        }
+
+        private void closeBlob() {
+            IOUtils.closeQuietly(blobInput);
+            blobInput = null;
+        }
+
+        @Override
+        public void close() {
+            closeBlob();
+        }
+    }
+
+    /**
+     * The part of the tar archive of an entry that has been written but not read yet.
+     */
+    private static class ArchiveBuffer extends ByteArrayOutputStream {
+        private int position;
+
+        ArchiveBuffer() {
+            super(BUFFER_SIZE + 2 * 512);
+        }
+
+        boolean isEmpty() {
+            return position == count;
+        }
+
+        int read(byte[] bytes, int offset, int length) {
+            int read = Math.min(length, count - position);
+            System.arraycopy(buf, position, bytes, offset, read);
+            position += read;
+            if (position == count) {
+                reset();
+                position = 0;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Ordering;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Action;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentCache;
+import org.gradle.caching.internal.operations.BuildCacheLocalCleanupBuildOperationType;
+import org.gradle.internal.Factory;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.progress.BuildOperationDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the least recently used files of a directory build cache until the cache is not larger than its target size, using a {@link DirectoryBuildCacheIndex}.
+ *
+ * <p>Only the files that are removed are touched. The names of the files in the cache directory are compared with the index, and the files that are missing from
+ * it, for example because they have been stored by a Gradle version that does not maintain the index, are added to it as the least recently used ones.</p>
+ */
+public class DirectoryBuildCacheCleanup implements Action<PersistentCache> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryBuildCacheCleanup.class);
+    private static final Ordering<File> OLDEST_FIRST = Ordering.natural().onResultOf(new Function<File, Comparable<Long>>() {
+        @Override
+        public Comparable<Long> apply(File input) {
+            return input.lastModified();
+        }
+    });
+
+    private final BuildOperationExecutor buildOperationExecutor;
+    private final long targetSizeInMB;
+    private final String partialFileSuffix;
+
+    public DirectoryBuildCacheCleanup(BuildOperationExecutor buildOperationExecutor, long targetSizeInMB, String partialFileSuffix) {
+        this.buildOperationExecutor = buildOperationExecutor;
+        this.targetSizeInMB = targetSizeInMB;
+        this.partialFileSuffix = partialFileSuffix;
+    }
+
+    @Override
+    public void execute(final PersistentCache persistentCache) {
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                context.setResult(persistentCache.withFileLock(new Factory<CleanupResult>() {
+                    @Override
+                    public CleanupResult create() {
+                        try {
+                            return cleanup(persistentCache);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }));
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Clean up " + persistentCache)
+                    .details(new CleanupDetails(persistentCache.getBaseDir().getAbsolutePath(), getTargetSize()));
+            }
+        });
+    }
+
+    private long getTargetSize() {
+        return targetSizeInMB * 1024 * 1024;
+    }
+
+    CleanupResult cleanup(PersistentCache persistentCache) throws IOException {
+        File cacheDir = persistentCache.getBaseDir();
+        DirectoryBuildCacheIndex index = new DirectoryBuildCacheIndex(persistentCache);
+        if (!index.exists()) {
+            index.write(Collections.<String, Long>emptyMap());
+        }
+
+        DirectoryBuildCacheIndex.Contents contents = index.read();
+        LinkedHashMap<String, Long> sizes = reconcile(cacheDir, contents.getSizes());
+        long entryCount = sizes.size();
+        long cacheSize = 0;
+        for (Long size : sizes.values()) {
+            cacheSize += size;
+        }
+
+        // Remove the least recently used files first, and keep the ones that cannot be removed for the next cleanup
+        long remainingSize = cacheSize;
+        long removedEntryCount = 0;
+        Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+        while (remainingSize > getTargetSize() && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(cacheDir, entry.getKey());
+            if (file.delete() || !file.exists()) {
+                iterator.remove();
+                remainingSize -= entry.getValue();
+                removedEntryCount++;
+            } else {
+                LOGGER.debug("Could not clean up cache file {}", file);
+            }
+        }
+        index.write(sizes);
+
+        LOGGER.info("{} consuming {} (target: {} MB), removed {} cache entries ({} reclaimed).", persistentCache, FileUtils.byteCountToDisplaySize(cacheSize), targetSizeInMB,
+            removedEntryCount, FileUtils.byteCountToDisplaySize(cacheSize - remainingSize));
+        return new CleanupResult(entryCount, cacheSize, removedEntryCount, cacheSize - remainingSize, contents.getHitCount(), contents.getMissCount());
+    }
+
+    /**
+     * Removes the files that no longer exist from the index, and adds the files it does not know about before the other ones, oldest first.
+     */
+    private LinkedHashMap<String, Long> reconcile(File cacheDir, LinkedHashMap<String, Long> indexedSizes) {
+        String[] names = cacheDir.list();
+        if (names == null) {
+            throw new UncheckedIOException(String.format("Could not list the contents of %s.", cacheDir));
+        }
+        Set<String> existingNames = new HashSet<String>();
+        List<File> unknownFiles = new ArrayList<File>();
+        for (String name : names) {
+            if (canBeDeleted(name)) {
+                existingNames.add(name);
+                if (!indexedSizes.containsKey(name)) {
+                    File file = new File(cacheDir, name);
+                    if (file.isFile()) {
+                        unknownFiles.add(file);
+                    }
+                }
+            }
+        }
+        indexedSizes.keySet().retainAll(existingNames);
+        if (unknownFiles.isEmpty()) {
+            return indexedSizes;
+        }
+
+        LOGGER.debug("Adding {} files that are missing from the index of {}.", unknownFiles.size(), cacheDir);
+        Collections.sort(unknownFiles, OLDEST_FIRST);
+        LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (File file : unknownFiles) {
+            sizes.put(file.getName(), file.length());
+        }
+        sizes.putAll(indexedSizes);
+        return sizes;
+    }
+
+    private boolean canBeDeleted(String name) {
+        return !(name.equals(DirectoryBuildCacheIndex.INDEX_FILE_NAME) || name.endsWith(".properties") || name.endsWith(".lock") || name.endsWith(partialFileSuffix));
+    }
+
+    private static class CleanupDetails implements BuildCacheLocalCleanupBuildOperationType.Details {
+        private final String cacheDirectory;
+        private final long targetSize;
+
+        private CleanupDetails(String cacheDirectory, long targetSize) {
+            this.cacheDirectory = cacheDirectory;
+            this.targetSize = targetSize;
+        }
+
+        @Override
+        public String getCacheDirectory() {
+            return cacheDirectory;
+        }
+
+        @Override
+        public long getTargetSize() {
+            return targetSize;
+        }
+    }
+
+    static class CleanupResult implements BuildCacheLocalCleanupBuildOperationType.Result {
+        private final long entryCount;
+        private final long cacheSize;
+        private final long removedEntryCount;
+        private final long removedSize;
+        private final long hitCount;
+        private final long missCount;
+
+        CleanupResult(long entryCount, long cacheSize, long removedEntryCount, long removedSize, long hitCount, long missCount) {
+            this.entryCount = entryCount;
+            this.cacheSize = cacheSize;
+            this.removedEntryCount = removedEntryCount;
+            this.removedSize = removedSize;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+        }
+
+        @Override
+        public long getEntryCount() {
+            return entryCount;
+        }
+
+        @Override
+        public long getCacheSize() {
+            return cacheSize;
+        }
+
+        @Override
+        public long getRemovedEntryCount() {
+            return removedEntryCount;
+        }
+
+        @Override
+        public long getRemovedSize() {
+            return removedSize;
+        }
+
+        @Override
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        @Override
+        public long getMissCount() {
+            return missCount;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentCache;
+import org.gradle.internal.Factory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps track of the size of the files of a directory build cache, and of the order they have been used in, so that the cleanup of the cache does not need to
+ * look at every file in the cache directory.
+ *
+ * <p>The index is a journal in the cache directory. Storing, using and removing files appends records to the journal, and the cleanup of the cache replays it to
+ * find the least recently used files. The cleanup then replaces the journal with one record per remaining file, in the order they have been used in.
+ * Records are buffered in memory until they are flushed, and appended to the journal while holding the lock of the cache, so that processes sharing the cache
+ * do not interleave their records. Loads that hit and miss the cache are also recorded, to report the hit rate of the cache since its last cleanup.</p>
+ *
+ * <p>Each record is prefixed with its length and checksum. A record that has been partially written, for example when the process appending it has been killed,
+ * is detected when the journal is replayed, and the journal is truncated before it.</p>
+ */
+public class DirectoryBuildCacheIndex {
+    public static final String INDEX_FILE_NAME = "index.journal";
+
+    private static final byte STORED = 1;
+    private static final byte ACCESSED = 2;
+    private static final byte HIT = 3;
+    private static final byte MISSED = 4;
+    private static final byte REMOVED = 5;
+
+    // The type of the record, a name written with writeUTF() and a size
+    private static final int MAX_RECORD_LENGTH = 1 + 2 + 65535 + 8;
+
+    private final PersistentCache persistentCache;
+    private final File indexFile;
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pendingRecords = new DataOutputStream(pendingBytes);
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+    public DirectoryBuildCacheIndex(PersistentCache persistentCache) {
+        this.persistentCache = persistentCache;
+        this.indexFile = new File(persistentCache.getBaseDir(), INDEX_FILE_NAME);
+    }
+
+    /**
+     * Records a file that has been stored in the cache.
+     */
+    public synchronized void recordStored(String name, long size) {
+        try {
+            record.writeByte(STORED);
+            record.writeUTF(name);
+            record.writeLong(size);
+            appendPendingRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records a file of the cache that has been used.
+     */
+    public synchronized void recordAccessed(String name) {
+        writeRecord(ACCESSED, name);
+    }
+
+    /**
+     * Records an entry that has been loaded from the cache.
+     */
+    public synchronized void recordHit(String name) {
+        writeRecord(HIT, name);
+    }
+
+    /**
+     * Records a load of an entry that is not in the cache.
+     */
+    public synchronized void recordMiss() {
+        try {
+            record.writeByte(MISSED);
+            appendPendingRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records a file that has been removed from the cache.
+     */
+    public synchronized void recordRemoved(String name) {
+        writeRecord(REMOVED, name);
+    }
+
+    private void writeRecord(byte type, String name) {
+        try {
+            record.writeByte(type);
+            record.writeUTF(name);
+            appendPendingRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void appendPendingRecord() throws IOException {
+        writeFramed(recordBytes.toByteArray(), pendingRecords);
+        recordBytes.reset();
+    }
+
+    private static void writeFramed(byte[] record, DataOutputStream output) throws IOException {
+        output.writeInt(record.length);
+        output.writeInt(checksum(record));
+        output.write(record);
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends the records that have not been written yet to the journal.
+     */
+    public void flush() {
+        final byte[] records;
+        synchronized (this) {
+            if (pendingBytes.size() == 0) {
+                return;
+            }
+            records = pendingBytes.toByteArray();
+            pendingBytes.reset();
+        }
+        persistentCache.withFileLock(new Factory<Void>() {
+            @Override
+            public Void create() {
+                try {
+                    OutputStream output = new FileOutputStream(indexFile, true);
+                    try {
+                        output.write(records);
+                    } finally {
+                        output.close();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns true if the journal exists. When it does not, the index does not know the files that are in the cache.
+     */
+    public boolean exists() {
+        return indexFile.isFile();
+    }
+
+    /**
+     * Replays the journal. The journal is truncated before the first record that is incomplete, does not match its checksum or is of an unknown type, so that
+     * it does not hide the records that are appended later. This needs to be called while holding the lock of the cache.
+     */
+    public Contents read() throws IOException {
+        Contents contents = new Contents();
+        long validLength = 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            while (true) {
+                byte[] record = readFramed(input);
+                if (record == null || !replay(new DataInputStream(new ByteArrayInputStream(record)), contents)) {
+                    break;
+                }
+                validLength += 8 + record.length;
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        if (validLength < indexFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the next record of the journal, or null when there is no complete and valid record left.
+     */
+    private static byte[] readFramed(DataInputStream input) throws IOException {
+        try {
+            int length = input.readInt();
+            int checksum = input.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            input.readFully(record);
+            return checksum(record) == checksum ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean replay(DataInputStream record, Contents contents) throws IOException {
+        byte type = record.readByte();
+        switch (type) {
+            case STORED:
+                String name = record.readUTF();
+                long size = record.readLong();
+                contents.sizes.remove(name);
+                contents.sizes.put(name, size);
+                break;
+            case ACCESSED:
+                contents.sizes.get(record.readUTF());
+                break;
+            case HIT:
+                contents.sizes.get(record.readUTF());
+                contents.hitCount++;
+                break;
+            case MISSED:
+                contents.missCount++;
+                break;
+            case REMOVED:
+                contents.sizes.remove(record.readUTF());
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the journal with the given files, which are expected to be ordered from the least to the most recently used one.
+     */
+    public void write(Map<String, Long> sizes) throws IOException {
+        File tempFile = new File(indexFile.getPath() + BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+                record.writeByte(STORED);
+                record.writeUTF(entry.getKey());
+                record.writeLong(entry.getValue());
+                writeFramed(bytes.toByteArray(), output);
+                bytes.reset();
+            }
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(indexFile) && !(indexFile.delete() && tempFile.renameTo(indexFile))) {
+            throw new IOException(String.format("Could not replace build cache index %s.", indexFile));
+        }
+    }
+
+    /**
+     * The files of the cache, and the loads from the cache since the journal has last been written.
+     */
+    public static class Contents {
+        private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        private long hitCount;
+        private long missCount;
+
+        /**
+         * Returns the size of each file, ordered from the least to the most recently used one. Looking up a file counts as using it.
+         */
+        public LinkedHashMap<String, Long> getSizes() {
+            return sizes;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+    }
+}
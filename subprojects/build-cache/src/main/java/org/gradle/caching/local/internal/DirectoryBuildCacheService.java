@@ -17,8 +17,11 @@
 package org.gradle.caching.local.internal;
 
 import com.google.common.io.Closer;
+import org.apache.commons.io.IOUtils;
 import org.gradle.api.Action;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.cache.PersistentCache;
 import org.gradle.caching.BuildCacheEntryReader;
 import org.gradle.caching.BuildCacheEntryWriter;
@@ -35,22 +38,38 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class DirectoryBuildCacheService implements LocalBuildCacheService, BuildCacheService {
+    private static final Logger LOGGER = Logging.getLogger(DirectoryBuildCacheService.class);
 
     private final PathKeyFileStore fileStore;
     private final PersistentCache persistentCache;
     private final BuildCacheTempFileStore tempFileStore;
     private final String failedFileSuffix;
+    private final DirectoryBuildCacheIndex index;
+    private final ContentAddressedEntryStore contentStore;
+    private final boolean deduplicateEntries;
 
     public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, String failedFileSuffix) {
+        this(fileStore, persistentCache, tempFileStore, failedFileSuffix, new DirectoryBuildCacheIndex(persistentCache), false);
+    }
+
+    /**
+     * @param index records the files that are stored and used, for the cleanup of the cache.
+     * @param deduplicateEntries whether entries are stored as manifests in a {@link ContentAddressedEntryStore}.
+     */
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, String failedFileSuffix, DirectoryBuildCacheIndex index, boolean deduplicateEntries) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.failedFileSuffix = failedFileSuffix;
+        this.index = index;
+        this.contentStore = new ContentAddressedEntryStore(persistentCache.getBaseDir(), BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, index);
+        this.deduplicateEntries = deduplicateEntries;
     }
 
-    private static class LoadAction implements Action<File> {
+    private static class LoadAction implements LocalBuildCacheEntryReader {
         private final BuildCacheEntryReader reader;
         boolean loaded;
 
@@ -59,7 +78,7 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
         }
 
         @Override
-        public void execute(File file) {
+        public void readFrom(File file) {
             try {
                 // Mark as recently used
                 GFileUtils.touch(file);
@@ -76,6 +95,16 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
                 throw new UncheckedIOException(ex);
             }
         }
+
+        @Override
+        public void readFrom(InputStream entry, long storedSize) {
+            try {
+                reader.readFrom(entry);
+                loaded = true;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
     }
 
     @Override
@@ -86,34 +115,69 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     }
 
     @Override
-    public void load(final BuildCacheKey key, final Action<? super File> reader) {
+    public void load(final BuildCacheKey key, final LocalBuildCacheEntryReader reader) {
         // We need to lock here because garbage collection can be under way in another process
         persistentCache.withFileLock(new Factory<Void>() {
             @Override
             public Void create() {
-                LocallyAvailableResource resource = fileStore.get(key.getHashCode());
-                if (resource != null) {
-                    final File file = resource.getFile();
-                    GFileUtils.touch(file); // Mark as recently used
-
-                    try {
-                        reader.execute(file);
-                    } catch (Exception e) {
-                        // Try to move the file out of the way in case its permanently corrupt
-                        // Don't delete, so that it can be potentially used for debugging
-                        File failedFile = new File(file.getAbsolutePath() + failedFileSuffix);
-                        GFileUtils.deleteQuietly(failedFile);
-                        //noinspection ResultOfMethodCallIgnored
-                        file.renameTo(failedFile);
-
-                        throw UncheckedException.throwAsUncheckedException(e);
-                    }
+                try {
+                    loadFromFileStore(key, reader);
+                } finally {
+                    index.flush();
                 }
                 return null;
             }
         });
     }
 
+    private void loadFromFileStore(BuildCacheKey key, LocalBuildCacheEntryReader reader) {
+        LocallyAvailableResource resource = fileStore.get(key.getHashCode());
+        if (resource == null) {
+            index.recordMiss();
+            return;
+        }
+
+        File file = resource.getFile();
+        GFileUtils.touch(file); // Mark as recently used
+
+        try {
+            if (!contentStore.isManifest(file)) {
+                reader.readFrom(file);
+            } else if (!loadManifest(file, reader)) {
+                // Some of the contents have been cleaned up, so the entry is gone
+                GFileUtils.deleteQuietly(file);
+                index.recordRemoved(file.getName());
+                index.recordMiss();
+                return;
+            }
+            index.recordHit(file.getName());
+        } catch (Exception e) {
+            // Try to move the file out of the way in case its permanently corrupt
+            // Don't delete, so that it can be potentially used for debugging
+            File failedFile = new File(file.getAbsolutePath() + failedFileSuffix);
+            GFileUtils.deleteQuietly(failedFile);
+            //noinspection ResultOfMethodCallIgnored
+            file.renameTo(failedFile);
+            index.recordRemoved(file.getName());
+            index.recordStored(failedFile.getName(), failedFile.length());
+
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
+    private boolean loadManifest(File manifestFile, LocalBuildCacheEntryReader reader) throws IOException {
+        ContentAddressedEntryStore.EntryInputStream entry = contentStore.openEntry(manifestFile);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            reader.readFrom(entry, entry.getStoredSize());
+        } finally {
+            IOUtils.closeQuietly(entry);
+        }
+        return true;
+    }
+
     @Override
     public void store(final BuildCacheKey key, final BuildCacheEntryWriter result) throws BuildCacheException {
         tempFileStore.allocateTempFile(key, new Action<File>() {
@@ -142,7 +206,37 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
         persistentCache.useCache(new Runnable() {
             @Override
             public void run() {
-                fileStore.move(key.getHashCode(), file);
+                try {
+                    if (deduplicateEntries) {
+                        storeManifest(key, file);
+                    } else {
+                        moveToFileStore(key, file);
+                    }
+                } finally {
+                    index.flush();
+                }
+            }
+        });
+    }
+
+    private void moveToFileStore(BuildCacheKey key, File file) {
+        File storedFile = fileStore.move(key.getHashCode(), file).getFile();
+        index.recordStored(storedFile.getName(), storedFile.length());
+    }
+
+    private void storeManifest(final BuildCacheKey key, final File entryFile) {
+        tempFileStore.allocateTempFile(key, new Action<File>() {
+            @Override
+            public void execute(File manifestFile) {
+                try {
+                    contentStore.storeManifest(entryFile, manifestFile);
+                } catch (Exception e) {
+                    // Not a task output entry, store it as it is
+                    LOGGER.debug("Could not store build cache entry {} as a manifest, storing it as is.", key, e);
+                    moveToFileStore(key, entryFile);
+                    return;
+                }
+                moveToFileStore(key, manifestFile);
             }
         });
     }
@@ -154,6 +248,7 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
 
     @Override
     public void close() {
+        index.flush();
         persistentCache.close();
     }
 }
@@ -22,10 +22,10 @@ import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.CacheScopeMapping;
-import org.gradle.cache.internal.FixedSizeOldestCacheCleanup;
 import org.gradle.cache.internal.VersionStrategy;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.internal.file.PathToFileResolver;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -40,8 +40,15 @@ import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFactory<DirectoryBuildCache> {
     public static final String FAILED_READ_SUFFIX = ".failed";
 
+    /**
+     * When true, the contents of stored entries are deduplicated using a {@link ContentAddressedEntryStore}.
+     */
+    public static final String DEDUPLICATE_ENTRIES_PROPERTY = "org.gradle.caching.local.deduplicate";
+
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
+    // Uncompressed entries cannot be loaded by older Gradle versions, which share the default directory
+    private static final String UNCOMPRESSED_BUILD_CACHE_KEY = "build-cache-uncompressed-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
 
     private final CacheRepository cacheRepository;
@@ -66,7 +73,8 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
         if (cacheDirectory != null) {
             target = resolver.resolve(cacheDirectory);
         } else {
-            target = cacheScopeMapping.getBaseDirectory(null, BUILD_CACHE_KEY, VersionStrategy.SharedCache);
+            String cacheKey = configuration.getEntryCompression() == BuildCacheEntryCompression.NONE ? UNCOMPRESSED_BUILD_CACHE_KEY : BUILD_CACHE_KEY;
+            target = cacheScopeMapping.getBaseDirectory(null, cacheKey, VersionStrategy.SharedCache);
         }
         checkDirectory(target);
 
@@ -75,18 +83,24 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
         describer.type(DIRECTORY_BUILD_CACHE_TYPE).
             config("location", target.getAbsolutePath()).
             config("targetSize", humanReadableCacheSize);
+        boolean deduplicateEntries = Boolean.getBoolean(DEDUPLICATE_ENTRIES_PROPERTY);
+        if (deduplicateEntries) {
+            describer.config("deduplicate", "true");
+        }
 
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(new FixedSizeOldestCacheCleanup(buildOperationExecutor, targetSizeInMB, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX))
+            .withCleanup(new DirectoryBuildCacheCleanup(buildOperationExecutor, targetSizeInMB, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX))
             .withDisplayName("Build cache")
             .withLockOptions(mode(None))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
             .open();
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, FAILED_READ_SUFFIX);
+        DirectoryBuildCacheIndex index = new DirectoryBuildCacheIndex(persistentCache);
+
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, FAILED_READ_SUFFIX, index, deduplicateEntries);
     }
 
     private static void checkDirectory(File directory) {
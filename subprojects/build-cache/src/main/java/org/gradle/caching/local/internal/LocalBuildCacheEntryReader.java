@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Reads an entry loaded from a {@link LocalBuildCacheService}.
+ */
+public interface LocalBuildCacheEntryReader {
+
+    /**
+     * Reads an entry that is stored as it is, from the file it is stored in.
+     */
+    void readFrom(File entry);
+
+    /**
+     * Reads an entry that is recreated while it is read, such as a deduplicated entry.
+     *
+     * @param storedSize the size of the files the entry is recreated from.
+     */
+    void readFrom(InputStream entry, long storedSize);
+}
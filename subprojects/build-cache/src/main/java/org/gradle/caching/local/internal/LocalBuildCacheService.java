@@ -16,7 +16,6 @@
 
 package org.gradle.caching.local.internal;
 
-import org.gradle.api.Action;
 import org.gradle.caching.BuildCacheKey;
 
 import java.io.Closeable;
@@ -24,7 +23,7 @@ import java.io.File;
 
 public interface LocalBuildCacheService extends BuildCacheTempFileStore, Closeable {
 
-    void load(BuildCacheKey key, Action<? super File> reader);
+    void load(BuildCacheKey key, LocalBuildCacheEntryReader reader);
 
     void store(BuildCacheKey key, File file);
 
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal
+
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.zip.GZIPInputStream
+
+class ParallelGZIPOutputStreamTest extends Specification {
+    @AutoCleanup("shutdown")
+    ExecutorService executor = Executors.newFixedThreadPool(3)
+
+    @Unroll
+    def "compressed data of #length bytes can be read as GZIP"() {
+        def random = new Random(1234L)
+        def data = new byte[length]
+        length.times { index ->
+            data[index] = random.nextInt(4) == 0 ? (byte) random.nextInt() : (byte) "build cache entry".charAt(index % 17)
+        }
+        def compressed = new ByteArrayOutputStream()
+
+        when:
+        def output = new ParallelGZIPOutputStream(compressed, executor, 2)
+        int offset = 0
+        while (offset < length) {
+            int count = Math.min(length - offset, 1 + random.nextInt(100000))
+            output.write(data, offset, count)
+            offset += count
+        }
+        output.close()
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())).bytes == data
+        compressed.size() < Math.max(length, 100)
+
+        where:
+        length << [0, 1, 1000, 1024 * 1024, 3 * 1024 * 1024 + 17]
+    }
+
+    def "can write single bytes"() {
+        def compressed = new ByteArrayOutputStream()
+        def output = new ParallelGZIPOutputStream(compressed, executor, 2)
+
+        when:
+        "some data".bytes.each { output.write(it) }
+        output.close()
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())).text == "some data"
+    }
+}
@@ -28,7 +28,9 @@ import org.gradle.caching.configuration.internal.DefaultBuildCacheConfiguration
 import org.gradle.caching.configuration.internal.DefaultBuildCacheServiceRegistration
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType
 import org.gradle.caching.local.DirectoryBuildCache
+import org.gradle.caching.local.internal.LocalBuildCacheEntryReader
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.reflect.DirectInstantiator
 import org.gradle.testing.internal.util.Specification
@@ -61,7 +63,9 @@ class BuildCacheControllerFactoryTest extends Specification {
             buildCacheEnabled ? ENABLED : DISABLED,
             ONLINE,
             false,
-            DirectInstantiator.INSTANCE
+            DirectInstantiator.INSTANCE,
+            Stub(ExecutorFactory),
+            null
         )
         assert controllerType.isInstance(controller)
         controllerType.cast(controller)
@@ -231,7 +235,7 @@ class BuildCacheControllerFactoryTest extends Specification {
         }
 
         @Override
-        void load(BuildCacheKey key, Action<? super File> reader) {
+        void load(BuildCacheKey key, LocalBuildCacheEntryReader reader) {
 
         }
 
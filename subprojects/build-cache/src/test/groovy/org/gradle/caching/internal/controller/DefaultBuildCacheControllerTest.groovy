@@ -16,18 +16,23 @@
 
 package org.gradle.caching.internal.controller
 
-import org.gradle.api.Action
 import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
+import org.gradle.caching.configuration.BuildCacheEntryCompression
+import org.gradle.caching.internal.BuildCacheEntryFormat
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.local.internal.LocalBuildCacheEntryReader
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.testing.internal.util.Specification
 import org.junit.Rule
 
+import java.util.concurrent.CountDownLatch
+
 class DefaultBuildCacheControllerTest extends Specification {
 
     def key = Mock(BuildCacheKey) {
@@ -46,6 +51,8 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     BuildCacheService legacyLocal = null
 
+    InMemoryBuildCacheEntryStore memory = null
+
     def storeCommand = Stub(BuildCacheStoreCommand) {
         getKey() >> key
         store(_) >> { OutputStream output ->
@@ -96,6 +103,29 @@ class DefaultBuildCacheControllerTest extends Specification {
         )
     }
 
+    BuildCacheController getStoreBehindController() {
+        createController(2)
+    }
+
+    BuildCacheController getInMemoryController() {
+        createController(0)
+    }
+
+    private BuildCacheController createController(int maxQueuedRemoteStores) {
+        new DefaultBuildCacheController(
+            new BuildCacheServicesConfiguration(
+                legacyLocal ?: local, localPush,
+                remote, remotePush
+            ),
+            operations,
+            tmpDir.file("dir"),
+            false,
+            new DefaultExecutorFactory(),
+            maxQueuedRemoteStores,
+            memory
+        )
+    }
+
     def "does suppress exceptions from load"() {
         given:
         1 * remote.load(key, _) >> { throw new RuntimeException() }
@@ -146,10 +176,10 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     def "local load does not stores to local"() {
         given:
-        1 * local.load(key, _) >> { BuildCacheKey key, Action<File> action ->
+        1 * local.load(key, _) >> { BuildCacheKey key, LocalBuildCacheEntryReader reader ->
             def file = tmpDir.file("file")
             file.text = "alma"
-            action.execute(file)
+            reader.readFrom(file)
         }
 
         when:
@@ -159,6 +189,20 @@ class DefaultBuildCacheControllerTest extends Specification {
         0 * local.store(key, _)
     }
 
+    def "loads entry streamed from local"() {
+        given:
+        1 * local.load(key, _) >> { BuildCacheKey key, LocalBuildCacheEntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream("alma".bytes), 4)
+        }
+
+        when:
+        controller.load(loadCommand)
+
+        then:
+        0 * remote.load(key, _)
+        0 * local.store(key, _)
+    }
+
     def "remote load also stores to local"() {
         given:
         1 * local.load(key, _) // miss
@@ -337,4 +381,102 @@ class DefaultBuildCacheControllerTest extends Specification {
         }
     }
 
+    def "loads entry kept in memory by an earlier build"() {
+        given:
+        memory = new InMemoryBuildCacheEntryStore(1024 * 1024)
+        def file = tmpDir.file("local")
+        file.bytes = uncompressedEntry("foo")
+
+        when:
+        def controller = inMemoryController
+        controller.load(loadCommand)
+        controller.close()
+
+        then:
+        1 * local.load(key, _) >> { BuildCacheKey key, LocalBuildCacheEntryReader reader ->
+            reader.readFrom(file)
+        }
+        memory.entryCount == 1
+
+        when:
+        controller = inMemoryController
+        controller.load(loadCommand)
+        controller.close()
+
+        then:
+        0 * local.load(key, _)
+        0 * remote.load(key, _)
+        memory.hitCount == 1
+        memory.missCount == 1
+    }
+
+    def "keeps stored entry in memory"() {
+        given:
+        memory = new InMemoryBuildCacheEntryStore(1024 * 1024)
+        def storeCommand = Stub(BuildCacheStoreCommand) {
+            getKey() >> key
+            store(_) >> { OutputStream output ->
+                output.withStream { it.write(uncompressedEntry("foo")) }
+                Stub(BuildCacheStoreCommand.Result)
+            }
+        }
+
+        when:
+        inMemoryController.store(storeCommand)
+
+        then:
+        memory.contains(key)
+    }
+
+    def "stores to remote in the background"() {
+        given:
+        def controller = storeBehindController
+        def uploadStarted = new CountDownLatch(1)
+        def uploadCanFinish = new CountDownLatch(1)
+        def uploaded = new ByteArrayOutputStream()
+
+        when:
+        controller.store(storeCommand)
+        uploadStarted.await()
+
+        then:
+        1 * local.store(key, _)
+        1 * remote.store(key, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            uploadStarted.countDown()
+            uploadCanFinish.await()
+            writer.writeTo(uploaded)
+        }
+        controller.remoteUploader.queueDepth == 1
+
+        when:
+        uploadCanFinish.countDown()
+        controller.close()
+
+        then:
+        controller.remoteUploader.queueDepth == 0
+        controller.remoteUploader.maxQueueDepth == 1
+        controller.remoteUploader.uploadedEntryCount == 1
+        !tmpDir.file("upload-file").exists()
+    }
+
+    def "does not store in the background when remote push is disabled"() {
+        given:
+        remotePush = false
+        def controller = storeBehindController
+
+        when:
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        1 * local.store(key, _)
+        0 * remote.store(key, _)
+        controller.remoteUploader.maxQueueDepth == 0
+    }
+
+    private static byte[] uncompressedEntry(String contents) {
+        def bytes = new ByteArrayOutputStream()
+        BuildCacheEntryFormat.compress(bytes, BuildCacheEntryCompression.NONE, null).withStream { it.write(contents.bytes) }
+        bytes.toByteArray()
+    }
 }
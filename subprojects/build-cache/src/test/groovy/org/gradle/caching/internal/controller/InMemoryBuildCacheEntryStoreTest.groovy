@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller
+
+import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.configuration.BuildCacheEntryCompression
+import org.gradle.caching.internal.BuildCacheEntryFormat
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class InMemoryBuildCacheEntryStoreTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+
+    def store = new InMemoryBuildCacheEntryStore(800)
+
+    def "keeps entries uncompressed"() {
+        def key = key("a")
+
+        when:
+        store.store(key, entry("a", "contents", BuildCacheEntryCompression.GZIP))
+
+        then:
+        BuildCacheEntryFormat.decompress(new ByteArrayInputStream(store.load(key))).text == "contents"
+        store.load(key) == entryBytes("contents", BuildCacheEntryCompression.NONE)
+        store.hitCount == 2
+        store.missCount == 0
+    }
+
+    def "counts misses"() {
+        expect:
+        store.load(key("a")) == null
+        !store.contains(key("a"))
+        store.missCount == 1
+        store.hitCount == 0
+    }
+
+    def "evicts least recently used entries when full"() {
+        def names = ["a", "b", "c", "d", "e", "f", "g", "h"]
+        def keys = names.collect { key(it) }
+
+        when:
+        names.eachWithIndex { name, index -> store.store(keys[index], entry(name, "x" * 95, BuildCacheEntryCompression.NONE)) }
+
+        then:
+        store.entryCount == 8
+        store.size == 800
+
+        when:
+        store.load(keys[0])
+        store.store(key("i"), entry("i", "x" * 95, BuildCacheEntryCompression.NONE))
+
+        then:
+        store.contains(keys[0])
+        !store.contains(keys[1])
+        store.contains(key("i"))
+        store.size == 800
+        store.evictionCount == 1
+    }
+
+    def "does not keep large entries"() {
+        when:
+        store.store(key("a"), entry("a", "x" * 96, BuildCacheEntryCompression.NONE))
+
+        then:
+        !store.contains(key("a"))
+        store.size == 0
+    }
+
+    def "does not keep invalid entries"() {
+        def file = temporaryFolder.file("invalid")
+        file.text = "invalid"
+
+        when:
+        store.store(key("a"), file)
+
+        then:
+        !store.contains(key("a"))
+    }
+
+    def "does not keep anything when disabled"() {
+        def store = new InMemoryBuildCacheEntryStore(0)
+
+        when:
+        store.store(key("a"), entry("a", "", BuildCacheEntryCompression.NONE))
+
+        then:
+        !store.enabled
+        !store.contains(key("a"))
+    }
+
+    private File entry(String name, String contents, BuildCacheEntryCompression compression) {
+        def file = temporaryFolder.file(name)
+        file.bytes = entryBytes(contents, compression)
+        file
+    }
+
+    private static byte[] entryBytes(String contents, BuildCacheEntryCompression compression) {
+        def bytes = new ByteArrayOutputStream()
+        BuildCacheEntryFormat.compress(bytes, compression, null).withStream { it.write(contents.bytes) }
+        bytes.toByteArray()
+    }
+
+    private BuildCacheKey key(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+}
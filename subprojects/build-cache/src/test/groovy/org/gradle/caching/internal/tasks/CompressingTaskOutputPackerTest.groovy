@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks
+
+import org.gradle.caching.configuration.BuildCacheEntryCompression
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter
+import org.gradle.internal.Factory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPOutputStream
+
+class CompressingTaskOutputPackerTest extends Specification {
+    def delegate = Mock(TaskOutputPacker)
+    def compression = BuildCacheEntryCompression.GZIP
+    def packer = new CompressingTaskOutputPacker(delegate, { compression } as Factory)
+
+    @Unroll
+    def "can load entry packed with #entryCompression compression"() {
+        def output = new ByteArrayOutputStream()
+        def propertySpecs = new TreeSet()
+        def unpacked = new ByteArrayOutputStream()
+        compression = entryCompression
+
+        when:
+        packer.pack(propertySpecs, [:], output, Stub(TaskOutputOriginWriter))
+
+        then:
+        1 * delegate.pack(propertySpecs, [:], _, _) >> { args ->
+            args[2].write("packed output".bytes)
+            null
+        }
+
+        when:
+        packer.unpack(propertySpecs, new ByteArrayInputStream(output.toByteArray()), Stub(TaskOutputOriginReader))
+
+        then:
+        1 * delegate.unpack(propertySpecs, _, _) >> { args ->
+            unpacked << args[1]
+            null
+        }
+        unpacked.toString() == "packed output"
+
+        where:
+        entryCompression << BuildCacheEntryCompression.values()
+    }
+
+    def "can load GZIP entries without format header"() {
+        def output = new ByteArrayOutputStream()
+        def gzipOutput = new GZIPOutputStream(output)
+        gzipOutput.write("packed output".bytes)
+        gzipOutput.close()
+        def unpacked = new ByteArrayOutputStream()
+
+        when:
+        packer.unpack(new TreeSet(), new ByteArrayInputStream(output.toByteArray()), Stub(TaskOutputOriginReader))
+
+        then:
+        1 * delegate.unpack(_, _, _) >> { args ->
+            unpacked << args[1]
+            null
+        }
+        unpacked.toString() == "packed output"
+    }
+
+    def "uncompressed entries start with format header"() {
+        def output = new ByteArrayOutputStream()
+        compression = BuildCacheEntryCompression.NONE
+
+        when:
+        packer.pack(new TreeSet(), [:], output, Stub(TaskOutputOriginWriter))
+
+        then:
+        1 * delegate.pack(_, _, _, _) >> { args ->
+            args[2].write("tar".bytes)
+            null
+        }
+        output.toByteArray() as List == ([0x47, 0x43, 0x45, 1, 0] + ("tar".bytes as List)) as byte[] as List
+    }
+
+    @Unroll
+    def "fails to load entry with unknown format (#bytes)"() {
+        when:
+        packer.unpack(new TreeSet(), new ByteArrayInputStream(bytes as byte[]), Stub(TaskOutputOriginReader))
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.startsWith("Cached result format error")
+        0 * delegate._
+
+        where:
+        bytes << [[], [0x1f], [0x47, 0x43, 0x45, 1, 42], [0x75, 0x73, 0x74, 0x61, 0x72, 0x00]]
+    }
+}
@@ -36,6 +36,7 @@ import spock.lang.Specification
 import spock.lang.Unroll
 
 import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 
 import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType.DIRECTORY
 import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType.FILE
@@ -255,6 +256,68 @@ class TarTaskOutputPackerTest extends Specification {
         0 * _
     }
 
+    def "reading files ahead produces the same archive"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        def random = new Random(1234L)
+        20.times { index ->
+            def data = new byte[index == 7 ? 2 * 1024 * 1024 : random.nextInt(64 * 1024)]
+            random.nextBytes(data)
+            sourceOutputDir.file("dir-${index % 3}/file-${index}.bin").bytes = data
+        }
+        def executor = Executors.newFixedThreadPool(2)
+        def readAheadPacker = new TarTaskOutputPacker(fileSystem, streamHasher, stringInterner, executor)
+        def sequentialOutput = new ByteArrayOutputStream()
+        def readAheadOutput = new ByteArrayOutputStream()
+        fileSystem.getUnixMode(_) >> 0644
+
+        when:
+        pack sequentialOutput, prop(DIRECTORY, sourceOutputDir)
+        packer = readAheadPacker
+        pack readAheadOutput, prop(DIRECTORY, sourceOutputDir)
+
+        then:
+        readAheadOutput.toByteArray() == sequentialOutput.toByteArray()
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "writing files in parallel unpacks the same files"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        def random = new Random(1234L)
+        200.times { index ->
+            def data = new byte[index == 7 ? 2 * 1024 * 1024 : random.nextInt(64 * 1024)]
+            random.nextBytes(data)
+            sourceOutputDir.file("dir-${index % 3}/file-${index}.bin").bytes = data
+        }
+        def sequentialTargetDir = temporaryFolder.file("sequential")
+        def parallelTargetDir = temporaryFolder.file("parallel")
+        def executor = Executors.newFixedThreadPool(2)
+        def parallelPacker = new TarTaskOutputPacker(fileSystem, streamHasher, stringInterner, null, executor)
+        def output = new ByteArrayOutputStream()
+        fileSystem.getUnixMode(_) >> 0644
+
+        when:
+        pack output, prop(DIRECTORY, sourceOutputDir)
+        def sequentialResult = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, sequentialTargetDir)
+        packer = parallelPacker
+        def parallelResult = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, parallelTargetDir)
+
+        then:
+        parallelResult.entries == sequentialResult.entries
+        def sequentialSnapshots = sequentialResult.snapshots.get("test")
+        def parallelSnapshots = parallelResult.snapshots.get("test")
+        parallelSnapshots*.relativePath == sequentialSnapshots*.relativePath
+        parallelSnapshots*.content*.contentMd5 == sequentialSnapshots*.content*.contentMd5
+        200.times { index ->
+            def path = "dir-${index % 3}/file-${index}.bin"
+            assert new File(parallelTargetDir, path).bytes == new File(sourceOutputDir, path).bytes
+        }
+
+        cleanup:
+        executor.shutdown()
+    }
+
     def pack(OutputStream output, TaskOutputOriginWriter writeOrigin = this.writeOrigin, PropertyDefinition... propertyDefs) {
         def propertySpecs = propertyDefs*.property as SortedSet
         def outputSnapshots = propertyDefs.collectEntries { propertyDef ->
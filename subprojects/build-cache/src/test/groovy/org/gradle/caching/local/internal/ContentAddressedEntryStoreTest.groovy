@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.io.IOUtils
+import org.gradle.cache.PersistentCache
+import org.gradle.caching.configuration.BuildCacheEntryCompression
+import org.gradle.caching.internal.BuildCacheEntryFormat
+import org.gradle.internal.hash.Hashing
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@CleanupTestDirectory
+class ContentAddressedEntryStoreTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+    def cacheDir = temporaryFolder.createDir("cache")
+    def index = new DirectoryBuildCacheIndex(Stub(PersistentCache) {
+        getBaseDir() >> temporaryFolder.testDirectory
+        withFileLock(_) >> { args -> args[0].create() }
+    })
+    def store = new ContentAddressedEntryStore(cacheDir, ".part", index)
+    def largeContents = ("large contents " * 1000).bytes
+
+    @Unroll
+    def "recreates #compression entry from manifest"() {
+        def entry = entry(compression, "origin")
+        def manifest = temporaryFolder.file("manifest")
+
+        when:
+        store.storeManifest(entry, manifest)
+
+        then:
+        store.isManifest(manifest)
+        !store.isManifest(entry)
+        manifest.length() < 1000
+
+        when:
+        def loaded = store.openEntry(manifest)
+
+        then:
+        loaded != null
+        loaded.storedSize == manifest.length() + largeContents.length
+        read(loaded) == [
+            "METADATA": [0100644, "origin"],
+            "tree-output/": [040755, ""],
+            "tree-output/large.txt": [0100644, new String(largeContents)],
+            "tree-output/small.sh": [0100755, "small contents"],
+        ]
+
+        where:
+        compression << BuildCacheEntryCompression.values()
+    }
+
+    def "stores contents shared between entries only once"() {
+        def blobName = "blob2-" + Hashing.sha1().hashBytes(largeContents)
+
+        when:
+        store.storeManifest(entry(BuildCacheEntryCompression.GZIP, "first"), temporaryFolder.file("first"))
+        store.storeManifest(entry(BuildCacheEntryCompression.NONE, "second"), temporaryFolder.file("second"))
+        index.flush()
+
+        then:
+        cacheDir.list() as List == [blobName]
+        cacheDir.file(blobName).bytes == largeContents
+        index.read().sizes == [(blobName): cacheDir.file(blobName).length()]
+    }
+
+    def "cannot recreate entry after its contents have been removed"() {
+        def manifest = temporaryFolder.file("manifest")
+        store.storeManifest(entry(BuildCacheEntryCompression.GZIP, "origin"), manifest)
+
+        when:
+        cacheDir.listFiles()*.delete()
+
+        then:
+        store.openEntry(manifest) == null
+    }
+
+    private TestFile entry(BuildCacheEntryCompression compression, String origin) {
+        def file = temporaryFolder.file("entry-" + origin)
+        def tarOutput = new TarArchiveOutputStream(BuildCacheEntryFormat.compress(new FileOutputStream(file), compression, null), "utf-8")
+        try {
+            putEntry(tarOutput, "METADATA", 0100644, origin.bytes)
+            putEntry(tarOutput, "tree-output/", 040755, new byte[0])
+            putEntry(tarOutput, "tree-output/large.txt", 0100644, largeContents)
+            putEntry(tarOutput, "tree-output/small.sh", 0100755, "small contents".bytes)
+        } finally {
+            tarOutput.close()
+        }
+        return file
+    }
+
+    private static void putEntry(TarArchiveOutputStream tarOutput, String name, int mode, byte[] contents) {
+        def entry = new TarArchiveEntry(name, true)
+        entry.mode = mode
+        entry.size = contents.length
+        tarOutput.putArchiveEntry(entry)
+        tarOutput.write(contents)
+        tarOutput.closeArchiveEntry()
+    }
+
+    private static Map<String, List<Object>> read(InputStream entry) {
+        def contents = [:]
+        def tarInput = new TarArchiveInputStream(BuildCacheEntryFormat.decompress(entry))
+        try {
+            TarArchiveEntry tarEntry
+            while ((tarEntry = tarInput.nextTarEntry) != null) {
+                contents[tarEntry.name] = [tarEntry.mode, tarEntry.directory ? "" : new String(IOUtils.toByteArray(tarInput))]
+            }
+        } finally {
+            tarInput.close()
+        }
+        return contents
+    }
+}
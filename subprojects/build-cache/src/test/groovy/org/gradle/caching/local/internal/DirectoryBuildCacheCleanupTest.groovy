@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal
+
+import org.gradle.cache.PersistentCache
+import org.gradle.internal.operations.BuildOperationExecutor
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+@CleanupTestDirectory
+class DirectoryBuildCacheCleanupTest extends Specification {
+    static final long KB = 1024
+
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+    def cacheDir = temporaryFolder.createDir("cache")
+    def persistentCache = Stub(PersistentCache) {
+        getBaseDir() >> cacheDir
+        withFileLock(_) >> { args -> args[0].create() }
+    }
+    def index = new DirectoryBuildCacheIndex(persistentCache)
+    def cleanup = new DirectoryBuildCacheCleanup(Mock(BuildOperationExecutor), 1, ".part")
+
+    def "creates index from the files in the cache directory"() {
+        def oldest = file("oldest", 400 * KB, 1000)
+        def newest = file("newest", 400 * KB, 3000)
+        def older = file("older", 400 * KB, 2000)
+        def partial = file("entry.part", 400 * KB, 0)
+        def properties = file("gc.properties", 1, 0)
+
+        when:
+        def result = cleanup.cleanup(persistentCache)
+
+        then:
+        result.entryCount == 3
+        result.cacheSize == 1200 * KB
+        result.removedEntryCount == 1
+        result.removedSize == 400 * KB
+        !oldest.exists()
+        older.exists()
+        newest.exists()
+        partial.exists()
+        properties.exists()
+        index.read().sizes == [older: 400 * KB, newest: 400 * KB]
+    }
+
+    def "removes least recently used entries of the index"() {
+        def first = stored("first", 300 * KB)
+        def second = stored("second", 300 * KB)
+        def third = stored("third", 300 * KB)
+        index.recordHit("first")
+        index.recordMiss()
+        def fourth = stored("fourth", 300 * KB)
+        index.flush()
+
+        when:
+        def result = cleanup.cleanup(persistentCache)
+
+        then:
+        result.entryCount == 4
+        result.cacheSize == 1200 * KB
+        result.removedEntryCount == 1
+        result.hitCount == 1
+        result.missCount == 1
+        !second.exists()
+        first.exists()
+        third.exists()
+        fourth.exists()
+
+        when:
+        index.recordRemoved("third")
+        index.flush()
+        result = cleanup.cleanup(persistentCache)
+
+        then:
+        result.entryCount == 2
+        result.removedEntryCount == 0
+        result.hitCount == 0
+        index.read().sizes == [first: 300 * KB, fourth: 300 * KB]
+    }
+
+    def "adds files missing from the index as least recently used entries"() {
+        def indexed = stored("indexed", 300 * KB)
+        index.flush()
+        cleanup.cleanup(persistentCache)
+        def newer = file("newer", 300 * KB, 2000)
+        def older = file("older", 300 * KB, 1000)
+        def removed = stored("removed", 300 * KB)
+        index.flush()
+        removed.delete()
+
+        when:
+        def result = cleanup.cleanup(persistentCache)
+
+        then:
+        result.entryCount == 3
+        result.cacheSize == 900 * KB
+        result.removedEntryCount == 0
+        index.read().sizes == [older: 300 * KB, newer: 300 * KB, indexed: 300 * KB]
+
+        when:
+        def newest = file("newest", 300 * KB, 3000)
+        result = cleanup.cleanup(persistentCache)
+
+        then:
+        result.entryCount == 4
+        result.removedEntryCount == 1
+        !newest.exists()
+        older.exists()
+        newer.exists()
+        indexed.exists()
+    }
+
+    def "truncates the index before a partially written record"() {
+        stored("first", 300 * KB)
+        index.flush()
+        def indexFile = cacheDir.file(DirectoryBuildCacheIndex.INDEX_FILE_NAME)
+        def validLength = indexFile.length()
+        stored("second", 300 * KB)
+        index.flush()
+        def bytes = indexFile.bytes
+        indexFile.bytes = Arrays.copyOf(bytes, bytes.length - 3)
+
+        when:
+        def sizes = index.read().sizes
+
+        then:
+        sizes == [first: 300 * KB]
+        indexFile.length() == validLength
+
+        when:
+        index.recordHit("first")
+        stored("third", 300 * KB)
+        index.flush()
+
+        then:
+        index.read().sizes == [first: 300 * KB, third: 300 * KB]
+        index.read().hitCount == 1
+    }
+
+    def "discards records that do not match their checksum"() {
+        stored("first", 300 * KB)
+        index.flush()
+        def indexFile = cacheDir.file(DirectoryBuildCacheIndex.INDEX_FILE_NAME)
+        def validLength = indexFile.length()
+        stored("second", 300 * KB)
+        index.flush()
+        def bytes = indexFile.bytes
+        bytes[bytes.length - 1] = (byte) (bytes[bytes.length - 1] + 1)
+        indexFile.bytes = bytes
+
+        expect:
+        index.read().sizes == [first: 300 * KB]
+        indexFile.length() == validLength
+    }
+
+    private TestFile stored(String name, long size) {
+        def file = file(name, size, 0)
+        index.recordStored(name, size)
+        file
+    }
+
+    private TestFile file(String name, long size, long lastModified) {
+        def file = cacheDir.file(name)
+        file.bytes = new byte[size]
+        if (lastModified > 0) {
+            file.lastModified = lastModified
+        }
+        file
+    }
+}
@@ -22,6 +22,7 @@ import org.gradle.cache.CacheRepository
 import org.gradle.cache.internal.CacheScopeMapping
 import org.gradle.cache.internal.VersionStrategy
 import org.gradle.caching.BuildCacheServiceFactory
+import org.gradle.caching.configuration.BuildCacheEntryCompression
 import org.gradle.caching.local.DirectoryBuildCache
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.resource.local.PathKeyFileStore
@@ -53,6 +54,7 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         then:
         service instanceof DirectoryBuildCacheService
         1 * config.getDirectory() >> null
+        1 * config.getEntryCompression() >> BuildCacheEntryCompression.GZIP
         1 * config.getTargetSizeInMB() >> 1000
         1 * cacheScopeMapping.getBaseDirectory(null, "build-cache-1", VersionStrategy.SharedCache) >> cacheDir
         1 * fileStoreFactory.createFileStore(cacheDir) >> Mock(PathKeyFileStore)
@@ -60,6 +62,22 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         0 * _
     }
 
+    def "uses separate default directory for uncompressed entries"() {
+        def cacheDir = temporaryFolder.file("build-cache-uncompressed-1")
+
+        when:
+        def service = factory.createBuildCacheService(config, buildCacheDescriber)
+        then:
+        service instanceof DirectoryBuildCacheService
+        1 * config.getDirectory() >> null
+        1 * config.getEntryCompression() >> BuildCacheEntryCompression.NONE
+        1 * config.getTargetSizeInMB() >> 1000
+        1 * cacheScopeMapping.getBaseDirectory(null, "build-cache-uncompressed-1", VersionStrategy.SharedCache) >> cacheDir
+        1 * fileStoreFactory.createFileStore(cacheDir) >> Mock(PathKeyFileStore)
+        1 * cacheRepository.cache(cacheDir) >> cacheBuilder
+        0 * _
+    }
+
     def "can create service with given directory"() {
         def cacheDir = temporaryFolder.file("cache-dir")
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.internal.file.collections.DefaultDirectoryFileTreeFactory;
+import org.gradle.api.internal.file.collections.DirectoryFileTreeFactory;
+import org.gradle.internal.classpath.CachedJarFileStore;
+import org.gradle.internal.hash.DefaultContentHasherFactory;
+import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.DefaultStreamHasher;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+import org.gradle.internal.nativeintegration.services.FileSystems;
+import org.gradle.internal.nativeintegration.services.NativeServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Snapshots synthetic directory trees with and without hashing the files in parallel.
+ * Every invocation uses an empty file system mirror and hashes all files, as there is no file hash cache.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+@SuppressWarnings("Since15")
+public class DirectoryTreeSnapshottingBenchmark {
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int FILE_SIZE = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    int fileCount;
+
+    @Param({"sequential", "parallel"})
+    String mode;
+
+    private File tempDir;
+    private File root;
+    private FileHasher hasher;
+    private FileSystem fileSystem;
+    private DirectoryFileTreeFactory directoryFileTreeFactory;
+    private ParallelFileTreeHasher parallelHasher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("tree-snapshotting").toFile();
+        NativeServices.initialize(new File(tempDir, "native"));
+        fileSystem = FileSystems.getDefault();
+        directoryFileTreeFactory = new DefaultDirectoryFileTreeFactory();
+        hasher = new DefaultFileHasher(new DefaultStreamHasher(new DefaultContentHasherFactory()));
+        parallelHasher = mode.equals("parallel") ? new ParallelFileTreeHasher(Runtime.getRuntime().availableProcessors()) : null;
+
+        root = new File(tempDir, "root");
+        Random random = new Random(1234L);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < fileCount; i++) {
+            File dir = new File(root, "dir" + (i / FILES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0 && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            random.nextBytes(content);
+            FileOutputStream outputStream = new FileOutputStream(new File(dir, "file" + i + ".txt"));
+            try {
+                outputStream.write(content);
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (parallelHasher != null) {
+            parallelHasher.stop();
+        }
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public FileTreeSnapshot snapshotDirectoryTree() {
+        DefaultFileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(Collections.<CachedJarFileStore>emptyList());
+        DefaultFileSystemSnapshotter snapshotter = new DefaultFileSystemSnapshotter(hasher, new StringInterner(), fileSystem, directoryFileTreeFactory, fileSystemMirror, parallelHasher);
+        return snapshotter.snapshotDirectoryTree(root);
+    }
+}
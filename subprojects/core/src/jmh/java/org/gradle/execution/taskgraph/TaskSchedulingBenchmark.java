@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph;
+
+import org.gradle.api.internal.TaskInternal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules all tasks of a synthetic task graph with a given number of workers. The graph consists of projects with a chain of tasks each, where the first task
+ * of a project depends on the last task of some of the projects before it.
+ * Every idle worker looks for a task whenever a task completes, as workers waiting on the state lock of the execution plan do.
+ * Compares scanning the whole execution queue for a task with complete dependencies with picking from a {@link ReadyTaskQueue}.
+ * The time per operation is the time to schedule the whole graph.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class TaskSchedulingBenchmark {
+    private static final int TASKS_PER_PROJECT = 6;
+    private static final int PROJECT_DEPENDENCIES = 3;
+    private static final int PROJECT_DEPENDENCY_RANGE = 50;
+
+    @Param({"1000", "5000", "10000"})
+    int taskCount;
+
+    @Param({"4", "32"})
+    int workers;
+
+    private List<TaskInfo> tasks;
+
+    @Setup(Level.Invocation)
+    public void createGraph() {
+        Random random = new Random(1234L);
+        tasks = new ArrayList<TaskInfo>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            TaskInfo task = new TaskInfo(task(i));
+            task.require();
+            int project = i / TASKS_PER_PROJECT;
+            if (i % TASKS_PER_PROJECT != 0) {
+                task.addDependencySuccessor(tasks.get(i - 1));
+            } else if (project > 0) {
+                for (int j = 0; j < PROJECT_DEPENDENCIES; j++) {
+                    int dependencyProject = Math.max(0, project - 1 - random.nextInt(PROJECT_DEPENDENCY_RANGE));
+                    task.addDependencySuccessor(tasks.get(dependencyProject * TASKS_PER_PROJECT + TASKS_PER_PROJECT - 1));
+                }
+            }
+            tasks.add(task);
+        }
+    }
+
+    @Benchmark
+    public int scanExecutionQueue() {
+        LinkedList<TaskInfo> executionQueue = new LinkedList<TaskInfo>(tasks);
+        Deque<TaskInfo> running = new ArrayDeque<TaskInfo>();
+        int attempts = 0;
+        while (!running.isEmpty() || !executionQueue.isEmpty()) {
+            // Every idle worker looks for a task, and keeps looking after each completed task
+            for (int idle = workers - running.size(); idle > 0; idle--) {
+                attempts++;
+                TaskInfo selected = null;
+                Iterator<TaskInfo> iterator = executionQueue.iterator();
+                while (iterator.hasNext()) {
+                    TaskInfo task = iterator.next();
+                    if (task.isReady() && task.allDependenciesComplete()) {
+                        iterator.remove();
+                        selected = task;
+                        break;
+                    }
+                }
+                if (selected != null) {
+                    selected.startExecution();
+                    running.add(selected);
+                }
+            }
+            running.remove().finishExecution();
+        }
+        return attempts;
+    }
+
+    @Benchmark
+    public int pickFromReadyQueue() {
+        ReadyTaskQueue queue = new ReadyTaskQueue();
+        queue.reset(tasks);
+        Deque<TaskInfo> running = new ArrayDeque<TaskInfo>();
+        int attempts = 0;
+        while (!running.isEmpty() || queue.hasIncompleteTasks()) {
+            for (int idle = workers - running.size(); idle > 0; idle--) {
+                attempts++;
+                TaskInfo selected = null;
+                for (TaskInfo task : queue.getReadyTasks()) {
+                    if (task.isReady()) {
+                        selected = task;
+                        break;
+                    }
+                }
+                if (selected != null) {
+                    queue.remove(selected);
+                    selected.startExecution();
+                    running.add(selected);
+                }
+            }
+            TaskInfo completed = running.remove();
+            completed.finishExecution();
+            queue.taskCompleted(completed);
+        }
+        return attempts;
+    }
+
+    private static TaskInternal task(final int index) {
+        return (TaskInternal) Proxy.newProxyInstance(TaskSchedulingBenchmark.class.getClassLoader(), new Class<?>[]{TaskInternal.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("compareTo")) {
+                    return Integer.valueOf(index).compareTo(Integer.valueOf(args[0].toString().substring(5)));
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("toString") || name.equals("getPath")) {
+                    return ":task" + index;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
@@ -30,8 +30,14 @@ import org.gradle.internal.serialize.Encoder;
 import org.gradle.internal.serialize.HashCodeSerializer;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 public class CachingFileHasher implements FileHasher {
+    /**
+     * When set to true, the in-memory entries of the file hash cache are kept outside of the heap.
+     */
+    public static final String OFF_HEAP_CACHE_PROPERTY = "org.gradle.internal.filehashes.offheap";
+    private static final int MAX_ENTRIES_TO_KEEP_IN_MEMORY = 400000;
     private final PersistentIndexedCache<String, FileInfo> cache;
     private final FileHasher delegate;
     private final FileSystem fileSystem;
@@ -39,9 +45,15 @@ public class CachingFileHasher implements FileHasher {
     private final FileTimeStampInspector timestampInspector;
 
     public CachingFileHasher(FileHasher delegate, TaskHistoryStore store, StringInterner stringInterner, FileTimeStampInspector timestampInspector, String cacheName, FileSystem fileSystem) {
+        this(delegate, store, stringInterner, timestampInspector, cacheName, fileSystem, false);
+    }
+
+    public CachingFileHasher(FileHasher delegate, TaskHistoryStore store, StringInterner stringInterner, FileTimeStampInspector timestampInspector, String cacheName, FileSystem fileSystem, boolean offHeap) {
         this.delegate = delegate;
         this.fileSystem = fileSystem;
-        this.cache = store.createCache(cacheName, String.class, new FileInfoSerializer(), 400000, true);
+        this.cache = offHeap
+            ? store.createOffHeapCache(cacheName, new FileInfoSerializer(), new FileInfoCodec(), MAX_ENTRIES_TO_KEEP_IN_MEMORY)
+            : store.createCache(cacheName, String.class, new FileInfoSerializer(), MAX_ENTRIES_TO_KEEP_IN_MEMORY, true);
         this.stringInterner = stringInterner;
         this.timestampInspector = timestampInspector;
     }
@@ -112,6 +124,45 @@ public class CachingFileHasher implements FileHasher {
         }
     }
 
+    /**
+     * Encodes the length, timestamp and 128 bit hash of a file. Hashes of other lengths are not kept off-heap.
+     */
+    @VisibleForTesting
+    static class FileInfoCodec implements OffHeapValueCodec<FileInfo> {
+        private static final int HASH_LENGTH = 16;
+
+        @Override
+        public int getSize() {
+            return 16 + HASH_LENGTH;
+        }
+
+        @Override
+        public boolean canEncode(FileInfo value) {
+            return value.hash.length() == HASH_LENGTH;
+        }
+
+        @Override
+        public void encode(FileInfo value, ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, value.length);
+            buffer.putLong(offset + 8, value.timestamp);
+            byte[] hash = value.hash.toByteArray();
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                buffer.put(offset + 16 + i, hash[i]);
+            }
+        }
+
+        @Override
+        public FileInfo decode(ByteBuffer buffer, int offset) {
+            long length = buffer.getLong(offset);
+            long timestamp = buffer.getLong(offset + 8);
+            byte[] hash = new byte[HASH_LENGTH];
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                hash[i] = buffer.get(offset + 16 + i);
+            }
+            return new FileInfo(HashCode.fromBytes(hash), length, timestamp);
+        }
+    }
+
     private static class FileInfoSerializer extends AbstractSerializer<FileInfo> {
         private final HashCodeSerializer hashCodeSerializer = new HashCodeSerializer();
 
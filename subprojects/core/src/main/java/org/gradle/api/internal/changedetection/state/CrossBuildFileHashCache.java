@@ -51,6 +51,13 @@ public class CrossBuildFileHashCache implements Closeable, TaskHistoryStore {
         return cache.createCache(parameters);
     }
 
+    @Override
+    public <V> PersistentIndexedCache<String, V> createOffHeapCache(String cacheName, Serializer<V> valueSerializer, OffHeapValueCodec<V> codec, int maxEntriesToKeepInMemory) {
+        PersistentIndexedCacheParameters<String, V> parameters = new PersistentIndexedCacheParameters<String, V>(cacheName, String.class, valueSerializer)
+                .cacheDecorator(inMemoryCacheDecoratorFactory.offHeapDecorator(maxEntriesToKeepInMemory, codec));
+        return cache.createCache(parameters);
+    }
+
     @Override
     public void close() throws IOException {
         cache.close();
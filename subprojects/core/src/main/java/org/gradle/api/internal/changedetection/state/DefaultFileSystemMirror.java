@@ -16,34 +16,113 @@
 
 package org.gradle.api.internal.changedetection.state;
 
+import org.gradle.api.Action;
+import org.gradle.api.internal.file.FileSystemSubset;
 import org.gradle.api.internal.tasks.execution.TaskOutputsGenerationListener;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.cache.PersistentCache;
 import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.UncheckedException;
 import org.gradle.internal.classpath.CachedJarFileStore;
+import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.file.DefaultFileHierarchySet;
 import org.gradle.internal.file.FileHierarchySet;
+import org.gradle.internal.filewatch.FileWatcher;
+import org.gradle.internal.filewatch.FileWatcherEvent;
+import org.gradle.internal.filewatch.FileWatcherFactory;
+import org.gradle.internal.filewatch.FileWatcherListener;
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * See {@link DefaultFileSystemSnapshotter} for some more details
+ *
+ * When created with an image cache, the directory tree snapshots are written to an image in the cache at the end of each build and read back when the first build of a later process starts.
+ * A tree from the image is only used after checking that the timestamps of its directories and files have not changed, and is dropped from the image otherwise.
+ * Only the first build of a process uses the trees from the image, the trees that it did not use are not kept in memory afterwards.
+ *
+ * When created with a file watcher factory, the roots of the directory trees snapshotted during a build are watched for changes once the build completes.
+ * State about files in watched directories is kept between builds and is discarded when a change is reported for the file. Within a build, the state for the
+ * declared outputs of a task is discarded when the task outputs are generated. As a task may also change other files, the mirror waits for the watcher to report
+ * the changes made by the task before its state is used again. When not watching, all state is thrown away when task outputs are generated.
+ *
+ * As changes are reported asynchronously, the mirror waits for the watcher to report all changes made before the start and the end of each build, by creating
+ * a marker file in a watched temporary directory and waiting for its creation to be reported. The state for files changed during a build is discarded at the end
+ * of the build, as it may have been snapshotted before the change was reported. When the watcher does not report the marker in time, all state is thrown away.
  */
-public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGenerationListener, RootBuildLifecycleListener {
+public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGenerationListener, RootBuildLifecycleListener, Stoppable {
+    public static final String WATCH_FILE_SYSTEM_PROPERTY = "org.gradle.internal.filesystemmirror.watch";
+    public static final String PERSIST_PROPERTY = "org.gradle.internal.filesystemmirror.persist";
+    private static final Logger LOGGER = Logging.getLogger(DefaultFileSystemMirror.class);
+    private static final String IMAGE_FILE_NAME = "mirror.bin";
+    private static final long BARRIER_TIMEOUT_MILLIS = 5000;
+
     // Maps from interned absolute path for a file to known details for the file.
-    private final Map<String, FileSnapshot> files = new ConcurrentHashMap<String, FileSnapshot>();
+    private final Map<String, FileSnapshot> files;
     private final Map<String, FileSnapshot> cacheFiles = new ConcurrentHashMap<String, FileSnapshot>();
     // Maps from interned absolute path for a directory to known details for the directory.
-    private final Map<String, FileTreeSnapshot> trees = new ConcurrentHashMap<String, FileTreeSnapshot>();
+    private final Map<String, FileTreeSnapshot> trees;
     private final Map<String, FileTreeSnapshot> cacheTrees = new ConcurrentHashMap<String, FileTreeSnapshot>();
     // Maps from interned absolute path to a snapshot
-    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+    private final Map<String, Snapshot> snapshots;
     private final Map<String, Snapshot> cacheSnapshots = new ConcurrentHashMap<String, Snapshot>();
     private final FileHierarchySet cachedDirectories;
+    private final FileSystemMirrorImage image;
+    // Trees read from the image that have not been validated yet
+    private final Map<String, DirectoryTreeDetails> persistedTrees = new ConcurrentHashMap<String, DirectoryTreeDetails>();
+    // Trees snapshotted during the current build, which should be written to the image
+    private final Map<String, FileTreeSnapshot> treesToPersist = new ConcurrentHashMap<String, FileTreeSnapshot>();
+    // Paths of trees read from the image that were validated during the current build, which should be marked as used in the image
+    private final Set<String> validPersistedTrees = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Paths of trees read from the image that failed validation during the current build, which should be dropped from the image
+    private final Set<String> invalidPersistedTrees = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private boolean imageLoaded;
+    private final FileWatcherFactory fileWatcherFactory;
+    private final Object watchLock = new Object();
+    private final Set<File> watchedRoots = new HashSet<File>();
+    private volatile FileHierarchySet watchedDirectories = DefaultFileHierarchySet.of();
+    private volatile FileWatcher watcher;
+    private volatile File barrierDir;
+    private final AtomicInteger barrierCounter = new AtomicInteger();
+    // Markers whose creation has been reported by the watcher
+    private final Set<File> reportedBarriers = new HashSet<File>();
+    // Paths reported as changed during the current build
+    private final Set<String> changedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Set when task outputs have been generated since the watcher last reported all pending changes
+    private volatile boolean outputsGenerated;
+    // Held while waiting for the watcher, so that the markers of different threads do not interfere
+    private final Object barrierLock = new Object();
+    private boolean watchingFailed;
 
     public DefaultFileSystemMirror(List<CachedJarFileStore> fileStores) {
+        this(fileStores, null);
+    }
+
+    public DefaultFileSystemMirror(List<CachedJarFileStore> fileStores, @Nullable PersistentCache imageCache) {
+        this(fileStores, imageCache, null);
+    }
+
+    public DefaultFileSystemMirror(List<CachedJarFileStore> fileStores, @Nullable PersistentCache imageCache, @Nullable FileWatcherFactory fileWatcherFactory) {
+        this.image = imageCache == null ? null : new FileSystemMirrorImage(imageCache, IMAGE_FILE_NAME);
+        this.fileWatcherFactory = fileWatcherFactory;
+        this.files = createPathMap();
+        this.trees = createPathMap();
+        this.snapshots = createPathMap();
         FileHierarchySet cachedDirectories = DefaultFileHierarchySet.of();
         for (CachedJarFileStore fileStore : fileStores) {
             for (File file : fileStore.getFileStoreRoots()) {
@@ -61,6 +140,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         if (cachedDirectories.contains(path)) {
             return cacheFiles.get(path);
         } else {
+            awaitChangesToGeneratedOutputs();
             return files.get(path);
         }
     }
@@ -80,6 +160,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         if (cachedDirectories.contains(path)) {
             return cacheSnapshots.get(path);
         } else {
+            awaitChangesToGeneratedOutputs();
             return snapshots.get(path);
         }
     }
@@ -98,15 +179,37 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
     public FileTreeSnapshot getDirectoryTree(String path) {
         // Could potentially also look whether we have the details for an ancestor directory tree
         // Could possibly also short-circuit some scanning if we have details for some sub trees
+        FileTreeSnapshot tree;
         if (cachedDirectories.contains(path)) {
-            return cacheTrees.get(path);
+            tree = cacheTrees.get(path);
         } else {
-            return trees.get(path);
+            awaitChangesToGeneratedOutputs();
+            tree = trees.get(path);
+        }
+        if (tree == null && image != null) {
+            DirectoryTreeDetails persistedTree = persistedTrees.remove(path);
+            if (persistedTree != null) {
+                if (FileSystemMirrorImage.isUpToDate(persistedTree)) {
+                    storeDirectory(persistedTree);
+                    validPersistedTrees.add(path);
+                    tree = persistedTree;
+                } else {
+                    invalidPersistedTrees.add(path);
+                }
+            }
         }
+        return tree;
     }
 
     @Override
     public void putDirectory(FileTreeSnapshot directory) {
+        storeDirectory(directory);
+        if (image != null) {
+            treesToPersist.put(directory.getPath(), directory);
+        }
+    }
+
+    private void storeDirectory(FileTreeSnapshot directory) {
         if (cachedDirectories.contains(directory.getPath())) {
             cacheTrees.put(directory.getPath(), directory);
         } else {
@@ -114,27 +217,345 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         }
     }
 
+    private <T> Map<String, T> createPathMap() {
+        // When watching, the map needs to be sorted to find the descendants of a changed directory
+        if (fileWatcherFactory == null) {
+            return new ConcurrentHashMap<String, T>();
+        }
+        return new ConcurrentSkipListMap<String, T>();
+    }
+
     @Override
     public void beforeTaskOutputsGenerated() {
-        // When the task outputs are generated, throw away all state for files that do not live in an append-only cache.
-        // This is intentionally very simple, to be improved later
-        files.clear();
-        trees.clear();
-        snapshots.clear();
+        if (isWatching()) {
+            // The changes made by the task are reported by the watcher after some delay, so wait for them before the state is used again
+            outputsGenerated = true;
+        } else {
+            // When the task outputs are generated, throw away all state for files that do not live in an append-only cache.
+            files.clear();
+            trees.clear();
+            snapshots.clear();
+        }
+    }
+
+    @Override
+    public void beforeTaskOutputsGenerated(Iterable<File> outputFiles) {
+        if (isWatching()) {
+            for (File outputFile : outputFiles) {
+                invalidate(outputFile.getAbsolutePath());
+            }
+        }
+        beforeTaskOutputsGenerated();
+    }
+
+    /**
+     * Waits for the watcher to report the changes made by the tasks that generated outputs since the last time this method waited.
+     */
+    private void awaitChangesToGeneratedOutputs() {
+        if (!outputsGenerated) {
+            return;
+        }
+        synchronized (barrierLock) {
+            if (!outputsGenerated) {
+                return;
+            }
+            outputsGenerated = false;
+            if (!awaitPendingChanges()) {
+                LOGGER.info("Changes to watched files were not reported in time, discarding state about files.");
+                files.clear();
+                trees.clear();
+                snapshots.clear();
+            }
+        }
     }
 
     @Override
     public void afterStart() {
+        if (image != null && !imageLoaded) {
+            imageLoaded = true;
+            persistedTrees.putAll(image.read());
+        }
+        if (fileWatcherFactory != null) {
+            // Apply the changes made since the end of the previous build before any state is used
+            if (isWatching() && !awaitPendingChanges()) {
+                LOGGER.info("Changes to watched files were not reported in time, discarding state about files.");
+                files.clear();
+                trees.clear();
+                snapshots.clear();
+            }
+            changedPaths.clear();
+        }
     }
 
     @Override
     public void beforeComplete() {
-        // We throw away all state between builds
-        files.clear();
+        if (image != null) {
+            // The image is only updated by builds that used or invalidated trees
+            if (!treesToPersist.isEmpty() || !validPersistedTrees.isEmpty() || !invalidPersistedTrees.isEmpty()) {
+                image.update(treesToPersist.values(), validPersistedTrees, invalidPersistedTrees);
+            }
+            // The trees of the image that were not used by the first build are unlikely to be used by later builds of this process
+            persistedTrees.clear();
+            treesToPersist.clear();
+            validPersistedTrees.clear();
+            invalidPersistedTrees.clear();
+        }
+        if (fileWatcherFactory != null) {
+            // Keep the state for watched files, and start watching the trees that were snapshotted during this build.
+            // State for files that are not watched yet is thrown away, as they may have changed before the watch was registered
+            List<File> rootsToWatch = new ArrayList<File>();
+            FileHierarchySet watched = watchedDirectories;
+            for (String path : trees.keySet()) {
+                if (!watched.contains(path)) {
+                    rootsToWatch.add(new File(path));
+                }
+            }
+            discardUnwatchedState();
+            discardChangedState();
+            watch(rootsToWatch);
+        } else {
+            // We throw away all state between builds
+            files.clear();
+            trees.clear();
+            snapshots.clear();
+        }
         cacheFiles.clear();
-        trees.clear();
         cacheTrees.clear();
-        snapshots.clear();
         cacheSnapshots.clear();
     }
+
+    @Override
+    public void stop() {
+        synchronized (watchLock) {
+            if (watcher != null) {
+                watcher.stop();
+                watcher = null;
+            }
+            if (barrierDir != null) {
+                barrierDir.delete();
+                barrierDir = null;
+            }
+        }
+        if (image != null) {
+            image.close();
+        }
+    }
+
+    private boolean isWatching() {
+        FileWatcher watcher = this.watcher;
+        return watcher != null && watcher.isRunning();
+    }
+
+    private void watch(List<File> roots) {
+        synchronized (watchLock) {
+            if (watchingFailed) {
+                return;
+            }
+            FileSystemSubset.Builder builder = FileSystemSubset.builder();
+            List<File> newRoots = new ArrayList<File>();
+            for (File root : roots) {
+                // Missing directories are not watched, so state about them is not kept
+                if (root.isDirectory() && watchedRoots.add(root)) {
+                    builder.add(root);
+                    newRoots.add(root);
+                }
+            }
+            if (newRoots.isEmpty()) {
+                return;
+            }
+            try {
+                if (watcher == null) {
+                    barrierDir = Files.createTempDirectory("gradle-file-system-mirror").toFile();
+                    builder.add(barrierDir);
+                    watcher = fileWatcherFactory.watch(new Action<Throwable>() {
+                        @Override
+                        public void execute(Throwable throwable) {
+                            stopWatching(throwable);
+                        }
+                    }, new InvalidatingListener());
+                }
+                watcher.watch(builder.build());
+            } catch (IOException e) {
+                stopWatching(e);
+                return;
+            } catch (RuntimeException e) {
+                stopWatching(e);
+                return;
+            }
+            watchedDirectories = DefaultFileHierarchySet.of(watchedRoots);
+        }
+    }
+
+    private void stopWatching(Throwable failure) {
+        LOGGER.info("Could not watch the file system for changes, state about files will not be kept between builds.", failure);
+        synchronized (watchLock) {
+            watchingFailed = true;
+            watchedRoots.clear();
+            watchedDirectories = DefaultFileHierarchySet.of();
+            if (watcher != null) {
+                watcher.stop();
+                watcher = null;
+            }
+        }
+        files.clear();
+        trees.clear();
+        snapshots.clear();
+    }
+
+    /**
+     * Discards the state for the files that were reported as changed during the build, as the state may have been snapshotted before the change was reported.
+     */
+    private void discardChangedState() {
+        if (isWatching() && awaitPendingChanges()) {
+            for (String path : changedPaths) {
+                invalidate(path);
+            }
+        } else {
+            files.clear();
+            trees.clear();
+            snapshots.clear();
+        }
+        changedPaths.clear();
+    }
+
+    /**
+     * Waits until the watcher has reported the changes made before this method was called, by creating a marker file in the watched barrier directory
+     * and waiting until its creation is reported. The watcher reports changes in the order it receives them, though changes to different directories
+     * may be reordered slightly while they are being received, so this is done twice.
+     *
+     * @return false when the marker was not reported in time.
+     */
+    private boolean awaitPendingChanges() {
+        File barrierDir = this.barrierDir;
+        if (barrierDir == null) {
+            return false;
+        }
+        synchronized (barrierLock) {
+            synchronized (reportedBarriers) {
+                reportedBarriers.clear();
+            }
+            for (int round = 0; round < 2; round++) {
+                File marker = new File(barrierDir, "barrier-" + barrierCounter.incrementAndGet());
+                try {
+                    if (!marker.createNewFile()) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+                try {
+                    if (!awaitReported(marker)) {
+                        return false;
+                    }
+                } finally {
+                    marker.delete();
+                }
+            }
+            return true;
+        }
+    }
+
+    private boolean awaitReported(File marker) {
+        long deadline = System.currentTimeMillis() + BARRIER_TIMEOUT_MILLIS;
+        synchronized (reportedBarriers) {
+            while (!reportedBarriers.remove(marker)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !isWatching()) {
+                    return false;
+                }
+                try {
+                    reportedBarriers.wait(remaining);
+                } catch (InterruptedException e) {
+                    throw UncheckedException.throwAsUncheckedException(e);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void discardUnwatchedState() {
+        if (!isWatching()) {
+            files.clear();
+            trees.clear();
+            snapshots.clear();
+            return;
+        }
+        FileHierarchySet watched = watchedDirectories;
+        discardUnwatched(files, watched);
+        discardUnwatched(trees, watched);
+        discardUnwatched(snapshots, watched);
+    }
+
+    private static void discardUnwatched(Map<String, ?> map, FileHierarchySet watched) {
+        for (Iterator<String> iterator = map.keySet().iterator(); iterator.hasNext();) {
+            if (!watched.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void invalidate(String path) {
+        invalidate(files, path);
+        invalidate(trees, path);
+        invalidate(snapshots, path);
+    }
+
+    /**
+     * Discards the state for the given path, for its ancestors and for its descendants.
+     */
+    private static void invalidate(Map<String, ?> map, String path) {
+        map.remove(path);
+        for (File parent = new File(path).getParentFile(); parent != null; parent = parent.getParentFile()) {
+            map.remove(parent.getPath());
+        }
+        NavigableMap<String, ?> sortedMap = (NavigableMap<String, ?>) map;
+        sortedMap.subMap(path + File.separatorChar, path + (char) (File.separatorChar + 1)).clear();
+    }
+
+    private void unwatch(File deletedFile) {
+        synchronized (watchLock) {
+            // The watches for a deleted directory are gone, so stop keeping state for anything below it
+            boolean removed = false;
+            String prefix = deletedFile.getPath() + File.separatorChar;
+            for (Iterator<File> iterator = watchedRoots.iterator(); iterator.hasNext();) {
+                File root = iterator.next();
+                if (root.equals(deletedFile) || root.getPath().startsWith(prefix)) {
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+            if (removed) {
+                watchedDirectories = DefaultFileHierarchySet.of(watchedRoots);
+            }
+        }
+    }
+
+    private class InvalidatingListener implements FileWatcherListener {
+        @Override
+        public void onChange(FileWatcher watcher, FileWatcherEvent event) {
+            File file = event.getFile();
+            File barrierDir = DefaultFileSystemMirror.this.barrierDir;
+            if (file != null && barrierDir != null && (file.equals(barrierDir) || barrierDir.equals(file.getParentFile()))) {
+                if (event.getType() == FileWatcherEvent.Type.CREATE) {
+                    synchronized (reportedBarriers) {
+                        reportedBarriers.add(file);
+                        reportedBarriers.notifyAll();
+                    }
+                }
+                return;
+            }
+            if (event.getType() == FileWatcherEvent.Type.UNDEFINED || file == null) {
+                // Some changes were lost
+                files.clear();
+                trees.clear();
+                snapshots.clear();
+                return;
+            }
+            if (event.getType() == FileWatcherEvent.Type.DELETE) {
+                unwatch(file.getAbsoluteFile());
+            }
+            changedPaths.add(file.getAbsolutePath());
+            invalidate(file.getAbsolutePath());
+        }
+    }
 }
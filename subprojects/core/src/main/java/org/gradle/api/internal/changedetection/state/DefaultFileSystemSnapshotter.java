@@ -18,6 +18,7 @@ package org.gradle.api.internal.changedetection.state;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 import org.gradle.api.file.FileTreeElement;
 import org.gradle.api.file.FileVisitDetails;
 import org.gradle.api.file.FileVisitor;
@@ -37,6 +38,7 @@ import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
 import org.gradle.normalization.internal.InputNormalizationStrategy;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.List;
 
@@ -52,6 +54,8 @@ import java.util.List;
  * The implementations are currently intentionally very, very simple, and so there are a number of ways in which they can be made much more efficient. This can happen over time.
  */
 public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
+    // Changes made within this interval of a recorded timestamp may not change the timestamp, on some file systems
+    private static final long TIMESTAMP_RESOLUTION_MILLIS = 2000;
     private final FileHasher hasher;
     private final StringInterner stringInterner;
     private final FileSystem fileSystem;
@@ -61,9 +65,18 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
     private final ProducerGuard<String> producingTrees = ProducerGuard.striped();
     private final ProducerGuard<String> producingAllSnapshots = ProducerGuard.striped();
     private final DefaultGenericFileCollectionSnapshotter snapshotter;
+    private final ParallelFileTreeHasher parallelHasher;
 
     public DefaultFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror) {
+        this(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror, null);
+    }
+
+    /**
+     * @param parallelHasher Used to hash the files of directory trees concurrently. When null, files are hashed on the calling thread as the tree is visited.
+     */
+    public DefaultFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror, @Nullable ParallelFileTreeHasher parallelHasher) {
         this.hasher = hasher;
+        this.parallelHasher = parallelHasher;
         this.stringInterner = stringInterner;
         this.fileSystem = fileSystem;
         this.directoryFileTreeFactory = directoryFileTreeFactory;
@@ -133,8 +146,7 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
         // Could potentially coordinate with a thread that is snapshotting an overlapping directory tree
         // Currently cache only those trees where we want everything from a directory
         if (!dirTree.getPatterns().isEmpty()) {
-            List<FileSnapshot> elements = Lists.newArrayList();
-            dirTree.visit(new FileVisitorImpl(elements));
+            List<FileSnapshot> elements = visitDirectoryTree(dirTree, null, null);
             return new DirectoryTreeDetails(dirTree.getDir().getAbsolutePath(), elements);
         }
 
@@ -162,9 +174,56 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
 
     private FileTreeSnapshot doSnapshot(DirectoryFileTree directoryTree) {
         String path = getPath(directoryTree.getDir());
+        long snapshotStart = System.currentTimeMillis();
+        List<Long> directoryTimestamps = Lists.newArrayList();
+        directoryTimestamps.add(directoryTree.getDir().lastModified());
+        List<Long> fileLengths = Lists.newArrayList();
+        List<FileSnapshot> elements = visitDirectoryTree(directoryTree, directoryTimestamps, fileLengths);
+        long[] usableTimestamps = usableTimestamps(directoryTimestamps, elements, snapshotStart);
+        return new DirectoryTreeDetails(path, ImmutableList.copyOf(elements), usableTimestamps, usableTimestamps == null ? null : Longs.toArray(fileLengths));
+    }
+
+    private List<FileSnapshot> visitDirectoryTree(DirectoryFileTree directoryTree, @Nullable List<Long> directoryTimestamps, @Nullable List<Long> fileLengths) {
         List<FileSnapshot> elements = Lists.newArrayList();
-        directoryTree.visit(new FileVisitorImpl(elements));
-        return new DirectoryTreeDetails(path, ImmutableList.copyOf(elements));
+        FileVisitor visitor;
+        DeferredHashingFileVisitor deferredHashingVisitor = null;
+        if (parallelHasher == null) {
+            visitor = new FileVisitorImpl(elements);
+        } else {
+            deferredHashingVisitor = new DeferredHashingFileVisitor(elements);
+            visitor = deferredHashingVisitor;
+        }
+        if (directoryTimestamps != null) {
+            visitor = new TimestampAndLengthRecordingVisitor(visitor, directoryTimestamps, fileLengths);
+        }
+        directoryTree.visit(visitor);
+        if (deferredHashingVisitor != null) {
+            deferredHashingVisitor.hashFiles(parallelHasher);
+        }
+        return elements;
+    }
+
+    /**
+     * Returns the directory timestamps when they, together with the file timestamps, can be used to detect later changes to the tree.
+     * This is not the case when anything in the tree was modified shortly before the snapshot was taken, as a later change may then not update the timestamp.
+     */
+    @Nullable
+    private static long[] usableTimestamps(List<Long> directoryTimestamps, List<FileSnapshot> elements, long snapshotStart) {
+        long latestUsableTimestamp = snapshotStart - TIMESTAMP_RESOLUTION_MILLIS;
+        long[] timestamps = new long[directoryTimestamps.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = directoryTimestamps.get(i);
+            if (timestamps[i] > latestUsableTimestamp) {
+                return null;
+            }
+        }
+        for (FileSnapshot element : elements) {
+            FileContentSnapshot content = element.getContent();
+            if (content instanceof FileHashSnapshot && ((FileHashSnapshot) content).getLastModified() > latestUsableTimestamp) {
+                return null;
+            }
+        }
+        return timestamps;
     }
 
     private String getPath(File file) {
@@ -224,4 +283,63 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
             fileTreeElements.add(new RegularFileSnapshot(getPath(fileDetails.getFile()), fileDetails.getRelativePath(), false, fileSnapshot(fileDetails)));
         }
     }
+
+    private static class TimestampAndLengthRecordingVisitor implements FileVisitor {
+        private final FileVisitor delegate;
+        private final List<Long> directoryTimestamps;
+        private final List<Long> fileLengths;
+
+        TimestampAndLengthRecordingVisitor(FileVisitor delegate, List<Long> directoryTimestamps, List<Long> fileLengths) {
+            this.delegate = delegate;
+            this.directoryTimestamps = directoryTimestamps;
+            this.fileLengths = fileLengths;
+        }
+
+        @Override
+        public void visitDir(FileVisitDetails dirDetails) {
+            directoryTimestamps.add(dirDetails.getLastModified());
+            delegate.visitDir(dirDetails);
+        }
+
+        @Override
+        public void visitFile(FileVisitDetails fileDetails) {
+            fileLengths.add(fileDetails.getSize());
+            delegate.visitFile(fileDetails);
+        }
+    }
+
+    /**
+     * Visits a directory tree, leaving a placeholder for each regular file that is filled in once all files of the tree have been hashed.
+     * This keeps the elements in visiting order, regardless of the order in which the files are hashed.
+     */
+    private class DeferredHashingFileVisitor implements FileVisitor {
+        private final List<FileSnapshot> fileTreeElements;
+        private final List<FileVisitDetails> files = Lists.newArrayList();
+        private final List<Integer> fileIndexes = Lists.newArrayList();
+
+        DeferredHashingFileVisitor(List<FileSnapshot> fileTreeElements) {
+            this.fileTreeElements = fileTreeElements;
+        }
+
+        @Override
+        public void visitDir(FileVisitDetails dirDetails) {
+            fileTreeElements.add(new DirectoryFileSnapshot(getPath(dirDetails.getFile()), dirDetails.getRelativePath(), false));
+        }
+
+        @Override
+        public void visitFile(FileVisitDetails fileDetails) {
+            fileIndexes.add(fileTreeElements.size());
+            files.add(fileDetails);
+            fileTreeElements.add(null);
+        }
+
+        void hashFiles(ParallelFileTreeHasher parallelHasher) {
+            List<HashCode> hashes = parallelHasher.hash(files, hasher);
+            for (int i = 0; i < files.size(); i++) {
+                FileVisitDetails fileDetails = files.get(i);
+                FileHashSnapshot content = new FileHashSnapshot(hashes.get(i), fileDetails.getLastModified());
+                fileTreeElements.set(fileIndexes.get(i), new RegularFileSnapshot(getPath(fileDetails.getFile()), fileDetails.getRelativePath(), false, content));
+            }
+        }
+    }
 }
@@ -18,6 +18,7 @@ package org.gradle.api.internal.changedetection.state;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.cache.CacheRepository;
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.IndexedCacheStorage;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
@@ -28,11 +29,22 @@ import java.io.Closeable;
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 
 public class DefaultTaskHistoryStore implements TaskHistoryStore, Closeable {
+    /**
+     * Stores task history in append-only logs rather than in BTrees when set to true. Task history stored with the other storage is discarded.
+     */
+    public static final String APPEND_LOG_PROPERTY = "org.gradle.internal.taskhistory.append-log";
+
     private final InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory;
+    private final IndexedCacheStorage storage;
     private final PersistentCache cache;
 
     public DefaultTaskHistoryStore(Gradle gradle, CacheRepository cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+        this(gradle, cacheRepository, inMemoryCacheDecoratorFactory, false);
+    }
+
+    public DefaultTaskHistoryStore(Gradle gradle, CacheRepository cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory, boolean useAppendLog) {
         this.inMemoryCacheDecoratorFactory = inMemoryCacheDecoratorFactory;
+        this.storage = useAppendLog ? IndexedCacheStorage.APPEND_LOG : IndexedCacheStorage.FILE;
         cache = cacheRepository
                 .cache(gradle, "taskHistory")
                 .withDisplayName("task history cache")
@@ -47,7 +59,16 @@ public class DefaultTaskHistoryStore implements TaskHistoryStore, Closeable {
     @Override
     public <K, V> PersistentIndexedCache<K, V> createCache(String cacheName, Class<K> keyType, Serializer<V> valueSerializer, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
         PersistentIndexedCacheParameters<K, V> parameters = new PersistentIndexedCacheParameters<K, V>(cacheName, keyType, valueSerializer)
+                .storage(storage)
                 .cacheDecorator(inMemoryCacheDecoratorFactory.decorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses));
         return cache.createCache(parameters);
     }
+
+    @Override
+    public <V> PersistentIndexedCache<String, V> createOffHeapCache(String cacheName, Serializer<V> valueSerializer, OffHeapValueCodec<V> codec, int maxEntriesToKeepInMemory) {
+        PersistentIndexedCacheParameters<String, V> parameters = new PersistentIndexedCacheParameters<String, V>(cacheName, String.class, valueSerializer)
+                .storage(storage)
+                .cacheDecorator(inMemoryCacheDecoratorFactory.offHeapDecorator(maxEntriesToKeepInMemory, codec));
+        return cache.createCache(parameters);
+    }
 }
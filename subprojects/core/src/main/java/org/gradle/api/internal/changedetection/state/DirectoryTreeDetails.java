@@ -16,6 +16,7 @@
 
 package org.gradle.api.internal.changedetection.state;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 
 /**
@@ -26,10 +27,20 @@ public class DirectoryTreeDetails implements FileTreeSnapshot {
     private final String path;
     // All elements, not just direct children
     private final Collection<FileSnapshot> descendants;
+    // Last modified time of the root directory followed by each descendant directory, in the order of the descendants
+    private final long[] directoryTimestamps;
+    // Length of each regular file, in the order of the descendants
+    private final long[] fileLengths;
 
     public DirectoryTreeDetails(String path, Collection<FileSnapshot> descendants) {
+        this(path, descendants, null, null);
+    }
+
+    public DirectoryTreeDetails(String path, Collection<FileSnapshot> descendants, @Nullable long[] directoryTimestamps, @Nullable long[] fileLengths) {
         this.path = path;
         this.descendants = descendants;
+        this.directoryTimestamps = directoryTimestamps;
+        this.fileLengths = fileLengths;
     }
 
     @Override
@@ -42,6 +53,22 @@ public class DirectoryTreeDetails implements FileTreeSnapshot {
         return descendants;
     }
 
+    /**
+     * Returns the last modified time of the root directory followed by each descendant directory, or null when the timestamps cannot be used to detect changes to the tree.
+     */
+    @Nullable
+    public long[] getDirectoryTimestamps() {
+        return directoryTimestamps;
+    }
+
+    /**
+     * Returns the length of each regular file, or null when the directory timestamps cannot be used to detect changes to the tree.
+     */
+    @Nullable
+    public long[] getFileLengths() {
+        return fileLengths;
+    }
+
     @Override
     public String toString() {
         return path + " (" + descendants.size() + " descendants)";
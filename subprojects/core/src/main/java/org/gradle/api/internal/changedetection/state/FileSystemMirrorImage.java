@@ -0,0 +1,606 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Longs;
+import org.gradle.api.file.RelativePath;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.cache.PersistentCache;
+import org.gradle.internal.Factory;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.HashCodeSerializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the directory tree snapshots of a {@link DefaultFileSystemMirror} to a file, so that they can be reused by later processes.
+ *
+ * <p>Only trees that carry directory timestamps are written. A tree that is read back is not validated, use {@link #isUpToDate(DirectoryTreeDetails)} for that.
+ * An image that cannot be read, for example because it was written by a different version, is ignored.</p>
+ *
+ * <p>The image lives in a cache directory that is shared by all processes of the same Gradle version. It is read and updated while holding the cross-process lock
+ * of the cache.</p>
+ *
+ * <p>The image is a journal. Each update counts as a build, and appends a record for each tree that has been added or has changed, a small record for each tree
+ * that has been used without changing, and a record for each tree that is dropped. Updating the image only reads the records, skipping the contents of the trees.
+ * The image is rewritten with one record per tree when most of it is made of superseded records.</p>
+ *
+ * <p>The image records the last build that used each tree, and trees that have not been used for a number of builds, that failed validation or whose root
+ * directory is gone are dropped. When the trees hold more entries than the maximum, the least recently used trees are dropped.</p>
+ */
+class FileSystemMirrorImage {
+    private static final Logger LOGGER = Logging.getLogger(FileSystemMirrorImage.class);
+    private static final int MAGIC = 0x4653494d;
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 8;
+    private static final byte DIRECTORY = 1;
+    private static final byte REGULAR_FILE = 2;
+    private static final byte BUILD_RECORD = 1;
+    private static final byte TREE_RECORD = 2;
+    private static final byte USED_RECORD = 3;
+    private static final byte REMOVED_RECORD = 4;
+    private static final int DEFAULT_MAX_UNUSED_BUILDS = 20;
+    private static final int DEFAULT_MAX_ENTRIES = 250000;
+    private static final long DEFAULT_MIN_GARBAGE_TO_COMPACT = 4 * 1024 * 1024;
+    private static final Comparator<TreeRecord> MOST_RECENTLY_USED_FIRST = new Comparator<TreeRecord>() {
+        @Override
+        public int compare(TreeRecord left, TreeRecord right) {
+            return left.lastUsed > right.lastUsed ? -1 : (left.lastUsed == right.lastUsed ? 0 : 1);
+        }
+    };
+
+    private final PersistentCache cache;
+    private final File imageFile;
+    private final int maxUnusedBuilds;
+    private final int maxEntries;
+    private final long minGarbageToCompact;
+    private final HashCodeSerializer hashCodeSerializer = new HashCodeSerializer();
+
+    FileSystemMirrorImage(PersistentCache cache, String fileName) {
+        this(cache, fileName, DEFAULT_MAX_UNUSED_BUILDS, DEFAULT_MAX_ENTRIES, DEFAULT_MIN_GARBAGE_TO_COMPACT);
+    }
+
+    /**
+     * @param maxUnusedBuilds the number of builds after which a tree that has not been used is dropped.
+     * @param maxEntries the maximum number of directories and files of all trees together.
+     * @param minGarbageToCompact the number of bytes of superseded records from which the image is rewritten, when they also make up most of it.
+     */
+    FileSystemMirrorImage(PersistentCache cache, String fileName, int maxUnusedBuilds, int maxEntries, long minGarbageToCompact) {
+        this.cache = cache;
+        this.imageFile = new File(cache.getBaseDir(), fileName);
+        this.maxUnusedBuilds = maxUnusedBuilds;
+        this.maxEntries = maxEntries;
+        this.minGarbageToCompact = minGarbageToCompact;
+    }
+
+    /**
+     * Returns the trees from the image, keyed by path. Returns an empty map when there is no usable image.
+     */
+    Map<String, DirectoryTreeDetails> read() {
+        return cache.useCache(new Factory<Map<String, DirectoryTreeDetails>>() {
+            @Override
+            public Map<String, DirectoryTreeDetails> create() {
+                Journal journal = readJournal();
+                Map<String, DirectoryTreeDetails> trees = new HashMap<String, DirectoryTreeDetails>(journal.trees.size());
+                if (journal.trees.isEmpty()) {
+                    return trees;
+                }
+                try {
+                    RandomAccessFile file = new RandomAccessFile(imageFile, "r");
+                    try {
+                        for (TreeRecord record : journal.trees.values()) {
+                            trees.put(record.path, readTree(new KryoBackedDecoder(new ByteArrayInputStream(readData(file, record)))));
+                        }
+                    } finally {
+                        file.close();
+                    }
+                } catch (Exception e) {
+                    LOGGER.debug("Could not read file system mirror image {}.", imageFile, e);
+                    trees.clear();
+                }
+                return trees;
+            }
+        });
+    }
+
+    /**
+     * Updates the image at the end of a build. Only the given snapshotted trees whose contents differ from the image are written. The trees with the given used
+     * paths, which were read from the image and are still up-to-date, are marked as used, and the trees with the given invalid paths, which failed validation,
+     * are dropped. Trees that are only in the image are kept, unless they are dropped as described above. Trees without directory timestamps are skipped.
+     */
+    void update(final Collection<FileTreeSnapshot> snapshottedTrees, final Collection<String> usedPaths, final Collection<String> invalidPaths) {
+        cache.useCache(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doUpdate(snapshottedTrees, usedPaths, invalidPaths);
+                } catch (Exception e) {
+                    LOGGER.debug("Could not write file system mirror image {}.", imageFile, e);
+                    imageFile.delete();
+                }
+            }
+        });
+    }
+
+    void close() {
+        cache.close();
+    }
+
+    private void doUpdate(Collection<FileTreeSnapshot> snapshottedTrees, Collection<String> usedPaths, Collection<String> invalidPaths) throws Exception {
+        Journal journal = readJournal();
+        long generation = journal.generation + 1;
+        Map<String, TreeRecord> trees = journal.trees;
+
+        RandomAccessFile file = openForAppend(journal);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(bytes);
+            records.writeByte(BUILD_RECORD);
+            records.writeLong(generation);
+
+            for (String path : invalidPaths) {
+                if (trees.remove(path) != null) {
+                    writeRemoved(records, path);
+                }
+            }
+            Set<String> pathsUsedByThisBuild = new HashSet<String>();
+            for (FileTreeSnapshot tree : snapshottedTrees) {
+                if (!canWrite(tree)) {
+                    continue;
+                }
+                String path = tree.getPath();
+                byte[] data = encodeTree((DirectoryTreeDetails) tree);
+                HashCode dataHash = Hashing.md5().hashBytes(data);
+                TreeRecord previous = trees.get(path);
+                if (previous != null && previous.dataHash.equals(dataHash)) {
+                    writeUsed(records, previous, generation);
+                } else {
+                    int recordStart = bytes.size();
+                    records.writeByte(TREE_RECORD);
+                    records.writeUTF(path);
+                    records.writeLong(generation);
+                    records.writeInt(tree.getDescendants().size() + 1);
+                    records.write(dataHash.toByteArray());
+                    records.writeInt(data.length);
+                    long dataPos = journal.length + bytes.size();
+                    records.write(data);
+                    trees.put(path, new TreeRecord(path, generation, tree.getDescendants().size() + 1, dataHash, dataPos, data.length, bytes.size() - recordStart));
+                }
+                pathsUsedByThisBuild.add(path);
+            }
+            for (String path : usedPaths) {
+                TreeRecord record = trees.get(path);
+                if (record != null && pathsUsedByThisBuild.add(path)) {
+                    writeUsed(records, record, generation);
+                }
+            }
+            for (String path : prune(trees, pathsUsedByThisBuild, generation)) {
+                writeRemoved(records, path);
+            }
+
+            records.flush();
+            file.seek(journal.length);
+            file.write(bytes.toByteArray());
+            journal.length += bytes.size();
+        } finally {
+            file.close();
+        }
+
+        long liveLength = HEADER_SIZE;
+        for (TreeRecord record : trees.values()) {
+            liveLength += record.recordLength;
+        }
+        long garbage = journal.length - liveLength;
+        if (garbage >= minGarbageToCompact && garbage >= liveLength) {
+            compact(trees.values(), generation);
+        }
+    }
+
+    /**
+     * Opens the image for appending records, starting a new image when there is no usable one and dropping a partially written record at its end.
+     */
+    private RandomAccessFile openForAppend(Journal journal) throws IOException {
+        imageFile.getParentFile().mkdirs();
+        RandomAccessFile file = new RandomAccessFile(imageFile, "rw");
+        if (journal.length < HEADER_SIZE) {
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            journal.length = HEADER_SIZE;
+        } else if (file.length() != journal.length) {
+            file.setLength(journal.length);
+        }
+        return file;
+    }
+
+    private static void writeUsed(DataOutputStream records, TreeRecord record, long generation) throws IOException {
+        records.writeByte(USED_RECORD);
+        records.writeUTF(record.path);
+        records.writeLong(generation);
+        record.lastUsed = generation;
+    }
+
+    private static void writeRemoved(DataOutputStream records, String path) throws IOException {
+        records.writeByte(REMOVED_RECORD);
+        records.writeUTF(path);
+    }
+
+    /**
+     * Drops the trees that are no longer worth keeping from the given map, and returns their paths.
+     */
+    private List<String> prune(Map<String, TreeRecord> trees, Set<String> pathsUsedByThisBuild, long generation) {
+        List<String> removed = new ArrayList<String>();
+        for (Iterator<TreeRecord> iterator = trees.values().iterator(); iterator.hasNext();) {
+            TreeRecord record = iterator.next();
+            if (pathsUsedByThisBuild.contains(record.path)) {
+                continue;
+            }
+            if (generation - record.lastUsed > maxUnusedBuilds || !new File(record.path).isDirectory()) {
+                iterator.remove();
+                removed.add(record.path);
+            }
+        }
+        List<TreeRecord> mostRecentlyUsedFirst = new ArrayList<TreeRecord>(trees.values());
+        Collections.sort(mostRecentlyUsedFirst, MOST_RECENTLY_USED_FIRST);
+        long entries = 0;
+        for (TreeRecord record : mostRecentlyUsedFirst) {
+            entries += record.entryCount;
+            if (entries > maxEntries) {
+                trees.remove(record.path);
+                removed.add(record.path);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Rewrites the image with one record for each of the given trees, copying their contents from the current image.
+     */
+    private void compact(Collection<TreeRecord> trees, long generation) throws IOException {
+        LOGGER.debug("Compacting file system mirror image {}.", imageFile);
+        File tempFile = File.createTempFile(imageFile.getName(), ".tmp", imageFile.getParentFile());
+        try {
+            RandomAccessFile source = new RandomAccessFile(imageFile, "r");
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                try {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    output.writeByte(BUILD_RECORD);
+                    output.writeLong(generation);
+                    for (TreeRecord record : trees) {
+                        output.writeByte(TREE_RECORD);
+                        output.writeUTF(record.path);
+                        output.writeLong(record.lastUsed);
+                        output.writeInt(record.entryCount);
+                        output.write(record.dataHash.toByteArray());
+                        output.writeInt(record.dataLength);
+                        output.write(readData(source, record));
+                    }
+                } finally {
+                    output.close();
+                }
+            } finally {
+                source.close();
+            }
+            if (!tempFile.renameTo(imageFile) && !(imageFile.delete() && tempFile.renameTo(imageFile))) {
+                throw new IOException("Could not move " + tempFile + " to " + imageFile);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Replays the records of the image, without reading the contents of the trees. A record that has been partially written ends the journal.
+     */
+    private Journal readJournal() {
+        Journal journal = new Journal();
+        if (!imageFile.isFile()) {
+            return journal;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(imageFile)));
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    LOGGER.debug("Ignoring file system mirror image {} with unexpected format.", imageFile);
+                    return journal;
+                }
+                journal.length = HEADER_SIZE;
+                while (readRecord(input, journal)) {
+                    // Keep reading
+                }
+            } finally {
+                input.close();
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Could not read file system mirror image {}.", imageFile, e);
+            return new Journal();
+        }
+        return journal;
+    }
+
+    /**
+     * Reads the next record into the given journal, returning false at the end of the journal.
+     */
+    private static boolean readRecord(DataInputStream input, Journal journal) throws IOException {
+        long start = journal.length;
+        try {
+            int type = input.read();
+            if (type < 0) {
+                return false;
+            }
+            CountingDataInput counted = new CountingDataInput(input);
+            switch (type) {
+                case BUILD_RECORD:
+                    journal.generation = counted.readLong();
+                    break;
+                case TREE_RECORD:
+                    String path = counted.readUTF();
+                    long lastUsed = counted.readLong();
+                    int entryCount = counted.readInt();
+                    byte[] hash = new byte[16];
+                    counted.readFully(hash);
+                    int dataLength = counted.readInt();
+                    long dataPos = start + 1 + counted.count;
+                    counted.skipFully(dataLength);
+                    journal.trees.put(path, new TreeRecord(path, lastUsed, entryCount, HashCode.fromBytes(hash), dataPos, dataLength, 1 + counted.count));
+                    break;
+                case USED_RECORD:
+                    TreeRecord record = journal.trees.get(counted.readUTF());
+                    long generation = counted.readLong();
+                    if (record != null) {
+                        record.lastUsed = generation;
+                    }
+                    break;
+                case REMOVED_RECORD:
+                    journal.trees.remove(counted.readUTF());
+                    break;
+                default:
+                    throw new IOException("Unexpected record type " + type + " in file system mirror image.");
+            }
+            journal.length = start + 1 + counted.count;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readData(RandomAccessFile file, TreeRecord record) throws IOException {
+        byte[] data = new byte[record.dataLength];
+        file.seek(record.dataPos);
+        file.readFully(data);
+        return data;
+    }
+
+    /**
+     * Returns true when the timestamps of the directories and the timestamps and lengths of the files of the given tree still match the file system.
+     * Adding, removing or renaming an entry of a directory changes the timestamp of the directory, and changing a file changes its timestamp or, when it is
+     * changed within the timestamp resolution of the file system, usually its length. This matches the checks of {@link CachingFileHasher}.
+     */
+    static boolean isUpToDate(DirectoryTreeDetails tree) {
+        long[] directoryTimestamps = tree.getDirectoryTimestamps();
+        long[] fileLengths = tree.getFileLengths();
+        if (directoryTimestamps == null || fileLengths == null) {
+            return false;
+        }
+        File root = new File(tree.getPath());
+        if (!root.isDirectory() || root.lastModified() != directoryTimestamps[0]) {
+            return false;
+        }
+        int directoryIndex = 1;
+        int fileIndex = 0;
+        for (FileSnapshot element : tree.getDescendants()) {
+            File file = new File(element.getPath());
+            long timestamp = file.lastModified();
+            if (element instanceof DirectoryFileSnapshot) {
+                if (directoryIndex >= directoryTimestamps.length || timestamp != directoryTimestamps[directoryIndex++]) {
+                    return false;
+                }
+            } else if (timestamp != ((FileHashSnapshot) element.getContent()).getLastModified()
+                || fileIndex >= fileLengths.length || file.length() != fileLengths[fileIndex++]) {
+                return false;
+            }
+        }
+        return directoryIndex == directoryTimestamps.length && fileIndex == fileLengths.length;
+    }
+
+    private static boolean canWrite(FileTreeSnapshot tree) {
+        if (!(tree instanceof DirectoryTreeDetails)) {
+            return false;
+        }
+        long[] fileLengths = ((DirectoryTreeDetails) tree).getFileLengths();
+        if (((DirectoryTreeDetails) tree).getDirectoryTimestamps() == null || fileLengths == null) {
+            return false;
+        }
+        int fileCount = 0;
+        for (FileSnapshot element : tree.getDescendants()) {
+            boolean supportedType = element instanceof DirectoryFileSnapshot || (element instanceof RegularFileSnapshot && element.getContent() instanceof FileHashSnapshot);
+            if (!supportedType || !element.getPath().equals(pathOf(tree.getPath(), element.getRelativePath().getPathString()))) {
+                return false;
+            }
+            if (element instanceof RegularFileSnapshot) {
+                fileCount++;
+            }
+        }
+        return fileCount == fileLengths.length;
+    }
+
+    private byte[] encodeTree(DirectoryTreeDetails tree) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        writeTree(encoder, tree);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeTree(Encoder encoder, DirectoryTreeDetails tree) throws Exception {
+        encoder.writeString(tree.getPath());
+        long[] directoryTimestamps = tree.getDirectoryTimestamps();
+        encoder.writeSmallInt(directoryTimestamps.length);
+        for (long timestamp : directoryTimestamps) {
+            encoder.writeLong(timestamp);
+        }
+        long[] fileLengths = tree.getFileLengths();
+        int fileIndex = 0;
+        encoder.writeSmallInt(tree.getDescendants().size());
+        for (FileSnapshot element : tree.getDescendants()) {
+            encoder.writeString(element.getRelativePath().getPathString());
+            if (element instanceof DirectoryFileSnapshot) {
+                encoder.writeByte(DIRECTORY);
+            } else {
+                FileHashSnapshot content = (FileHashSnapshot) element.getContent();
+                encoder.writeByte(REGULAR_FILE);
+                hashCodeSerializer.write(encoder, content.getContentMd5());
+                encoder.writeLong(content.getLastModified());
+                encoder.writeSmallLong(fileLengths[fileIndex++]);
+            }
+        }
+    }
+
+    private DirectoryTreeDetails readTree(Decoder decoder) throws Exception {
+        String path = decoder.readString();
+        long[] directoryTimestamps = new long[decoder.readSmallInt()];
+        for (int i = 0; i < directoryTimestamps.length; i++) {
+            directoryTimestamps[i] = decoder.readLong();
+        }
+        int descendantCount = decoder.readSmallInt();
+        ImmutableList.Builder<FileSnapshot> descendants = ImmutableList.builder();
+        List<Long> fileLengths = new ArrayList<Long>();
+        for (int i = 0; i < descendantCount; i++) {
+            String relativePath = decoder.readString();
+            byte type = decoder.readByte();
+            if (type == DIRECTORY) {
+                descendants.add(new DirectoryFileSnapshot(pathOf(path, relativePath), RelativePath.parse(false, relativePath), false));
+            } else if (type == REGULAR_FILE) {
+                FileHashSnapshot content = new FileHashSnapshot(hashCodeSerializer.read(decoder), decoder.readLong());
+                descendants.add(new RegularFileSnapshot(pathOf(path, relativePath), RelativePath.parse(true, relativePath), false, content));
+                fileLengths.add(decoder.readSmallLong());
+            } else {
+                throw new IllegalStateException("Unexpected entry type " + type + " in file system mirror image.");
+            }
+        }
+        return new DirectoryTreeDetails(path, descendants.build(), directoryTimestamps, Longs.toArray(fileLengths));
+    }
+
+    private static String pathOf(String root, String relativePath) {
+        return root + File.separatorChar + relativePath.replace('/', File.separatorChar);
+    }
+
+    private static class Journal {
+        private long generation;
+        // The length of the complete records, or 0 when there is no usable image
+        private long length;
+        private final Map<String, TreeRecord> trees = new HashMap<String, TreeRecord>();
+    }
+
+    private static class TreeRecord {
+        private final String path;
+        // The generation of the image that was written by the last build that used the tree
+        private long lastUsed;
+        private final int entryCount;
+        private final HashCode dataHash;
+        private final long dataPos;
+        private final int dataLength;
+        private final long recordLength;
+
+        TreeRecord(String path, long lastUsed, int entryCount, HashCode dataHash, long dataPos, int dataLength, long recordLength) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.entryCount = entryCount;
+            this.dataHash = dataHash;
+            this.dataPos = dataPos;
+            this.dataLength = dataLength;
+            this.recordLength = recordLength;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a record, to find the position of the contents of trees.
+     */
+    private static class CountingDataInput {
+        private final DataInputStream input;
+        private long count;
+
+        CountingDataInput(DataInputStream input) {
+            this.input = input;
+        }
+
+        long readLong() throws IOException {
+            count += 8;
+            return input.readLong();
+        }
+
+        int readInt() throws IOException {
+            count += 4;
+            return input.readInt();
+        }
+
+        void readFully(byte[] bytes) throws IOException {
+            input.readFully(bytes);
+            count += bytes.length;
+        }
+
+        String readUTF() throws IOException {
+            input.mark(2);
+            int length = input.readUnsignedShort();
+            input.reset();
+            count += 2 + length;
+            return input.readUTF();
+        }
+
+        void skipFully(int length) throws IOException {
+            int remaining = length;
+            while (remaining > 0) {
+                int skipped = input.skipBytes(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                remaining -= skipped;
+            }
+            count += length;
+        }
+    }
+}
@@ -46,16 +46,26 @@ public class InMemoryCacheDecoratorFactory {
     private final boolean longLivingProcess;
     private final HeapProportionalCacheSizer cacheSizer = new HeapProportionalCacheSizer();
     private final CrossBuildInMemoryCache<String, CacheDetails> caches;
+    private final CrossBuildInMemoryCache<String, OffHeapCacheDetails> offHeapCaches;
 
     public InMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuildInMemoryCacheFactory cacheFactory) {
         this.longLivingProcess = longLivingProcess;
         caches = cacheFactory.newCache();
+        offHeapCaches = cacheFactory.newCache();
     }
 
     public CacheDecorator decorator(final int maxEntriesToKeepInMemory, final boolean cacheInMemoryForShortLivedProcesses) {
         return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
     }
 
+    /**
+     * Creates a decorator that keeps entries of a cache with {@link String} keys in an {@link OffHeapLruTable}, instead of on the heap.
+     * Entries are always cached, and the number of entries is not scaled according to available heap.
+     */
+    public <V> CacheDecorator offHeapDecorator(final int maxEntriesToKeepInMemory, final OffHeapValueCodec<V> codec) {
+        return new OffHeapCacheDecorator(maxEntriesToKeepInMemory, codec);
+    }
+
     private <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
         if (!longLivingProcess && !cacheInMemoryForShortLivedProcesses) {
             // Short lived process, don't cache in memory
@@ -83,6 +93,24 @@ public class InMemoryCacheDecoratorFactory {
         return cacheDetails;
     }
 
+    @SuppressWarnings("unchecked")
+    private <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyOffHeapCaching(final String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, final int maxEntries, final OffHeapValueCodec<?> codec) {
+        OffHeapCacheDetails cacheDetails = offHeapCaches.get(cacheId, new Transformer<OffHeapCacheDetails, String>() {
+            @Override
+            public OffHeapCacheDetails transform(String cacheId) {
+                OffHeapLruTable<Object> table = new OffHeapLruTable<Object>(cacheId, maxEntries, (OffHeapValueCodec<Object>) codec);
+                LOG.debug("Creating off-heap store for cache {} (max size: {}, reserved bytes: {})", cacheId, maxEntries, table.getOffHeapBytes());
+                return new OffHeapCacheDetails(table, codec.getClass(), new AtomicReference<FileLock.State>(null));
+            }
+        });
+        if (cacheDetails.table.getMaxEntries() != maxEntries || cacheDetails.codecType != codec.getClass()) {
+            throw new IllegalStateException("Mismatched off-heap store for cache " + cacheId + ", expected: " + maxEntries + " entries of " + codec.getClass().getName()
+                + ", found: " + cacheDetails.table.getMaxEntries() + " entries of " + cacheDetails.codecType.getName());
+        }
+        MultiProcessSafeAsyncPersistentIndexedCache<String, Object> stringKeyedCache = (MultiProcessSafeAsyncPersistentIndexedCache<String, Object>) backingCache;
+        return (MultiProcessSafeAsyncPersistentIndexedCache<K, V>) new OffHeapDecoratedCache<Object>(stringKeyedCache, cacheDetails.table, cacheId, cacheDetails.lockState);
+    }
+
     private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize) {
         LoggingEvictionListener evictionListener = new LoggingEvictionListener(cacheId, maxSize);
         final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().removalListener(evictionListener);
@@ -125,6 +153,52 @@ public class InMemoryCacheDecoratorFactory {
         }
     }
 
+    private class OffHeapCacheDecorator implements CacheDecorator {
+        private final int maxEntriesToKeepInMemory;
+        private final OffHeapValueCodec<?> codec;
+
+        OffHeapCacheDecorator(int maxEntriesToKeepInMemory, OffHeapValueCodec<?> codec) {
+            this.maxEntriesToKeepInMemory = maxEntriesToKeepInMemory;
+            this.codec = codec;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != getClass()) {
+                return false;
+            }
+            OffHeapCacheDecorator other = (OffHeapCacheDecorator) obj;
+            return maxEntriesToKeepInMemory == other.maxEntriesToKeepInMemory && codec.getClass() == other.codec.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return maxEntriesToKeepInMemory ^ codec.getClass().hashCode();
+        }
+
+        @Override
+        public <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
+            MultiProcessSafeAsyncPersistentIndexedCache<K, V> asyncCache = new AsyncCacheAccessDecoratedCache<K, V>(asyncCacheAccess, persistentCache);
+            MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyOffHeapCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, codec);
+            return new CrossProcessSynchronizingCache<K, V>(memCache, crossProcessCacheAccess);
+        }
+    }
+
+    private static class OffHeapCacheDetails {
+        private final OffHeapLruTable<Object> table;
+        private final Class<?> codecType;
+        private final AtomicReference<FileLock.State> lockState;
+
+        OffHeapCacheDetails(OffHeapLruTable<Object> table, Class<?> codecType, AtomicReference<FileLock.State> lockState) {
+            this.table = table;
+            this.codecType = codecType;
+            this.lockState = lockState;
+        }
+    }
+
     private static class CacheDetails {
         private final String cacheId;
         private final int maxEntries;
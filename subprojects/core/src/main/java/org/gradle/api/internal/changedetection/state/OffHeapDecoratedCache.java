@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.api.Transformer;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.cache.FileLock;
+import org.gradle.cache.internal.MultiProcessSafeAsyncPersistentIndexedCache;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Short-circuits reads from the backing cache using an {@link OffHeapLruTable}. Unlike {@link InMemoryDecoratedCache}, missing entries are not remembered.
+ */
+class OffHeapDecoratedCache<V> implements MultiProcessSafeAsyncPersistentIndexedCache<String, V> {
+    private final static Logger LOG = Logging.getLogger(OffHeapDecoratedCache.class);
+    private final MultiProcessSafeAsyncPersistentIndexedCache<String, V> delegate;
+    private final OffHeapLruTable<V> table;
+    private final String cacheId;
+    private final AtomicReference<FileLock.State> fileLockStateReference;
+
+    public OffHeapDecoratedCache(MultiProcessSafeAsyncPersistentIndexedCache<String, V> delegate, OffHeapLruTable<V> table, String cacheId, AtomicReference<FileLock.State> fileLockStateReference) {
+        this.delegate = delegate;
+        this.table = table;
+        this.cacheId = cacheId;
+        this.fileLockStateReference = fileLockStateReference;
+    }
+
+    @Override
+    public String toString() {
+        return "{off-heap-cache cache: " + delegate + "}";
+    }
+
+    @Override
+    public V get(String key) {
+        V value = table.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = delegate.get(key);
+        if (value != null) {
+            table.put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public V get(String key, Transformer<? extends V, ? super String> producer, Runnable completion) {
+        boolean completionPending = true;
+        try {
+            V value = table.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = delegate.get(key);
+            if (value == null) {
+                value = producer.transform(key);
+                completionPending = false;
+                delegate.putLater(key, value, completion);
+            }
+            table.put(key, value);
+            return value;
+        } finally {
+            if (completionPending) {
+                completion.run();
+            }
+        }
+    }
+
+    @Override
+    public void putLater(String key, V value, Runnable completion) {
+        table.put(key, value);
+        delegate.putLater(key, value, completion);
+    }
+
+    @Override
+    public void removeLater(String key, Runnable completion) {
+        table.remove(key);
+        delegate.removeLater(key, completion);
+    }
+
+    @Override
+    public void afterLockAcquire(FileLock.State currentCacheState) {
+        boolean outOfDate = false;
+        FileLock.State previousState = fileLockStateReference.get();
+        if (previousState == null) {
+            outOfDate = true;
+        } else if (currentCacheState.hasBeenUpdatedSince(previousState)) {
+            LOG.info("Invalidating off-heap cache of {}", cacheId);
+            outOfDate = true;
+        }
+        if (outOfDate) {
+            table.clear();
+        }
+        delegate.afterLockAcquire(currentCacheState);
+    }
+
+    @Override
+    public void finishWork() {
+        delegate.finishWork();
+    }
+
+    @Override
+    public void beforeLockRelease(FileLock.State currentCacheState) {
+        fileLockStateReference.set(currentCacheState);
+        delegate.beforeLockRelease(currentCacheState);
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe map from strings to fixed size values that stores its entries in direct memory, outside the Java heap.
+ *
+ * <p>Keys are not retained. Each entry is identified by a 128 bit MurmurHash3 fingerprint of the key, which is compared in full before an entry is returned,
+ * and the value is encoded inline in the slot using an {@link OffHeapValueCodec}. The table is split into segments, each an open addressing table with linear probing and its own lock.</p>
+ *
+ * <p>When a segment is full, an approximately least recently used entry is evicted: a small sample of entries is inspected and the one with the oldest access is removed.</p>
+ */
+public class OffHeapLruTable<V> {
+    private static final Logger LOGGER = Logging.getLogger(OffHeapLruTable.class);
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_ENTRIES_PER_SEGMENT = 64;
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final HashFunction KEY_HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int HASH_OFFSET = 0;
+    private static final int CHECK_OFFSET = 8;
+    private static final int TICK_OFFSET = 16;
+    private static final int VALUE_OFFSET = 24;
+
+    private final String cacheId;
+    private final OffHeapValueCodec<V> codec;
+    private final int maxEntries;
+    private final int logInterval;
+    private final AtomicLong evictionCounter = new AtomicLong();
+    private final int slotSize;
+    private final Segment<V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public OffHeapLruTable(String cacheId, int maxEntries, OffHeapValueCodec<V> codec) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be positive.");
+        }
+        this.cacheId = cacheId;
+        this.codec = codec;
+        this.maxEntries = maxEntries;
+        this.logInterval = Math.max(1, maxEntries / 10);
+        this.slotSize = (VALUE_OFFSET + codec.getSize() + 7) & ~7;
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && maxEntries / (segmentCount * 2) >= MIN_ENTRIES_PER_SEGMENT) {
+            segmentCount *= 2;
+        }
+        int entriesPerSegment = (maxEntries + segmentCount - 1) / segmentCount;
+        long capacity = Math.max(8, entriesPerSegment * 4L / 3 + 1);
+        if (capacity * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Too many entries for an off-heap table: %d", maxEntries));
+        }
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<V>(codec, slotSize, (int) capacity, entriesPerSegment);
+        }
+    }
+
+    @Nullable
+    public V get(String key) {
+        ByteBuffer fingerprint = fingerprint(key);
+        long hash = hash(fingerprint);
+        return segmentFor(hash).get(hash, check(fingerprint));
+    }
+
+    /**
+     * Adds or replaces the entry for the given key. Does nothing when the codec cannot encode the value.
+     */
+    public void put(String key, V value) {
+        ByteBuffer fingerprint = fingerprint(key);
+        long hash = hash(fingerprint);
+        long check = check(fingerprint);
+        Segment<V> segment = segmentFor(hash);
+        if (!codec.canEncode(value)) {
+            segment.remove(hash, check);
+        } else if (segment.put(hash, check, value)) {
+            // Log outside of the segment lock, as collecting the statistics locks every segment
+            if (evictionCounter.getAndIncrement() % logInterval == 0) {
+                LOGGER.log(LogLevel.INFO, "Cache entries evicted. Off-heap cache of {}: {}", cacheId, getStats());
+            }
+        }
+    }
+
+    public void remove(String key) {
+        ByteBuffer fingerprint = fingerprint(key);
+        long hash = hash(fingerprint);
+        segmentFor(hash).remove(hash, check(fingerprint));
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * The number of bytes of direct memory reserved by this table.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Segment<V> segment : segments) {
+            bytes += (long) segment.capacity * slotSize;
+        }
+        return bytes;
+    }
+
+    public Stats getStats() {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+                misses += segment.misses;
+                evictions += segment.evictions;
+            }
+        }
+        return new Stats(size(), maxEntries, getOffHeapBytes(), hits, misses, evictions);
+    }
+
+    @Override
+    public String toString() {
+        return "{off-heap-cache " + cacheId + ": " + getStats() + "}";
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    private static ByteBuffer fingerprint(String key) {
+        return ByteBuffer.wrap(KEY_HASH_FUNCTION.hashString(key, Charsets.UTF_8).asBytes());
+    }
+
+    /**
+     * The first half of the fingerprint, which selects the segment and slot. Never returns 0, which marks an empty slot.
+     */
+    private static long hash(ByteBuffer fingerprint) {
+        long hash = fingerprint.getLong(0);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * The second half of the fingerprint, which is compared along with the first half to identify an entry.
+     */
+    private static long check(ByteBuffer fingerprint) {
+        return fingerprint.getLong(8);
+    }
+
+    public static class Stats {
+        private final int entries;
+        private final int maxEntries;
+        private final long offHeapBytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        Stats(int entries, int maxEntries, long offHeapBytes, long hits, long misses, long evictions) {
+            this.entries = entries;
+            this.maxEntries = maxEntries;
+            this.offHeapBytes = offHeapBytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getOffHeapBytes() {
+            return offHeapBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Size{%d} MaxSize{%d} OffHeapBytes{%d} Hits{%d} Misses{%d} Evictions{%d}", entries, maxEntries, offHeapBytes, hits, misses, evictions);
+        }
+    }
+
+    private static class Segment<V> {
+        private final OffHeapValueCodec<V> codec;
+        private final int slotSize;
+        private final ByteBuffer slots;
+        private final int capacity;
+        private final int maxEntries;
+        private int size;
+        private long clock;
+        private long sampleSeed = 0x9e3779b97f4a7c15L;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        Segment(OffHeapValueCodec<V> codec, int slotSize, int capacity, int maxEntries) {
+            this.codec = codec;
+            this.slotSize = slotSize;
+            this.capacity = capacity;
+            this.maxEntries = maxEntries;
+            this.slots = ByteBuffer.allocateDirect(capacity * slotSize);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized V get(long hash, long check) {
+            int index = find(hash, check);
+            if (index < 0) {
+                misses++;
+                return null;
+            }
+            hits++;
+            int offset = index * slotSize;
+            slots.putLong(offset + TICK_OFFSET, ++clock);
+            return codec.decode(slots, offset + VALUE_OFFSET);
+        }
+
+        /**
+         * Returns true when an entry was evicted to make room for the new entry.
+         */
+        synchronized boolean put(long hash, long check, V value) {
+            boolean evicted = false;
+            int index = find(hash, check);
+            if (index < 0) {
+                if (size >= maxEntries) {
+                    evicted = evict();
+                }
+                index = indexFor(hash);
+                while (hashAt(index) != 0) {
+                    index = next(index);
+                }
+                size++;
+            }
+            int offset = index * slotSize;
+            slots.putLong(offset + HASH_OFFSET, hash);
+            slots.putLong(offset + CHECK_OFFSET, check);
+            slots.putLong(offset + TICK_OFFSET, ++clock);
+            codec.encode(value, slots, offset + VALUE_OFFSET);
+            return evicted;
+        }
+
+        synchronized void remove(long hash, long check) {
+            int index = find(hash, check);
+            if (index >= 0) {
+                delete(index);
+            }
+        }
+
+        synchronized void clear() {
+            for (int index = 0; index < capacity; index++) {
+                slots.putLong(index * slotSize + HASH_OFFSET, 0);
+            }
+            size = 0;
+        }
+
+        private int find(long hash, long check) {
+            int index = indexFor(hash);
+            long current;
+            while ((current = hashAt(index)) != 0) {
+                if (current == hash && slots.getLong(index * slotSize + CHECK_OFFSET) == check) {
+                    return index;
+                }
+                index = next(index);
+            }
+            return -1;
+        }
+
+        private boolean evict() {
+            int index = (int) ((nextSample() >>> 1) % capacity);
+            int victim = -1;
+            long oldest = Long.MAX_VALUE;
+            int sampled = 0;
+            for (int i = 0; i < capacity && sampled < EVICTION_SAMPLE_SIZE; i++) {
+                if (hashAt(index) != 0) {
+                    sampled++;
+                    long tick = slots.getLong(index * slotSize + TICK_OFFSET);
+                    if (tick < oldest) {
+                        oldest = tick;
+                        victim = index;
+                    }
+                }
+                index = next(index);
+            }
+            if (victim >= 0) {
+                delete(victim);
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Removes the entry at the given index, shifting back later entries of the same probe sequence so that lookups do not need tombstones.
+         */
+        private void delete(int index) {
+            int hole = index;
+            int current = next(index);
+            long hash;
+            while ((hash = hashAt(current)) != 0) {
+                int home = indexFor(hash);
+                boolean canMove = hole <= current ? (home <= hole || home > current) : (home <= hole && home > current);
+                if (canMove) {
+                    copySlot(current, hole);
+                    hole = current;
+                }
+                current = next(current);
+            }
+            slots.putLong(hole * slotSize + HASH_OFFSET, 0);
+            size--;
+        }
+
+        private void copySlot(int from, int to) {
+            int fromOffset = from * slotSize;
+            int toOffset = to * slotSize;
+            for (int i = 0; i < slotSize; i += 8) {
+                slots.putLong(toOffset + i, slots.getLong(fromOffset + i));
+            }
+        }
+
+        private long nextSample() {
+            sampleSeed ^= sampleSeed << 13;
+            sampleSeed ^= sampleSeed >>> 7;
+            sampleSeed ^= sampleSeed << 17;
+            return sampleSeed;
+        }
+
+        private long hashAt(int index) {
+            return slots.getLong(index * slotSize + HASH_OFFSET);
+        }
+
+        private int indexFor(long hash) {
+            return (int) ((hash & Long.MAX_VALUE) % capacity);
+        }
+
+        private int next(int index) {
+            return index + 1 == capacity ? 0 : index + 1;
+        }
+    }
+}
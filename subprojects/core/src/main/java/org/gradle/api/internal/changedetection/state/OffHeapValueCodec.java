@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes values of a cache into fixed size slots of an {@link OffHeapLruTable}.
+ */
+public interface OffHeapValueCodec<V> {
+    /**
+     * The number of bytes used to encode each value.
+     */
+    int getSize();
+
+    /**
+     * Returns true when the given value can be encoded. Values that cannot be encoded are not kept in memory.
+     */
+    boolean canEncode(V value);
+
+    void encode(V value, ByteBuffer buffer, int offset);
+
+    V decode(ByteBuffer buffer, int offset);
+}
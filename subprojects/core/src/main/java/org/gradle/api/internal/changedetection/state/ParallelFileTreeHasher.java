@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.hash.HashCode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashes the files of large directory trees concurrently, by recursively splitting the files into batches that are hashed on a fork/join pool.
+ *
+ * <p>The pool is created on first use and is sized to the max worker count of the build. Trees with fewer files than the threshold are hashed on the calling thread.
+ * The pool threads do not take worker leases, so while they run, more threads than the max worker count may access the disk. For this reason parallel hashing is
+ * only used when enabled through {@link #ENABLED_PROPERTY}.</p>
+ */
+public class ParallelFileTreeHasher implements Stoppable {
+    /**
+     * Whether the files of large directory trees are hashed in parallel. Off by default.
+     */
+    public static final String ENABLED_PROPERTY = "org.gradle.internal.snapshot.parallel-hashing";
+    public static final int DEFAULT_MIN_FILES_TO_HASH_IN_PARALLEL = 500;
+    private static final int BATCH_SIZE = 64;
+
+    private final int parallelism;
+    private final int minFilesToHashInParallel;
+    private ForkJoinPool pool;
+
+    public ParallelFileTreeHasher(int parallelism) {
+        this(parallelism, DEFAULT_MIN_FILES_TO_HASH_IN_PARALLEL);
+    }
+
+    public ParallelFileTreeHasher(int parallelism, int minFilesToHashInParallel) {
+        this.parallelism = parallelism;
+        this.minFilesToHashInParallel = minFilesToHashInParallel;
+    }
+
+    /**
+     * Hashes the given files, returning the hashes in the same order as the files.
+     */
+    public List<HashCode> hash(List<? extends FileTreeElement> files, FileHasher hasher) {
+        HashCode[] hashes = new HashCode[files.size()];
+        HashingAction action = new HashingAction(files, hasher, hashes, 0, files.size());
+        if (parallelism < 2 || files.size() < minFilesToHashInParallel) {
+            action.hashBatch();
+        } else {
+            getPool().invoke(action);
+        }
+        return Arrays.asList(hashes);
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static class HashingAction extends RecursiveAction {
+        private final List<? extends FileTreeElement> files;
+        private final FileHasher hasher;
+        private final HashCode[] hashes;
+        private final int from;
+        private final int to;
+
+        HashingAction(List<? extends FileTreeElement> files, FileHasher hasher, HashCode[] hashes, int from, int to) {
+            this.files = files;
+            this.hasher = hasher;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                hashBatch();
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HashingAction(files, hasher, hashes, from, middle), new HashingAction(files, hasher, hashes, middle, to));
+            }
+        }
+
+        void hashBatch() {
+            for (int i = from; i < to; i++) {
+                hashes[i] = hasher.hash(files.get(i));
+            }
+        }
+    }
+}
@@ -29,4 +29,11 @@ public interface TaskHistoryStore {
      * @param cacheInMemoryForShortLivedProcesses When true, entries are cached in memory. When false, entries are cached in memory only when it possible that another build will be run in this process.
      */
     <K, V> PersistentIndexedCache<K, V> createCache(String name, Class<K> keyType, Serializer<V> valueSerializer, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses);
+
+    /**
+     * Creates a cache whose in-memory entries are kept outside of the heap, encoded using the given codec. Entries are cached in memory regardless of the lifetime of the process.
+     *
+     * @param maxEntriesToKeepInMemory The max number of entries to keep in memory. This is not scaled according to available heap.
+     */
+    <V> PersistentIndexedCache<String, V> createOffHeapCache(String name, Serializer<V> valueSerializer, OffHeapValueCodec<V> codec, int maxEntriesToKeepInMemory);
 }
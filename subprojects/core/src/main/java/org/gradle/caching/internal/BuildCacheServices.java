@@ -20,6 +20,7 @@ import org.gradle.caching.configuration.internal.BuildCacheConfigurationInternal
 import org.gradle.caching.configuration.internal.BuildCacheServiceRegistration;
 import org.gradle.caching.configuration.internal.DefaultBuildCacheConfiguration;
 import org.gradle.caching.configuration.internal.DefaultBuildCacheServiceRegistration;
+import org.gradle.caching.internal.controller.InMemoryBuildCacheEntryStore;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.caching.local.internal.DirectoryBuildCacheFileStoreFactory;
 import org.gradle.caching.local.internal.DirectoryBuildCacheServiceFactory;
@@ -37,6 +38,18 @@ import java.util.List;
  */
 public final class BuildCacheServices extends AbstractPluginServiceRegistry {
 
+    @Override
+    public void registerGradleUserHomeServices(ServiceRegistration registration) {
+        registration.addProvider(new Object() {
+
+            // Shared by the builds that run in the same daemon
+            InMemoryBuildCacheEntryStore createInMemoryBuildCacheEntryStore() {
+                return new InMemoryBuildCacheEntryStore(Integer.getInteger(InMemoryBuildCacheEntryStore.MAX_SIZE_PROPERTY, 0) * 1024L * 1024L);
+            }
+
+        });
+    }
+
     @Override
     public void registerBuildServices(ServiceRegistration registration) {
         registration.addProvider(new Object() {
@@ -24,13 +24,20 @@ import org.gradle.api.internal.InstantiatorFactory;
 import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.internal.changedetection.state.FileSystemMirror;
 import org.gradle.api.logging.configuration.ShowStacktrace;
+import org.gradle.caching.configuration.BuildCache;
+import org.gradle.caching.configuration.BuildCacheConfiguration;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
 import org.gradle.caching.configuration.internal.BuildCacheConfigurationInternal;
 import org.gradle.caching.internal.controller.BuildCacheController;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory.RemoteAccessMode;
+import org.gradle.caching.internal.controller.InMemoryBuildCacheEntryStore;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginFactory;
+import org.gradle.caching.local.DirectoryBuildCache;
+import org.gradle.internal.Factory;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -44,6 +51,7 @@ import org.gradle.util.Path;
 import org.gradle.util.SingleMessageLogger;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 import static org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode.DISABLED;
 import static org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode.ENABLED;
@@ -52,8 +60,50 @@ import static org.gradle.caching.internal.controller.BuildCacheControllerFactory
 
 public class BuildCacheTaskServices {
 
-    TaskOutputPacker createTaskResultPacker(FileSystem fileSystem, StreamHasher fileHasher, StringInterner stringInterner) {
-        return new GZipTaskOutputPacker(new TarTaskOutputPacker(fileSystem, fileHasher, stringInterner));
+    /**
+     * The number of threads that read output files ahead of packing them, and compress the packed output or write unpacked files in parallel when enabled. Zero disables all of them.
+     */
+    public static final String PACKING_THREADS_PROPERTY = "org.gradle.caching.pack.threads";
+    /**
+     * Whether to compress blocks of the packed task output in parallel.
+     */
+    public static final String PARALLEL_COMPRESSION_PROPERTY = "org.gradle.caching.pack.parallel-compression";
+    /**
+     * Whether to write and hash small unpacked files on the packing threads while the entry is decompressed.
+     */
+    public static final String PARALLEL_UNPACK_PROPERTY = "org.gradle.caching.unpack.parallel";
+
+    TaskOutputPackingExecutor createTaskOutputPackingExecutor(ExecutorFactory executorFactory) {
+        return new TaskOutputPackingExecutor(executorFactory, Math.max(1, Integer.getInteger(PACKING_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())));
+    }
+
+    TaskOutputPacker createTaskResultPacker(FileSystem fileSystem, StreamHasher fileHasher, StringInterner stringInterner, TaskOutputPackingExecutor packingExecutor, final BuildCacheConfigurationInternal buildCacheConfiguration) {
+        boolean pipelined = Integer.getInteger(PACKING_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()) > 0;
+        Executor readAheadExecutor = pipelined ? packingExecutor : null;
+        Executor compressionExecutor = pipelined && Boolean.getBoolean(PARALLEL_COMPRESSION_PROPERTY) ? packingExecutor : null;
+        Executor unpackExecutor = pipelined && Boolean.getBoolean(PARALLEL_UNPACK_PROPERTY) ? packingExecutor : null;
+        return new CompressingTaskOutputPacker(new TarTaskOutputPacker(fileSystem, fileHasher, stringInterner, readAheadExecutor, unpackExecutor), new Factory<BuildCacheEntryCompression>() {
+            @Override
+            public BuildCacheEntryCompression create() {
+                return selectEntryCompression(buildCacheConfiguration);
+            }
+        }, compressionExecutor);
+    }
+
+    /**
+     * Entries are packed once and then stored in both the local and the remote cache. Only entries that are stored in the local directory cache alone
+     * use its compression, as other Gradle versions using the same remote cache may only be able to load GZIP compressed entries.
+     */
+    private static BuildCacheEntryCompression selectEntryCompression(BuildCacheConfiguration buildCacheConfiguration) {
+        BuildCache remote = buildCacheConfiguration.getRemote();
+        if (remote != null && remote.isEnabled() && remote.isPush()) {
+            return BuildCacheEntryCompression.GZIP;
+        }
+        BuildCache local = buildCacheConfiguration.getLocal();
+        if (local instanceof DirectoryBuildCache) {
+            return ((DirectoryBuildCache) local).getEntryCompression();
+        }
+        return BuildCacheEntryCompression.GZIP;
     }
 
     TaskOutputOriginFactory createTaskOutputOriginFactory(
@@ -84,6 +134,8 @@ public class BuildCacheTaskServices {
         BuildCacheConfigurationInternal buildCacheConfiguration,
         BuildOperationExecutor buildOperationExecutor,
         InstantiatorFactory instantiatorFactory,
+        ExecutorFactory executorFactory,
+        InMemoryBuildCacheEntryStore inMemoryBuildCacheEntryStore,
         GradleInternal gradle
     ) {
         StartParameter startParameter = gradle.getStartParameter();
@@ -105,7 +157,9 @@ public class BuildCacheTaskServices {
             buildCacheMode,
             remoteAccessMode,
             logStackTraces,
-            instantiatorFactory.inject(serviceRegistry)
+            instantiatorFactory.inject(serviceRegistry),
+            executorFactory,
+            inMemoryBuildCacheEntryStore
         );
 
         // Stop the controller early so that any logging emitted during stopping is visible.
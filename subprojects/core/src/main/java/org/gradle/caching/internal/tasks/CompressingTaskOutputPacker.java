@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.internal.changedetection.state.FileContentSnapshot;
+import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec;
+import org.gradle.caching.configuration.BuildCacheEntryCompression;
+import org.gradle.caching.internal.BuildCacheEntryFormat;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter;
+import org.gradle.internal.Factory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Compresses the packed task output, and decompresses it according to the compression it was stored with.
+ *
+ * @see BuildCacheEntryFormat
+ */
+public class CompressingTaskOutputPacker implements TaskOutputPacker {
+    private final TaskOutputPacker delegate;
+    private final Factory<BuildCacheEntryCompression> compression;
+    private final Executor compressionExecutor;
+
+    public CompressingTaskOutputPacker(TaskOutputPacker delegate, Factory<BuildCacheEntryCompression> compression) {
+        this(delegate, compression, null);
+    }
+
+    /**
+     * @param compression provides the compression to pack the task output with.
+     * @param compressionExecutor when not null, blocks of the packed output are compressed in parallel on this executor.
+     */
+    public CompressingTaskOutputPacker(TaskOutputPacker delegate, Factory<BuildCacheEntryCompression> compression, @Nullable Executor compressionExecutor) {
+        this.delegate = delegate;
+        this.compression = compression;
+        this.compressionExecutor = compressionExecutor;
+    }
+
+    @Override
+    public PackResult pack(SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs, Map<String, Map<String, FileContentSnapshot>> outputFiles, OutputStream output, TaskOutputOriginWriter writeOrigin) throws IOException {
+        OutputStream compressedOutput = BuildCacheEntryFormat.compress(output, compression.create(), compressionExecutor);
+        try {
+            return delegate.pack(propertySpecs, outputFiles, compressedOutput, writeOrigin);
+        } finally {
+            IOUtils.closeQuietly(compressedOutput);
+        }
+    }
+
+    @Override
+    public UnpackResult unpack(SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs, InputStream input, TaskOutputOriginReader readOrigin) throws IOException {
+        InputStream decompressedInput = BuildCacheEntryFormat.decompress(input);
+        try {
+            return delegate.unpack(propertySpecs, decompressedInput, readOrigin);
+        } finally {
+            IOUtils.closeQuietly(decompressedInput);
+        }
+    }
+}
@@ -19,8 +19,8 @@ package org.gradle.caching.internal.tasks;
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableListMultimap;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -43,11 +43,14 @@ import org.gradle.api.internal.tasks.TaskFilePropertySpec;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter;
+import org.gradle.internal.UncheckedException;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 
+import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -56,9 +59,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -81,14 +94,39 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         }
     };
 
+    private static final int MAX_READ_AHEAD_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_READ_AHEAD_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_READ_AHEAD_FILES = 64;
+
+    private static final int MAX_PARALLEL_UNPACK_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_PARALLEL_UNPACK_BYTES = 8 * 1024 * 1024;
+
     private final FileSystem fileSystem;
     private final StreamHasher streamHasher;
     private final StringInterner stringInterner;
+    private final Executor readAheadExecutor;
+    private final Executor unpackExecutor;
 
     public TarTaskOutputPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner) {
+        this(fileSystem, streamHasher, stringInterner, null);
+    }
+
+    public TarTaskOutputPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner, @Nullable Executor readAheadExecutor) {
+        this(fileSystem, streamHasher, stringInterner, readAheadExecutor, null);
+    }
+
+    /**
+     * @param readAheadExecutor when not null, the contents of small files are read on this executor ahead of writing them to the archive,
+     * so that reading the next files overlaps with writing the current one. The entries are written in the same order either way.
+     * @param unpackExecutor when not null, small files are written and hashed on this executor while unpacking, so that decompressing the archive
+     * overlaps with writing the files. Large files are written while decompressing, as before.
+     */
+    public TarTaskOutputPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner, @Nullable Executor readAheadExecutor, @Nullable Executor unpackExecutor) {
         this.fileSystem = fileSystem;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.readAheadExecutor = readAheadExecutor;
+        this.unpackExecutor = unpackExecutor;
     }
 
     @Override
@@ -141,32 +179,32 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
             return 0;
         }
         String propertyPath = "property-" + propertyName;
+        List<PackEntry> entries = new ArrayList<PackEntry>();
         if (outputSnapshots.isEmpty()) {
-            storeMissingProperty(propertyPath, tarOutput);
-            return 1;
-        }
-        switch (propertySpec.getOutputType()) {
-            case DIRECTORY:
-                return storeDirectoryProperty(propertyPath, root, outputSnapshots, tarOutput);
-            case FILE:
-                storeFileProperty(propertyPath, root, tarOutput);
-                return 1;
-            default:
-                throw new AssertionError();
+            storeMissingProperty(propertyPath, entries);
+        } else {
+            switch (propertySpec.getOutputType()) {
+                case DIRECTORY:
+                    storeDirectoryProperty(propertyPath, root, outputSnapshots, entries);
+                    break;
+                case FILE:
+                    storeFileProperty(propertyPath, root, entries);
+                    break;
+                default:
+                    throw new AssertionError();
+            }
         }
+        writeEntries(entries, tarOutput);
+        return entries.size();
     }
 
-    private long storeDirectoryProperty(String propertyPath, File directory, Map<String, FileContentSnapshot> outputSnapshots, final TarArchiveOutputStream tarOutput) throws IOException {
+    private void storeDirectoryProperty(String propertyPath, File directory, Map<String, FileContentSnapshot> outputSnapshots, List<PackEntry> entries) {
         if (!directory.isDirectory()) {
             throw new IllegalArgumentException(String.format("Expected '%s' to be a directory", directory));
         }
 
-        long entries = 0;
-
         final String propertyRoot = propertyPath + "/";
-        createTarEntry(propertyRoot, 0, UnixStat.DIR_FLAG | UnixStat.DEFAULT_DIR_PERM, tarOutput);
-        tarOutput.closeArchiveEntry();
-        entries++;
+        entries.add(new PackEntry(propertyRoot, UnixStat.DIR_FLAG | UnixStat.DEFAULT_DIR_PERM, null));
 
         String rootAbsolutePath = directory.getAbsolutePath();
         URI rootUri = directory.toURI();
@@ -183,47 +221,139 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
             int mode = fileSystem.getUnixMode(file);
             switch (entry.getValue().getType()) {
                 case RegularFile:
-                    storeFileEntry(file, targetPath, file.length(), mode, tarOutput);
+                    entries.add(new PackEntry(targetPath, UnixStat.FILE_FLAG | mode, file));
                     break;
                 case Directory:
-                    storeDirectoryEntry(targetPath, mode, tarOutput);
+                    entries.add(new PackEntry(targetPath + "/", UnixStat.DIR_FLAG | mode, null));
                     break;
                 case Missing:
                     throw new IllegalStateException("File should not be missing: " + file);
                 default:
                     throw new AssertionError();
             }
-            entries++;
         }
-        return entries;
     }
 
-    private void storeFileProperty(String propertyPath, File file, TarArchiveOutputStream tarOutput) throws IOException {
+    private void storeFileProperty(String propertyPath, File file, List<PackEntry> entries) {
         if (!file.isFile()) {
             throw new IllegalArgumentException(String.format("Expected '%s' to be a file", file));
         }
-        storeFileEntry(file, propertyPath, file.length(), fileSystem.getUnixMode(file), tarOutput);
+        entries.add(new PackEntry(propertyPath, UnixStat.FILE_FLAG | fileSystem.getUnixMode(file), file));
     }
 
-    private void storeMissingProperty(String propertyPath, TarArchiveOutputStream tarOutput) throws IOException {
-        createTarEntry("missing-" + propertyPath, 0, UnixStat.FILE_FLAG | UnixStat.DEFAULT_FILE_PERM, tarOutput);
-        tarOutput.closeArchiveEntry();
+    private void storeMissingProperty(String propertyPath, List<PackEntry> entries) {
+        entries.add(new PackEntry("missing-" + propertyPath, UnixStat.FILE_FLAG | UnixStat.DEFAULT_FILE_PERM, null));
     }
 
-    private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream tarOutput) throws IOException {
-        createTarEntry(path + "/", 0, UnixStat.DIR_FLAG | mode, tarOutput);
-        tarOutput.closeArchiveEntry();
-    }
-
-    private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) throws IOException {
-        createTarEntry(path, size, UnixStat.FILE_FLAG | mode, tarOutput);
-        FileInputStream input = new FileInputStream(inputFile);
+    private void writeEntries(List<PackEntry> entries, TarArchiveOutputStream tarOutput) throws IOException {
+        int nextReadAhead = 0;
+        long bytesReadAhead = 0;
         try {
-            IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+            for (int index = 0; index < entries.size(); index++) {
+                if (readAheadExecutor != null) {
+                    // Keep reading small files ahead, up to a limit on the number of files and bytes held in memory
+                    nextReadAhead = Math.max(nextReadAhead, index + 1);
+                    while (nextReadAhead < entries.size() && nextReadAhead - index <= MAX_READ_AHEAD_FILES) {
+                        PackEntry next = entries.get(nextReadAhead);
+                        if (next.isReadAhead(MAX_READ_AHEAD_FILE_SIZE) && bytesReadAhead + next.size > MAX_READ_AHEAD_BYTES) {
+                            break;
+                        }
+                        if (next.readAhead(readAheadExecutor, MAX_READ_AHEAD_FILE_SIZE)) {
+                            bytesReadAhead += next.size;
+                        }
+                        nextReadAhead++;
+                    }
+                }
+                PackEntry entry = entries.get(index);
+                if (entry.content != null) {
+                    bytesReadAhead -= entry.size;
+                }
+                entry.write(tarOutput);
+            }
         } finally {
-            IOUtils.closeQuietly(input);
+            for (PackEntry entry : entries) {
+                entry.cancelReadAhead();
+            }
+        }
+    }
+
+    /**
+     * An entry of the archive, with the file to read its content from for regular files.
+     */
+    private static class PackEntry {
+        private final String path;
+        private final int mode;
+        private final File file;
+        private final long size;
+        private FutureTask<byte[]> content;
+
+        PackEntry(String path, int mode, @Nullable File file) {
+            this.path = path;
+            this.mode = mode;
+            this.file = file;
+            this.size = file == null ? 0 : file.length();
+        }
+
+        boolean isReadAhead(int maxFileSize) {
+            return file != null && size <= maxFileSize;
+        }
+
+        /**
+         * Starts reading the content of a small file on the given executor. Returns false when the file is not read ahead.
+         */
+        boolean readAhead(Executor executor, int maxFileSize) {
+            if (!isReadAhead(maxFileSize)) {
+                return false;
+            }
+            content = new FutureTask<byte[]>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return FileUtils.readFileToByteArray(file);
+                }
+            });
+            executor.execute(content);
+            return true;
+        }
+
+        void cancelReadAhead() {
+            if (content != null) {
+                content.cancel(false);
+                content = null;
+            }
+        }
+
+        void write(TarArchiveOutputStream tarOutput) throws IOException {
+            if (file == null) {
+                createTarEntry(path, 0, mode, tarOutput);
+            } else if (content != null) {
+                byte[] bytes = getReadAheadContent();
+                createTarEntry(path, bytes.length, mode, tarOutput);
+                tarOutput.write(bytes);
+            } else {
+                createTarEntry(path, size, mode, tarOutput);
+                FileInputStream input = new FileInputStream(file);
+                try {
+                    IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+            tarOutput.closeArchiveEntry();
+        }
+
+        private byte[] getReadAheadContent() throws IOException {
+            try {
+                return Uninterruptibles.getUninterruptibly(content);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw UncheckedException.throwAsUncheckedException(cause);
+            } finally {
+                content = null;
+            }
         }
-        tarOutput.closeArchiveEntry();
     }
 
     private static void createTarEntry(String path, long size, int mode, TarArchiveOutputStream tarOutput) throws IOException {
@@ -252,33 +382,37 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         });
         TarArchiveEntry tarEntry;
         TaskOutputOriginMetadata originMetadata = null;
-        ImmutableListMultimap.Builder<String, FileSnapshot> propertyFileSnapshots = ImmutableListMultimap.builder();
+        UnpackedFiles propertyFileSnapshots = new UnpackedFiles(unpackExecutor);
 
         long entries = 0;
-        while ((tarEntry = tarInput.getNextTarEntry()) != null) {
-            ++entries;
-            String name = tarEntry.getName();
+        try {
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                ++entries;
+                String name = tarEntry.getName();
+
+                if (name.equals(METADATA_PATH)) {
+                    // handle origin metadata
+                    originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
+                } else {
+                    // handle output property
+                    Matcher matcher = PROPERTY_PATH.matcher(name);
+                    if (!matcher.matches()) {
+                        throw new IllegalStateException("Cached result format error, invalid contents: " + name);
+                    }
 
-            if (name.equals(METADATA_PATH)) {
-                // handle origin metadata
-                originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
-            } else {
-                // handle output property
-                Matcher matcher = PROPERTY_PATH.matcher(name);
-                if (!matcher.matches()) {
-                    throw new IllegalStateException("Cached result format error, invalid contents: " + name);
-                }
+                    String propertyName = matcher.group(2);
+                    ResolvedTaskOutputFilePropertySpec propertySpec = propertySpecsMap.get(propertyName);
+                    if (propertySpec == null) {
+                        throw new IllegalStateException(String.format("No output property '%s' registered", propertyName));
+                    }
 
-                String propertyName = matcher.group(2);
-                ResolvedTaskOutputFilePropertySpec propertySpec = propertySpecsMap.get(propertyName);
-                if (propertySpec == null) {
-                    throw new IllegalStateException(String.format("No output property '%s' registered", propertyName));
+                    boolean outputMissing = matcher.group(1) != null;
+                    String childPath = matcher.group(3);
+                    unpackPropertyEntry(propertySpec, tarInput, tarEntry, childPath, outputMissing, propertyFileSnapshots);
                 }
-
-                boolean outputMissing = matcher.group(1) != null;
-                String childPath = matcher.group(3);
-                unpackPropertyEntry(propertySpec, tarInput, tarEntry, childPath, outputMissing, propertyFileSnapshots);
             }
+        } finally {
+            propertyFileSnapshots.waitForWrites();
         }
         if (originMetadata == null) {
             throw new IllegalStateException("Cached result format error, no origin metadata was found.");
@@ -287,7 +421,7 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         return new UnpackResult(originMetadata, entries, propertyFileSnapshots.build());
     }
 
-    private void unpackPropertyEntry(ResolvedTaskOutputFilePropertySpec propertySpec, InputStream input, TarArchiveEntry entry, String childPath, boolean missing, ImmutableMultimap.Builder<String, FileSnapshot> fileSnapshots) throws IOException {
+    private void unpackPropertyEntry(ResolvedTaskOutputFilePropertySpec propertySpec, InputStream input, TarArchiveEntry entry, String childPath, boolean missing, UnpackedFiles fileSnapshots) throws IOException {
         File propertyRoot = propertySpec.getOutputFile();
         String propertyName = propertySpec.getPropertyName();
         if (propertyRoot == null) {
@@ -327,9 +461,15 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
 
         String internedPath = stringInterner.intern(outputFile.getAbsolutePath());
         RelativePath relativePath = root ? RelativePath.parse(!isDirEntry, outputFile.getName()) : RelativePath.parse(!isDirEntry, childPath);
+        int mode = entry.getMode() & FILE_PERMISSION_MASK;
         if (isDirEntry) {
             FileUtils.forceMkdir(outputFile);
             fileSnapshots.put(propertyName, new DirectoryFileSnapshot(internedPath, relativePath, root));
+        } else if (fileSnapshots.isParallel() && entry.getSize() <= MAX_PARALLEL_UNPACK_FILE_SIZE) {
+            byte[] content = new byte[(int) entry.getSize()];
+            IOUtils.readFully(input, content);
+            fileSnapshots.write(propertyName, new UnpackFile(outputFile, internedPath, relativePath, root, mode, content));
+            return;
         } else {
             OutputStream output = new FileOutputStream(outputFile);
             HashCode hash;
@@ -342,6 +482,114 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
             fileSnapshots.put(propertyName, new RegularFileSnapshot(internedPath, relativePath, root, contentSnapshot));
         }
 
-        fileSystem.chmod(outputFile, entry.getMode() & FILE_PERMISSION_MASK);
+        fileSystem.chmod(outputFile, mode);
+    }
+
+    /**
+     * The snapshots of the unpacked files, in the order of the archive.
+     *
+     * <p>When there is an executor, files are written to it, up to a limit on the number of bytes waiting to be written.</p>
+     */
+    private static class UnpackedFiles {
+        private final Executor executor;
+        private final List<String> propertyNames = new ArrayList<String>();
+        private final List<Object> snapshots = new ArrayList<Object>();
+        private final Deque<UnpackFile> pendingWrites = new ArrayDeque<UnpackFile>();
+        private long pendingBytes;
+
+        UnpackedFiles(@Nullable Executor executor) {
+            this.executor = executor;
+        }
+
+        boolean isParallel() {
+            return executor != null;
+        }
+
+        void put(String propertyName, FileSnapshot snapshot) {
+            propertyNames.add(propertyName);
+            snapshots.add(snapshot);
+        }
+
+        void write(String propertyName, UnpackFile file) throws IOException {
+            while (!pendingWrites.isEmpty() && pendingBytes + file.size > MAX_PARALLEL_UNPACK_BYTES) {
+                UnpackFile written = pendingWrites.remove();
+                written.getSnapshot();
+                pendingBytes -= written.size;
+            }
+            executor.execute(file.snapshot);
+            pendingWrites.add(file);
+            pendingBytes += file.size;
+            propertyNames.add(propertyName);
+            snapshots.add(file);
+        }
+
+        /**
+         * Waits for all files to be written, so that no file is written after unpacking has finished or failed.
+         */
+        void waitForWrites() {
+            for (UnpackFile file : pendingWrites) {
+                try {
+                    Uninterruptibles.getUninterruptibly(file.snapshot);
+                } catch (ExecutionException e) {
+                    // Reported when the snapshots are built
+                }
+            }
+        }
+
+        ImmutableListMultimap<String, FileSnapshot> build() throws IOException {
+            ImmutableListMultimap.Builder<String, FileSnapshot> builder = ImmutableListMultimap.builder();
+            for (int i = 0; i < snapshots.size(); i++) {
+                Object snapshot = snapshots.get(i);
+                builder.put(propertyNames.get(i), snapshot instanceof UnpackFile ? ((UnpackFile) snapshot).getSnapshot() : (FileSnapshot) snapshot);
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * A regular file that is written and hashed on the unpack executor. The content is only held until the file has been written.
+     */
+    private class UnpackFile {
+        private final int size;
+        private final FutureTask<FileSnapshot> snapshot;
+
+        UnpackFile(final File file, final String internedPath, final RelativePath relativePath, final boolean root, final int mode, final byte[] content) {
+            this.size = content.length;
+            this.snapshot = new FutureTask<FileSnapshot>(new Callable<FileSnapshot>() {
+                @Override
+                public FileSnapshot call() throws IOException {
+                    writeFile(file, content);
+                    HashCode hash = streamHasher.hash(new ByteArrayInputStream(content));
+                    FileHashSnapshot contentSnapshot = new FileHashSnapshot(hash, file.lastModified());
+                    fileSystem.chmod(file, mode);
+                    return new RegularFileSnapshot(internedPath, relativePath, root, contentSnapshot);
+                }
+            });
+        }
+
+        FileSnapshot getSnapshot() throws IOException {
+            try {
+                return Uninterruptibles.getUninterruptibly(snapshot);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw UncheckedException.throwAsUncheckedException(cause);
+            }
+        }
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
     }
 }
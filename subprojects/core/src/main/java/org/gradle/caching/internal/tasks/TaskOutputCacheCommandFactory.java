@@ -16,7 +16,9 @@
 
 package org.gradle.caching.internal.tasks;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSortedMap;
@@ -114,7 +116,7 @@ public class TaskOutputCacheCommandFactory {
 
         @Override
         public BuildCacheLoadCommand.Result<TaskOutputOriginMetadata> load(InputStream input) throws IOException {
-            taskOutputsGenerationListener.beforeTaskOutputsGenerated();
+            taskOutputsGenerationListener.beforeTaskOutputsGenerated(getOutputFiles());
             final TaskOutputPacker.UnpackResult unpackResult;
             try {
                 unpackResult = packer.unpack(outputProperties, input, taskOutputOriginFactory.createReader(task));
@@ -185,6 +187,15 @@ public class TaskOutputCacheCommandFactory {
             taskArtifactState.snapshotAfterLoadedFromCache(propertySnapshotsBuilder.build());
         }
 
+        private Iterable<File> getOutputFiles() {
+            return Iterables.filter(Iterables.transform(outputProperties, new Function<ResolvedTaskOutputFilePropertySpec, File>() {
+                @Override
+                public File apply(ResolvedTaskOutputFilePropertySpec outputProperty) {
+                    return outputProperty.getOutputFile();
+                }
+            }), Predicates.notNull());
+        }
+
         private void cleanupOutputsAfterUnpackFailure() {
             for (ResolvedTaskOutputFilePropertySpec outputProperty : outputProperties) {
                 File outputFile = outputProperty.getOutputFile();
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gradle.api.internal.tasks.TaskStateInternal;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.internal.time.Clock;
+import org.gradle.internal.time.TimeFormatting;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts the critical path of an execution plan from the task durations of previous builds, and measures the actual critical path while the plan executes.
+ *
+ * <p>The remaining duration of a task is its expected duration plus the longest remaining duration of the tasks that wait for it. When prioritising,
+ * the plan selects the ready task with the longest remaining duration first, so that long chains of tasks do not start late in parallel builds.
+ * Tasks that have not been executed before count as taking no time, so that without any history the tasks run in execution plan order.</p>
+ *
+ * <p>The durations of executed tasks are recorded for the next build. Skipped, up-to-date and failed tasks are not recorded.
+ * The durations are kept in memory until the plan completes, so that the duration history is not accessed while the plan holds its state lock.</p>
+ *
+ * <p>This class is not thread-safe, the plan uses it while holding its state lock.</p>
+ */
+public class CriticalPathTracker {
+    private static final Logger LOGGER = Logging.getLogger(CriticalPathTracker.class);
+
+    private final TaskDurationHistory durationHistory;
+    private final Clock clock;
+    private final boolean prioritise;
+    private final Map<TaskInfo, Long> startTimes = Maps.newIdentityHashMap();
+    private final Map<TaskInfo, Long> endTimes = Maps.newIdentityHashMap();
+    private final Map<TaskInfo, Long> durationsToRecord = Maps.newIdentityHashMap();
+    private List<TaskInfo> predictedPath = Collections.emptyList();
+
+    /**
+     * @param durationHistory where to look up and record task durations, or null to not predict the critical path.
+     * @param prioritise whether the plan should select the tasks on the critical path first.
+     */
+    public CriticalPathTracker(@Nullable TaskDurationHistory durationHistory, Clock clock, boolean prioritise) {
+        this.durationHistory = durationHistory;
+        this.clock = clock;
+        this.prioritise = prioritise;
+    }
+
+    boolean isPrioritising() {
+        return prioritise && durationHistory != null;
+    }
+
+    /**
+     * Calculates the remaining duration of each of the given tasks, which have to be in execution plan order.
+     */
+    void predict(List<TaskInfo> tasks) {
+        if (durationHistory == null) {
+            return;
+        }
+        TaskInfo criticalPathStart = null;
+        for (TaskInfo taskInfo : Lists.reverse(tasks)) {
+            TaskInfo longestWaitingTask = longestWaitingTask(taskInfo);
+            long remainingDuration = longestWaitingTask == null ? 0 : longestWaitingTask.getRemainingDuration();
+            if (taskInfo.isRequired()) {
+                Long duration = durationHistory.getDuration(taskInfo.getTask());
+                remainingDuration += duration == null ? 0 : duration;
+            }
+            taskInfo.setRemainingDuration(remainingDuration);
+            if (criticalPathStart == null || remainingDuration >= criticalPathStart.getRemainingDuration()) {
+                criticalPathStart = taskInfo;
+            }
+        }
+
+        predictedPath = Lists.newArrayList();
+        for (TaskInfo taskInfo = criticalPathStart; taskInfo != null; taskInfo = longestWaitingTask(taskInfo)) {
+            predictedPath.add(taskInfo);
+        }
+    }
+
+    @Nullable
+    private static TaskInfo longestWaitingTask(TaskInfo taskInfo) {
+        TaskInfo longest = null;
+        for (TaskInfo waitingTask : Iterables.concat(taskInfo.getDependencyPredecessors(), taskInfo.getMustPredecessors())) {
+            if (longest == null || waitingTask.getRemainingDuration() > longest.getRemainingDuration()) {
+                longest = waitingTask;
+            }
+        }
+        return longest;
+    }
+
+    void taskStarted(TaskInfo taskInfo) {
+        startTimes.put(taskInfo, clock.getCurrentTime());
+    }
+
+    void taskCompleted(TaskInfo taskInfo) {
+        Long startTime = startTimes.get(taskInfo);
+        if (startTime == null) {
+            return;
+        }
+        long endTime = clock.getCurrentTime();
+        endTimes.put(taskInfo, endTime);
+
+        TaskStateInternal state = taskInfo.getTask().getState();
+        if (durationHistory != null && state.getExecuted() && !state.getSkipped() && state.getFailure() == null) {
+            durationsToRecord.put(taskInfo, endTime - startTime);
+        }
+    }
+
+    /**
+     * Records the durations of the executed tasks, reports the predicted and the actual critical path of the executed plan, and forgets about the plan.
+     * This should be called without holding the state lock of the plan.
+     */
+    void planCompleted() {
+        for (Map.Entry<TaskInfo, Long> entry : durationsToRecord.entrySet()) {
+            durationHistory.recordDuration(entry.getKey().getTask(), entry.getValue());
+        }
+        durationsToRecord.clear();
+        if (!endTimes.isEmpty() && LOGGER.isInfoEnabled()) {
+            if (!predictedPath.isEmpty()) {
+                LOGGER.info("Predicted critical path: {} ({})", TimeFormatting.formatDurationVerbose(predictedPath.get(0).getRemainingDuration()), Joiner.on(" -> ").join(predictedPath));
+            }
+            List<TaskInfo> actualPath = actualCriticalPath();
+            long actualDuration = endTimes.get(actualPath.get(actualPath.size() - 1)) - startTimes.get(actualPath.get(0));
+            LOGGER.info("Actual critical path: {} ({})", TimeFormatting.formatDurationVerbose(actualDuration), Joiner.on(" -> ").join(actualPath));
+        }
+        startTimes.clear();
+        endTimes.clear();
+        predictedPath = Collections.emptyList();
+    }
+
+    /**
+     * Walks back from the task that completed last, each time to the dependency or must-run-after task that completed last.
+     */
+    private List<TaskInfo> actualCriticalPath() {
+        TaskInfo last = null;
+        for (Map.Entry<TaskInfo, Long> entry : endTimes.entrySet()) {
+            if (last == null || entry.getValue() > endTimes.get(last)) {
+                last = entry.getKey();
+            }
+        }
+
+        List<TaskInfo> path = Lists.newArrayList();
+        while (last != null) {
+            path.add(last);
+            TaskInfo previous = null;
+            for (TaskInfo dependency : Iterables.concat(last.getDependencySuccessors(), last.getMustSuccessors())) {
+                if (endTimes.containsKey(dependency) && (previous == null || endTimes.get(dependency) > endTimes.get(previous))) {
+                    previous = dependency;
+                }
+            }
+            last = previous;
+        }
+        return Lists.reverse(path);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph;
+
+import org.gradle.api.internal.TaskInternal;
+import org.gradle.api.internal.changedetection.state.TaskHistoryStore;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the task durations next to the task history. The expected duration of a task is the average of its last recorded duration and the new one,
+ * so that a single slow or fast execution does not change the prediction completely.
+ */
+public class DefaultTaskDurationHistory implements TaskDurationHistory {
+    private final PersistentIndexedCache<String, Long> durations;
+
+    public DefaultTaskDurationHistory(TaskHistoryStore cacheAccess) {
+        this.durations = cacheAccess.createCache("taskDurations", String.class, BaseSerializerFactory.LONG_SERIALIZER, 10000, false);
+    }
+
+    @Nullable
+    @Override
+    public Long getDuration(TaskInternal task) {
+        return durations.get(task.getIdentityPath().toString());
+    }
+
+    @Override
+    public void recordDuration(TaskInternal task, long durationMillis) {
+        String key = task.getIdentityPath().toString();
+        Long previousDuration = durations.get(key);
+        durations.put(key, previousDuration == null ? durationMillis : (previousDuration + durationMillis) / 2);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph;
+
+import com.google.common.collect.Iterables;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The tasks of an execution plan that have not been selected for execution yet, and among those the ones whose dependencies are all complete.
+ *
+ * <p>Each task counts its dependencies and must-run-after tasks that are not complete. A task becomes ready when the last of them completes, so that selecting
+ * the next task only needs to look at the ready tasks, in execution plan order, instead of checking the dependencies of every queued task.
+ * The plan has to report each task that becomes complete, and each complete task that has to run after all, for the counts to stay correct.</p>
+ *
+ * <p>Optionally, ready tasks with a longer remaining duration come first, so that the tasks on the critical path of the plan start as early as possible.
+ * Ready tasks with the same remaining duration stay in execution plan order.</p>
+ *
+ * <p>This class is not thread-safe, the plan uses it while holding its state lock.</p>
+ */
+class ReadyTaskQueue {
+    private static final Comparator<TaskInfo> EXECUTION_ORDER = new Comparator<TaskInfo>() {
+        @Override
+        public int compare(TaskInfo left, TaskInfo right) {
+            return left.getExecutionOrder() < right.getExecutionOrder() ? -1 : (left.getExecutionOrder() == right.getExecutionOrder() ? 0 : 1);
+        }
+    };
+    private static final Comparator<TaskInfo> CRITICAL_PATH_ORDER = new Comparator<TaskInfo>() {
+        @Override
+        public int compare(TaskInfo left, TaskInfo right) {
+            if (left.getRemainingDuration() != right.getRemainingDuration()) {
+                return left.getRemainingDuration() > right.getRemainingDuration() ? -1 : 1;
+            }
+            return EXECUTION_ORDER.compare(left, right);
+        }
+    };
+
+    private final Set<TaskInfo> queuedTasks = new LinkedHashSet<TaskInfo>();
+    private TreeSet<TaskInfo> readyTasks = new TreeSet<TaskInfo>(EXECUTION_ORDER);
+
+    /**
+     * Replaces the queued tasks with the given tasks, in execution order.
+     */
+    void reset(Collection<TaskInfo> tasks) {
+        reset(tasks, false);
+    }
+
+    /**
+     * Replaces the queued tasks with the given tasks, in execution order.
+     *
+     * @param criticalPathFirst whether ready tasks are ordered by their remaining duration first.
+     */
+    void reset(Collection<TaskInfo> tasks, boolean criticalPathFirst) {
+        clear();
+        readyTasks = new TreeSet<TaskInfo>(criticalPathFirst ? CRITICAL_PATH_ORDER : EXECUTION_ORDER);
+        int executionOrder = 0;
+        for (TaskInfo task : tasks) {
+            task.setExecutionOrder(executionOrder++);
+            queuedTasks.add(task);
+        }
+        for (TaskInfo task : queuedTasks) {
+            if (task.countIncompleteDependencies()) {
+                readyTasks.add(task);
+            }
+        }
+    }
+
+    /**
+     * Returns the queued tasks whose dependencies are all complete, in the order they should be selected. Some of them may not be ready to run themselves.
+     */
+    Iterable<TaskInfo> getReadyTasks() {
+        return readyTasks;
+    }
+
+    /**
+     * Removes a task that has been selected for execution.
+     */
+    void remove(TaskInfo task) {
+        queuedTasks.remove(task);
+        readyTasks.remove(task);
+    }
+
+    /**
+     * Called when the given task has become complete, by executing or skipping it.
+     */
+    void taskCompleted(TaskInfo task) {
+        remove(task);
+        for (TaskInfo dependent : Iterables.concat(task.getDependencyPredecessors(), task.getMustPredecessors())) {
+            if (dependent.dependencyCompleted() && queuedTasks.contains(dependent)) {
+                readyTasks.add(dependent);
+            }
+        }
+    }
+
+    /**
+     * Called when the given task, which was complete because it was not going to run, has to run after all.
+     */
+    void taskReopened(TaskInfo task) {
+        for (TaskInfo dependent : Iterables.concat(task.getDependencyPredecessors(), task.getMustPredecessors())) {
+            dependent.dependencyReopened();
+            readyTasks.remove(dependent);
+        }
+    }
+
+    /**
+     * Returns true if any of the queued tasks is not complete.
+     */
+    boolean hasIncompleteTasks() {
+        for (TaskInfo task : queuedTasks) {
+            if (!task.isComplete()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        queuedTasks.clear();
+        readyTasks.clear();
+    }
+}
@@ -33,8 +33,12 @@ public class TaskInfo implements Comparable<TaskInfo> {
     private final TreeSet<TaskInfo> dependencyPredecessors = new TreeSet<TaskInfo>();
     private final TreeSet<TaskInfo> dependencySuccessors = new TreeSet<TaskInfo>();
     private final TreeSet<TaskInfo> mustSuccessors = new TreeSet<TaskInfo>();
+    private final TreeSet<TaskInfo> mustPredecessors = new TreeSet<TaskInfo>();
     private final TreeSet<TaskInfo> shouldSuccessors = new TreeSet<TaskInfo>();
     private final TreeSet<TaskInfo> finalizers = new TreeSet<TaskInfo>();
+    private int executionOrder;
+    private int incompleteDependencies;
+    private long remainingDuration;
 
     public TaskInfo(TaskInternal task) {
         this.task = task;
@@ -149,6 +153,61 @@ public class TaskInfo implements Comparable<TaskInfo> {
         return true;
     }
 
+    /**
+     * Counts the dependencies and must-run-after tasks that are not complete yet, so that {@link #dependencyCompleted()} can tell when the last of them completes.
+     *
+     * @return true if all of them are complete.
+     */
+    boolean countIncompleteDependencies() {
+        incompleteDependencies = 0;
+        for (TaskInfo dependency : mustSuccessors) {
+            if (!dependency.isComplete()) {
+                incompleteDependencies++;
+            }
+        }
+        for (TaskInfo dependency : dependencySuccessors) {
+            if (!dependency.isComplete()) {
+                incompleteDependencies++;
+            }
+        }
+        return incompleteDependencies == 0;
+    }
+
+    /**
+     * Called when a dependency or must-run-after task of this task has completed.
+     *
+     * @return true if it was the last one that was not complete.
+     */
+    boolean dependencyCompleted() {
+        return --incompleteDependencies == 0;
+    }
+
+    /**
+     * Called when a dependency or must-run-after task of this task that was complete has to run after all.
+     */
+    void dependencyReopened() {
+        incompleteDependencies++;
+    }
+
+    int getExecutionOrder() {
+        return executionOrder;
+    }
+
+    void setExecutionOrder(int executionOrder) {
+        this.executionOrder = executionOrder;
+    }
+
+    /**
+     * The expected time in milliseconds from starting this task until the tasks that wait for it, directly or indirectly, are complete.
+     */
+    long getRemainingDuration() {
+        return remainingDuration;
+    }
+
+    void setRemainingDuration(long remainingDuration) {
+        this.remainingDuration = remainingDuration;
+    }
+
     public boolean allDependenciesSuccessful() {
         for (TaskInfo dependency : dependencySuccessors) {
             if (!dependency.isSuccessful()) {
@@ -170,6 +229,10 @@ public class TaskInfo implements Comparable<TaskInfo> {
         return mustSuccessors;
     }
 
+    public TreeSet<TaskInfo> getMustPredecessors() {
+        return mustPredecessors;
+    }
+
     public TreeSet<TaskInfo> getFinalizers() {
         return finalizers;
     }
@@ -193,6 +256,7 @@ public class TaskInfo implements Comparable<TaskInfo> {
 
     public void addMustSuccessor(TaskInfo toNode) {
         mustSuccessors.add(toNode);
+        toNode.mustPredecessors.add(this);
     }
 
     public void addFinalizer(TaskInfo finalizerNode) {
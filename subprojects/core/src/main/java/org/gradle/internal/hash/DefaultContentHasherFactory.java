@@ -16,13 +16,70 @@
 
 package org.gradle.internal.hash;
 
+/**
+ * Creates hashers for content, using MD5 by default.
+ *
+ * <p>The content of files can be hashed with a faster, non-cryptographic hash function instead, selected by the {@value #FILE_CONTENT_ALGORITHM_PROPERTY} system property.
+ * Each algorithm uses its own signature, so hashes created by different algorithms never match. As file hashes are inputs to build cache keys,
+ * the selected algorithm is only used for the input and output files of tasks in builds without the build cache, and MD5 is used otherwise.</p>
+ */
 public class DefaultContentHasherFactory implements ContentHasherFactory {
+    public static final String FILE_CONTENT_ALGORITHM_PROPERTY = "org.gradle.internal.hash.filecontent";
+    public static final String MD5 = "md5";
+    public static final String MURMUR3 = "murmur3";
     private static final byte[] SIGNATURE = Hashing.md5().hashString(DefaultContentHasherFactory.class.getName()).toByteArray();
 
+    private final String algorithm;
+    private final HashFunction hashFunction;
+    private final byte[] signature;
+
+    public DefaultContentHasherFactory() {
+        this(MD5);
+    }
+
+    public DefaultContentHasherFactory(String algorithm) {
+        this.algorithm = algorithm;
+        if (algorithm.equals(MD5)) {
+            this.hashFunction = Hashing.md5();
+            this.signature = SIGNATURE;
+        } else if (algorithm.equals(MURMUR3)) {
+            this.hashFunction = Hashing.murmur3_128();
+            this.signature = Hashing.md5().hashString(DefaultContentHasherFactory.class.getName() + ":" + algorithm).toByteArray();
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown content hashing algorithm '%s', supported algorithms are '%s' and '%s'.", algorithm, MD5, MURMUR3));
+        }
+    }
+
+    /**
+     * Creates the factory for hashing the content of files, using the algorithm selected for this process.
+     */
+    public static DefaultContentHasherFactory forFileContent() {
+        return new DefaultContentHasherFactory(System.getProperty(FILE_CONTENT_ALGORITHM_PROPERTY, MD5));
+    }
+
+    /**
+     * Creates the factory for hashing the content of the input and output files of tasks. Build cache keys are calculated from these hashes,
+     * so MD5 is used when the build cache is enabled.
+     */
+    public static DefaultContentHasherFactory forFileContent(boolean buildCacheEnabled) {
+        return buildCacheEnabled ? new DefaultContentHasherFactory(MD5) : forFileContent();
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the name to use for a cache of hashes created by this factory, to keep the hashes of different algorithms apart.
+     */
+    public String getCacheName(String baseName) {
+        return algorithm.equals(MD5) ? baseName : baseName + "-" + algorithm;
+    }
+
     @Override
     public Hasher create() {
-        Hasher hasher = Hashing.md5().newHasher();
-        hasher.putBytes(SIGNATURE);
+        Hasher hasher = hashFunction.newHasher();
+        hasher.putBytes(signature);
         return hasher;
     }
 }
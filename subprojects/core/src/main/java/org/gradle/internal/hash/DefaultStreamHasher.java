@@ -15,21 +15,46 @@
  */
 package org.gradle.internal.hash;
 
+import org.apache.commons.io.IOUtils;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.internal.io.MappedByteBuffers;
 import org.gradle.internal.io.NullOutputStream;
+import org.gradle.internal.os.OperatingSystem;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 
+/**
+ * Hashes streams by copying them through a pool of heap buffers.
+ *
+ * <p>Files of at least {@value #DEFAULT_MAPPED_HASHING_THRESHOLD} bytes, or the size set by the {@value #MAPPED_HASHING_THRESHOLD_PROPERTY} system property, are hashed
+ * through a read-only memory mapping instead, which avoids copying their content to the heap. Each mapped region is released as soon as it has been hashed.
+ * When the file is truncated while it is being hashed, it is hashed again as a stream. Mapping is disabled by default on Windows,
+ * where a mapped file cannot be deleted while it is mapped.</p>
+ */
 public class DefaultStreamHasher implements StreamHasher {
+    public static final String MAPPED_HASHING_THRESHOLD_PROPERTY = "org.gradle.internal.hash.mappedthreshold";
+    public static final long DEFAULT_MAPPED_HASHING_THRESHOLD = 16 * 1024 * 1024;
+    private static final long MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
     private final ContentHasherFactory hasherFactory;
+    private final long mappedHashingThreshold;
 
     public DefaultStreamHasher(ContentHasherFactory hasherFactory) {
+        this(hasherFactory, Long.getLong(MAPPED_HASHING_THRESHOLD_PROPERTY, OperatingSystem.current().isWindows() ? Long.MAX_VALUE : DEFAULT_MAPPED_HASHING_THRESHOLD));
+    }
+
+    public DefaultStreamHasher(ContentHasherFactory hasherFactory, long mappedHashingThreshold) {
         this.hasherFactory = hasherFactory;
+        this.mappedHashingThreshold = mappedHashingThreshold;
     }
 
     @Override
@@ -46,6 +71,41 @@ public class DefaultStreamHasher implements StreamHasher {
         return doHash(inputStream, outputStream);
     }
 
+    @Override
+    public HashCode hash(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            if (size < mappedHashingThreshold) {
+                return doHash(inputStream, NullOutputStream.INSTANCE);
+            }
+            try {
+                return doHashMapped(channel, size);
+            } catch (InternalError e) {
+                // Accessing a mapping beyond the end of a file that has been truncated in the meantime fails with an error
+                channel.position(0);
+                return doHash(inputStream, NullOutputStream.INSTANCE);
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private HashCode doHashMapped(FileChannel channel, long size) throws IOException {
+        Hasher hasher = hasherFactory.create();
+        for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+            long regionSize = Math.min(MAPPED_REGION_SIZE, size - position);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+            try {
+                hasher.putBytes(region);
+            } finally {
+                MappedByteBuffers.unmap(region);
+            }
+        }
+        return hasher.hash();
+    }
+
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
@@ -28,12 +28,14 @@ import org.gradle.api.internal.changedetection.state.CompileClasspathSnapshotter
 import org.gradle.api.internal.changedetection.state.CrossBuildFileHashCache;
 import org.gradle.api.internal.changedetection.state.DefaultClasspathSnapshotter;
 import org.gradle.api.internal.changedetection.state.DefaultCompileClasspathSnapshotter;
+import org.gradle.api.internal.changedetection.state.DefaultFileSystemMirror;
 import org.gradle.api.internal.changedetection.state.DefaultFileSystemSnapshotter;
 import org.gradle.api.internal.changedetection.state.DefaultGenericFileCollectionSnapshotter;
 import org.gradle.api.internal.changedetection.state.FileSystemMirror;
 import org.gradle.api.internal.changedetection.state.FileSystemSnapshotter;
 import org.gradle.api.internal.changedetection.state.GenericFileCollectionSnapshotter;
 import org.gradle.api.internal.changedetection.state.InMemoryCacheDecoratorFactory;
+import org.gradle.api.internal.changedetection.state.ParallelFileTreeHasher;
 import org.gradle.api.internal.changedetection.state.ResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.TaskHistoryStore;
 import org.gradle.api.internal.file.collections.DirectoryFileTreeFactory;
@@ -54,13 +56,16 @@ import org.gradle.initialization.layout.BuildLayout;
 import org.gradle.initialization.layout.BuildLayoutConfiguration;
 import org.gradle.initialization.layout.BuildLayoutFactory;
 import org.gradle.initialization.layout.ProjectCacheDir;
+import org.gradle.internal.classpath.CachedJarFileStore;
 import org.gradle.internal.classpath.ClassPath;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.concurrent.ParallelismConfigurationManager;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.filewatch.PendingChangesManager;
 import org.gradle.internal.hash.ContentHasherFactory;
+import org.gradle.internal.hash.DefaultContentHasherFactory;
 import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.DefaultStreamHasher;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.hash.StreamHasher;
@@ -95,6 +100,7 @@ import org.gradle.plugin.use.internal.InjectedPluginClasspath;
 import org.gradle.util.GradleVersion;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * Contains the services for a single build session, which could be a single build or multiple builds when in continuous mode.
@@ -191,15 +197,29 @@ public class BuildSessionScopeServices extends DefaultServiceRegistry {
     }
 
     FileHasher createFileSnapshotter(TaskHistoryStore cacheAccess, StringInterner stringInterner, FileSystem fileSystem, BuildScopeFileTimeStampInspector fileTimeStampInspector, StreamHasher streamHasher) {
-        return new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem);
+        return new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, Boolean.getBoolean(CachingFileHasher.OFF_HEAP_CACHE_PROPERTY));
     }
 
     ScriptSourceHasher createScriptSourceHasher(FileHasher fileHasher, ContentHasherFactory contentHasherFactory) {
         return new DefaultScriptSourceHasher(fileHasher, contentHasherFactory);
     }
 
-    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror) {
-        return new DefaultFileSystemSnapshotter(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror);
+    ParallelFileTreeHasher createParallelFileTreeHasher(ParallelismConfigurationManager parallelismConfigurationManager) {
+        return new ParallelFileTreeHasher(parallelismConfigurationManager.getParallelismConfiguration().getMaxWorkerCount());
+    }
+
+    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror, ParallelFileTreeHasher parallelFileTreeHasher,
+                                                      StartParameter startParameter, TaskHistoryStore cacheAccess, BuildScopeFileTimeStampInspector fileTimeStampInspector, List<CachedJarFileStore> fileStores, ListenerManager listenerManager) {
+        // The content of task input and output files may be hashed with a different algorithm than other content, unless build cache keys are calculated from it
+        DefaultContentHasherFactory fileContentHasherFactory = DefaultContentHasherFactory.forFileContent(startParameter.isBuildCacheEnabled());
+        if (!fileContentHasherFactory.getAlgorithm().equals(DefaultContentHasherFactory.MD5)) {
+            hasher = new CachingFileHasher(new DefaultFileHasher(new DefaultStreamHasher(fileContentHasherFactory)), cacheAccess, stringInterner, fileTimeStampInspector, fileContentHasherFactory.getCacheName("fileHashes"), fileSystem, Boolean.getBoolean(CachingFileHasher.OFF_HEAP_CACHE_PROPERTY));
+            // The shared mirror holds MD5 hashes, so use a mirror of its own
+            DefaultFileSystemMirror sessionFileSystemMirror = new DefaultFileSystemMirror(fileStores);
+            listenerManager.addListener(sessionFileSystemMirror);
+            fileSystemMirror = sessionFileSystemMirror;
+        }
+        return new DefaultFileSystemSnapshotter(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror, Boolean.getBoolean(ParallelFileTreeHasher.ENABLED_PROPERTY) ? parallelFileTreeHasher : null);
     }
 
     GenericFileCollectionSnapshotter createGenericFileCollectionSnapshotter(StringInterner stringInterner, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemSnapshotter fileSystemSnapshotter) {
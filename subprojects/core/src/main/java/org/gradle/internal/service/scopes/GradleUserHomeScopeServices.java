@@ -42,10 +42,13 @@ import org.gradle.api.internal.initialization.loadercache.ClassLoaderCache;
 import org.gradle.api.internal.initialization.loadercache.DefaultClassLoaderCache;
 import org.gradle.api.internal.initialization.loadercache.DefaultClasspathHasher;
 import org.gradle.cache.CacheRepository;
+import org.gradle.cache.FileLockManager;
+import org.gradle.cache.PersistentCache;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.internal.CacheRepositoryServices;
 import org.gradle.cache.internal.CacheScopeMapping;
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory;
+import org.gradle.cache.internal.VersionStrategy;
 import org.gradle.groovy.scripts.internal.CrossBuildInMemoryCachingScriptClassCache;
 import org.gradle.groovy.scripts.internal.DefaultScriptSourceHasher;
 import org.gradle.groovy.scripts.internal.RegistryAwareClassLoaderHierarchyHasher;
@@ -62,6 +65,7 @@ import org.gradle.internal.classpath.CachedJarFileStore;
 import org.gradle.internal.classpath.DefaultCachedClasspathTransformer;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.file.JarCache;
+import org.gradle.internal.filewatch.FileWatcherFactory;
 import org.gradle.internal.hash.ContentHasherFactory;
 import org.gradle.internal.hash.DefaultFileHasher;
 import org.gradle.internal.hash.FileHasher;
@@ -84,6 +88,8 @@ import org.gradle.process.internal.worker.child.WorkerProcessClassPathProvider;
 
 import java.util.List;
 
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+
 /**
  * Defines the shared services scoped to a particular Gradle user home directory. These services are reused across multiple builds and operations.
  */
@@ -116,7 +122,7 @@ public class GradleUserHomeScopeServices {
     }
 
     FileHasher createCachingFileHasher(StringInterner stringInterner, CrossBuildFileHashCache fileStore, FileSystem fileSystem, GlobalScopeFileTimeStampInspector fileTimeStampInspector, StreamHasher streamHasher) {
-        CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem);
+        CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, Boolean.getBoolean(CachingFileHasher.OFF_HEAP_CACHE_PROPERTY));
         fileTimeStampInspector.attach(fileHasher);
         return fileHasher;
     }
@@ -137,8 +143,17 @@ public class GradleUserHomeScopeServices {
         return new RegistryAwareClassLoaderHierarchyHasher(registry, classLoaderHasher);
     }
 
-    FileSystemMirror createFileSystemMirror(ListenerManager listenerManager, List<CachedJarFileStore> fileStores) {
-        DefaultFileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(fileStores);
+    FileSystemMirror createFileSystemMirror(ListenerManager listenerManager, List<CachedJarFileStore> fileStores, CacheScopeMapping cacheScopeMapping, CacheRepository cacheRepository, FileWatcherFactory fileWatcherFactory) {
+        PersistentCache imageCache = null;
+        if (Boolean.getBoolean(DefaultFileSystemMirror.PERSIST_PROPERTY)) {
+            imageCache = cacheRepository
+                .cache(cacheScopeMapping.getBaseDirectory(null, "file-system-mirror", VersionStrategy.CachePerVersion))
+                .withDisplayName("file system mirror")
+                .withLockOptions(mode(FileLockManager.LockMode.None)) // Lock on demand
+                .open();
+        }
+        boolean watchFileSystem = Boolean.getBoolean(DefaultFileSystemMirror.WATCH_FILE_SYSTEM_PROPERTY);
+        DefaultFileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(fileStores, imageCache, watchFileSystem ? fileWatcherFactory : null);
         listenerManager.addListener(fileSystemMirror);
         return fileSystemMirror;
     }
@@ -17,13 +17,27 @@
 package org.gradle.api.internal.changedetection.state
 
 import org.gradle.BuildResult
+import org.gradle.api.Action
+import org.gradle.api.file.RelativePath
 import org.gradle.api.internal.GradleInternal
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.internal.file.FileSystemSubset
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.cache.PersistentCache
+import org.gradle.internal.Factory
 import org.gradle.internal.classpath.CachedJarFileStore
+import org.gradle.internal.filewatch.FileWatcher
+import org.gradle.internal.filewatch.FileWatcherEvent
+import org.gradle.internal.filewatch.FileWatcherFactory
+import org.gradle.internal.filewatch.FileWatcherListener
+import org.gradle.internal.hash.TestFileHasher
 import org.gradle.test.fixtures.file.TestFile
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.junit.Rule
 import spock.lang.Specification
 
+import java.util.concurrent.CopyOnWriteArrayList
+
 class DefaultFileSystemMirrorTest extends Specification {
     @Rule
     TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
@@ -141,4 +155,326 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getDirectoryTree(file.path) == null
         mirror.getContent(file.path) == null
     }
+
+    def "restores directory trees written at the end of a build in a later process"() {
+        def dir = createTreeWithOldTimestamps()
+        def snapshot = snapshotTree(dir)
+
+        when:
+        def restoredMirror = new DefaultFileSystemMirror([], imageCache())
+        restoredMirror.afterStart()
+        def restored = restoredMirror.getDirectoryTree(dir.path)
+
+        then:
+        tmpDir.file("image/mirror.bin").file
+        restored != null
+        restored.descendants*.path == snapshot.descendants*.path
+        restored.descendants*.relativePath == snapshot.descendants*.relativePath
+        restored.descendants*.content == snapshot.descendants*.content
+        restoredMirror.getDirectoryTree(dir.path).is(restored)
+    }
+
+    def "keeps directory trees restored by a build in the image"() {
+        def dir = createTreeWithOldTimestamps()
+        snapshotTree(dir)
+
+        when:
+        def restoringMirror = new DefaultFileSystemMirror([], imageCache())
+        restoringMirror.afterStart()
+        restoringMirror.getDirectoryTree(dir.path)
+        restoringMirror.beforeComplete()
+        def restoredMirror = new DefaultFileSystemMirror([], imageCache())
+        restoredMirror.afterStart()
+
+        then:
+        restoredMirror.getDirectoryTree(dir.path) != null
+    }
+
+    def "only offers directory trees from the image to the first build"() {
+        def dir = createTreeWithOldTimestamps()
+        snapshotTree(dir)
+
+        when:
+        def restoredMirror = new DefaultFileSystemMirror([], imageCache())
+        restoredMirror.afterStart()
+        restoredMirror.beforeComplete()
+        restoredMirror.afterStart()
+
+        then:
+        restoredMirror.getDirectoryTree(dir.path) == null
+    }
+
+    def "does not restore directory tree when #description"() {
+        def dir = createTreeWithOldTimestamps()
+        snapshotTree(dir)
+
+        when:
+        change(dir)
+        def restoredMirror = new DefaultFileSystemMirror([], imageCache())
+        restoredMirror.afterStart()
+
+        then:
+        restoredMirror.getDirectoryTree(dir.path) == null
+
+        where:
+        description                                   | change
+        "a file is added"                             | { TestFile tree -> tree.createFile("sub/new.txt") }
+        "a file is removed"                           | { TestFile tree -> tree.file("sub/b.txt").delete() }
+        "a file is changed"                           | { TestFile tree -> tree.file("a.txt") << "changed" }
+        "a file is rewritten with the same timestamp" | { TestFile tree -> rewriteKeepingTimestamp(tree.file("a.txt")) }
+        "the tree is removed"                         | { TestFile tree -> tree.deleteDir() }
+    }
+
+    def "does not write directory trees that were modified shortly before they were snapshotted"() {
+        def dir = tmpDir.createDir("tree")
+        dir.createFile("a.txt") << "a"
+        def snapshot = snapshotTree(dir)
+
+        when:
+        def restoredMirror = new DefaultFileSystemMirror([], imageCache())
+        restoredMirror.afterStart()
+
+        then:
+        snapshot.directoryTimestamps == null
+        restoredMirror.getDirectoryTree(dir.path) == null
+    }
+
+    def "ignores image that cannot be read"() {
+        tmpDir.createFile("image/mirror.bin").text = "not an image"
+
+        when:
+        def restoredMirror = new DefaultFileSystemMirror([], imageCache())
+        restoredMirror.afterStart()
+
+        then:
+        restoredMirror.getDirectoryTree(tmpDir.file("tree").path) == null
+    }
+
+    def "keeps state about watched files between builds until a change is reported"() {
+        def dir = tmpDir.createDir("watched")
+        def file = dir.file("a")
+        def watcherFactory = Mock(FileWatcherFactory)
+        def watcher = Mock(FileWatcher)
+        def watchingMirror = new DefaultFileSystemMirror([], null, watcherFactory)
+        FileWatcherListener listener = null
+
+        when:
+        putState(watchingMirror, dir, file)
+        watchingMirror.beforeComplete()
+
+        then:
+        1 * watcherFactory.watch(_, _) >> { args -> listener = args[1]; watcher }
+        1 * watcher.watch({ dir in it.roots }) >> { FileSystemSubset subset -> reportBarriers(listener, watcher, subset) }
+        _ * watcher.isRunning() >> true
+        watchingMirror.getDirectoryTree(dir.path) == null
+        watchingMirror.getFile(file.path) == null
+
+        when:
+        watchingMirror.afterStart()
+        putState(watchingMirror, dir, file)
+        watchingMirror.beforeComplete()
+        watchingMirror.afterStart()
+
+        then:
+        0 * watcherFactory._
+        0 * watcher.watch(_)
+        _ * watcher.isRunning() >> true
+        watchingMirror.getDirectoryTree(dir.path) != null
+        watchingMirror.getFile(file.path) != null
+        watchingMirror.getContent(file.path) != null
+
+        when:
+        listener.onChange(watcher, FileWatcherEvent.modify(file))
+
+        then:
+        watchingMirror.getDirectoryTree(dir.path) == null
+        watchingMirror.getFile(file.path) == null
+        watchingMirror.getContent(file.path) == null
+
+        cleanup:
+        watchingMirror.stop()
+    }
+
+    def "discards state about watched files that were changed during the build"() {
+        def dir = tmpDir.createDir("watched")
+        def file = dir.file("a")
+        def watcherFactory = Stub(FileWatcherFactory)
+        def watcher = Stub(FileWatcher)
+        def watchingMirror = new DefaultFileSystemMirror([], null, watcherFactory)
+        FileWatcherListener listener = null
+
+        given:
+        watcherFactory.watch(_, _) >> { args -> listener = args[1]; watcher }
+        watcher.watch(_) >> { FileSystemSubset subset -> reportBarriers(listener, watcher, subset) }
+        watcher.isRunning() >> true
+        putState(watchingMirror, dir, file)
+        watchingMirror.beforeComplete()
+
+        when:
+        watchingMirror.afterStart()
+        listener.onChange(watcher, FileWatcherEvent.modify(file))
+        putState(watchingMirror, dir, file)
+        watchingMirror.beforeComplete()
+
+        then:
+        watchingMirror.getDirectoryTree(dir.path) == null
+        watchingMirror.getFile(file.path) == null
+        watchingMirror.getContent(file.path) == null
+
+        cleanup:
+        watchingMirror.stop()
+    }
+
+    def "discards state about watched files when #description"() {
+        def dir = tmpDir.createDir("watched")
+        def file = dir.file("a")
+        def watcherFactory = Stub(FileWatcherFactory)
+        def watcher = Stub(FileWatcher)
+        def watchingMirror = new DefaultFileSystemMirror([], null, watcherFactory)
+        Action<? super Throwable> onError = null
+        FileWatcherListener listener = null
+
+        given:
+        watcherFactory.watch(_, _) >> { args -> onError = args[0]; listener = args[1]; watcher }
+        watcher.watch(_) >> { FileSystemSubset subset -> reportBarriers(listener, watcher, subset) }
+        watcher.isRunning() >> true
+        putState(watchingMirror, dir, file)
+        watchingMirror.beforeComplete()
+        putState(watchingMirror, dir, file)
+
+        when:
+        discard.call(watchingMirror, dir, onError, listener, watcher)
+
+        then:
+        watchingMirror.getDirectoryTree(dir.path) == null
+        watchingMirror.getFile(file.path) == null
+
+        cleanup:
+        watchingMirror.stop()
+
+        where:
+        description                      | discard
+        "task outputs are generated"     | { m, d, e, l, w -> m.beforeTaskOutputsGenerated([d]) }
+        "watched directory is deleted"   | { m, d, e, l, w -> l.onChange(w, FileWatcherEvent.delete(d)) }
+        "changes were lost"              | { m, d, e, l, w -> l.onChange(w, FileWatcherEvent.undefined()) }
+        "watching fails"                 | { m, d, e, l, w -> e.execute(new IOException("broken")) }
+    }
+
+    def "keeps state about watched files that are not declared outputs when task outputs are generated"() {
+        def dir = tmpDir.createDir("watched")
+        def file = dir.file("a")
+        def outputDir = tmpDir.createDir("output")
+        def outputFile = outputDir.file("b")
+        def watcherFactory = Stub(FileWatcherFactory)
+        def watcher = Stub(FileWatcher)
+        def watchingMirror = new DefaultFileSystemMirror([], null, watcherFactory)
+        FileWatcherListener listener = null
+
+        given:
+        watcherFactory.watch(_, _) >> { args -> listener = args[1]; watcher }
+        watcher.watch(_) >> { FileSystemSubset subset -> reportBarriers(listener, watcher, subset) }
+        watcher.isRunning() >> true
+        putState(watchingMirror, dir, file)
+        putState(watchingMirror, outputDir, outputFile)
+        watchingMirror.beforeComplete()
+        watchingMirror.afterStart()
+
+        when:
+        watchingMirror.beforeTaskOutputsGenerated([outputDir])
+
+        then:
+        watchingMirror.getDirectoryTree(outputDir.path) == null
+        watchingMirror.getFile(outputFile.path) == null
+        watchingMirror.getDirectoryTree(dir.path) != null
+        watchingMirror.getFile(file.path) != null
+
+        cleanup:
+        watchingMirror.stop()
+    }
+
+    def "waits for the changes made by a task to be reported before using state about watched files"() {
+        def dir = tmpDir.createDir("watched")
+        def file = dir.file("a")
+        def watcherFactory = Stub(FileWatcherFactory)
+        def watcher = Stub(FileWatcher)
+        def watchingMirror = new DefaultFileSystemMirror([], null, watcherFactory)
+        FileWatcherListener listener = null
+        def changes = new CopyOnWriteArrayList<File>()
+
+        given:
+        watcherFactory.watch(_, _) >> { args -> listener = args[1]; watcher }
+        watcher.watch(_) >> { FileSystemSubset subset -> reportBarriers(listener, watcher, subset, changes) }
+        watcher.isRunning() >> true
+        putState(watchingMirror, dir, file)
+        watchingMirror.beforeComplete()
+        watchingMirror.afterStart()
+
+        when:
+        watchingMirror.beforeTaskOutputsGenerated()
+        changes << file
+
+        then:
+        watchingMirror.getFile(file.path) == null
+        watchingMirror.getDirectoryTree(dir.path) == null
+
+        cleanup:
+        watchingMirror.stop()
+    }
+
+    private static void putState(DefaultFileSystemMirror mirror, File dir, File file) {
+        def tree = new DirectoryTreeDetails(dir.path, [])
+        def fileSnapshot = new MissingFileSnapshot(file.path, new RelativePath(true, file.name))
+        mirror.putDirectory(tree)
+        mirror.putFile(fileSnapshot)
+        mirror.putContent(file.path, Stub(Snapshot))
+    }
+
+    private static void reportBarriers(FileWatcherListener listener, FileWatcher watcher, FileSystemSubset subset, List<File> changes = []) {
+        // Reports the creation of the marker files, like a watcher would, after reporting the given changes
+        def barrierDir = subset.roots.find { it.name.startsWith("gradle-file-system-mirror") }
+        Thread.startDaemon {
+            def reported = [] as Set
+            while (barrierDir.directory) {
+                barrierDir.listFiles().each { File marker ->
+                    if (reported.add(marker)) {
+                        changes.each { listener.onChange(watcher, FileWatcherEvent.modify(it)) }
+                        listener.onChange(watcher, FileWatcherEvent.create(marker))
+                    }
+                }
+                Thread.sleep(10)
+            }
+        }
+    }
+
+    private TestFile createTreeWithOldTimestamps() {
+        def dir = tmpDir.createDir("tree")
+        def files = [dir.createFile("a.txt"), dir.createFile("sub/b.txt")]
+        files*.text = "content"
+        def timestamp = System.currentTimeMillis() - 10000
+        (files + [dir.file("sub"), dir]).each { it.lastModified = timestamp }
+        return dir
+    }
+
+    private static void rewriteKeepingTimestamp(TestFile file) {
+        def timestamp = file.lastModified()
+        file.text = "longer content"
+        file.lastModified = timestamp
+    }
+
+    private PersistentCache imageCache() {
+        def cache = Stub(PersistentCache)
+        cache.baseDir >> tmpDir.file("image")
+        cache.useCache(_ as Factory) >> { Factory action -> action.create() }
+        cache.useCache(_ as Runnable) >> { Runnable action -> action.run() }
+        return cache
+    }
+
+    private FileTreeSnapshot snapshotTree(File dir) {
+        def mirror = new DefaultFileSystemMirror([], imageCache())
+        mirror.afterStart()
+        def snapshotter = new DefaultFileSystemSnapshotter(new TestFileHasher(), new StringInterner(), TestFiles.fileSystem(), TestFiles.directoryFileTreeFactory(), mirror)
+        def snapshot = snapshotter.snapshotDirectoryTree(dir)
+        mirror.beforeComplete()
+        return snapshot
+    }
 }
@@ -154,6 +154,29 @@ class DefaultFileSystemSnapshotterTest extends Specification {
         snapshot4.is(snapshot3)
     }
 
+    def "hashes files of a directory tree in parallel and keeps the visiting order"() {
+        def d = tmpDir.createDir("d")
+        (0..<20).each { dir ->
+            (0..<20).each { file -> d.createFile("d$dir/f$file") << "content $dir $file" }
+        }
+        d.createDir("empty")
+        def parallelHasher = new ParallelFileTreeHasher(4, 1)
+        def parallelSnapshotter = new DefaultFileSystemSnapshotter(fileHasher, new StringInterner(), TestFiles.fileSystem(), TestFiles.directoryFileTreeFactory(), new DefaultFileSystemMirror([]), parallelHasher)
+
+        when:
+        def snapshot = parallelSnapshotter.snapshotDirectoryTree(d)
+        def expected = snapshotter.snapshotDirectoryTree(d)
+
+        then:
+        snapshot.descendants.size() == 421
+        snapshot.descendants*.path == expected.descendants*.path
+        snapshot.descendants*.relativePath == expected.descendants*.relativePath
+        snapshot.descendants*.content == expected.descendants*.content
+
+        cleanup:
+        parallelHasher.stop()
+    }
+
     def "snapshots a file and caches the result"() {
         def f = tmpDir.createFile("f")
 
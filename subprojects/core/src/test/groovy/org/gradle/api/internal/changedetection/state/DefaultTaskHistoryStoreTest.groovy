@@ -19,11 +19,15 @@ import org.gradle.api.internal.GradleInternal
 import org.gradle.cache.CacheBuilder
 import org.gradle.cache.CacheRepository
 import org.gradle.cache.FileLockManager
+import org.gradle.cache.IndexedCacheStorage
 import org.gradle.cache.PersistentCache
+import org.gradle.cache.PersistentIndexedCacheParameters
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory
 import org.gradle.cache.internal.filelock.LockOptionsBuilder
 import org.gradle.internal.event.DefaultListenerManager
+import org.gradle.internal.serialize.BaseSerializerFactory
 import spock.lang.Specification
+import spock.lang.Unroll
 
 class DefaultTaskHistoryStoreTest extends Specification {
     final GradleInternal gradle = Mock()
@@ -43,4 +47,26 @@ class DefaultTaskHistoryStoreTest extends Specification {
         1 * cacheBuilder.open() >> backingCache
         0 * _._
     }
+
+    @Unroll
+    def "creates indexed caches backed by #storage when append-only log is #description"() {
+        CacheBuilder cacheBuilder = Stub()
+        PersistentCache backingCache = Mock()
+        cacheRepository.cache(gradle, "taskHistory") >> cacheBuilder
+        cacheBuilder.withDisplayName(_) >> cacheBuilder
+        cacheBuilder.withLockOptions(_) >> cacheBuilder
+        cacheBuilder.open() >> backingCache
+        def store = new DefaultTaskHistoryStore(gradle, cacheRepository, new InMemoryCacheDecoratorFactory(false, new CrossBuildInMemoryCacheFactory(new DefaultListenerManager())), useAppendLog)
+
+        when:
+        store.createCache("history", String, BaseSerializerFactory.STRING_SERIALIZER, 10, false)
+
+        then:
+        1 * backingCache.createCache({ PersistentIndexedCacheParameters parameters -> parameters.storage == storage })
+
+        where:
+        useAppendLog | storage                        | description
+        false        | IndexedCacheStorage.FILE       | "disabled"
+        true         | IndexedCacheStorage.APPEND_LOG | "enabled"
+    }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import org.gradle.cache.PersistentCache
+import org.gradle.internal.Factory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class FileSystemMirrorImageTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def cache = Stub(PersistentCache)
+
+    def setup() {
+        cache.baseDir >> tmpDir.file("image")
+        cache.useCache(_ as Factory) >> { Factory action -> action.create() }
+        cache.useCache(_ as Runnable) >> { Runnable action -> action.run() }
+    }
+
+    def "keeps trees written by other processes"() {
+        def first = tree("first")
+        def second = tree("second")
+
+        when:
+        image().update([first], [], [])
+        image().update([second], [], [])
+
+        then:
+        image().read().keySet() == [first.path, second.path] as Set
+    }
+
+    def "drops trees that have not been used for a number of builds"() {
+        def image = image(2, 100)
+        def unused = tree("unused")
+        def used = tree("used")
+
+        when:
+        image.update([unused, used], [], [])
+        image.update([used], [], [])
+        image.update([used], [], [])
+
+        then:
+        image.read().keySet() == [unused.path, used.path] as Set
+
+        when:
+        image.update([used], [], [])
+
+        then:
+        image.read().keySet() == [used.path] as Set
+    }
+
+    def "drops trees that failed validation or whose root directory is gone"() {
+        def invalid = tree("invalid")
+        def deleted = tree("deleted")
+        def valid = tree("valid")
+        image().update([invalid, deleted, valid], [], [])
+        tmpDir.file("deleted").deleteDir()
+
+        when:
+        image().update([], [], [invalid.path])
+
+        then:
+        image().read().keySet() == [valid.path] as Set
+    }
+
+    def "keeps trees that were marked as used"() {
+        def image = image(1, 100)
+        def restored = tree("restored")
+        def other = tree("other")
+        image.update([restored, other], [], [])
+
+        when:
+        image.update([], [restored.path], [])
+        image.update([], [restored.path], [])
+
+        then:
+        image.read().keySet() == [restored.path] as Set
+    }
+
+    def "only appends trees that have changed"() {
+        def image = image()
+        def unchanged = tree("unchanged")
+        def changed = tree("changed")
+        image.update([unchanged, changed], [], [])
+        def imageFile = tmpDir.file("image/mirror.bin")
+        def initialLength = imageFile.length()
+
+        when:
+        image.update([unchanged], [], [])
+
+        then:
+        imageFile.length() - initialLength < initialLength / 2
+        image.read().keySet() == [unchanged.path, changed.path] as Set
+
+        when:
+        def modified = changed.directoryTimestamps.clone()
+        modified[0]++
+        image.update([new DirectoryTreeDetails(changed.path, [], modified, [] as long[])], [], [])
+
+        then:
+        image.read()[changed.path].directoryTimestamps == modified
+    }
+
+    def "rewrites the image when most of it is superseded"() {
+        def image = image(20, 100, 0)
+        def first = tree("first")
+        def second = tree("second")
+        image.update([first, second], [], [])
+        def imageFile = tmpDir.file("image/mirror.bin")
+        def initialLength = imageFile.length()
+
+        when:
+        def lengths = (1..5).collect {
+            image.update([first], [second.path], [])
+            imageFile.length()
+        }
+
+        then:
+        lengths.contains(initialLength)
+        image.read().keySet() == [first.path, second.path] as Set
+    }
+
+    def "ignores a partially written record at the end of the image"() {
+        def image = image()
+        def first = tree("first")
+        def second = tree("second")
+        image.update([first], [], [])
+        image.update([second], [], [])
+        def imageFile = tmpDir.file("image/mirror.bin")
+        truncate(imageFile, imageFile.length() - 1)
+
+        expect:
+        image.read().keySet() == [first.path] as Set
+
+        when:
+        image.update([second], [], [])
+
+        then:
+        image.read().keySet() == [first.path, second.path] as Set
+    }
+
+    def "drops the least recently used trees when the trees have too many entries"() {
+        def image = image(10, 2)
+        def oldest = tree("oldest")
+        def older = tree("older")
+        def newest = tree("newest")
+
+        when:
+        image.update([oldest], [], [])
+        image.update([older], [], [])
+        image.update([newest], [], [])
+
+        then:
+        image.read().keySet() == [older.path, newest.path] as Set
+    }
+
+    private FileSystemMirrorImage image(int maxUnusedBuilds = 20, int maxEntries = 100, long minGarbageToCompact = 1024 * 1024) {
+        new FileSystemMirrorImage(cache, "mirror.bin", maxUnusedBuilds, maxEntries, minGarbageToCompact)
+    }
+
+    private static void truncate(File file, long length) {
+        def randomAccessFile = new RandomAccessFile(file, "rw")
+        try {
+            randomAccessFile.setLength(length)
+        } finally {
+            randomAccessFile.close()
+        }
+    }
+
+    private DirectoryTreeDetails tree(String name) {
+        def dir = tmpDir.createDir(name)
+        new DirectoryTreeDetails(dir.path, [], [dir.lastModified()] as long[], [] as long[])
+    }
+}
@@ -24,6 +24,8 @@ import org.gradle.internal.Factory
 import org.gradle.internal.event.DefaultListenerManager
 import spock.lang.Specification
 
+import java.nio.ByteBuffer
+
 class InMemoryCacheDecoratorFactoryTest extends Specification {
     def cacheFactory = new InMemoryCacheDecoratorFactory(false, new CrossBuildInMemoryCacheFactory(new DefaultListenerManager()))
     def target = Mock(MultiProcessSafePersistentIndexedCache)
@@ -202,4 +204,134 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         0 * target._
     }
 
+    def "off-heap decorator caches result from backing cache and reuses for other instances with the same cache id"() {
+        given:
+        def cache = cacheFactory.offHeapDecorator(100, new LongCodec()).decorate("path/fileHashes.bin", "fileHashes", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        def result = cache.get("key")
+
+        then:
+        result == 12L
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.get("key") >> 12L
+        0 * target._
+
+        when:
+        def cache2 = cacheFactory.offHeapDecorator(100, new LongCodec()).decorate("path/fileHashes.bin", "fileHashes", target, crossProcessCacheAccess, asyncCacheAccess)
+        result = cache2.get("key")
+
+        then:
+        result == 12L
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        0 * target._
+    }
+
+    def "off-heap decorator does not cache null result from backing cache"() {
+        given:
+        def cache = cacheFactory.offHeapDecorator(100, new LongCodec()).decorate("path/fileHashes.bin", "fileHashes", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        def result = cache.get("key")
+
+        then:
+        result == null
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.get("key") >> null
+        0 * target._
+
+        when:
+        result = cache.get("key")
+
+        then:
+        result == 12L
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.get("key") >> 12L
+        0 * target._
+    }
+
+    def "off-heap decorator caches result of removing item"() {
+        def lock = Mock(Runnable)
+
+        given:
+        def cache = cacheFactory.offHeapDecorator(100, new LongCodec()).decorate("path/fileHashes.bin", "fileHashes", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        cache.put("key", 12L)
+
+        then:
+        1 * crossProcessCacheAccess.acquireFileLock() >> lock
+        1 * asyncCacheAccess.enqueue(_) >> { Runnable runnable -> runnable.run() }
+        1 * target.put("key", 12L)
+        1 * lock.run()
+        0 * target._
+
+        when:
+        def result = cache.get("key")
+
+        then:
+        result == 12L
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        0 * target._
+
+        when:
+        cache.remove("key")
+        result = cache.get("key")
+
+        then:
+        result == null
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * crossProcessCacheAccess.acquireFileLock() >> lock
+        1 * asyncCacheAccess.enqueue(_) >> { Runnable runnable -> runnable.run() }
+        1 * target.remove("key")
+        1 * lock.run()
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.get("key") >> null
+        0 * target._
+    }
+
+    def "fails when off-heap store for cache id was created with a different size"() {
+        given:
+        cacheFactory.offHeapDecorator(100, new LongCodec()).decorate("path/fileHashes.bin", "fileHashes", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        cacheFactory.offHeapDecorator(200, new LongCodec()).decorate("path/fileHashes.bin", "fileHashes", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.startsWith("Mismatched off-heap store for cache path/fileHashes.bin")
+    }
+
+    static class LongCodec implements OffHeapValueCodec<Long> {
+        @Override
+        int getSize() {
+            return 8
+        }
+
+        @Override
+        boolean canEncode(Long value) {
+            return true
+        }
+
+        @Override
+        void encode(Long value, ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, value)
+        }
+
+        @Override
+        Long decode(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset)
+        }
+    }
 }
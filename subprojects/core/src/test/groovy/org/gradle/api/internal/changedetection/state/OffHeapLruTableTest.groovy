@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import spock.lang.Specification
+
+class OffHeapLruTableTest extends Specification {
+    def codec = new InMemoryCacheDecoratorFactoryTest.LongCodec()
+
+    def "stores, replaces and removes entries"() {
+        def table = new OffHeapLruTable<Long>("test", 100, codec)
+
+        when:
+        table.put("a", 1L)
+        table.put("b", 2L)
+        table.put("a", 3L)
+
+        then:
+        table.get("a") == 3L
+        table.get("b") == 2L
+        table.get("c") == null
+        table.size() == 2
+
+        when:
+        table.remove("a")
+
+        then:
+        table.get("a") == null
+        table.get("b") == 2L
+        table.size() == 1
+    }
+
+    def "distinguishes keys with the same string hash code"() {
+        def table = new OffHeapLruTable<Long>("test", 100, codec)
+        assert "Aa".hashCode() == "BB".hashCode()
+
+        when:
+        table.put("Aa", 1L)
+
+        then:
+        table.get("BB") == null
+
+        when:
+        table.put("BB", 2L)
+
+        then:
+        table.get("Aa") == 1L
+        table.get("BB") == 2L
+    }
+
+    def "evicts least recently used entries when full"() {
+        def table = new OffHeapLruTable<Long>("test", 100, codec)
+
+        when:
+        (0..<100).each { table.put("key$it".toString(), it as Long) }
+        (50..<100).each { table.get("key$it".toString()) }
+        (100..<140).each { table.put("key$it".toString(), it as Long) }
+
+        then:
+        table.size() == 100
+        table.stats.evictions == 40
+        (100..<140).every { table.get("key$it".toString()) == it }
+        (50..<100).count { table.get("key$it".toString()) != null } > (0..<50).count { table.get("key$it".toString()) != null }
+    }
+
+    def "keeps entries reachable after removals from the middle of probe sequences"() {
+        def table = new OffHeapLruTable<Long>("test", 1000, codec)
+        def expected = [:]
+        def random = new Random(42)
+
+        when:
+        20000.times {
+            def key = "key${random.nextInt(3000)}".toString()
+            if (random.nextBoolean()) {
+                table.put(key, it as Long)
+                expected[key] = it as Long
+            } else {
+                table.remove(key)
+                expected.remove(key)
+            }
+        }
+
+        then:
+        table.size() <= 1000
+        expected.every { key, value ->
+            def found = table.get(key)
+            found == null || found == value
+        }
+    }
+
+    def "does not keep values that cannot be encoded"() {
+        def codec = Stub(OffHeapValueCodec) {
+            getSize() >> 8
+            canEncode(_) >> { Long value -> value >= 0 }
+        }
+        def table = new OffHeapLruTable<Long>("test", 100, codec)
+        table.put("a", 1L)
+
+        when:
+        table.put("a", -1L)
+
+        then:
+        table.get("a") == null
+        table.size() == 0
+    }
+
+    def "can clear entries"() {
+        def table = new OffHeapLruTable<Long>("test", 100, codec)
+        (0..<10).each { table.put("key$it".toString(), it as Long) }
+
+        when:
+        table.clear()
+
+        then:
+        table.size() == 0
+        table.get("key1") == null
+    }
+
+    def "reports usage statistics"() {
+        def table = new OffHeapLruTable<Long>("test", 1000, codec)
+        table.put("a", 1L)
+        table.get("a")
+        table.get("b")
+
+        expect:
+        def stats = table.stats
+        stats.entries == 1
+        stats.hits == 1
+        stats.misses == 1
+        stats.evictions == 0
+        stats.offHeapBytes >= 1000 * (20 + 8)
+        table.offHeapBytes == stats.offHeapBytes
+    }
+}
@@ -16,7 +16,9 @@
 package org.gradle.api.internal.tasks.execution
 
 import org.gradle.api.execution.TaskActionListener
+import org.gradle.api.file.FileCollection
 import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.TaskOutputsInternal
 import org.gradle.api.internal.changedetection.TaskArtifactState
 import org.gradle.api.internal.project.ProjectInternal
 import org.gradle.api.internal.tasks.ContextAwareTaskAction
@@ -40,6 +42,7 @@ import static java.util.Collections.emptyList
 
 class ExecuteActionsTaskExecutorTest extends Specification {
     def task = Mock(TaskInternal)
+    def taskOutputs = Stub(TaskOutputsInternal)
     def action1 = Mock(ContextAwareTaskAction)
     def action2 = Mock(ContextAwareTaskAction)
     def state = new TaskStateInternal()
@@ -57,6 +60,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         ProjectInternal project = Mock(ProjectInternal)
         task.getProject() >> project
         task.getState() >> state
+        task.getOutputs() >> taskOutputs
         project.getBuildScriptSource() >> scriptSource
         task.getStandardOutputCapture() >> standardOutputCapture
         executionContext.taskArtifactState >> taskArtifactState
@@ -97,6 +101,23 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         state.actionable
     }
 
+    def notifiesListenerAboutDeclaredOutputsBeforeExecutingActions() {
+        given:
+        def outputFiles = Stub(FileCollection)
+        task.getTaskActions() >> [action1]
+        taskOutputs.getHasOutput() >> true
+        taskOutputs.getFiles() >> outputFiles
+
+        when:
+        executer.execute(task, state, executionContext)
+
+        then:
+        1 * internalListener.beforeTaskOutputsGenerated(outputFiles)
+        0 * internalListener.beforeTaskOutputsGenerated()
+        then:
+        1 * action1.execute(task)
+    }
+
     def executesEachActionInOrder() {
         given:
         task.getTaskActions() >> [action1, action2]
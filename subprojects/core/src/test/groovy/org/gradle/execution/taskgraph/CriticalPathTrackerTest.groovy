@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph
+
+import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.tasks.TaskStateInternal
+import org.gradle.internal.time.Clock
+import spock.lang.Specification
+
+class CriticalPathTrackerTest extends Specification {
+    def durationHistory = Mock(TaskDurationHistory)
+    def clock = Mock(Clock)
+    def tracker = new CriticalPathTracker(durationHistory, clock, true)
+
+    def "remaining duration includes the longest chain of tasks waiting for a task"() {
+        def gen = required('gen')
+        def compile = required('compile')
+        def test = required('test')
+        def docs = required('docs')
+        compile.addDependencySuccessor(gen)
+        test.addDependencySuccessor(compile)
+        docs.addDependencySuccessor(gen)
+        durationHistory.getDuration(gen.task) >> 5
+        durationHistory.getDuration(compile.task) >> 20
+        durationHistory.getDuration(test.task) >> 30
+        durationHistory.getDuration(docs.task) >> 40
+
+        when:
+        tracker.predict([gen, compile, docs, test])
+
+        then:
+        test.remainingDuration == 30
+        docs.remainingDuration == 40
+        compile.remainingDuration == 50
+        gen.remainingDuration == 55
+        tracker.prioritising
+    }
+
+    def "tasks without history and tasks that do not run count as taking no time"() {
+        def a = required('a')
+        def b = node('b')
+        b.mustNotRun()
+        def c = required('c')
+        c.addDependencySuccessor(a)
+        c.addMustSuccessor(b)
+        durationHistory.getDuration(a.task) >> null
+        durationHistory.getDuration(c.task) >> 10
+
+        when:
+        tracker.predict([a, b, c])
+
+        then:
+        a.remainingDuration == 10
+        b.remainingDuration == 10
+        c.remainingDuration == 10
+        0 * durationHistory.getDuration(b.task)
+    }
+
+    def "records duration of executed tasks only"() {
+        def executed = required('executed', executed: true)
+        def upToDate = required('upToDate', executed: true, skipped: true)
+        def failed = required('failed', executed: true, failure: new RuntimeException())
+        clock.currentTime >>> [100, 110, 120, 250, 300, 400]
+
+        when:
+        tracker.taskStarted(executed)
+        tracker.taskStarted(upToDate)
+        tracker.taskStarted(failed)
+        tracker.taskCompleted(executed)
+        tracker.taskCompleted(upToDate)
+        tracker.taskCompleted(failed)
+
+        then:
+        0 * durationHistory.recordDuration(_, _)
+
+        when:
+        tracker.planCompleted()
+
+        then:
+        1 * durationHistory.recordDuration(executed.task, 150)
+        0 * durationHistory.recordDuration(_, _)
+    }
+
+    def "does not predict or prioritise without a duration history"() {
+        def tracker = new CriticalPathTracker(null, clock, true)
+        def a = required('a', executed: true)
+
+        when:
+        tracker.predict([a])
+        tracker.taskStarted(a)
+        tracker.taskCompleted(a)
+        tracker.planCompleted()
+
+        then:
+        a.remainingDuration == 0
+        !tracker.prioritising
+    }
+
+    def "does not prioritise unless asked to"() {
+        expect:
+        !new CriticalPathTracker(durationHistory, clock, false).prioritising
+    }
+
+    private TaskInfo required(Map<String, ?> state = [:], String name) {
+        def taskInfo = node(state, name)
+        taskInfo.require()
+        taskInfo
+    }
+
+    private TaskInfo node(Map<String, ?> state = [:], String name) {
+        def taskState = Stub(TaskStateInternal) {
+            getExecuted() >> (state.executed ?: false)
+            getSkipped() >> (state.skipped ?: false)
+            getFailure() >> state.failure
+        }
+        def task = Stub(TaskInternal) {
+            getName() >> name
+            getPath() >> ":$name"
+            getState() >> taskState
+            compareTo(_) >> { args -> name.compareTo(args[0].name) }
+        }
+        new TaskInfo(task)
+    }
+}
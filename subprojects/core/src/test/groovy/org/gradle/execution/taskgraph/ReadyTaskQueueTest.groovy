@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph
+
+import org.gradle.api.internal.TaskInternal
+import spock.lang.Specification
+
+class ReadyTaskQueueTest extends Specification {
+    def queue = new ReadyTaskQueue()
+
+    def "tasks without incomplete dependencies are ready in execution order"() {
+        def a = required('a')
+        def b = required('b')
+        def c = required('c')
+        c.addDependencySuccessor(a)
+
+        when:
+        queue.reset([b, a, c])
+
+        then:
+        queue.readyTasks as List == [b, a]
+    }
+
+    def "task becomes ready when its last dependency completes"() {
+        def a = required('a')
+        def b = required('b')
+        def c = required('c')
+        c.addDependencySuccessor(a)
+        c.addMustSuccessor(b)
+        queue.reset([a, b, c])
+
+        when:
+        execute(a)
+
+        then:
+        queue.readyTasks as List == [b]
+
+        when:
+        execute(b)
+
+        then:
+        queue.readyTasks as List == [c]
+    }
+
+    def "skipped task completes its dependents"() {
+        def a = required('a')
+        def b = required('b')
+        b.addDependencySuccessor(a)
+        queue.reset([a, b])
+
+        when:
+        queue.remove(a)
+        a.skipExecution()
+        queue.taskCompleted(a)
+
+        then:
+        queue.readyTasks as List == [b]
+    }
+
+    def "tasks that are not going to run do not hold up their dependents"() {
+        def a = node('a')
+        a.mustNotRun()
+        def b = required('b')
+        b.addDependencySuccessor(a)
+
+        when:
+        queue.reset([a, b])
+
+        then:
+        queue.readyTasks as List == [a, b]
+    }
+
+    def "dependents wait again for a task that has to run after all"() {
+        def a = node('a')
+        a.mustNotRun()
+        def b = required('b')
+        def c = required('c')
+        c.addMustSuccessor(a)
+        queue.reset([a, b, c])
+
+        when:
+        a.enforceRun()
+        queue.taskReopened(a)
+
+        then:
+        queue.readyTasks as List == [a, b]
+
+        when:
+        execute(a)
+
+        then:
+        queue.readyTasks as List == [b, c]
+    }
+
+    def "orders ready tasks by remaining duration when prioritising the critical path"() {
+        def a = required('a')
+        def b = required('b')
+        def c = required('c')
+        a.remainingDuration = 10
+        b.remainingDuration = 30
+        c.remainingDuration = 10
+
+        when:
+        queue.reset([a, b, c], true)
+
+        then:
+        queue.readyTasks as List == [b, a, c]
+
+        when:
+        queue.reset([a, b, c], false)
+
+        then:
+        queue.readyTasks as List == [a, b, c]
+    }
+
+    def "tracks whether queued tasks are incomplete"() {
+        def a = required('a')
+        def b = node('b')
+        b.mustNotRun()
+        queue.reset([a, b])
+
+        expect:
+        queue.hasIncompleteTasks()
+
+        when:
+        execute(a)
+
+        then:
+        !queue.hasIncompleteTasks()
+    }
+
+    private void execute(TaskInfo task) {
+        queue.remove(task)
+        task.startExecution()
+        task.finishExecution()
+        queue.taskCompleted(task)
+    }
+
+    private TaskInfo required(String name) {
+        def taskInfo = node(name)
+        taskInfo.require()
+        taskInfo
+    }
+
+    private TaskInfo node(String name) {
+        def task = Mock(TaskInternal) {
+            getName() >> name
+            compareTo(_) >> { args -> name.compareTo(args[0].name) }
+        }
+        new TaskInfo(task)
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash
+
+import org.gradle.util.SetSystemProperties
+import org.junit.Rule
+import spock.lang.Specification
+
+class DefaultContentHasherFactoryTest extends Specification {
+    @Rule
+    SetSystemProperties systemProperties = new SetSystemProperties()
+
+    def "hashes content with the selected algorithm"() {
+        def md5 = new DefaultContentHasherFactory()
+        def murmur3 = new DefaultContentHasherFactory("murmur3")
+
+        expect:
+        hash(md5, "content") == hash(new DefaultContentHasherFactory("md5"), "content")
+        hash(murmur3, "content") == hash(new DefaultContentHasherFactory("murmur3"), "content")
+        hash(murmur3, "content") != hash(md5, "content")
+        hash(murmur3, "content").length() == 16
+        md5.getCacheName("fileHashes") == "fileHashes"
+        murmur3.getCacheName("fileHashes") == "fileHashes-murmur3"
+    }
+
+    def "hashes the files of tasks with MD5 when the build cache is enabled"() {
+        System.setProperty(DefaultContentHasherFactory.FILE_CONTENT_ALGORITHM_PROPERTY, "murmur3")
+
+        expect:
+        DefaultContentHasherFactory.forFileContent(false).algorithm == "murmur3"
+        DefaultContentHasherFactory.forFileContent(true).algorithm == "md5"
+    }
+
+    def "fails for unknown algorithm"() {
+        when:
+        new DefaultContentHasherFactory("crc32")
+
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Unknown content hashing algorithm 'crc32', supported algorithms are 'md5' and 'murmur3'."
+    }
+
+    private static HashCode hash(ContentHasherFactory factory, String content) {
+        def hasher = factory.create()
+        hasher.putString(content)
+        return hasher.hash()
+    }
+}
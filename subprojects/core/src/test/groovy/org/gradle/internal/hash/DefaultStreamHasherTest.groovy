@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class DefaultStreamHasherTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def "hashes #length bytes file through memory mapping like through a stream"() {
+        def content = new byte[length]
+        new Random(length).nextBytes(content)
+        def file = tmpDir.file("file.bin")
+        file.bytes = content
+        def hasherFactory = new DefaultContentHasherFactory(algorithm)
+        def streamHasher = new DefaultStreamHasher(hasherFactory, Long.MAX_VALUE)
+        def mappingHasher = new DefaultStreamHasher(hasherFactory, 1)
+
+        expect:
+        mappingHasher.hash(file) == streamHasher.hash(file)
+        streamHasher.hash(file) == streamHasher.hash(new ByteArrayInputStream(content))
+
+        where:
+        algorithm | length
+        "md5"     | 1
+        "md5"     | 100000
+        "murmur3" | 1
+        "murmur3" | 100003
+    }
+
+    def "hashes empty file"() {
+        def file = tmpDir.createFile("empty.bin")
+        def hasherFactory = new DefaultContentHasherFactory()
+
+        expect:
+        new DefaultStreamHasher(hasherFactory, 0).hash(file) == new DefaultStreamHasher(hasherFactory, Long.MAX_VALUE).hash(file)
+    }
+}
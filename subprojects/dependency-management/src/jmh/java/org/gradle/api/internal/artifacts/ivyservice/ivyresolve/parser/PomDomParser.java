@@ -24,6 +24,9 @@ import java.io.*;
 import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * The W3C DOM helpers that {@link PomReader} used before it read POMs with the {@link PomStreamParser}, kept as the baseline of the {@link PomParsingBenchmark}.
+ */
 public final class PomDomParser {
     private PomDomParser() {}
 
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.data.MavenDependencyKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the dependency and dependency management keys of a corpus of POMs, once by parsing each POM into a W3C DOM with the Maven entities declared,
+ * as {@link PomReader} used to do, and once with the {@link PomStreamParser}.
+ *
+ * <p>The corpus is made of the POMs found in the given directory, the local Maven repository by default. Run with {@code -prof gc} to compare the
+ * allocation rate as well.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class PomParsingBenchmark {
+    private static final String SYSTEM_ID = "file:/pom.xml";
+
+    // Empty for the local Maven repository
+    @Param({""})
+    String pomDirectory;
+
+    @Param({"1000"})
+    int maxPomCount;
+
+    List<byte[]> poms;
+    DocumentBuilderFactory documentBuilderFactory;
+    EntityResolver entityResolver;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File directory = pomDirectory.isEmpty() ? new File(System.getProperty("user.home"), ".m2/repository") : new File(pomDirectory);
+        List<File> files = new ArrayList<File>();
+        findPoms(directory, files);
+        if (files.isEmpty()) {
+            throw new IllegalStateException("No POMs found in " + directory);
+        }
+        Collections.sort(files);
+        poms = new ArrayList<byte[]>();
+        for (File file : files.subList(0, Math.min(maxPomCount, files.size()))) {
+            poms.add(Files.toByteArray(file));
+        }
+
+        documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setValidating(false);
+        final byte[] entities = IOUtils.toByteArray(org.apache.ivy.plugins.parser.m2.PomReader.class.getResourceAsStream("m2-entities.ent"));
+        entityResolver = new EntityResolver() {
+            @Override
+            public InputSource resolveEntity(String publicId, String systemId) {
+                if ((systemId != null) && systemId.endsWith("m2-entities.ent")) {
+                    return new InputSource(new ByteArrayInputStream(entities));
+                }
+                return null;
+            }
+        };
+    }
+
+    private static void findPoms(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findPoms(child, files);
+            } else if (child.getName().endsWith(".pom")) {
+                files.add(child);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<MavenDependencyKey> domParser() throws Exception {
+        List<MavenDependencyKey> keys = new ArrayList<MavenDependencyKey>();
+        for (byte[] pom : poms) {
+            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            documentBuilder.setEntityResolver(entityResolver);
+            Document document = documentBuilder.parse(new PomDomParser.AddDTDFilterInputStream(new ByteArrayInputStream(pom)), SYSTEM_ID);
+            Element project = document.getDocumentElement();
+            addKeys(PomDomParser.getFirstChildElement(project, "dependencies"), keys);
+            addKeys(PomDomParser.getFirstChildElement(PomDomParser.getFirstChildElement(project, "dependencyManagement"), "dependencies"), keys);
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public List<MavenDependencyKey> streamParser() throws Exception {
+        List<MavenDependencyKey> keys = new ArrayList<MavenDependencyKey>();
+        for (byte[] pom : poms) {
+            PomStreamParser.Element project = PomStreamParser.parse(new ByteArrayInputStream(pom), SYSTEM_ID);
+            addKeys(PomStreamParser.getFirstChildElement(project, "dependencies"), keys);
+            addKeys(PomStreamParser.getFirstChildElement(PomStreamParser.getFirstChildElement(project, "dependencyManagement"), "dependencies"), keys);
+        }
+        return keys;
+    }
+
+    private static void addKeys(Element dependencies, List<MavenDependencyKey> keys) {
+        for (Element dependency : PomDomParser.getAllChilds(dependencies)) {
+            if ("dependency".equals(dependency.getNodeName())) {
+                keys.add(new MavenDependencyKey(PomDomParser.getFirstChildText(dependency, "groupId"), PomDomParser.getFirstChildText(dependency, "artifactId"),
+                    PomDomParser.getFirstChildText(dependency, "type"), PomDomParser.getFirstChildText(dependency, "classifier")));
+            }
+        }
+    }
+
+    private static void addKeys(PomStreamParser.Element dependencies, List<MavenDependencyKey> keys) {
+        for (PomStreamParser.Element dependency : PomStreamParser.getAllChilds(dependencies)) {
+            if ("dependency".equals(dependency.getName())) {
+                keys.add(new MavenDependencyKey(PomStreamParser.getFirstChildText(dependency, "groupId"), PomStreamParser.getFirstChildText(dependency, "artifactId"),
+                    PomStreamParser.getFirstChildText(dependency, "type"), PomStreamParser.getFirstChildText(dependency, "classifier")));
+            }
+        }
+    }
+}
@@ -17,10 +17,15 @@
 package org.gradle.api.internal.artifacts;
 
 import org.gradle.api.internal.artifacts.ivyservice.DefaultArtifactCacheMetaData;
+import org.gradle.api.internal.artifacts.ivyservice.modulecache.InMemoryModuleMetadataCache;
 import org.gradle.cache.internal.CacheScopeMapping;
 
 public class DependencyManagementGradleUserHomeScopeServices {
     DefaultArtifactCacheMetaData createArtifactCacheMetaData(CacheScopeMapping cacheScopeMapping) {
         return new DefaultArtifactCacheMetaData(cacheScopeMapping);
     }
+
+    InMemoryModuleMetadataCache createInMemoryModuleMetadataCache() {
+        return new InMemoryModuleMetadataCache(Integer.getInteger(InMemoryModuleMetadataCache.MAX_ENTRIES_PROPERTY, 0));
+    }
 }
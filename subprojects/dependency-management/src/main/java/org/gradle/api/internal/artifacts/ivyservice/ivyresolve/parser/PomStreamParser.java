@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.io.IOUtils;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.classloader.ClassLoaderUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a POM with a streaming StAX parser into a tree of the elements that {@link PomReader} looks at.
+ *
+ * <p>Sections of the project and of its profiles that do not contribute to the module metadata, such as the build, reporting and repositories, are skipped
+ * while reading, so they are never held in memory. Only elements without child elements keep their text content, comments and whitespace between
+ * elements are dropped.</p>
+ *
+ * <p>Maven allows the HTML entities declared in {@code m2-entities.ent} in POMs without declaring them. Instead of adding a document type declaration for
+ * this file to every POM, which makes the XML parser read all of its entity declarations for each POM, references to undeclared entities are replaced
+ * using a map of these entities that is read once.</p>
+ */
+public final class PomStreamParser {
+    private static final String PROFILES = "profiles";
+    private static final String PROFILE = "profile";
+    private static final Set<String> PROJECT_ELEMENTS = ImmutableSet.of(
+        "groupId", "artifactId", "version", "packaging", "description", "parent", "dependencies", "dependencyManagement", "distributionManagement", "properties", PROFILES);
+    private static final Set<String> PROFILE_ELEMENTS = ImmutableSet.of("id", "activation", "properties", "dependencies", "dependencyManagement");
+    private static final Pattern ENTITY_DECLARATION = Pattern.compile("<!ENTITY\\s+(\\w+)\\s+\"&#(\\d+);\"\\s*>");
+    private static final Map<String, String> M2_ENTITIES;
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+
+    static {
+        String entities;
+        try {
+            entities = IOUtils.toString(org.apache.ivy.plugins.parser.m2.PomReader.class.getResourceAsStream("m2-entities.ent"), "UTF-8");
+        } catch (IOException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        Matcher matcher = ENTITY_DECLARATION.matcher(entities);
+        while (matcher.find()) {
+            builder.put(matcher.group(1), String.valueOf((char) Integer.parseInt(matcher.group(2))));
+        }
+        M2_ENTITIES = builder.build();
+
+        // Set the context classloader the bootstrap classloader, to work around the way that JAXP locates implementation classes
+        // This should ensure that the JAXP classes provided by the JVM are used, rather than some other implementation
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(ClassLoaderUtils.getPlatformClassLoader());
+        try {
+            XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_VALIDATING, false);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    private PomStreamParser() {}
+
+    /**
+     * Reads the given POM content, which may use the HTML entities that Maven allows in POMs.
+     *
+     * @return the root element of the POM.
+     */
+    public static Element parse(InputStream stream, String systemId) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(systemId, stream);
+        try {
+            return readDocument(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Element readDocument(XMLStreamReader reader) throws XMLStreamException {
+        List<Element> path = new ArrayList<Element>();
+        StringBuilder text = new StringBuilder();
+        Element root = null;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    String name = getName(reader);
+                    Element parent = path.isEmpty() ? null : path.get(path.size() - 1);
+                    if (parent != null && !isRelevant(path, name)) {
+                        skipElement(reader);
+                        break;
+                    }
+                    Element element = new Element(name);
+                    if (parent == null) {
+                        root = element;
+                    } else {
+                        parent.addChild(element);
+                    }
+                    path.add(element);
+                    text.setLength(0);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!path.isEmpty() && !path.get(path.size() - 1).hasChildren()) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    String replacement = getEntityReplacement(reader);
+                    if (!path.get(path.size() - 1).hasChildren()) {
+                        text.append(replacement);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    Element current = path.remove(path.size() - 1);
+                    if (!current.hasChildren()) {
+                        current.text = text.toString();
+                    }
+                    text.setLength(0);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return root;
+    }
+
+    private static String getEntityReplacement(XMLStreamReader reader) {
+        String replacement = reader.getText();
+        if (replacement != null && replacement.length() > 0) {
+            // Declared by the POM itself
+            return replacement;
+        }
+        // Unknown entities are dropped, as a non-validating parser does when the entities come from an external document type declaration
+        replacement = M2_ENTITIES.get(reader.getLocalName());
+        return replacement == null ? "" : replacement;
+    }
+
+    private static boolean isRelevant(List<Element> path, String name) {
+        if (path.size() == 1) {
+            return PROJECT_ELEMENTS.contains(name);
+        }
+        if (path.size() == 3 && PROFILES.equals(path.get(1).getName()) && PROFILE.equals(path.get(2).getName())) {
+            return PROFILE_ELEMENTS.contains(name);
+        }
+        return true;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String getName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        if (prefix == null || prefix.length() == 0) {
+            return reader.getLocalName();
+        }
+        return prefix + ":" + reader.getLocalName();
+    }
+
+    public static String getTextContent(Element element) {
+        return element.getText();
+    }
+
+    public static String getFirstChildText(Element parentElem, String name) {
+        Element node = getFirstChildElement(parentElem, name);
+        if (node != null) {
+            return getTextContent(node);
+        } else {
+            return null;
+        }
+    }
+
+    public static Element getFirstChildElement(Element parentElem, String name) {
+        if (parentElem == null) {
+            return null;
+        }
+        for (Element child : parentElem.getChildren()) {
+            if (name.equals(child.getName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public static List<Element> getAllChilds(Element parent) {
+        if (parent == null) {
+            return Collections.emptyList();
+        }
+        return parent.getChildren();
+    }
+
+    /**
+     * An element of a POM, with its qualified name and either its child elements or its text content.
+     */
+    public static final class Element {
+        private final String name;
+        private List<Element> children;
+        private String text = "";
+
+        Element(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the text of this element, or an empty string when the element has child elements.
+         */
+        public String getText() {
+            return text;
+        }
+
+        public List<Element> getChildren() {
+            return children == null ? Collections.<Element>emptyList() : children;
+        }
+
+        boolean hasChildren() {
+            return children != null;
+        }
+
+        private void addChild(Element child) {
+            if (children == null) {
+                children = new ArrayList<Element>(4);
+            }
+            children.add(child);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.DescriptorParseContext;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.MetaDataParseException;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.MetaDataParser;
+import org.gradle.api.internal.component.ArtifactType;
+import org.gradle.internal.component.external.model.MutableModuleComponentResolveMetadata;
+import org.gradle.internal.hash.HashUtil;
+import org.gradle.internal.hash.HashValue;
+import org.gradle.internal.resource.local.LocallyAvailableExternalResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link MetaDataParser} that reuses the result of parsing a downloaded descriptor with the same content from the {@link ParsedDescriptorCache}, instead of parsing it again.
+ *
+ * <p>A cached result is used only when every descriptor that was consulted through the {@link DescriptorParseContext} while parsing, such as a parent POM,
+ * still has the same content. Descriptors that contain any of the given elements are always parsed, because the parser may read other files
+ * relative to the descriptor for them, without going through the context.</p>
+ *
+ * <p>Parsing descriptor files directly, as done when publishing, is not cached.</p>
+ */
+public class CachingMetaDataParser<T extends MutableModuleComponentResolveMetadata> implements MetaDataParser<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingMetaDataParser.class);
+
+    private final MetaDataParser<T> delegate;
+    private final Class<T> metadataType;
+    private final String descriptorType;
+    private final List<String> uncacheableElements;
+    private final ParsedDescriptorCache cache;
+
+    public CachingMetaDataParser(MetaDataParser<T> delegate, Class<T> metadataType, String descriptorType, ParsedDescriptorCache cache, String... uncacheableElements) {
+        this.delegate = delegate;
+        this.metadataType = metadataType;
+        this.descriptorType = descriptorType;
+        this.cache = cache;
+        this.uncacheableElements = Arrays.asList(uncacheableElements);
+    }
+
+    @Override
+    public T parseMetaData(DescriptorParseContext context, LocallyAvailableExternalResource resource) throws MetaDataParseException {
+        byte[] content;
+        try {
+            content = Files.toByteArray(resource.getFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!isCacheable(content)) {
+            return delegate.parseMetaData(context, resource);
+        }
+
+        HashValue sha1 = HashUtil.sha1(content);
+        ParsedDescriptorCache.ParsedDescriptor cached = cache.get(descriptorType, sha1);
+        if (cached != null && metadataType.isInstance(cached.getMetadata()) && isUpToDate(cached, context)) {
+            LOGGER.debug("Using cached result of parsing {}", resource.getDisplayName());
+            return metadataType.cast(cached.getMetadata());
+        }
+
+        RecordingParseContext recordingContext = new RecordingParseContext(context);
+        T metadata = delegate.parseMetaData(recordingContext, resource);
+        if (recordingContext.complete) {
+            cache.put(descriptorType, sha1, new ParsedDescriptorCache.ParsedDescriptor(recordingContext.referencedDescriptors, metadata));
+        }
+        return metadata;
+    }
+
+    private boolean isCacheable(byte[] content) {
+        if (uncacheableElements.isEmpty()) {
+            return true;
+        }
+        String text = new String(content, Charsets.ISO_8859_1);
+        for (String element : uncacheableElements) {
+            if (text.contains("<" + element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUpToDate(ParsedDescriptorCache.ParsedDescriptor cached, DescriptorParseContext context) {
+        for (ParsedDescriptorCache.ReferencedDescriptor referencedDescriptor : cached.getReferencedDescriptors()) {
+            LocallyAvailableExternalResource resource;
+            try {
+                resource = context.getMetaDataArtifact(referencedDescriptor.getComponentId(), referencedDescriptor.getArtifactType());
+            } catch (RuntimeException e) {
+                // Parse the descriptor again, so that the failure is reported the same way as without the cache
+                return false;
+            }
+            if (resource == null || !HashUtil.sha1(resource.getFile()).equals(referencedDescriptor.getSha1())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T parseMetaData(DescriptorParseContext context, File descriptorFile) throws MetaDataParseException {
+        return delegate.parseMetaData(context, descriptorFile);
+    }
+
+    @Override
+    public T parseMetaData(DescriptorParseContext context, File descriptorFile, boolean validate) throws MetaDataParseException {
+        return delegate.parseMetaData(context, descriptorFile, validate);
+    }
+
+    /**
+     * Records the descriptors consulted while parsing, along with their SHA-1.
+     */
+    private static class RecordingParseContext implements DescriptorParseContext {
+        private final DescriptorParseContext delegate;
+        private final List<ParsedDescriptorCache.ReferencedDescriptor> referencedDescriptors = new ArrayList<ParsedDescriptorCache.ReferencedDescriptor>();
+        private boolean complete = true;
+
+        RecordingParseContext(DescriptorParseContext delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public LocallyAvailableExternalResource getMetaDataArtifact(ModuleComponentIdentifier componentIdentifier, ArtifactType artifactType) {
+            LocallyAvailableExternalResource resource = delegate.getMetaDataArtifact(componentIdentifier, artifactType);
+            if (resource == null) {
+                complete = false;
+            } else {
+                referencedDescriptors.add(new ParsedDescriptorCache.ReferencedDescriptor(componentIdentifier, artifactType, HashUtil.sha1(resource.getFile())));
+            }
+            return resource;
+        }
+    }
+}
@@ -44,11 +44,13 @@ public class DefaultModuleMetaDataCache implements ModuleMetaDataCache {
     private final CacheLockingManager cacheLockingManager;
 
     private final ModuleMetadataStore moduleMetadataStore;
+    private final InMemoryModuleMetadataCache inMemoryCache;
     private PersistentIndexedCache<ModuleComponentAtRepositoryKey, ModuleMetadataCacheEntry> cache;
 
-    public DefaultModuleMetaDataCache(BuildCommencedTimeProvider timeProvider, CacheLockingManager cacheLockingManager, ArtifactCacheMetaData artifactCacheMetaData, ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions) {
+    public DefaultModuleMetaDataCache(BuildCommencedTimeProvider timeProvider, CacheLockingManager cacheLockingManager, ArtifactCacheMetaData artifactCacheMetaData, ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions, InMemoryModuleMetadataCache inMemoryCache) {
         this.timeProvider = timeProvider;
         this.cacheLockingManager = cacheLockingManager;
+        this.inMemoryCache = inMemoryCache;
 
         moduleMetadataStore = new ModuleMetadataStore(new DefaultPathKeyFileStore(artifactCacheMetaData.getMetaDataStoreDirectory()), new ModuleMetadataSerializer(), moduleIdentifierFactory, moduleExclusions);
     }
@@ -77,11 +79,17 @@ public class DefaultModuleMetaDataCache implements ModuleMetaDataCache {
                 if (entry.isMissing()) {
                     return new DefaultCachedMetaData(entry, null, timeProvider);
                 }
-                MutableModuleComponentResolveMetadata metadata = moduleMetadataStore.getModuleDescriptor(key);
+                MutableModuleComponentResolveMetadata metadata = inMemoryCache.get(key, entry.moduleDescriptorHash);
                 if (metadata == null) {
-                    // Descriptor file has been deleted - ignore the entry
-                    cache.remove(key);
-                    return null;
+                    metadata = moduleMetadataStore.getModuleDescriptor(key);
+                    if (metadata == null) {
+                        // Descriptor file has been deleted - ignore the entry
+                        cache.remove(key);
+                        return null;
+                    }
+                    if (inMemoryCache.isEnabled()) {
+                        inMemoryCache.put(key, entry.moduleDescriptorHash, metadata.asImmutable());
+                    }
                 }
                 return new DefaultCachedMetaData(entry, entry.configure(metadata), timeProvider);
             }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.gradle.internal.component.external.model.ModuleComponentResolveMetadata;
+import org.gradle.internal.component.external.model.MutableModuleComponentResolveMetadata;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+
+/**
+ * Keeps recently read module metadata in memory, for the builds that run in the same daemon, so that each build does not deserialize the cached module descriptors again.
+ *
+ * <p>The persistent module metadata cache stays the source of truth: an entry is only used when it was read from the descriptor with the hash that the persistent cache
+ * currently records for the module, so the expiry and refresh of cached modules are unchanged. At most the given number of entries are kept, and the garbage
+ * collector may evict entries when memory runs low.</p>
+ */
+public class InMemoryModuleMetadataCache {
+
+    /**
+     * The maximum number of modules whose metadata is kept in memory across builds in the same daemon. Use 0, the default, to not keep any metadata in memory.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.gradle.dependency.metadata.memory.max-entries";
+
+    private final Cache<ModuleComponentAtRepositoryKey, CachedModuleMetadata> entries;
+
+    /**
+     * @param maxEntries the maximum number of entries. No entries are kept when it is 0.
+     */
+    public InMemoryModuleMetadataCache(int maxEntries) {
+        this.entries = maxEntries > 0 ? CacheBuilder.newBuilder().maximumSize(maxEntries).softValues().<ModuleComponentAtRepositoryKey, CachedModuleMetadata>build() : null;
+    }
+
+    public boolean isEnabled() {
+        return entries != null;
+    }
+
+    /**
+     * Returns a copy of the metadata kept for the given module, or null if none is kept for the descriptor with the given hash.
+     */
+    @Nullable
+    MutableModuleComponentResolveMetadata get(ModuleComponentAtRepositoryKey key, BigInteger descriptorHash) {
+        if (entries == null) {
+            return null;
+        }
+        CachedModuleMetadata cached = entries.getIfPresent(key);
+        if (cached == null) {
+            return null;
+        }
+        if (!cached.descriptorHash.equals(descriptorHash)) {
+            entries.invalidate(key);
+            return null;
+        }
+        return cached.metadata.asMutable();
+    }
+
+    /**
+     * Keeps the given metadata, read from the descriptor with the given hash, for the given module.
+     */
+    void put(ModuleComponentAtRepositoryKey key, BigInteger descriptorHash, ModuleComponentResolveMetadata metadata) {
+        if (entries != null) {
+            entries.put(key, new CachedModuleMetadata(descriptorHash, metadata));
+        }
+    }
+
+    private static class CachedModuleMetadata {
+        private final BigInteger descriptorHash;
+        private final ModuleComponentResolveMetadata metadata;
+
+        CachedModuleMetadata(BigInteger descriptorHash, ModuleComponentResolveMetadata metadata) {
+            this.descriptorHash = descriptorHash;
+            this.metadata = metadata;
+        }
+    }
+}
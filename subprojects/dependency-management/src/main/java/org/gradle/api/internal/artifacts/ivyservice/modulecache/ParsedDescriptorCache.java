@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.internal.artifacts.ImmutableModuleIdentifierFactory;
+import org.gradle.api.internal.artifacts.ivyservice.CacheLockingManager;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.excludes.ModuleExclusions;
+import org.gradle.api.internal.component.ArtifactType;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier;
+import org.gradle.internal.component.external.model.MutableModuleComponentResolveMetadata;
+import org.gradle.internal.hash.HashValue;
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Keeps the result of parsing Ivy and Maven descriptors across builds, keyed by the type and the SHA-1 of the descriptor file.
+ *
+ * <p>The metadata is stored in the binary format of the module metadata cache, together with the SHA-1 of every descriptor that was consulted while parsing,
+ * such as the parent POM or imported BOMs. A cached result is only valid while those descriptors are unchanged, which is checked by the {@link CachingMetaDataParser}.</p>
+ */
+public class ParsedDescriptorCache {
+    private final CacheLockingManager cacheLockingManager;
+    private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
+    private final ModuleExclusions moduleExclusions;
+    private PersistentIndexedCache<String, ParsedDescriptor> cache;
+
+    public ParsedDescriptorCache(CacheLockingManager cacheLockingManager, ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions) {
+        this.cacheLockingManager = cacheLockingManager;
+        this.moduleIdentifierFactory = moduleIdentifierFactory;
+        this.moduleExclusions = moduleExclusions;
+    }
+
+    private synchronized PersistentIndexedCache<String, ParsedDescriptor> getCache() {
+        if (cache == null) {
+            cache = cacheLockingManager.createCache("parsed-descriptors", BaseSerializerFactory.STRING_SERIALIZER, new ParsedDescriptorSerializer(moduleIdentifierFactory, moduleExclusions));
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cached result of parsing a descriptor of the given type with the given SHA-1, or null when there is none.
+     */
+    @Nullable
+    public ParsedDescriptor get(String descriptorType, HashValue sha1) {
+        return getCache().get(createKey(descriptorType, sha1));
+    }
+
+    public void put(String descriptorType, HashValue sha1, ParsedDescriptor parsedDescriptor) {
+        getCache().put(createKey(descriptorType, sha1), parsedDescriptor);
+    }
+
+    private static String createKey(String descriptorType, HashValue sha1) {
+        return descriptorType + ":" + sha1.asHexString();
+    }
+
+    /**
+     * The result of parsing a descriptor, along with the other descriptors that were consulted to produce it.
+     */
+    public static class ParsedDescriptor {
+        private final List<ReferencedDescriptor> referencedDescriptors;
+        private final MutableModuleComponentResolveMetadata metadata;
+
+        public ParsedDescriptor(List<ReferencedDescriptor> referencedDescriptors, MutableModuleComponentResolveMetadata metadata) {
+            this.referencedDescriptors = ImmutableList.copyOf(referencedDescriptors);
+            this.metadata = metadata;
+        }
+
+        public List<ReferencedDescriptor> getReferencedDescriptors() {
+            return referencedDescriptors;
+        }
+
+        /**
+         * Returns the parsed metadata. Each {@link ParsedDescriptor} read from the cache holds its own copy, which the caller may modify.
+         */
+        public MutableModuleComponentResolveMetadata getMetadata() {
+            return metadata;
+        }
+    }
+
+    /**
+     * A descriptor that was consulted while parsing another descriptor.
+     */
+    public static class ReferencedDescriptor {
+        private final ModuleComponentIdentifier componentId;
+        private final ArtifactType artifactType;
+        private final HashValue sha1;
+
+        public ReferencedDescriptor(ModuleComponentIdentifier componentId, ArtifactType artifactType, HashValue sha1) {
+            this.componentId = componentId;
+            this.artifactType = artifactType;
+            this.sha1 = sha1;
+        }
+
+        public ModuleComponentIdentifier getComponentId() {
+            return componentId;
+        }
+
+        public ArtifactType getArtifactType() {
+            return artifactType;
+        }
+
+        public HashValue getSha1() {
+            return sha1;
+        }
+    }
+
+    private static class ParsedDescriptorSerializer extends AbstractSerializer<ParsedDescriptor> {
+        private final ModuleMetadataSerializer moduleMetadataSerializer = new ModuleMetadataSerializer();
+        private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
+        private final ModuleExclusions moduleExclusions;
+
+        ParsedDescriptorSerializer(ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions) {
+            this.moduleIdentifierFactory = moduleIdentifierFactory;
+            this.moduleExclusions = moduleExclusions;
+        }
+
+        @Override
+        public ParsedDescriptor read(Decoder decoder) throws Exception {
+            int count = decoder.readSmallInt();
+            ImmutableList.Builder<ReferencedDescriptor> referencedDescriptors = ImmutableList.builder();
+            for (int i = 0; i < count; i++) {
+                ModuleComponentIdentifier componentId = DefaultModuleComponentIdentifier.newId(decoder.readString(), decoder.readString(), decoder.readString());
+                ArtifactType artifactType = ArtifactType.valueOf(decoder.readString());
+                HashValue sha1 = new HashValue(decoder.readBinary());
+                referencedDescriptors.add(new ReferencedDescriptor(componentId, artifactType, sha1));
+            }
+            MutableModuleComponentResolveMetadata metadata = moduleMetadataSerializer.read(decoder, moduleIdentifierFactory, moduleExclusions);
+            return new ParsedDescriptor(referencedDescriptors.build(), metadata);
+        }
+
+        @Override
+        public void write(Encoder encoder, ParsedDescriptor value) throws Exception {
+            encoder.writeSmallInt(value.getReferencedDescriptors().size());
+            for (ReferencedDescriptor referencedDescriptor : value.getReferencedDescriptors()) {
+                ModuleComponentIdentifier componentId = referencedDescriptor.getComponentId();
+                encoder.writeString(componentId.getGroup());
+                encoder.writeString(componentId.getModule());
+                encoder.writeString(componentId.getVersion());
+                encoder.writeString(referencedDescriptor.getArtifactType().name());
+                encoder.writeBinary(referencedDescriptor.getSha1().asByteArray());
+            }
+            moduleMetadataSerializer.write(encoder, value.getMetadata().asImmutable());
+        }
+    }
+}
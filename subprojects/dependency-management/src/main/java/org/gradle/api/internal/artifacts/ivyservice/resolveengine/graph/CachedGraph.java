@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph;
+
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.result.ComponentSelectionReason;
+import org.gradle.api.internal.artifacts.ImmutableModuleIdentifierFactory;
+import org.gradle.api.internal.artifacts.ModuleVersionIdentifierSerializer;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.ComponentIdentifierSerializer;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.ComponentSelectionReasonSerializer;
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A resolved dependency graph, in the form kept by {@link ResolvedGraphCache}.
+ *
+ * <p>Components and nodes refer to each other by index. The first component and the first node are the root. Every other node
+ * comes after a node with an edge to it, so that replaying the nodes in order always reaches the source of a node before the node itself.
+ * Edges refer to the dependency of their source node by its index in the dependencies of the node's configuration, and keep the version it requested.</p>
+ */
+class CachedGraph {
+    final List<Component> components;
+    final List<Node> nodes;
+
+    CachedGraph(List<Component> components, List<Node> nodes) {
+        this.components = components;
+        this.nodes = nodes;
+    }
+
+    static class Component {
+        final ModuleVersionIdentifier id;
+        final ComponentIdentifier componentId;
+        final ComponentSelectionReason selectionReason;
+
+        Component(ModuleVersionIdentifier id, ComponentIdentifier componentId, ComponentSelectionReason selectionReason) {
+            this.id = id;
+            this.componentId = componentId;
+            this.selectionReason = selectionReason;
+        }
+    }
+
+    static class Node {
+        final int component;
+        final String configuration;
+        final List<Edge> outgoingEdges;
+
+        Node(int component, String configuration, List<Edge> outgoingEdges) {
+            this.component = component;
+            this.configuration = configuration;
+            this.outgoingEdges = outgoingEdges;
+        }
+    }
+
+    static class Edge {
+        final int dependency;
+        final String requestedVersion;
+        final int component;
+        final int[] targets;
+
+        Edge(int dependency, String requestedVersion, int component, int[] targets) {
+            this.dependency = dependency;
+            this.requestedVersion = requestedVersion;
+            this.component = component;
+            this.targets = targets;
+        }
+    }
+
+    static class Serializer extends AbstractSerializer<CachedGraph> {
+        private final ModuleVersionIdentifierSerializer idSerializer;
+        private final ComponentIdentifierSerializer componentIdSerializer = new ComponentIdentifierSerializer();
+        private final ComponentSelectionReasonSerializer reasonSerializer = new ComponentSelectionReasonSerializer();
+
+        Serializer(ImmutableModuleIdentifierFactory moduleIdentifierFactory) {
+            this.idSerializer = new ModuleVersionIdentifierSerializer(moduleIdentifierFactory);
+        }
+
+        @Override
+        public CachedGraph read(Decoder decoder) throws Exception {
+            int componentCount = decoder.readSmallInt();
+            List<Component> components = new ArrayList<Component>(componentCount);
+            for (int i = 0; i < componentCount; i++) {
+                ModuleVersionIdentifier id = idSerializer.read(decoder);
+                ComponentIdentifier componentId = componentIdSerializer.read(decoder);
+                ComponentSelectionReason selectionReason = reasonSerializer.read(decoder);
+                components.add(new Component(id, componentId, selectionReason));
+            }
+            int nodeCount = decoder.readSmallInt();
+            List<Node> nodes = new ArrayList<Node>(nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                int component = decoder.readSmallInt();
+                String configuration = decoder.readString();
+                int edgeCount = decoder.readSmallInt();
+                List<Edge> edges = new ArrayList<Edge>(edgeCount);
+                for (int j = 0; j < edgeCount; j++) {
+                    int dependency = decoder.readSmallInt();
+                    String requestedVersion = decoder.readString();
+                    int targetComponent = decoder.readSmallInt();
+                    int[] targets = new int[decoder.readSmallInt()];
+                    for (int k = 0; k < targets.length; k++) {
+                        targets[k] = decoder.readSmallInt();
+                    }
+                    edges.add(new Edge(dependency, requestedVersion, targetComponent, targets));
+                }
+                nodes.add(new Node(component, configuration, edges));
+            }
+            return new CachedGraph(components, nodes);
+        }
+
+        @Override
+        public void write(Encoder encoder, CachedGraph value) throws Exception {
+            encoder.writeSmallInt(value.components.size());
+            for (Component component : value.components) {
+                idSerializer.write(encoder, component.id);
+                componentIdSerializer.write(encoder, component.componentId);
+                reasonSerializer.write(encoder, component.selectionReason);
+            }
+            encoder.writeSmallInt(value.nodes.size());
+            for (Node node : value.nodes) {
+                encoder.writeSmallInt(node.component);
+                encoder.writeString(node.configuration);
+                encoder.writeSmallInt(node.outgoingEdges.size());
+                for (Edge edge : node.outgoingEdges) {
+                    encoder.writeSmallInt(edge.dependency);
+                    encoder.writeString(edge.requestedVersion);
+                    encoder.writeSmallInt(edge.component);
+                    encoder.writeSmallInt(edge.targets.length);
+                    for (int target : edge.targets) {
+                        encoder.writeSmallInt(target);
+                    }
+                }
+            }
+        }
+    }
+}
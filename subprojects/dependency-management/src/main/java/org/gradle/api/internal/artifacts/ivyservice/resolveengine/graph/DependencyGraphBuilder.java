@@ -50,6 +50,7 @@ import org.gradle.internal.component.model.ConfigurationMetadata;
 import org.gradle.internal.component.model.DefaultComponentOverrideMetadata;
 import org.gradle.internal.component.model.DependencyMetadata;
 import org.gradle.internal.component.model.Exclude;
+import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.id.IdGenerator;
 import org.gradle.internal.id.LongIdGenerator;
 import org.gradle.internal.operations.BuildOperationContext;
@@ -69,10 +70,13 @@ import org.gradle.internal.resolve.result.DefaultBuildableComponentResolveResult
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -91,6 +95,8 @@ public class DependencyGraphBuilder {
     private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
     private final ModuleExclusions moduleExclusions;
     private final BuildOperationExecutor buildOperationExecutor;
+    private final ResolvedGraphCache graphCache;
+    private final MetadataPrefetcher metadataPrefetcher;
 
     public DependencyGraphBuilder(DependencyToComponentIdResolver componentIdResolver, ComponentMetaDataResolver componentMetaDataResolver,
                                   ResolveContextToComponentResolver resolveContextToComponentResolver,
@@ -98,6 +104,27 @@ public class DependencyGraphBuilder {
                                   AttributesSchemaInternal attributesSchema,
                                   ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions,
                                   BuildOperationExecutor buildOperationExecutor) {
+        this(componentIdResolver, componentMetaDataResolver, resolveContextToComponentResolver, conflictHandler, edgeFilter, attributesSchema, moduleIdentifierFactory, moduleExclusions, buildOperationExecutor, null);
+    }
+
+    public DependencyGraphBuilder(DependencyToComponentIdResolver componentIdResolver, ComponentMetaDataResolver componentMetaDataResolver,
+                                  ResolveContextToComponentResolver resolveContextToComponentResolver,
+                                  ConflictHandler conflictHandler, Spec<? super DependencyMetadata> edgeFilter,
+                                  AttributesSchemaInternal attributesSchema,
+                                  ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions,
+                                  BuildOperationExecutor buildOperationExecutor, @Nullable ResolvedGraphCache graphCache) {
+        this(componentIdResolver, componentMetaDataResolver, resolveContextToComponentResolver, conflictHandler, edgeFilter, attributesSchema, moduleIdentifierFactory, moduleExclusions, buildOperationExecutor, graphCache, null);
+    }
+
+    /**
+     * @param metadataPrefetcher prefetches metadata while the graph is traversed. When present, it must also be the given {@link ComponentMetaDataResolver}.
+     */
+    public DependencyGraphBuilder(DependencyToComponentIdResolver componentIdResolver, ComponentMetaDataResolver componentMetaDataResolver,
+                                  ResolveContextToComponentResolver resolveContextToComponentResolver,
+                                  ConflictHandler conflictHandler, Spec<? super DependencyMetadata> edgeFilter,
+                                  AttributesSchemaInternal attributesSchema,
+                                  ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleExclusions moduleExclusions,
+                                  BuildOperationExecutor buildOperationExecutor, @Nullable ResolvedGraphCache graphCache, @Nullable MetadataPrefetcher metadataPrefetcher) {
         this.idResolver = componentIdResolver;
         this.metaDataResolver = componentMetaDataResolver;
         this.moduleResolver = resolveContextToComponentResolver;
@@ -107,18 +134,68 @@ public class DependencyGraphBuilder {
         this.moduleIdentifierFactory = moduleIdentifierFactory;
         this.moduleExclusions = moduleExclusions;
         this.buildOperationExecutor = buildOperationExecutor;
+        this.graphCache = graphCache;
+        this.metadataPrefetcher = metadataPrefetcher;
     }
 
     public void resolve(final ResolveContext resolveContext, final DependencyGraphVisitor modelVisitor) {
+        resolve(resolveContext, modelVisitor, null);
+    }
+
+    /**
+     * Resolves the graph, replaying it from the resolved graph cache when it has been resolved with the same inputs before.
+     *
+     * @param resolutionInputs a fingerprint of the inputs of the resolution other than the root component, or null when the graph should not be cached.
+     */
+    public void resolve(final ResolveContext resolveContext, final DependencyGraphVisitor modelVisitor, @Nullable HashCode resolutionInputs) {
 
         IdGenerator<Long> idGenerator = new LongIdGenerator();
         DefaultBuildableComponentResolveResult rootModule = new DefaultBuildableComponentResolveResult();
         moduleResolver.resolve(resolveContext, rootModule);
 
-        final ResolveState resolveState = new ResolveState(idGenerator, rootModule, resolveContext.getName(), idResolver, metaDataResolver, edgeFilter, attributesSchema, moduleIdentifierFactory, moduleExclusions);
-        conflictHandler.registerResolver(new DirectDependencyForcingResolver(resolveState.root.component));
+        HashCode cacheKey = null;
+        if (graphCache != null && resolutionInputs != null) {
+            cacheKey = graphCache.createKey(resolutionInputs, rootModule.getMetaData(), resolveContext.getName());
+        }
+
+        ResolveState resolveState = null;
+        if (cacheKey != null) {
+            CachedGraph cachedGraph = graphCache.get(cacheKey);
+            if (cachedGraph != null) {
+                resolveState = new ResolveState(idGenerator, rootModule, resolveContext.getName(), idResolver, metaDataResolver, edgeFilter, attributesSchema, moduleIdentifierFactory, moduleExclusions);
+                if (replayGraph(cachedGraph, resolveState)) {
+                    LOGGER.debug("Replayed the dependency graph of {} from the resolved graph cache.", resolveContext);
+                } else {
+                    LOGGER.debug("The cached dependency graph of {} no longer matches the metadata of its components. Resolving it again.", resolveContext);
+                    resolveState = null;
+                }
+            }
+        }
+
+        if (resolveState == null) {
+            resolveState = new ResolveState(idGenerator, rootModule, resolveContext.getName(), idResolver, metaDataResolver, edgeFilter, attributesSchema, moduleIdentifierFactory, moduleExclusions);
+            conflictHandler.registerResolver(new DirectDependencyForcingResolver(resolveState.root.component));
 
-        traverseGraph(resolveState);
+            if (metadataPrefetcher != null) {
+                final ResolveState state = resolveState;
+                state.metadataPrefetcher = metadataPrefetcher;
+                metadataPrefetcher.prefetchWhile(new Runnable() {
+                    @Override
+                    public void run() {
+                        traverseGraph(state);
+                    }
+                });
+            } else {
+                traverseGraph(resolveState);
+            }
+
+            if (cacheKey != null) {
+                CachedGraph cachedGraph = recordGraph(resolveState);
+                if (cachedGraph != null) {
+                    graphCache.put(cacheKey, cachedGraph);
+                }
+            }
+        }
 
         resolveState.root.component.setSelectionReason(VersionSelectionReasons.ROOT);
 
@@ -285,6 +362,236 @@ public class DependencyGraphBuilder {
         return state == ModuleState.Selected;
     }
 
+    /**
+     * Captures the traversed graph for the resolved graph cache. Returns null when the graph cannot be cached: when resolution failed, or when it contains
+     * a dependency or a component whose resolution may change while the inputs of the resolution stay the same.
+     */
+    @Nullable
+    private CachedGraph recordGraph(ResolveState resolveState) {
+        Map<ComponentState, Integer> componentIndexes = new IdentityHashMap<ComponentState, Integer>();
+        Map<NodeState, Integer> nodeIndexes = new IdentityHashMap<NodeState, Integer>();
+        List<CachedGraph.Component> components = new ArrayList<CachedGraph.Component>();
+        List<CachedGraph.Node> nodes = new ArrayList<CachedGraph.Node>();
+        List<NodeState> queue = new ArrayList<NodeState>();
+
+        RootNode root = resolveState.root;
+        componentIndexes.put(root.component, 0);
+        components.add(new CachedGraph.Component(root.component.id, root.component.getComponentId(), VersionSelectionReasons.ROOT));
+        nodeIndexes.put(root, 0);
+        queue.add(root);
+
+        // Visit the nodes breadth first, so that each node is recorded after a node with an edge to it
+        for (int i = 0; i < queue.size(); i++) {
+            NodeState node = queue.get(i);
+            List<? extends DependencyMetadata> dependencies = node.metaData.getDependencies();
+            List<CachedGraph.Edge> edges = new ArrayList<CachedGraph.Edge>(node.outgoingEdges.size());
+            for (EdgeState edge : node.outgoingEdges) {
+                ComponentState target = edge.targetModuleRevision;
+                if (target == null || target.state != ModuleState.Selected || target.getFailure() != null || target.metaData == null
+                    || edge.targetNodeSelectionFailure != null || edge.selector.failure != null || edge.selector.getSelected() != target
+                    || !graphCache.isCacheable(edge.dependencyMetadata) || !graphCache.isCacheable(target.metaData)) {
+                    return null;
+                }
+                int dependency = indexOf(dependencies, edge.dependencyMetadata);
+                if (dependency < 0) {
+                    return null;
+                }
+                Integer component = componentIndexes.get(target);
+                if (component == null) {
+                    component = components.size();
+                    componentIndexes.put(target, component);
+                    components.add(new CachedGraph.Component(target.id, target.getComponentId(), target.getSelectionReason()));
+                }
+                int[] targets = new int[edge.targetNodes.size()];
+                int targetCount = 0;
+                for (NodeState targetNode : edge.targetNodes) {
+                    Integer targetIndex = nodeIndexes.get(targetNode);
+                    if (targetIndex == null) {
+                        targetIndex = queue.size();
+                        nodeIndexes.put(targetNode, targetIndex);
+                        queue.add(targetNode);
+                    }
+                    targets[targetCount++] = targetIndex;
+                }
+                edges.add(new CachedGraph.Edge(dependency, edge.dependencyMetadata.getRequested().getVersion(), component, targets));
+            }
+            nodes.add(new CachedGraph.Node(componentIndexes.get(node.component), node.id.getConfiguration(), edges));
+        }
+
+        // Every selected node has to be reachable through the recorded edges only
+        int selectedNodes = 0;
+        for (NodeState node : resolveState.getNodes()) {
+            if (node.isSelected()) {
+                selectedNodes++;
+            }
+        }
+        if (selectedNodes != queue.size()) {
+            return null;
+        }
+        for (NodeState node : queue) {
+            for (EdgeState edge : node.incomingEdges) {
+                if (!nodeIndexes.containsKey(edge.from)) {
+                    return null;
+                }
+            }
+        }
+        return new CachedGraph(components, nodes);
+    }
+
+    private static int indexOf(List<? extends DependencyMetadata> dependencies, DependencyMetadata dependency) {
+        for (int i = 0; i < dependencies.size(); i++) {
+            if (dependencies.get(i) == dependency) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuilds the state of a traversal from a cached graph, fetching the metadata of the selected components but without resolving any selectors or conflicts.
+     * Returns false when the cached graph does not match the metadata of its components anymore, for example when a dependency now requests another version,
+     * in which case the state must be discarded.
+     */
+    private boolean replayGraph(CachedGraph graph, ResolveState resolveState) {
+        RootNode root = resolveState.root;
+        if (graph.nodes.isEmpty() || !graph.components.get(0).id.equals(root.component.id) || !graph.nodes.get(0).configuration.equals(root.id.getConfiguration())) {
+            return false;
+        }
+        ComponentState[] components = new ComponentState[graph.components.size()];
+        components[0] = root.component;
+        NodeState[] nodes = new NodeState[graph.nodes.size()];
+        nodes[0] = root;
+
+        for (int i = 0; i < nodes.length; i++) {
+            NodeState node = nodes[i];
+            if (node == null) {
+                return false;
+            }
+            List<? extends DependencyMetadata> dependencies = node.metaData.getDependencies();
+            for (CachedGraph.Edge cachedEdge : graph.nodes.get(i).outgoingEdges) {
+                if (cachedEdge.dependency >= dependencies.size() || cachedEdge.component >= components.length) {
+                    return false;
+                }
+                DependencyMetadata dependency = dependencies.get(cachedEdge.dependency);
+                if (!cachedEdge.requestedVersion.equals(dependency.getRequested().getVersion())) {
+                    return false;
+                }
+                ComponentState target = components[cachedEdge.component];
+                if (target == null) {
+                    target = replayComponent(graph.components.get(cachedEdge.component), dependency, resolveState);
+                    if (target == null) {
+                        return false;
+                    }
+                    components[cachedEdge.component] = target;
+                }
+
+                EdgeState edge = new EdgeState(node, dependency, ModuleExclusions.excludeNone(), resolveState);
+                SelectorState selector = edge.selector;
+                if (selector.selected == null) {
+                    if (selector.targetModule != target.module) {
+                        return false;
+                    }
+                    selector.selected = target;
+                    target.addResolver(selector);
+                    target.module.addSelector(selector);
+                } else if (selector.selected != target) {
+                    return false;
+                }
+                edge.targetModuleRevision = target;
+                for (int targetIndex : cachedEdge.targets) {
+                    if (targetIndex >= nodes.length) {
+                        return false;
+                    }
+                    NodeState targetNode = nodes[targetIndex];
+                    if (targetNode == null) {
+                        CachedGraph.Node cachedTarget = graph.nodes.get(targetIndex);
+                        ConfigurationMetadata configuration = target.metaData.getConfiguration(cachedTarget.configuration);
+                        if (cachedTarget.component != cachedEdge.component || configuration == null) {
+                            return false;
+                        }
+                        targetNode = resolveState.getNode(target, configuration);
+                        nodes[targetIndex] = targetNode;
+                    }
+                    edge.targetNodes.add(targetNode);
+                    targetNode.incomingEdges.add(edge);
+                }
+                node.outgoingEdges.add(edge);
+            }
+        }
+        return replayExclusions(nodes, resolveState);
+    }
+
+    @Nullable
+    private ComponentState replayComponent(CachedGraph.Component cachedComponent, DependencyMetadata dependency, ResolveState resolveState) {
+        ComponentState component = resolveState.getRevision(cachedComponent.id);
+        if (component.module.selected != null) {
+            return null;
+        }
+        DefaultBuildableComponentResolveResult result = new DefaultBuildableComponentResolveResult();
+        metaDataResolver.resolve(cachedComponent.componentId, DefaultComponentOverrideMetadata.forDependency(dependency), result);
+        if (result.getFailure() != null) {
+            return null;
+        }
+        component.setMetaData(result.getMetaData());
+        component.setSelectionReason(cachedComponent.selectionReason);
+        component.module.select(component);
+        return component;
+    }
+
+    /**
+     * Calculates the exclusions of the replayed nodes as the traversal does, until they no longer change, and checks that each node has an outgoing edge
+     * for exactly the dependencies that are not excluded.
+     */
+    private boolean replayExclusions(NodeState[] nodes, ResolveState resolveState) {
+        boolean changed = true;
+        for (int pass = 0; changed; pass++) {
+            if (pass > nodes.length) {
+                return false;
+            }
+            changed = false;
+            for (NodeState node : nodes) {
+                List<EdgeState> transitiveIncoming = new ArrayList<EdgeState>();
+                for (EdgeState edge : node.incomingEdges) {
+                    if (edge.isTransitive() && edge.from.previousTraversalExclusions != null) {
+                        edge.moduleExclusion = edge.from.previousTraversalExclusions;
+                        transitiveIncoming.add(edge);
+                    }
+                }
+                if (transitiveIncoming.isEmpty() && node != resolveState.root) {
+                    continue;
+                }
+                ModuleExclusion exclusions = node.getModuleResolutionFilter(transitiveIncoming);
+                if (node.previousTraversalExclusions == null || !node.previousTraversalExclusions.excludesSameModulesAs(exclusions)) {
+                    changed = true;
+                }
+                node.previousTraversalExclusions = exclusions;
+            }
+        }
+
+        for (NodeState node : nodes) {
+            Iterator<EdgeState> edges = node.outgoingEdges.iterator();
+            if (node.previousTraversalExclusions != null) {
+                for (DependencyMetadata dependency : node.metaData.getDependencies()) {
+                    if (node.isExcluded(node.previousTraversalExclusions, dependency)) {
+                        continue;
+                    }
+                    if (!edges.hasNext()) {
+                        return false;
+                    }
+                    EdgeState edge = edges.next();
+                    if (edge.dependencyMetadata != dependency) {
+                        return false;
+                    }
+                    edge.moduleExclusion = node.previousTraversalExclusions;
+                }
+            }
+            if (edges.hasNext()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Populates the result from the graph traversal state.
      */
@@ -366,7 +673,7 @@ public class DependencyGraphBuilder {
 
         private final DependencyMetadata dependencyMetadata;
         private final ResolveState resolveState;
-        private final ModuleExclusion moduleExclusion;
+        private ModuleExclusion moduleExclusion;
         private final Set<NodeState> targetNodes = new LinkedHashSet<NodeState>();
 
         private ComponentState targetModuleRevision;
@@ -541,6 +848,7 @@ public class DependencyGraphBuilder {
         private final AttributesSchemaInternal attributesSchema;
         private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
         private final ModuleExclusions moduleExclusions;
+        private MetadataPrefetcher metadataPrefetcher;
 
         public ResolveState(IdGenerator<Long> idGenerator, ComponentResolveResult rootResult, String rootConfigurationName, DependencyToComponentIdResolver idResolver,
                             ComponentMetaDataResolver metaDataResolver, Spec<? super DependencyMetadata> edgeFilter, AttributesSchemaInternal attributesSchema,
@@ -622,6 +930,9 @@ public class DependencyGraphBuilder {
             // possible before attempting to resolve them
             if (queued.add(node)) {
                 queue.addLast(node);
+                if (metadataPrefetcher != null) {
+                    node.prefetchOutgoingDependencies(metadataPrefetcher);
+                }
             }
         }
 
@@ -1046,6 +1357,32 @@ public class DependencyGraphBuilder {
             previousTraversalExclusions = resolutionFilter;
         }
 
+        /**
+         * Starts prefetching the metadata of the targets of the edges that the first traversal of this node is likely to add.
+         */
+        public void prefetchOutgoingDependencies(MetadataPrefetcher metadataPrefetcher) {
+            if (component.state != ModuleState.Selected || previousTraversalExclusions != null) {
+                return;
+            }
+            if (this != resolveState.root && !hasTransitiveIncomingEdge()) {
+                return;
+            }
+            for (DependencyMetadata dependency : metaData.getDependencies()) {
+                if (resolveState.edgeFilter.isSatisfiedBy(dependency)) {
+                    metadataPrefetcher.prefetch(dependency);
+                }
+            }
+        }
+
+        private boolean hasTransitiveIncomingEdge() {
+            for (EdgeState edge : incomingEdges) {
+                if (edge.isTransitive()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         private boolean isExcluded(ModuleExclusion selector, DependencyMetadata dependency) {
             if (!resolveState.edgeFilter.isSatisfiedBy(dependency)) {
                 LOGGER.debug("{} is filtered.", dependency);
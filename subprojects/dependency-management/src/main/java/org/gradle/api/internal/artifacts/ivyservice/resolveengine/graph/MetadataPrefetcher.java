@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph;
+
+import org.gradle.api.Action;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ComponentSelector;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.VersionSelectorScheme;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier;
+import org.gradle.internal.component.model.ComponentOverrideMetadata;
+import org.gradle.internal.component.model.DefaultComponentOverrideMetadata;
+import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.BuildOperationQueue;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.progress.BuildOperationDescriptor;
+import org.gradle.internal.resolve.resolver.ComponentMetaDataResolver;
+import org.gradle.internal.resolve.result.BuildableComponentResolveResult;
+import org.gradle.internal.resolve.result.DefaultBuildableComponentResolveResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Speculatively resolves the metadata of the components that queued nodes of the dependency graph depend on, while the {@link DependencyGraphBuilder}
+ * keeps traversing the graph.
+ *
+ * <p>When a node is queued, the metadata of the targets of its dependencies on fixed versions of external modules is resolved in the build operation
+ * thread pool, unless it is cheap to fetch. When the traversal later resolves one of these components, it uses the prefetched result, waiting for it when
+ * it is still being resolved. This way the metadata of the whole frontier of the graph is downloaded concurrently, rather than only the dependencies of the
+ * node being visited.</p>
+ *
+ * <p>A prefetched result is only used when the traversal resolves the component without overrides, so it is the same result as resolving the component directly.
+ * Prefetched components that the traversal does not use, for example because a conflict evicts the node that depends on them, are downloaded for nothing.
+ * Prefetching is disabled by default, and can be enabled with the {@value #ENABLED_PROPERTY} system property.</p>
+ */
+public class MetadataPrefetcher implements ComponentMetaDataResolver {
+    public static final String ENABLED_PROPERTY = "org.gradle.dependency.metadata-prefetch";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataPrefetcher.class);
+
+    private final ComponentMetaDataResolver delegate;
+    private final VersionSelectorScheme versionSelectorScheme;
+    private final BuildOperationExecutor buildOperationExecutor;
+    private final ConcurrentMap<ComponentIdentifier, PrefetchOperation> operations = new ConcurrentHashMap<ComponentIdentifier, PrefetchOperation>();
+    private final AtomicInteger usedCount = new AtomicInteger();
+    private BuildOperationQueue<PrefetchOperation> queue;
+
+    public MetadataPrefetcher(ComponentMetaDataResolver delegate, VersionSelectorScheme versionSelectorScheme, BuildOperationExecutor buildOperationExecutor) {
+        this.delegate = delegate;
+        this.versionSelectorScheme = versionSelectorScheme;
+        this.buildOperationExecutor = buildOperationExecutor;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Runs the given action, prefetching the metadata requested by {@link #prefetch(DependencyMetadata)} until the action completes.
+     * Prefetches that have not started by then are discarded.
+     */
+    void prefetchWhile(final Runnable action) {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        buildOperationExecutor.runAll(new Action<BuildOperationQueue<PrefetchOperation>>() {
+            @Override
+            public void execute(BuildOperationQueue<PrefetchOperation> buildOperationQueue) {
+                queue = buildOperationQueue;
+                try {
+                    action.run();
+                } catch (Throwable t) {
+                    // Rethrown below, so that the failure is not reported as a failure of the queue
+                    failure.set(t);
+                } finally {
+                    queue = null;
+                    buildOperationQueue.cancel();
+                }
+            }
+        });
+        LOGGER.debug("Prefetched the metadata of {} components, {} of which were used.", operations.size(), usedCount.get());
+        operations.clear();
+        usedCount.set(0);
+        if (failure.get() != null) {
+            throw UncheckedException.throwAsUncheckedException(failure.get());
+        }
+    }
+
+    /**
+     * Starts resolving the metadata of the target of the given dependency in the background, when the target can be known without resolving the dependency.
+     * Does nothing when not called from the action passed to {@link #prefetchWhile(Runnable)}.
+     */
+    void prefetch(DependencyMetadata dependency) {
+        if (queue == null) {
+            return;
+        }
+        ComponentSelector selector = dependency.getSelector();
+        if (!(selector instanceof ModuleComponentSelector) || !isDefault(DefaultComponentOverrideMetadata.forDependency(dependency))) {
+            return;
+        }
+        ModuleComponentSelector moduleSelector = (ModuleComponentSelector) selector;
+        if (versionSelectorScheme.parseSelector(moduleSelector.getVersion()).isDynamic()) {
+            return;
+        }
+        ComponentIdentifier id = DefaultModuleComponentIdentifier.newId(moduleSelector.getGroup(), moduleSelector.getModule(), moduleSelector.getVersion());
+        if (operations.containsKey(id) || delegate.isFetchingMetadataCheap(id)) {
+            return;
+        }
+        PrefetchOperation operation = new PrefetchOperation(id);
+        if (operations.putIfAbsent(id, operation) == null) {
+            queue.add(operation);
+        }
+    }
+
+    @Override
+    public void resolve(ComponentIdentifier identifier, ComponentOverrideMetadata componentOverrideMetadata, BuildableComponentResolveResult result) {
+        PrefetchOperation operation = operations.get(identifier);
+        if (operation != null && isDefault(componentOverrideMetadata) && operation.applyTo(result)) {
+            usedCount.incrementAndGet();
+            return;
+        }
+        delegate.resolve(identifier, componentOverrideMetadata, result);
+    }
+
+    @Override
+    public boolean isFetchingMetadataCheap(ComponentIdentifier identifier) {
+        PrefetchOperation operation = operations.get(identifier);
+        if (operation != null && operation.isDone()) {
+            return true;
+        }
+        return delegate.isFetchingMetadataCheap(identifier);
+    }
+
+    private static boolean isDefault(ComponentOverrideMetadata componentOverrideMetadata) {
+        return !componentOverrideMetadata.isChanging() && componentOverrideMetadata.getArtifacts().isEmpty() && componentOverrideMetadata.getClientModule() == null;
+    }
+
+    private class PrefetchOperation implements RunnableBuildOperation {
+        private final ComponentIdentifier id;
+        private final FutureTask<DefaultBuildableComponentResolveResult> result;
+
+        PrefetchOperation(final ComponentIdentifier id) {
+            this.id = id;
+            this.result = new FutureTask<DefaultBuildableComponentResolveResult>(new Callable<DefaultBuildableComponentResolveResult>() {
+                @Override
+                public DefaultBuildableComponentResolveResult call() {
+                    DefaultBuildableComponentResolveResult result = new DefaultBuildableComponentResolveResult();
+                    delegate.resolve(id, new DefaultComponentOverrideMetadata(), result);
+                    return result;
+                }
+            });
+        }
+
+        @Override
+        public void run(BuildOperationContext context) {
+            result.run();
+        }
+
+        boolean isDone() {
+            return result.isDone();
+        }
+
+        /**
+         * Copies the prefetched result to the given result, resolving the component on this thread when the prefetch has not started yet.
+         * Returns false when the prefetch did not produce a result.
+         */
+        boolean applyTo(BuildableComponentResolveResult target) {
+            result.run();
+            DefaultBuildableComponentResolveResult prefetched;
+            try {
+                prefetched = result.get();
+            } catch (InterruptedException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            } catch (ExecutionException e) {
+                return false;
+            }
+            if (!prefetched.hasResult()) {
+                return false;
+            }
+            prefetched.applyTo(target);
+            if (prefetched.getFailure() != null) {
+                target.failed(prefetched.getFailure());
+            } else {
+                target.resolved(prefetched.getMetaData());
+            }
+            return true;
+        }
+
+        @Override
+        public BuildOperationDescriptor.Builder description() {
+            return BuildOperationDescriptor.displayName("Prefetch metadata of " + id);
+        }
+    }
+}
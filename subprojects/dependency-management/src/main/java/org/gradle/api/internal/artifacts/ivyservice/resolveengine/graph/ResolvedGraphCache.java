@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph;
+
+import com.google.common.collect.Ordering;
+import org.gradle.api.artifacts.ClientModule;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.internal.artifacts.ImmutableModuleIdentifierFactory;
+import org.gradle.api.internal.artifacts.ivyservice.CacheLockingManager;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.VersionSelectorScheme;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.component.local.model.DefaultLocalComponentMetadata;
+import org.gradle.internal.component.local.model.DslOriginDependencyMetadata;
+import org.gradle.internal.component.model.ComponentResolveMetadata;
+import org.gradle.internal.component.model.ConfigurationMetadata;
+import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.component.model.Exclude;
+import org.gradle.internal.component.model.IvyArtifactName;
+import org.gradle.internal.component.model.LocalOriginDependencyMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hasher;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.HashCodeSerializer;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps resolved dependency graphs across builds, keyed by a fingerprint of the inputs of the resolution.
+ *
+ * <p>Only graphs that cannot change while their inputs stay the same are kept. Every dependency in the graph has to request a fixed version of
+ * an external module that is not changing, and resolution must not have failed. The metadata of such modules never expires from the module metadata cache,
+ * so on a hit the {@link DependencyGraphBuilder} replays the graph using the cached metadata of the selected components, without resolving version selectors
+ * or conflicts again, but checks that each dependency still requests the version it requested when the graph was stored. Dependencies with dynamic or
+ * changing versions make the graph uncacheable, so they are resolved every time, as do local repositories, whose module metadata is not cached.</p>
+ *
+ * <p>The cache is disabled by default, and can be enabled with the {@value #ENABLED_PROPERTY} system property. It is not consulted when
+ * dependencies are refreshed, but the graphs resolved in such a build are still stored.</p>
+ */
+public class ResolvedGraphCache {
+    public static final String ENABLED_PROPERTY = "org.gradle.dependency.graph-cache";
+
+    private final CacheLockingManager cacheLockingManager;
+    private final VersionSelectorScheme versionSelectorScheme;
+    private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
+    private final boolean useCachedGraphs;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private PersistentIndexedCache<HashCode, CachedGraph> cache;
+
+    public ResolvedGraphCache(CacheLockingManager cacheLockingManager, VersionSelectorScheme versionSelectorScheme, ImmutableModuleIdentifierFactory moduleIdentifierFactory, boolean useCachedGraphs) {
+        this.cacheLockingManager = cacheLockingManager;
+        this.versionSelectorScheme = versionSelectorScheme;
+        this.moduleIdentifierFactory = moduleIdentifierFactory;
+        this.useCachedGraphs = useCachedGraphs;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    private synchronized PersistentIndexedCache<HashCode, CachedGraph> getCache() {
+        if (cache == null) {
+            cache = cacheLockingManager.createCache("resolved-graphs", new HashCodeSerializer(), new CachedGraph.Serializer(moduleIdentifierFactory));
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cache key for resolving the given configuration of the root component, or null when the configuration cannot be cached.
+     *
+     * @param resolutionInputs a fingerprint of the other inputs of the resolution, such as the repositories and the resolution strategy.
+     */
+    @Nullable
+    HashCode createKey(HashCode resolutionInputs, ComponentResolveMetadata root, String configurationName) {
+        ConfigurationMetadata configuration = root.getConfiguration(configurationName);
+        if (configuration == null || !(root instanceof DefaultLocalComponentMetadata)) {
+            return null;
+        }
+        Hasher hasher = Hashing.md5().newHasher();
+        hasher.putHash(resolutionInputs);
+        hasher.putString(root.getId().toString());
+        hasher.putString(configuration.getName());
+        putStrings(hasher, configuration.getHierarchy());
+        hasher.putBoolean(configuration.isTransitive());
+        hasher.putString(String.valueOf(configuration.getAttributes().asImmutable()));
+        for (DependencyMetadata dependency : configuration.getDependencies()) {
+            if (!(dependency instanceof LocalOriginDependencyMetadata) || !isCacheable(dependency)) {
+                return null;
+            }
+            LocalOriginDependencyMetadata localDependency = (LocalOriginDependencyMetadata) dependency;
+            hasher.putString(dependency.getSelector().getDisplayName());
+            hasher.putString(localDependency.getModuleConfiguration());
+            hasher.putString(String.valueOf(localDependency.getDependencyConfiguration()));
+            hasher.putBoolean(dependency.isTransitive());
+            hasher.putBoolean(dependency.isForce());
+            for (IvyArtifactName artifact : dependency.getArtifacts()) {
+                hasher.putString(artifact.toString());
+            }
+            putExcludes(hasher, localDependency.getExcludes());
+        }
+        putExcludes(hasher, ((DefaultLocalComponentMetadata) root).getExcludeRules());
+        return hasher.hash();
+    }
+
+    private static void putExcludes(Hasher hasher, Collection<Exclude> excludes) {
+        hasher.putInt(excludes.size());
+        for (Exclude exclude : excludes) {
+            hasher.putString(exclude.getModuleId().toString());
+            hasher.putString(String.valueOf(exclude.getArtifact()));
+            putStrings(hasher, exclude.getConfigurations());
+            hasher.putString(String.valueOf(exclude.getMatcher()));
+        }
+    }
+
+    private static void putStrings(Hasher hasher, Collection<String> strings) {
+        hasher.putInt(strings.size());
+        for (String string : Ordering.natural().sortedCopy(strings)) {
+            hasher.putString(string);
+        }
+    }
+
+    /**
+     * Returns true when the given dependency always selects the same component with the same metadata, so that a graph containing it can be cached.
+     */
+    boolean isCacheable(DependencyMetadata dependency) {
+        if (!(dependency.getSelector() instanceof ModuleComponentSelector) || dependency.isChanging() || !dependency.getArtifacts().isEmpty()) {
+            return false;
+        }
+        if (dependency instanceof DslOriginDependencyMetadata && ((DslOriginDependencyMetadata) dependency).getSource() instanceof ClientModule) {
+            return false;
+        }
+        String version = dependency.getRequested().getVersion();
+        return version != null && !version.isEmpty() && versionSelectorScheme.parseSelector(version).matchesUniqueVersion();
+    }
+
+    /**
+     * Returns true when the given component can be part of a cached graph.
+     */
+    boolean isCacheable(ComponentResolveMetadata component) {
+        return component.getComponentId() instanceof ModuleComponentIdentifier
+            && !component.isChanging()
+            && component.getConsumableConfigurationsHavingAttributes().isEmpty();
+    }
+
+    @Nullable
+    CachedGraph get(HashCode key) {
+        if (!useCachedGraphs) {
+            return null;
+        }
+        CachedGraph graph = getCache().get(key);
+        if (graph == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return graph;
+    }
+
+    void put(HashCode key, CachedGraph graph) {
+        getCache().put(key, graph);
+    }
+
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    public int getMissCount() {
+        return misses.get();
+    }
+}
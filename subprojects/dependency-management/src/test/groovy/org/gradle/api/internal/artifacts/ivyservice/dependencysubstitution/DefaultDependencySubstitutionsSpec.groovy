@@ -54,6 +54,27 @@ class DefaultDependencySubstitutionsSpec extends Specification {
         0 * details._
     }
 
+    def "reports rules added with dependency resolve details as rules"() {
+        expect:
+        !substitutions.hasRules()
+        !substitutions.hasAnyRules()
+
+        when:
+        substitutions.allWithDependencyResolveDetails(Mock(Action))
+
+        then:
+        !substitutions.hasRules()
+        substitutions.hasAnyRules()
+        substitutions.copy().hasAnyRules()
+
+        when:
+        substitutions.all(Mock(Action))
+
+        then:
+        substitutions.hasRules()
+        substitutions.hasAnyRules()
+    }
+
     def "all() matches modules and projects"() {
         given:
         def action = Mock(Action)
@@ -191,6 +191,45 @@ class PomReaderTest extends AbstractPomReaderTest {
         assertResolvedPomDependency(key, 'version-two')
     }
 
+    def "reads text with Maven entities, CDATA sections and comments"() {
+        when:
+        pomFile << """
+<project>
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>group-one</groupId>
+    <artifactId>artifact-one</artifactId>
+    <version>version-one</version>
+    <description>Copyright &copy; the authors &amp; contributors&unknown;</description>
+
+    <properties>
+        <version.prop><![CDATA[version]]><!-- comment -->-two</version.prop>
+    </properties>
+    <build>
+        <plugins>
+            <plugin>
+                <groupId>&unknown;</groupId>
+            </plugin>
+        </plugins>
+    </build>
+    <dependencies>
+        <dependency>
+            <groupId>group-two</groupId>
+            <artifactId>artifact-two</artifactId>
+            <version>\${version.prop}</version>
+        </dependency>
+    </dependencies>
+</project>
+"""
+        pomReader = new PomReader(locallyAvailableExternalResource, moduleIdentifierFactory)
+        MavenDependencyKey key = new MavenDependencyKey('group-two', 'artifact-two', 'jar', null)
+
+        then:
+        pomReader.description == 'Copyright \u00a9 the authors & contributors'
+        pomReader.properties['version.prop'] == 'version-two'
+        pomReader.getDependencies().size() == 1
+        assertResolvedPomDependency(key, 'version-two')
+    }
+
     @Issue("GRADLE-2931")
     def "picks version of last dependency defined by artifact ID, group ID, type and classifier"() {
         when:
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache
+
+import org.gradle.api.internal.artifacts.DefaultImmutableModuleIdentifierFactory
+import org.gradle.api.internal.artifacts.DefaultModuleVersionIdentifier
+import org.gradle.api.internal.artifacts.ivyservice.CacheLockingManager
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.DescriptorParseContext
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.MetaDataParser
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.excludes.ModuleExclusions
+import org.gradle.api.internal.component.ArtifactType
+import org.gradle.internal.component.external.descriptor.MutableModuleDescriptorState
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier
+import org.gradle.internal.component.external.model.DefaultMutableMavenModuleResolveMetadata
+import org.gradle.internal.component.external.model.MutableMavenModuleResolveMetadata
+import org.gradle.internal.resource.local.LocallyAvailableExternalResource
+import org.gradle.internal.serialize.Serializer
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testfixtures.internal.InMemoryIndexedCache
+import org.junit.Rule
+import spock.lang.Specification
+
+class CachingMetaDataParserTest extends Specification {
+    @Rule TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def moduleIdentifierFactory = new DefaultImmutableModuleIdentifierFactory()
+    def cacheLockingManager = Stub(CacheLockingManager) {
+        createCache(_, _, _) >> { String name, Serializer keySerializer, Serializer valueSerializer ->
+            new InMemoryIndexedCache(valueSerializer)
+        }
+    }
+    def cache = new ParsedDescriptorCache(cacheLockingManager, moduleIdentifierFactory, new ModuleExclusions(moduleIdentifierFactory))
+    def delegate = Mock(MetaDataParser)
+    def context = Mock(DescriptorParseContext)
+    def parser = new CachingMetaDataParser<MutableMavenModuleResolveMetadata>(delegate, MutableMavenModuleResolveMetadata, "pom", cache, "extends")
+    def parentId = DefaultModuleComponentIdentifier.newId("group", "parent", "1.0")
+
+    def "reuses the result of parsing a descriptor with the same content"() {
+        def first = resource("first.pom", "<project>a</project>")
+        def second = resource("second.pom", "<project>a</project>")
+
+        when:
+        def parsed = parser.parseMetaData(context, first)
+
+        then:
+        parsed.id.name == "a"
+        1 * delegate.parseMetaData(_, first) >> metadata("a")
+
+        when:
+        def reused = parser.parseMetaData(context, second)
+
+        then:
+        reused.id == parsed.id
+        reused.packaging == "jar"
+        0 * delegate._
+    }
+
+    def "parses a descriptor with different content"() {
+        when:
+        parser.parseMetaData(context, resource("first.pom", "<project>a</project>"))
+        def parsed = parser.parseMetaData(context, resource("second.pom", "<project>b</project>"))
+
+        then:
+        parsed.id.name == "b"
+        1 * delegate.parseMetaData(_, _) >> metadata("a")
+        1 * delegate.parseMetaData(_, _) >> metadata("b")
+    }
+
+    def "parses a descriptor again when a descriptor it refers to has changed"() {
+        def parent = tmpDir.file("parent.pom") << "<project>parent</project>"
+        def descriptor = resource("child.pom", "<project>child</project>")
+
+        when:
+        parser.parseMetaData(context, descriptor)
+
+        then:
+        1 * delegate.parseMetaData(_, descriptor) >> { DescriptorParseContext recordingContext, resource ->
+            recordingContext.getMetaDataArtifact(parentId, ArtifactType.MAVEN_POM)
+            metadata("child")
+        }
+        1 * context.getMetaDataArtifact(parentId, ArtifactType.MAVEN_POM) >> resource(parent)
+
+        when:
+        parser.parseMetaData(context, descriptor)
+
+        then:
+        1 * context.getMetaDataArtifact(parentId, ArtifactType.MAVEN_POM) >> resource(parent)
+        0 * delegate._
+
+        when:
+        parent.text = "<project>changed</project>"
+        parser.parseMetaData(context, descriptor)
+
+        then:
+        1 * context.getMetaDataArtifact(parentId, ArtifactType.MAVEN_POM) >> resource(parent)
+        1 * delegate.parseMetaData(_, descriptor) >> metadata("child")
+    }
+
+    def "always parses descriptors that contain uncacheable elements"() {
+        def descriptor = resource("child.pom", "<project><extends/></project>")
+
+        when:
+        parser.parseMetaData(context, descriptor)
+        parser.parseMetaData(context, descriptor)
+
+        then:
+        2 * delegate.parseMetaData(context, descriptor) >> metadata("child")
+    }
+
+    private LocallyAvailableExternalResource resource(String name, String content) {
+        resource(tmpDir.file(name) << content)
+    }
+
+    private LocallyAvailableExternalResource resource(TestFile file) {
+        Stub(LocallyAvailableExternalResource) {
+            getFile() >> file
+            getDisplayName() >> file.name
+        }
+    }
+
+    private static MutableMavenModuleResolveMetadata metadata(String name) {
+        def componentId = DefaultModuleComponentIdentifier.newId("group", name, "1.0")
+        new DefaultMutableMavenModuleResolveMetadata(DefaultModuleVersionIdentifier.newId(componentId), componentId, new MutableModuleDescriptorState(componentId), "jar", false, [])
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache
+
+import org.gradle.api.internal.artifacts.DefaultModuleVersionIdentifier
+import org.gradle.internal.component.external.descriptor.MutableModuleDescriptorState
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier
+import org.gradle.internal.component.external.model.DefaultMutableMavenModuleResolveMetadata
+import org.gradle.internal.component.external.model.ModuleComponentResolveMetadata
+import spock.lang.Specification
+
+class InMemoryModuleMetadataCacheTest extends Specification {
+    def componentId = DefaultModuleComponentIdentifier.newId("org", "foo", "1.0")
+    def key = new ModuleComponentAtRepositoryKey("repo", componentId)
+    def hash = BigInteger.ONE
+
+    def "returns a copy of the metadata kept for the same descriptor"() {
+        def cache = new InMemoryModuleMetadataCache(10)
+        def metadata = metadata()
+        cache.put(key, hash, metadata)
+
+        when:
+        def first = cache.get(key, hash)
+        first.changing = true
+        def second = cache.get(key, hash)
+
+        then:
+        first.componentId == componentId
+        !second.changing
+        !first.is(second)
+        cache.get(new ModuleComponentAtRepositoryKey("other", componentId), hash) == null
+    }
+
+    def "discards the metadata kept for another descriptor"() {
+        def cache = new InMemoryModuleMetadataCache(10)
+        cache.put(key, hash, metadata())
+
+        expect:
+        cache.get(key, BigInteger.TEN) == null
+        cache.get(key, hash) == null
+    }
+
+    def "keeps at most the given number of entries"() {
+        def cache = new InMemoryModuleMetadataCache(1)
+        def otherKey = new ModuleComponentAtRepositoryKey("other", componentId)
+
+        when:
+        cache.put(key, hash, metadata())
+        cache.put(otherKey, hash, metadata())
+
+        then:
+        cache.get(key, hash) == null
+        cache.get(otherKey, hash) != null
+    }
+
+    def "keeps nothing when disabled"() {
+        def cache = new InMemoryModuleMetadataCache(0)
+
+        when:
+        cache.put(key, hash, metadata())
+
+        then:
+        !cache.enabled
+        cache.get(key, hash) == null
+    }
+
+    private ModuleComponentResolveMetadata metadata() {
+        new DefaultMutableMavenModuleResolveMetadata(DefaultModuleVersionIdentifier.newId(componentId), componentId, new MutableModuleDescriptorState(componentId), "jar", false, []).asImmutable()
+    }
+}
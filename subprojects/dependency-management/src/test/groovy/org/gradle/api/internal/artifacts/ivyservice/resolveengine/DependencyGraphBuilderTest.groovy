@@ -26,12 +26,16 @@ import org.gradle.api.internal.artifacts.DefaultModuleIdentifier
 import org.gradle.api.internal.artifacts.ImmutableModuleIdentifierFactory
 import org.gradle.api.internal.artifacts.configurations.ConfigurationInternal
 import org.gradle.api.internal.artifacts.dsl.ModuleReplacementsData
+import org.gradle.api.internal.artifacts.ivyservice.CacheLockingManager
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.DefaultVersionComparator
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.DefaultVersionSelectorScheme
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.excludes.ModuleExclusions
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphBuilder
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphNode
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphPathResolver
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphSelector
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphVisitor
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.ResolvedGraphCache
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.DefaultConflictHandler
 import org.gradle.api.internal.artifacts.publish.DefaultPublishArtifact
 import org.gradle.api.internal.attributes.AttributeContainerInternal
@@ -47,6 +51,7 @@ import org.gradle.internal.component.model.ComponentResolveMetadata
 import org.gradle.internal.component.model.DependencyMetadata
 import org.gradle.internal.component.model.IvyArtifactName
 import org.gradle.internal.component.model.LocalComponentDependencyMetadata
+import org.gradle.internal.hash.HashCode
 import org.gradle.internal.operations.BuildOperationExecutor
 import org.gradle.internal.operations.BuildOperationQueue
 import org.gradle.internal.resolve.ModuleVersionNotFoundException
@@ -56,6 +61,8 @@ import org.gradle.internal.resolve.resolver.DependencyToComponentIdResolver
 import org.gradle.internal.resolve.resolver.ResolveContextToComponentResolver
 import org.gradle.internal.resolve.result.BuildableComponentIdResolveResult
 import org.gradle.internal.resolve.result.BuildableComponentResolveResult
+import org.gradle.internal.serialize.Serializer
+import org.gradle.testfixtures.internal.InMemoryIndexedCache
 import spock.lang.Specification
 
 import static org.gradle.api.internal.artifacts.DefaultModuleVersionIdentifier.newId
@@ -107,6 +114,22 @@ class DependencyGraphBuilderTest extends Specification {
         return graphVisitor
     }
 
+    private TestGraphVisitor resolveWithCache(ResolvedGraphCache graphCache) {
+        def cachingBuilder = new DependencyGraphBuilder(idResolver, metaDataResolver, moduleResolver, new DefaultConflictHandler(conflictResolver, moduleReplacements), Specs.satisfyAll(), attributesSchema, moduleIdentifierFactory, moduleExclusions, buildOperationProcessor, graphCache)
+        def graphVisitor = new TestGraphVisitor()
+        cachingBuilder.resolve(configuration, graphVisitor, HashCode.fromInt(123))
+        return graphVisitor
+    }
+
+    private ResolvedGraphCache resolvedGraphCache() {
+        def cacheLockingManager = Stub(CacheLockingManager) {
+            createCache(_, _, _) >> { String name, Serializer keySerializer, Serializer valueSerializer ->
+                new InMemoryIndexedCache(valueSerializer)
+            }
+        }
+        return new ResolvedGraphCache(cacheLockingManager, new DefaultVersionSelectorScheme(new DefaultVersionComparator()), moduleIdentifierFactory, true)
+    }
+
     def "does not resolve a given module selector more than once"() {
         given:
         def a = revision("a")
@@ -964,6 +987,102 @@ class DependencyGraphBuilderTest extends Specification {
         result.components == ids(root, forced, b)
     }
 
+    def "replays a cached graph without resolving selectors or conflicts again"() {
+        given:
+        def graphCache = resolvedGraphCache()
+        def selected = revision('a', '1.2')
+        def evicted = revision('a', '1.1')
+        def b = revision('b')
+        def c = revision('c')
+        traversesCached root, selected
+        traversesCached root, b
+        traversesCached b, evicted
+        traversesCached selected, c
+
+        when:
+        def result = resolveWithCache(graphCache)
+        def replayed = resolveWithCache(graphCache)
+        result.rethrowFailure()
+        replayed.rethrowFailure()
+
+        then:
+        1 * conflictResolver.select(!null) >> {
+            Collection<ComponentResolutionState> candidates = it[0]
+            return candidates.find { it.version == '1.2' }
+        }
+        0 * conflictResolver._
+
+        and:
+        graphCache.hitCount == 1
+        replayed.components == ids(root, selected, b, c)
+        replayed.components == result.components
+        replayed.edges as Set == result.edges as Set
+    }
+
+    def "resolves a cached graph again when a dependency requests another version"() {
+        given:
+        def graphCache = resolvedGraphCache()
+        def a = revision('a', '1.2')
+        def evicted = revision('a', '1.1')
+        def newer = revision('a', '1.3')
+        def b = revision('b')
+        def changedB = revision('b')
+        def metadataOfB = b
+        def dependencyOnB = dependsOn(root, b.id)
+        _ * idResolver.resolve(dependencyOnB, _) >> { DependencyMetadata dep, BuildableComponentIdResolveResult result ->
+            result.resolved(b.componentId, b.id)
+        }
+        _ * metaDataResolver.resolve(b.componentId, _, _) >> { ComponentIdentifier id, ComponentOverrideMetadata requestMetaData, BuildableComponentResolveResult result ->
+            result.resolved(metadataOfB)
+        }
+        traversesRepeatedly root, a
+        traversesRepeatedly b, evicted
+        traversesRepeatedly changedB, newer
+        _ * conflictResolver.select(!null) >> {
+            Collection<ComponentResolutionState> candidates = it[0]
+            return candidates.max { it.version }
+        }
+
+        when:
+        def result = resolveWithCache(graphCache)
+        result.rethrowFailure()
+
+        then:
+        result.components == ids(root, a, b)
+
+        when:
+        metadataOfB = changedB
+        def resolvedAgain = resolveWithCache(graphCache)
+        resolvedAgain.rethrowFailure()
+
+        then:
+        graphCache.hitCount == 1
+        resolvedAgain.components == ids(root, newer, b)
+    }
+
+    def "does not cache a graph with a dynamic version"() {
+        given:
+        def graphCache = resolvedGraphCache()
+        def a = revision('a')
+        def dependencyMetaData = dependsOn(root, a.id, revision: '1.+')
+        2 * idResolver.resolve(dependencyMetaData, _) >> { DependencyMetadata dep, BuildableComponentIdResolveResult result ->
+            result.resolved(a.componentId, a.id)
+        }
+        2 * metaDataResolver.resolve(a.componentId, _, _) >> { ComponentIdentifier id, ComponentOverrideMetadata requestMetaData, BuildableComponentResolveResult result ->
+            result.resolved(a)
+        }
+
+        when:
+        resolveWithCache(graphCache)
+        def result = resolveWithCache(graphCache)
+        result.rethrowFailure()
+
+        then:
+        graphCache.hitCount == 0
+        graphCache.missCount == 0
+        result.components == ids(root, a)
+    }
+
     def revision(String name, String revision = '1.0') {
         // TODO Shouldn't really be using the local component implementation here
         def id = newId("group", name, revision)
@@ -993,6 +1112,24 @@ class DependencyGraphBuilderTest extends Specification {
         }
     }
 
+    def traversesCached(Map<String, ?> args = [:], def from, ComponentResolveMetadata to) {
+        def dependencyMetaData = dependsOn(args, from, to.id)
+        selectorResolvesTo(dependencyMetaData, to.componentId, to.id)
+        _ * metaDataResolver.resolve(to.componentId, _, _) >> { ComponentIdentifier id, ComponentOverrideMetadata requestMetaData, BuildableComponentResolveResult result ->
+            result.resolved(to)
+        }
+    }
+
+    def traversesRepeatedly(Map<String, ?> args = [:], def from, ComponentResolveMetadata to) {
+        def dependencyMetaData = dependsOn(args, from, to.id)
+        _ * idResolver.resolve(dependencyMetaData, _) >> { DependencyMetadata dep, BuildableComponentIdResolveResult result ->
+            result.resolved(to.componentId, to.id)
+        }
+        _ * metaDataResolver.resolve(to.componentId, _, _) >> { ComponentIdentifier id, ComponentOverrideMetadata requestMetaData, BuildableComponentResolveResult result ->
+            result.resolved(to)
+        }
+    }
+
     def doesNotTraverse(Map<String, ?> args = [:], def from, ComponentResolveMetadata to) {
         def dependencyMetaData = dependsOn(args, from, to.id)
         selectorResolvesTo(dependencyMetaData, to.componentId, to.id)
@@ -1067,6 +1204,7 @@ class DependencyGraphBuilderTest extends Specification {
     static class TestGraphVisitor implements DependencyGraphVisitor {
         def root
         def components = new LinkedHashSet()
+        def edges = []
         final Map<ModuleVersionSelector, FailureDetails> failures = new LinkedHashMap<>()
 
         Set<ModuleVersionSelector> getUnresolvedDependencies() {
@@ -1090,6 +1228,9 @@ class DependencyGraphBuilderTest extends Specification {
         @Override
         void visitEdges(DependencyGraphNode node) {
             node.outgoingEdges.each {
+                it.targets.each { target ->
+                    edges << "${node.owner.moduleVersion}(${node.resolvedConfigurationId.configuration}) -> ${target.owner.moduleVersion}(${target.resolvedConfigurationId.configuration})".toString()
+                }
                 if (it.failure) {
                     def breakage = failures.get(it.requestedModuleVersion)
                     if (breakage == null) {
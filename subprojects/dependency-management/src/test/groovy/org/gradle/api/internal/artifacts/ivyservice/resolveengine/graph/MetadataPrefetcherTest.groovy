@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph
+
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.DefaultVersionComparator
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.DefaultVersionSelectorScheme
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier
+import org.gradle.internal.component.external.model.DefaultModuleComponentSelector
+import org.gradle.internal.component.model.ComponentResolveMetadata
+import org.gradle.internal.component.model.DefaultComponentOverrideMetadata
+import org.gradle.internal.component.model.DependencyMetadata
+import org.gradle.internal.component.model.IvyArtifactName
+import org.gradle.internal.operations.BuildOperationExecutor
+import org.gradle.internal.operations.BuildOperationQueue
+import org.gradle.internal.resolve.resolver.ComponentMetaDataResolver
+import org.gradle.internal.resolve.result.DefaultBuildableComponentResolveResult
+import spock.lang.Specification
+
+class MetadataPrefetcherTest extends Specification {
+    def queued = []
+    def queue = Stub(BuildOperationQueue) {
+        add(_) >> { args -> queued << args[0] }
+    }
+    def buildOperationExecutor = Stub(BuildOperationExecutor) {
+        runAll(_) >> { args -> args[0].execute(queue) }
+    }
+    def delegate = Mock(ComponentMetaDataResolver)
+    def prefetcher = new MetadataPrefetcher(delegate, new DefaultVersionSelectorScheme(new DefaultVersionComparator()), buildOperationExecutor)
+    def id = DefaultModuleComponentIdentifier.newId("group", "module", "1.0")
+    def metadata = Stub(ComponentResolveMetadata)
+
+    def "uses the prefetched metadata of a dependency on a fixed version"() {
+        def result = new DefaultBuildableComponentResolveResult()
+
+        when:
+        prefetcher.prefetchWhile {
+            prefetcher.prefetch(dependency("1.0"))
+            queued[0].run(null)
+            assert prefetcher.isFetchingMetadataCheap(id)
+            prefetcher.resolve(id, new DefaultComponentOverrideMetadata(), result)
+        }
+
+        then:
+        1 * delegate.isFetchingMetadataCheap(id) >> false
+        1 * delegate.resolve(id, _, _) >> { args -> args[2].resolved(metadata) }
+        0 * delegate._
+        result.metaData == metadata
+    }
+
+    def "resolves a prefetched component that has not been started on the calling thread"() {
+        def result = new DefaultBuildableComponentResolveResult()
+
+        when:
+        prefetcher.prefetchWhile {
+            prefetcher.prefetch(dependency("1.0"))
+            prefetcher.resolve(id, new DefaultComponentOverrideMetadata(), result)
+            queued[0].run(null)
+        }
+
+        then:
+        1 * delegate.resolve(id, _, _) >> { args -> args[2].resolved(metadata) }
+        result.metaData == metadata
+    }
+
+    def "does not prefetch dependencies whose target is not known up front or that override the metadata"() {
+        when:
+        prefetcher.prefetchWhile {
+            prefetcher.prefetch(dependency("1.+"))
+            prefetcher.prefetch(dependency("[1.0,2.0)"))
+            prefetcher.prefetch(dependency("1.0", true))
+            prefetcher.prefetch(dependency("1.0", false, [Stub(IvyArtifactName)] as Set))
+        }
+
+        then:
+        queued.empty
+        0 * delegate._
+    }
+
+    def "does not prefetch metadata that is cheap to fetch"() {
+        when:
+        prefetcher.prefetchWhile {
+            prefetcher.prefetch(dependency("1.0"))
+        }
+
+        then:
+        1 * delegate.isFetchingMetadataCheap(id) >> true
+        queued.empty
+    }
+
+    def "does not prefetch outside of a traversal"() {
+        when:
+        prefetcher.prefetch(dependency("1.0"))
+
+        then:
+        queued.empty
+        0 * delegate._
+    }
+
+    def "rethrows the failure of the traversal"() {
+        def failure = new IllegalStateException("broken")
+
+        when:
+        prefetcher.prefetchWhile {
+            throw failure
+        }
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.is(failure)
+    }
+
+    private DependencyMetadata dependency(String version, boolean changing = false, Set<IvyArtifactName> artifacts = [] as Set) {
+        Stub(DependencyMetadata) {
+            getSelector() >> DefaultModuleComponentSelector.newSelector("group", "module", version)
+            isChanging() >> changing
+            getArtifacts() >> artifacts
+        }
+    }
+}
@@ -31,6 +31,7 @@ class HttpBuildCacheServer extends ExternalResource implements HttpServerFixture
     private TestFile cacheDir
     private long dropConnectionForPutBytes = -1
     private int blockIncomingConnectionsForSeconds = 0
+    private LatencyFilter latencyFilter
 
     HttpBuildCacheServer(TestDirectoryProvider provider) {
         this.provider = provider
@@ -53,9 +54,26 @@ class HttpBuildCacheServer extends ExternalResource implements HttpServerFixture
         if (blockIncomingConnectionsForSeconds > 0) {
             this.webapp.addFilter(new FilterHolder(new BlockFilter(blockIncomingConnectionsForSeconds)), "/*", 1)
         }
+        if (latencyFilter != null) {
+            this.webapp.addFilter(new FilterHolder(latencyFilter), "/*", 1)
+        }
         this.webapp.addFilter(RestFilter, "/*", 1)
     }
 
+    /**
+     * Delays every request by the given time. Must be called before the server is started.
+     */
+    void simulateLatency(int latencyMillis) {
+        this.latencyFilter = new LatencyFilter(latencyMillis)
+    }
+
+    /**
+     * The maximum number of requests that have been handled at the same time, when simulating latency.
+     */
+    int getMaxConcurrentRequests() {
+        Preconditions.checkNotNull(latencyFilter).maxConcurrentRequests
+    }
+
     void dropConnectionForPutAfterBytes(long numBytes) {
         this.dropConnectionForPutBytes = numBytes
     }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.test.fixtures.server.http;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delays every request by a fixed time, like a remote server would, and keeps track of the maximum number of requests handled at the same time.
+ */
+public class LatencyFilter implements Filter {
+
+    private final int latencyMillis;
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    public LatencyFilter(int latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests.get();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        int concurrent = concurrentRequests.incrementAndGet();
+        try {
+            while (true) {
+                int max = maxConcurrentRequests.get();
+                if (concurrent <= max || maxConcurrentRequests.compareAndSet(max, concurrent)) {
+                    break;
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            chain.doFilter(request, response);
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
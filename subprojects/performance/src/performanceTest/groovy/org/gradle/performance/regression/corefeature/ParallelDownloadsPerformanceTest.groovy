@@ -102,6 +102,25 @@ class ParallelDownloadsPerformanceTest extends AbstractCrossVersionPerformanceTe
         stopServer()
     }
 
+    def "resolves dependencies from external repository (metadata prefetch)"() {
+        runner.testProject = TEST_PROJECT_NAME
+        startServer()
+
+        given:
+        runner.tasksToRun = ['resolveDependencies']
+        runner.gradleOpts = ["-Xms1g", "-Xmx1g", "-Dorg.gradle.dependency.metadata-prefetch=true"]
+        runner.targetVersions = ["4.2-20170817235727+0000"]
+        runner.args = ['-I', 'init.gradle', "-PmirrorPath=${repoDir.absolutePath}", "-PmavenRepoURL=http://localhost:${serverPort}/"]
+
+        when:
+        def result = runner.run()
+
+        then:
+        result.assertCurrentVersionHasNotRegressed()
+
+        cleanup:
+        stopServer()
+    }
 
     @Override
     Context createContext() {
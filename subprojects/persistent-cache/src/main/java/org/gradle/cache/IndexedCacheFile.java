@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache;
+
+import javax.annotation.Nullable;
+
+/**
+ * The file that holds the entries of a {@link PersistentIndexedCache}. Implementations are not thread-safe and are only accessed while holding the lock of the owning cache.
+ */
+public interface IndexedCacheFile<K, V> {
+    @Nullable
+    V get(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    /**
+     * Closes this file, writing any pending changes.
+     */
+    void close();
+
+    /**
+     * Writes any pending changes and closes the underlying file before the lock on it is released. May keep what it has read from the file, so that it can be
+     * {@link #reopen() reopened} once the lock is held again without reading the whole file.
+     *
+     * @return true if this file can be reopened, false if it has been closed.
+     */
+    boolean release();
+
+    /**
+     * Reopens this file after it has been {@link #release() released}, picking up the changes other processes have made to it in the meantime.
+     */
+    void reopen();
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache;
+
+/**
+ * The storage engine used to persist the entries of a {@link PersistentIndexedCache}.
+ */
+public enum IndexedCacheStorage {
+    /**
+     * A BTree whose blocks are read and written through a {@link java.io.RandomAccessFile}.
+     */
+    FILE,
+    /**
+     * A BTree whose blocks are read from memory-mapped regions of the cache file. Uses the same file format as {@link #FILE}, which is used instead on Windows.
+     */
+    MEMORY_MAPPED,
+    /**
+     * An append-only log with an in-memory index of its keys. Suits caches whose values are replaced often, as writes never rewrite existing data.
+     */
+    APPEND_LOG
+}
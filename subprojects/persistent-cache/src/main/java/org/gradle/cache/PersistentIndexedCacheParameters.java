@@ -26,6 +26,7 @@ public class PersistentIndexedCacheParameters<K, V> {
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private CacheDecorator cacheDecorator;
+    private IndexedCacheStorage storage = IndexedCacheStorage.FILE;
 
     public PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         this.cacheName = cacheName;
@@ -67,4 +68,14 @@ public class PersistentIndexedCacheParameters<K, V> {
         this.cacheDecorator = cacheDecorator;
         return this;
     }
+
+    public IndexedCacheStorage getStorage() {
+        return storage;
+    }
+
+    public PersistentIndexedCacheParameters<K, V> storage(IndexedCacheStorage storage) {
+        assert storage != null;
+        this.storage = storage;
+        return this;
+    }
 }
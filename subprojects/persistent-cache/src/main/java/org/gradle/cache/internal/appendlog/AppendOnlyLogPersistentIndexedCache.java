@@ -0,0 +1,538 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.appendlog;
+
+import org.gradle.api.Transformer;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.IndexedCacheFile;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.io.RandomAccessFileInputStream;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link PersistentIndexedCache} that stores its entries in an append-only log file, with an in-memory index from key to the position of the latest record for that key.
+ *
+ * <p>Every update appends a record to the end of the file, so writes are sequential and never rewrite or fragment existing data. Superseded records are
+ * discarded by compacting the log when the file is released or closed and the amount of garbage exceeds a threshold.</p>
+ *
+ * <p>The file starts with a header holding an id of the file, which changes whenever the file is compacted, and the length of the log at the last clean release.
+ * The records are synced to disk before the header is written. Records up to that length are trusted when the file is opened, and only their keys are read.
+ * Records after it are verified against their checksum, and the log is truncated at the first incomplete or corrupt record, so that a crash part way through an
+ * append loses at most the records written since the last clean release.</p>
+ *
+ * <p>The index is kept when the file is released, so that reopening it while the file still has the same id only reads the records that other processes have
+ * appended in the meantime.</p>
+ *
+ * <p>Record layout: body length (int), body (type byte, key length (int), key bytes, value bytes), CRC32 of body (int).</p>
+ */
+public class AppendOnlyLogPersistentIndexedCache<K, V> implements PersistentIndexedCache<K, V>, IndexedCacheFile<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AppendOnlyLogPersistentIndexedCache.class);
+    private static final int MAGIC = 0x47414c43;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24; // magic, version, file id, committed length
+    private static final int RECORD_OVERHEAD = 8; // body length, checksum
+    private static final int BODY_PREFIX_SIZE = 5; // type, key length
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final long DEFAULT_MIN_GARBAGE_TO_COMPACT = 1024 * 1024;
+    private static final Random FILE_IDS = new Random();
+
+    private final File cacheFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final long minGarbageToCompact;
+    private final Map<KeyBytes, RecordLocation> index = new HashMap<KeyBytes, RecordLocation>();
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long fileId;
+    private long length;
+    private long garbage;
+
+    public AppendOnlyLogPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(cacheFile, keySerializer, valueSerializer, DEFAULT_MIN_GARBAGE_TO_COMPACT);
+    }
+
+    public AppendOnlyLogPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, long minGarbageToCompact) {
+        this.cacheFile = cacheFile;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.minGarbageToCompact = minGarbageToCompact;
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        File compactFile = compactFile();
+        if (compactFile.exists()) {
+            // A compacted file is complete once the log has been deleted
+            boolean replaced = cacheFile.exists() ? compactFile.delete() : compactFile.renameTo(cacheFile);
+            if (!replaced) {
+                throw new IOException(String.format("Could not clean up compacted file %s.", compactFile));
+            }
+        }
+        cacheFile.getParentFile().mkdirs();
+        openFile();
+        index.clear();
+        garbage = 0;
+        long fileLength = file.length();
+        if (!readIndex(fileLength)) {
+            if (fileLength > 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            index.clear();
+            garbage = 0;
+            file.setLength(0);
+            fileId = FILE_IDS.nextLong();
+            writeHeader(channel, fileId, HEADER_SIZE);
+            length = HEADER_SIZE;
+        }
+    }
+
+    private void openFile() throws IOException {
+        file = new RandomAccessFile(cacheFile, "rw");
+        channel = file.getChannel();
+    }
+
+    /**
+     * Reads the keys of all records into the index. Returns false when the header is not recognized.
+     */
+    private boolean readIndex(long fileLength) throws IOException {
+        ByteBuffer header = readHeader(fileLength);
+        if (header == null) {
+            return false;
+        }
+        fileId = header.getLong();
+        long committedLength = header.getLong();
+        if (committedLength < HEADER_SIZE || committedLength > fileLength) {
+            return false;
+        }
+        return readRecords(HEADER_SIZE, committedLength, fileLength);
+    }
+
+    /**
+     * Returns the header positioned after the magic number and version, or null when the header is not recognized.
+     */
+    @Nullable
+    private ByteBuffer readHeader(long fileLength) throws IOException {
+        if (fileLength < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        return header.getInt() == MAGIC && header.getInt() == VERSION ? header : null;
+    }
+
+    /**
+     * Reads the keys of the records from the given position to the end of the file into the index. Returns false when a record written before the last clean
+     * release is corrupt. The file is truncated at the first incomplete or corrupt record written after it.
+     */
+    private boolean readRecords(long start, long committedLength, long fileLength) throws IOException {
+        file.seek(start);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new RandomAccessFileInputStream(file), 64 * 1024));
+        long pos = start;
+        while (pos < fileLength) {
+            boolean committed = pos < committedLength;
+            long recordLength = readRecord(input, pos, fileLength, committed);
+            if (recordLength < 0) {
+                if (committed) {
+                    return false;
+                }
+                LOGGER.warn("{} has an incomplete or corrupt record at offset {}. Discarding {} bytes.", this, pos, fileLength - pos);
+                file.setLength(pos);
+                break;
+            }
+            pos += recordLength;
+        }
+        length = pos;
+        return true;
+    }
+
+    /**
+     * Reads the record at the given position into the index, verifying its checksum when it was written after the last clean close.
+     *
+     * @return the length of the record, or -1 when the record is incomplete or corrupt.
+     */
+    private long readRecord(DataInputStream input, long pos, long fileLength, boolean committed) throws IOException {
+        if (pos + RECORD_OVERHEAD + BODY_PREFIX_SIZE > fileLength) {
+            return -1;
+        }
+        int bodyLength = input.readInt();
+        long recordLength = RECORD_OVERHEAD + (long) bodyLength;
+        if (bodyLength < BODY_PREFIX_SIZE || pos + recordLength > fileLength) {
+            return -1;
+        }
+        byte type;
+        byte[] key;
+        if (committed) {
+            type = input.readByte();
+            int keyLength = input.readInt();
+            if (keyLength < 0 || keyLength > bodyLength - BODY_PREFIX_SIZE) {
+                return -1;
+            }
+            key = new byte[keyLength];
+            input.readFully(key);
+            skipFully(input, bodyLength - BODY_PREFIX_SIZE - keyLength + 4);
+        } else {
+            byte[] body = new byte[bodyLength];
+            input.readFully(body);
+            if (input.readInt() != checksum(body)) {
+                return -1;
+            }
+            type = body[0];
+            int keyLength = ByteBuffer.wrap(body, 1, 4).getInt();
+            if (keyLength < 0 || keyLength > bodyLength - BODY_PREFIX_SIZE) {
+                return -1;
+            }
+            key = Arrays.copyOfRange(body, BODY_PREFIX_SIZE, BODY_PREFIX_SIZE + keyLength);
+        }
+        KeyBytes keyBytes = new KeyBytes(key);
+        if (type == PUT) {
+            discard(index.put(keyBytes, new RecordLocation(pos, bodyLength)));
+        } else if (type == REMOVE) {
+            discard(index.remove(keyBytes));
+            garbage += recordLength;
+        } else {
+            return -1;
+        }
+        return recordLength;
+    }
+
+    private static void skipFully(DataInputStream input, int count) throws IOException {
+        int remaining = count;
+        while (remaining > 0) {
+            int skipped = input.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        try {
+            KeyBytes keyBytes = new KeyBytes(serializeKey(key));
+            RecordLocation location = index.get(keyBytes);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(location.bodyLength + 4);
+            readFully(buffer, location.pos + 4);
+            byte[] body = buffer.array();
+            if (buffer.getInt(location.bodyLength) != checksum(body, location.bodyLength)) {
+                LOGGER.warn("{} has a corrupt record at offset {}. Discarding entry.", this, location.pos);
+                discard(index.remove(keyBytes));
+                return null;
+            }
+            int keyLength = buffer.getInt(1);
+            int valueOffset = BODY_PREFIX_SIZE + keyLength;
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(body, valueOffset, location.bodyLength - valueOffset)));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public V get(K key, Transformer<? extends V, ? super K> producer) {
+        V value = get(key);
+        if (value == null) {
+            value = producer.transform(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            byte[] keyBytes = serializeKey(key);
+            ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+            KryoBackedEncoder encoder = new KryoBackedEncoder(valueBytes);
+            valueSerializer.write(encoder, value);
+            encoder.flush();
+            long pos = append(PUT, keyBytes, valueBytes.toByteArray());
+            discard(index.put(new KeyBytes(keyBytes), new RecordLocation(pos, BODY_PREFIX_SIZE + keyBytes.length + valueBytes.size())));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            byte[] keyBytes = serializeKey(key);
+            RecordLocation location = index.remove(new KeyBytes(keyBytes));
+            if (location != null) {
+                discard(location);
+                long pos = append(REMOVE, keyBytes, new byte[0]);
+                garbage += length - pos;
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (isOpen()) {
+            release();
+        }
+        index.clear();
+    }
+
+    /**
+     * Writes the header and closes the file, compacting it first when enough of it is garbage. Keeps the index, so that the file can be reopened without
+     * reading it again.
+     */
+    @Override
+    public boolean release() {
+        LOGGER.debug("Releasing {}", this);
+        try {
+            if (shouldCompact()) {
+                compact();
+            } else {
+                // Make the records durable before the header that vouches for them
+                channel.force(false);
+                writeHeader(channel, fileId, length);
+                channel.force(false);
+                file.close();
+            }
+            return true;
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not close %s.", this), e);
+        }
+    }
+
+    /**
+     * Reopens the file, only reading the records that have been appended since it was released. The whole file is read again when another process has
+     * replaced it, for example by compacting it, in the meantime.
+     */
+    @Override
+    public void reopen() {
+        LOGGER.debug("Reopening {}", this);
+        try {
+            if (!compactFile().exists()) {
+                openFile();
+                long fileLength = file.length();
+                ByteBuffer header = readHeader(fileLength);
+                if (header != null && header.getLong() == fileId && fileLength >= length) {
+                    if (fileLength > length) {
+                        readRecords(length, length, fileLength);
+                    }
+                    return;
+                }
+                file.close();
+            }
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void reset() {
+        close();
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean shouldCompact() {
+        return garbage >= minGarbageToCompact && garbage * 2 >= length;
+    }
+
+    /**
+     * Copies the live records to a new file, then replaces the log with it and updates the index. Closes the log.
+     */
+    private void compact() throws IOException {
+        LOGGER.debug("Compacting {}, discarding {} of {} bytes.", this, garbage, length);
+        File compactFile = compactFile();
+        long compactedFileId = FILE_IDS.nextLong();
+        Map<KeyBytes, RecordLocation> compactedIndex = new HashMap<KeyBytes, RecordLocation>(index.size() * 2);
+        long pos = HEADER_SIZE;
+        RandomAccessFile target = new RandomAccessFile(compactFile, "rw");
+        try {
+            target.setLength(0);
+            FileChannel targetChannel = target.getChannel();
+            for (Map.Entry<KeyBytes, RecordLocation> entry : index.entrySet()) {
+                RecordLocation location = entry.getValue();
+                long recordLength = RECORD_OVERHEAD + (long) location.bodyLength;
+                long copied = 0;
+                while (copied < recordLength) {
+                    copied += channel.transferTo(location.pos + copied, recordLength - copied, targetChannel.position(pos + copied));
+                }
+                compactedIndex.put(entry.getKey(), new RecordLocation(pos, location.bodyLength));
+                pos += recordLength;
+            }
+            targetChannel.force(false);
+            writeHeader(targetChannel, compactedFileId, pos);
+            targetChannel.force(false);
+        } finally {
+            target.close();
+        }
+        file.close();
+        if (!cacheFile.delete() || !compactFile.renameTo(cacheFile)) {
+            throw new IOException(String.format("Could not replace %s with compacted file %s.", cacheFile, compactFile));
+        }
+        index.clear();
+        index.putAll(compactedIndex);
+        fileId = compactedFileId;
+        length = pos;
+        garbage = 0;
+    }
+
+    private long append(byte type, byte[] key, byte[] value) throws IOException {
+        int bodyLength = BODY_PREFIX_SIZE + key.length + value.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + bodyLength);
+        record.putInt(bodyLength);
+        record.put(type);
+        record.putInt(key.length);
+        record.put(key);
+        record.put(value);
+        record.putInt(checksum(record.array(), 4, bodyLength));
+        record.flip();
+        long pos = length;
+        while (record.hasRemaining()) {
+            channel.write(record, pos + record.position());
+        }
+        length += record.limit();
+        return pos;
+    }
+
+    private void discard(RecordLocation location) {
+        if (location != null) {
+            garbage += RECORD_OVERHEAD + location.bodyLength;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long fileId, long committedLength) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(fileId);
+        header.putLong(committedLength);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private byte[] serializeKey(K key) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        keySerializer.write(encoder, key);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private File compactFile() {
+        return new File(cacheFile.getParentFile(), cacheFile.getName() + ".compact");
+    }
+
+    private static int checksum(byte[] bytes) {
+        return checksum(bytes, 0, bytes.length);
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        return checksum(bytes, 0, length);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static class RecordLocation {
+        final long pos;
+        final int bodyLength;
+
+        RecordLocation(long pos, int bodyLength) {
+            this.pos = pos;
+            this.bodyLength = bodyLength;
+        }
+    }
+
+    private static class KeyBytes {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        KeyBytes(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != getClass()) {
+                return false;
+            }
+            return Arrays.equals(bytes, ((KeyBytes) obj).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
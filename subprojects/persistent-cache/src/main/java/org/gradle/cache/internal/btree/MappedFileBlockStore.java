@@ -0,0 +1,417 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree;
+
+import com.google.common.io.CountingInputStream;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.internal.io.MappedByteBuffers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link BlockStore} that reads blocks from memory-mapped regions of the cache file, instead of seeking and reading through a {@link RandomAccessFile}.
+ *
+ * <p>Uses the same block layout as {@link FileBackedBlockStore}, so a cache file can be opened with either store. Only complete regions of the file are mapped,
+ * which means a mapping never has to be replaced as the file grows. Reads from the trailing, partially filled region and all writes use positional
+ * {@link FileChannel} operations, which are coherent with the mapped regions.</p>
+ *
+ * <p>Blocks are guarded by striped read-write locks, keyed by the region the block starts in, so readers of different blocks do not contend with each other.
+ * Clearing and closing the store take all locks and unmap the regions before the file is truncated or closed.</p>
+ *
+ * <p>This store is not used on Windows, where a file cannot be truncated while regions of it are still mapped.</p>
+ */
+public class MappedFileBlockStore implements BlockStore {
+    public static final int DEFAULT_REGION_SIZE = 1024 * 1024;
+    private static final int LOCK_STRIPES = 16;
+    private static final int TAIL_BUFFER_SIZE = 8192;
+
+    private final File cacheFile;
+    private final int regionSize;
+    private final ReadWriteLock[] locks;
+    private final ConcurrentMap<Long, MappedByteBuffer> regions = new ConcurrentHashMap<Long, MappedByteBuffer>();
+    private final AtomicLong nextBlock = new AtomicLong();
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private Factory factory;
+    private volatile long currentFileSize;
+
+    public MappedFileBlockStore(File cacheFile) {
+        this(cacheFile, DEFAULT_REGION_SIZE);
+    }
+
+    public MappedFileBlockStore(File cacheFile, int regionSize) {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("Region size must be positive.");
+        }
+        this.cacheFile = cacheFile;
+        this.regionSize = regionSize;
+        this.locks = new ReadWriteLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache '" + cacheFile + "'";
+    }
+
+    public void open(Runnable runnable, Factory factory) {
+        this.factory = factory;
+        try {
+            cacheFile.getParentFile().mkdirs();
+            file = new RandomAccessFile(cacheFile, "rw");
+            channel = file.getChannel();
+            currentFileSize = file.length();
+            nextBlock.set(currentFileSize);
+            if (currentFileSize == 0) {
+                runnable.run();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close() {
+        lockAll();
+        try {
+            releaseRegions();
+            file.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public void clear() {
+        lockAll();
+        try {
+            // Release the mappings first, the file cannot be truncated while regions of it are mapped on some platforms
+            releaseRegions();
+            file.setLength(0);
+            currentFileSize = 0;
+            nextBlock.set(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void lockAll() {
+        for (ReadWriteLock lock : locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (ReadWriteLock lock : locks) {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unmaps all mapped regions. Must be called while holding all locks, so that no reader still uses a view of a region.
+     */
+    private void releaseRegions() {
+        for (MappedByteBuffer region : regions.values()) {
+            MappedByteBuffers.unmap(region);
+        }
+        regions.clear();
+    }
+
+    public void attach(BlockPayload block) {
+        if (block.getBlock() == null) {
+            block.setBlock(new BlockImpl(block));
+        }
+    }
+
+    public void remove(BlockPayload block) {
+        BlockImpl blockImpl = (BlockImpl) block.getBlock();
+        blockImpl.detach();
+    }
+
+    public void flush() {
+    }
+
+    public <T extends BlockPayload> T readFirst(Class<T> payloadType) {
+        return read(BlockPointer.pos(0), payloadType);
+    }
+
+    public <T extends BlockPayload> T read(BlockPointer pos, Class<T> payloadType) {
+        assert !pos.isNull();
+        ReadWriteLock lock = lockFor(pos.getPos());
+        lock.readLock().lock();
+        try {
+            T payload = payloadType.cast(factory.create(payloadType));
+            BlockImpl block = new BlockImpl(payload, pos);
+            block.read();
+            return payload;
+        } catch (CorruptedCacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void write(BlockPayload block) {
+        BlockImpl blockImpl = (BlockImpl) block.getBlock();
+        ReadWriteLock lock = lockFor(blockImpl.getPos().getPos());
+        lock.writeLock().lock();
+        try {
+            blockImpl.write();
+        } catch (CorruptedCacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ReadWriteLock lockFor(long pos) {
+        return locks[(int) ((pos / regionSize) % locks.length)];
+    }
+
+    private long alloc(long length) {
+        return nextBlock.getAndAdd(length);
+    }
+
+    private synchronized void extendTo(long length) throws IOException {
+        if (currentFileSize < length) {
+            if (file.length() < length) {
+                file.setLength(length);
+            }
+            currentFileSize = length;
+        }
+    }
+
+    /**
+     * Returns a view of the file content starting at the given position, or null when the position is at or beyond the end of the file.
+     */
+    private ByteBuffer viewAt(long pos) throws IOException {
+        long regionIndex = pos / regionSize;
+        long regionStart = regionIndex * regionSize;
+        long fileSize = currentFileSize;
+        if (regionStart + regionSize <= fileSize) {
+            ByteBuffer view = mappedRegion(regionIndex).duplicate();
+            view.position((int) (pos - regionStart));
+            return view;
+        }
+        long available = fileSize - pos;
+        if (available <= 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TAIL_BUFFER_SIZE, available));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private MappedByteBuffer mappedRegion(long regionIndex) throws IOException {
+        MappedByteBuffer region = regions.get(regionIndex);
+        if (region == null) {
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionIndex * regionSize, regionSize);
+            MappedByteBuffer existing = regions.putIfAbsent(regionIndex, region);
+            if (existing != null) {
+                region = existing;
+            }
+        }
+        return region;
+    }
+
+    private class RegionInputStream extends InputStream {
+        private long pos;
+        private ByteBuffer current;
+
+        RegionInputStream(long pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, current.remaining());
+            current.get(bytes, offset, count);
+            return count;
+        }
+
+        private boolean fill() throws IOException {
+            if (current != null && current.hasRemaining()) {
+                return true;
+            }
+            current = viewAt(pos);
+            if (current == null) {
+                return false;
+            }
+            pos += current.remaining();
+            return true;
+        }
+    }
+
+    private final class BlockImpl extends Block {
+        private static final int HEADER_SIZE = 1 + INT_SIZE; // type, payload size
+        private static final int TAIL_SIZE = INT_SIZE;
+
+        private BlockPointer pos;
+        private int payloadSize;
+
+        private BlockImpl(BlockPayload payload, BlockPointer pos) {
+            this(payload);
+            setPos(pos);
+        }
+
+        public BlockImpl(BlockPayload payload) {
+            super(payload);
+            pos = null;
+            payloadSize = -1;
+        }
+
+        @Override
+        public boolean hasPos() {
+            return pos != null;
+        }
+
+        @Override
+        public BlockPointer getPos() {
+            if (pos == null) {
+                pos = BlockPointer.pos(alloc(getSize()));
+            }
+            return pos;
+        }
+
+        @Override
+        public void setPos(BlockPointer pos) {
+            assert this.pos == null && !pos.isNull();
+            this.pos = pos;
+        }
+
+        public int getSize() {
+            if (payloadSize < 0) {
+                payloadSize = getPayload().getSize();
+            }
+            return payloadSize + HEADER_SIZE + TAIL_SIZE;
+        }
+
+        @Override
+        public void setSize(int size) {
+            int newPayloadSize = size - HEADER_SIZE - TAIL_SIZE;
+            assert newPayloadSize >= payloadSize;
+            payloadSize = newPayloadSize;
+        }
+
+        public void write() throws Exception {
+            long pos = getPos().getPos();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(getSize());
+            DataOutputStream outputStream = new DataOutputStream(bytes);
+
+            BlockPayload payload = getPayload();
+
+            // Write header
+            outputStream.writeByte(payload.getType());
+            outputStream.writeInt(payloadSize);
+            long finalSize = pos + HEADER_SIZE + TAIL_SIZE + payloadSize;
+
+            // Write body
+            payload.write(outputStream);
+
+            // Write count
+            outputStream.writeInt(outputStream.size());
+            outputStream.flush();
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, pos + buffer.position());
+            }
+
+            // Pad
+            extendTo(finalSize);
+        }
+
+        public void read() throws Exception {
+            long pos = getPos().getPos();
+            assert pos >= 0;
+            if (pos + HEADER_SIZE >= currentFileSize) {
+                throw blockCorruptedException();
+            }
+
+            CountingInputStream countingInputStream = new CountingInputStream(new RegionInputStream(pos));
+            DataInputStream inputStream = new DataInputStream(countingInputStream);
+
+            BlockPayload payload = getPayload();
+
+            // Read header
+            byte type = inputStream.readByte();
+            if (type != payload.getType()) {
+                throw blockCorruptedException();
+            }
+
+            // Read body
+            payloadSize = inputStream.readInt();
+            if (pos + HEADER_SIZE + TAIL_SIZE + payloadSize > currentFileSize) {
+                throw blockCorruptedException();
+            }
+            payload.read(inputStream);
+
+            // Read and verify count
+            long actualCount = countingInputStream.getCount();
+            long count = inputStream.readInt();
+            if (actualCount != count) {
+                throw blockCorruptedException();
+            }
+        }
+
+        public RuntimeException blockCorruptedException() {
+            return new CorruptedCacheException(String.format("Corrupted %s found in %s.", this,
+                    MappedFileBlockStore.this));
+        }
+    }
+}
@@ -16,15 +16,15 @@
 package org.gradle.cache.internal
 
 import org.gradle.cache.FileAccess
-import org.gradle.cache.internal.btree.BTreePersistentIndexedCache
+import org.gradle.cache.IndexedCacheFile
 import org.gradle.internal.Factory
 import spock.lang.Specification
 
 class MultiProcessSafePersistentIndexedCacheTest extends Specification {
     final FileAccess fileAccess = Mock()
-    final Factory<BTreePersistentIndexedCache<String, String>> factory = Mock()
+    final Factory<IndexedCacheFile<String, String>> factory = Mock()
     final cache = new DefaultMultiProcessSafePersistentIndexedCache<String, String>(factory, fileAccess)
-    final BTreePersistentIndexedCache<String, String> backingCache = Mock()
+    final IndexedCacheFile<String, String> backingCache = Mock()
 
     def "opens cache on first access"() {
         when:
@@ -86,7 +86,7 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
 
         then:
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
-        1 * backingCache.close()
+        1 * backingCache.release() >> false
         0 * _._
     }
 
@@ -99,7 +99,7 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
 
         then:
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
-        1 * backingCache.close()
+        1 * backingCache.release() >> false
         0 * _._
     }
 
@@ -119,7 +119,7 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
 
         then:
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
-        1 * backingCache.close()
+        1 * backingCache.release() >> false
         0 * _._
 
         when:
@@ -129,6 +129,33 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
         0 * _._
     }
 
+    def "reopens released cache on next access"() {
+        given:
+        cacheOpened()
+
+        when:
+        cache.finishWork()
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.release() >> true
+        0 * _._
+
+        when:
+        cache.finishWork()
+        def result = cache.get("value")
+
+        then:
+        result == "result"
+
+        and:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.reopen()
+        1 * fileAccess.readFile(!null) >> { Factory action -> action.create() }
+        1 * backingCache.get("value") >> "result"
+        0 * _._
+    }
+
     def cacheOpened() {
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
         1 * factory.create() >> backingCache
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.appendlog
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class AppendOnlyLogPersistentIndexedCacheTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    def cacheFile = tmpDir.file("cache.log")
+    AppendOnlyLogPersistentIndexedCache<String, String> cache
+    def abandoned = []
+
+    def cleanup() {
+        (abandoned + cache).each {
+            if (it?.open) {
+                it.close()
+            }
+        }
+    }
+
+    def "returns null for unknown entry"() {
+        given:
+        openCache()
+
+        expect:
+        cache.get("unknown") == null
+    }
+
+    def "persists added, updated and removed entries"() {
+        given:
+        openCache()
+        (0..<100).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        (0..<100).step(2) { cache.put("key_$it".toString(), "updated_$it".toString()) }
+        cache.remove("key_5")
+
+        when:
+        reopenCache()
+
+        then:
+        cache.get("key_1") == "value_1"
+        cache.get("key_2") == "updated_2"
+        cache.get("key_5") == null
+    }
+
+    def "compacts log on close when most records are superseded"() {
+        given:
+        openCache()
+        (0..<10).each { round ->
+            (0..<100).each { cache.put("key_$it".toString(), "value_${it}_$round".toString()) }
+        }
+        def lengthBeforeClose = cacheFile.length()
+
+        when:
+        reopenCache()
+
+        then:
+        cacheFile.length() < lengthBeforeClose / 5
+        (0..<100).every { cache.get("key_$it".toString()) == "value_${it}_9".toString() }
+    }
+
+    def "discards incomplete record at tail of log"() {
+        given:
+        openCache()
+        cache.put("committed", "value")
+        reopenCache()
+        cache.put("appended", "value")
+        cache.put("incomplete", "value")
+        truncate(cacheFile.length() - 3)
+
+        when:
+        crashAndOpenCache()
+
+        then:
+        cache.get("committed") == "value"
+        cache.get("appended") == "value"
+        cache.get("incomplete") == null
+
+        when:
+        cache.put("incomplete", "other")
+        reopenCache()
+
+        then:
+        cache.get("incomplete") == "other"
+    }
+
+    def "discards record with bad checksum at tail of log"() {
+        given:
+        openCache()
+        cache.put("committed", "value")
+        reopenCache()
+        cache.put("corrupt", "value")
+        corrupt(cacheFile.length() - 6)
+
+        when:
+        crashAndOpenCache()
+
+        then:
+        cache.get("committed") == "value"
+        cache.get("corrupt") == null
+    }
+
+    def "discards log with unrecognized header"() {
+        given:
+        cacheFile.text = "not a log file at all"
+
+        when:
+        openCache()
+        cache.put("key", "value")
+        reopenCache()
+
+        then:
+        cache.get("key") == "value"
+    }
+
+    def "finishes interrupted compaction"() {
+        given:
+        openCache()
+        cache.put("key", "value")
+        cache.close()
+        cacheFile.renameTo(tmpDir.file("cache.log.compact"))
+
+        when:
+        openCache()
+
+        then:
+        cache.get("key") == "value"
+        !tmpDir.file("cache.log.compact").exists()
+    }
+
+    def "reopens released log with records appended by another process"() {
+        given:
+        openCache()
+        cache.put("first", "value")
+        cache.put("second", "value")
+        cache.release()
+        def other = newCache()
+        other.put("first", "updated")
+        other.remove("second")
+        other.put("third", "value")
+        other.release()
+
+        when:
+        cache.reopen()
+
+        then:
+        cache.get("first") == "updated"
+        cache.get("second") == null
+        cache.get("third") == "value"
+
+        when:
+        cache.put("fourth", "value")
+        cache.release()
+        other.reopen()
+
+        then:
+        other.get("fourth") == "value"
+        other.get("first") == "updated"
+    }
+
+    def "reads whole log again when another process has compacted it"() {
+        given:
+        openCache()
+        cache.put("key_0", "value")
+        cache.release()
+        def other = newCache()
+        (0..<10).each { round ->
+            (0..<100).each { other.put("key_$it".toString(), "value_${it}_$round".toString()) }
+        }
+        def lengthBeforeRelease = cacheFile.length()
+        other.release()
+
+        when:
+        cache.reopen()
+
+        then:
+        cacheFile.length() < lengthBeforeRelease / 5
+        (0..<100).every { cache.get("key_$it".toString()) == "value_${it}_9".toString() }
+    }
+
+    private void openCache() {
+        cache = newCache()
+    }
+
+    private AppendOnlyLogPersistentIndexedCache<String, String> newCache() {
+        def cache = new AppendOnlyLogPersistentIndexedCache<String, String>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER, 100)
+        abandoned << cache
+        cache
+    }
+
+    private void reopenCache() {
+        cache.close()
+        openCache()
+    }
+
+    private void crashAndOpenCache() {
+        abandoned << cache
+        openCache()
+    }
+
+    private void truncate(long length) {
+        def file = new RandomAccessFile(cacheFile, "rw")
+        try {
+            file.setLength(length)
+        } finally {
+            file.close()
+        }
+    }
+
+    private void corrupt(long pos) {
+        def file = new RandomAccessFile(cacheFile, "rw")
+        try {
+            file.seek(pos)
+            def value = file.read()
+            file.seek(pos)
+            file.write(~value)
+        } finally {
+            file.close()
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class MappedFileBlockStoreTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    def cacheFile = tmpDir.file("cache.bin")
+
+    def "persists entries that span multiple mapped regions"() {
+        given:
+        def cache = createCache(new MappedFileBlockStore(cacheFile, 256))
+
+        when:
+        (0..<500).each { cache.put("key_$it".toString(), "value_$it".toString() * 4) }
+        cache.verify()
+        cache.close()
+        cache = createCache(new MappedFileBlockStore(cacheFile, 256))
+
+        then:
+        cacheFile.length() > 256 * 10
+        (0..<500).every { cache.get("key_$it".toString()) == "value_$it".toString() * 4 }
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "persists updates and removals"() {
+        given:
+        def cache = createCache(new MappedFileBlockStore(cacheFile, 512))
+        (0..<100).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+
+        when:
+        (0..<100).step(2) { cache.put("key_$it".toString(), "updated_$it".toString()) }
+        (0..<100).step(5) { cache.remove("key_$it".toString()) }
+        cache.close()
+        cache = createCache(new MappedFileBlockStore(cacheFile, 512))
+
+        then:
+        cache.get("key_0") == null
+        cache.get("key_2") == "updated_2"
+        cache.get("key_3") == "value_3"
+        cache.get("key_15") == null
+        cache.verify()
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "uses the same file format as the file backed store"() {
+        given:
+        def cache = createCache(new FileBackedBlockStore(cacheFile))
+        (0..<100).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        cache.close()
+
+        when:
+        cache = createCache(new MappedFileBlockStore(cacheFile, 256))
+        cache.put("key_100", "value_100")
+        cache.close()
+        cache = createCache(new FileBackedBlockStore(cacheFile))
+
+        then:
+        (0..100).every { cache.get("key_$it".toString()) == "value_$it".toString() }
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "can reset cache"() {
+        given:
+        def cache = createCache(new MappedFileBlockStore(cacheFile, 256))
+        (0..<100).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+
+        when:
+        cache.reset()
+
+        then:
+        cache.get("key_10") == "value_10"
+        cache.verify()
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "can clear the store after reading through mapped regions"() {
+        given:
+        def store = new MappedFileBlockStore(cacheFile, 256)
+        def cache = createCache(store)
+        (0..<100).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        (0..<100).each { assert cache.get("key_$it".toString()) == "value_$it".toString() }
+
+        when:
+        store.clear()
+        cache.reset()
+        cache.put("key_1", "new value")
+
+        then:
+        cache.get("key_1") == "new value"
+        cache.get("key_10") == null
+        cache.verify()
+
+        cleanup:
+        cache?.close()
+    }
+
+    private BTreePersistentIndexedCache<String, String> createCache(BlockStore store) {
+        new BTreePersistentIndexedCache<String, String>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER, (short) 4, 100, store)
+    }
+}
@@ -33,10 +33,12 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.gradle.api.Action;
 import org.gradle.api.UncheckedIOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Locale;
@@ -50,6 +52,7 @@ public class HttpClientHelper implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpClientHelper.class);
     private CloseableHttpClient client;
     private final HttpSettings settings;
+    private final Action<? super HttpClientBuilder> clientConfigurer;
 
     /**
      * Maintains a queue of contexts which are shared between threads when authentication
@@ -61,7 +64,15 @@ public class HttpClientHelper implements Closeable {
     private final ConcurrentLinkedQueue<HttpContext> sharedContext;
 
     public HttpClientHelper(HttpSettings settings) {
+        this(settings, null);
+    }
+
+    /**
+     * @param clientConfigurer when not null, configures the client after the given settings have been applied, for example to tune its connection pool.
+     */
+    public HttpClientHelper(HttpSettings settings, @Nullable Action<? super HttpClientBuilder> clientConfigurer) {
         this.settings = settings;
+        this.clientConfigurer = clientConfigurer;
         if (!settings.getAuthenticationSettings().isEmpty()) {
             sharedContext = new ConcurrentLinkedQueue<HttpContext>();
         } else {
@@ -168,6 +179,9 @@ public class HttpClientHelper implements Closeable {
             HttpClientBuilder builder = HttpClientBuilder.create();
             builder.setRedirectStrategy(new AlwaysRedirectRedirectStrategy());
             new HttpClientConfigurer(settings).configure(builder);
+            if (clientConfigurer != null) {
+                clientConfigurer.execute(builder);
+            }
             this.client = builder.build();
         }
         return client;